@@ -0,0 +1,52 @@
+#!/usr/bin/env bash
+# 生成合成地址數據並對本機啟動的應用進行壓測
+# 用法:
+#   scripts/load-test.sh generate <輸出檔案.csv|.xlsx> [行數] [區域數] [種子] [Zipf指數]
+#   scripts/load-test.sh serve <數據檔案> [其他Spring參數...]
+#   scripts/load-test.sh drive [url=http://localhost:8080] [concurrency=16] [duration=30] [warmup=5] [mix=classifier:99,evaluate:1]
+#   scripts/load-test.sh drive-binary [host=localhost] [port=9090] [connections=4] [pipeline=8] [batch=1] [duration=30] [warmup=5]
+# 例如:
+#   scripts/load-test.sh generate /tmp/address-1m.csv 1000000 5000
+#   scripts/load-test.sh serve /tmp/address-1m.csv
+#   scripts/load-test.sh drive concurrency=32 duration=60
+#   scripts/load-test.sh serve /tmp/address-1m.csv --classifier.binary.enabled=true
+#   scripts/load-test.sh drive-binary connections=4 pipeline=16 batch=8
+set -euo pipefail
+
+JAR="$(ls target/kmeans-*.jar 2>/dev/null | head -n 1)"
+if [ -z "$JAR" ]; then
+    echo "未找到 target/kmeans-*.jar，請先執行 mvn clean package" >&2
+    exit 1
+fi
+
+run_tool() {
+    local main_class="$1"
+    shift
+    java -cp "$JAR" -Dloader.main="$main_class" org.springframework.boot.loader.launch.PropertiesLauncher "$@"
+}
+
+COMMAND="${1:-}"
+shift || true
+case "$COMMAND" in
+    generate)
+        run_tool com.yc.kmeans.tools.SyntheticAddressGenerator "$@"
+        ;;
+    serve)
+        DATA_FILE="$1"
+        shift
+        java -jar "$JAR" \
+            --classifier.xlsx-file-path="$DATA_FILE" \
+            --classifier.model-path="$DATA_FILE.ser" \
+            "$@"
+        ;;
+    drive)
+        run_tool com.yc.kmeans.tools.LoadDriver "$@"
+        ;;
+    drive-binary)
+        run_tool com.yc.kmeans.tools.BinaryLoadDriver "$@"
+        ;;
+    *)
+        sed -n '2,13p' "$0" >&2
+        exit 1
+        ;;
+esac
@@ -0,0 +1,46 @@
+#!/usr/bin/env bash
+# 在本機啟動多個分片節點及一個路由節點，用於測試空間分片
+# 用法: scripts/local-shards.sh <Excel檔案路徑> <區域前綴1> [區域前綴2 ...]
+# 例如: scripts/local-shards.sh /data/Address.xlsx HK KLN NT
+# 分片節點端口從 8081 開始，路由節點使用 8080；按 Ctrl+C 停止全部節點
+set -euo pipefail
+
+if [ "$#" -lt 2 ]; then
+    echo "用法: $0 <Excel檔案路徑> <區域前綴1> [區域前綴2 ...]" >&2
+    exit 1
+fi
+
+XLSX_FILE="$1"
+shift
+JAR="$(ls target/kmeans-*.jar 2>/dev/null | head -n 1)"
+if [ -z "$JAR" ]; then
+    echo "未找到 target/kmeans-*.jar，請先執行 mvn clean package" >&2
+    exit 1
+fi
+
+PIDS=()
+trap 'kill "${PIDS[@]}" 2>/dev/null' EXIT
+
+PORT=8081
+SHARD_URLS=""
+for PREFIX in "$@"; do
+    java -jar "$JAR" \
+        --server.port="$PORT" \
+        --classifier.xlsx-file-path="$XLSX_FILE" \
+        --classifier.model-path="shard-$PREFIX.ser" \
+        --classifier.shard.zone-prefixes="$PREFIX" \
+        > "shard-$PREFIX.log" 2>&1 &
+    PIDS+=("$!")
+    SHARD_URLS="${SHARD_URLS:+$SHARD_URLS,}http://localhost:$PORT"
+    echo "分片 $PREFIX 已啟動於端口 $PORT (日誌: shard-$PREFIX.log)"
+    PORT=$((PORT + 1))
+done
+
+java -jar "$JAR" \
+    --server.port=8080 \
+    --classifier.router.shard-urls="$SHARD_URLS" \
+    > router.log 2>&1 &
+PIDS+=("$!")
+echo "路由節點已啟動於端口 8080，分片: $SHARD_URLS (日誌: router.log)"
+
+wait
@@ -1,196 +1,903 @@
 package com.yc.kmeans.controller;
 
 import com.yc.kmeans.kmeans.EvaluationResult;
-import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import com.yc.kmeans.kmeans.HyperparameterTuner;
+import com.yc.kmeans.kmeans.KMeansEngine;
+import com.yc.kmeans.kmeans.KMeansModel;
 import com.yc.kmeans.kmeans.LabeledPoint;
-import jakarta.annotation.PostConstruct;
+import com.yc.kmeans.kmeans.RangeMatch;
+import com.yc.kmeans.kmeans.SequentialEvaluationResult;
+import com.yc.kmeans.kmeans.TrainingSetReducer;
+import com.yc.kmeans.kmeans.TuningResult;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import com.yc.kmeans.kmeans.WeightedKNNUtils;
+import com.yc.kmeans.kmeans.Neighbour;
+import com.yc.kmeans.service.BinaryClassifierServer;
+import com.yc.kmeans.service.Bulkheads;
+import com.yc.kmeans.service.ClassifierService;
+import com.yc.kmeans.service.ClusteringJobService;
+import com.yc.kmeans.service.EvaluationJobService;
+import com.yc.kmeans.service.FlightRecorderService;
+import com.yc.kmeans.service.ModelParameterStore;
+import com.yc.kmeans.service.ShadowEvaluator;
+import com.yc.kmeans.service.ModelRegistry;
+import com.yc.kmeans.service.PredictionBatcher;
+import com.yc.kmeans.service.ShardRouter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.LivenessState;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import static com.yc.kmeans.utils.ReadExcel.readExcelData;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 @RestController
 @Slf4j
+@RequiredArgsConstructor
 public class ClassifierController {
-    @Value("${classifier.xlsx-file-path:C:\\Users\\yanchen\\workspace\\ars\\Address-20250220103453.xlsx}")
-    private String xlsxFilePath;
-    
-    @Value("${classifier.model-path:weighted_knn_classifier.ser}")
-    private String modelFilePath;
-    
-    @Value("${classifier.need-train:true}")
-    private boolean isNeedTrain;
-    
-    @Value("${classifier.k:10}")
-    private int k;
-    private WeightedKNNClassifier classifier;
+    private static final int MAX_RANGE_PAGE_SIZE = 10_000;
+
+    private final ClassifierService classifierService;
+    private final ModelRegistry modelRegistry;
+    private final ShardRouter shardRouter;
+    private final PredictionBatcher predictionBatcher;
+    private final BinaryClassifierServer binaryClassifierServer;
+    private final ModelParameterStore modelParameterStore;
+    private final EvaluationJobService evaluationJobService;
+    private final Bulkheads bulkheads;
+    private final ShadowEvaluator shadowEvaluator;
+    private final ClusteringJobService clusteringJobService;
+    private final FlightRecorderService flightRecorderService;
 
     /**
-     * start.
+     * 同步評估：在評估艙壁中運行，完成後返回結果，與異步任務共用並發限制，等待期間不佔用Web線程
+     *
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @return 評估指標
      */
-    @PostConstruct
-    public void init() {
-        if (isNeedTrain) {
-            createAndTrainNewModel();
-        } else {
-            File modelFile = new File(modelFilePath);
-            if (modelFile.exists()) {
-                try {
-                    classifier = WeightedKNNClassifier.loadModel(modelFilePath);
-                    log.info("成功載入已訓練的加權KNN分類器");
-                } catch (Exception e) {
-                    log.warn("載入模型失敗，將創建新模型: {}", e.getMessage());
-                    createAndTrainNewModel();
-                }
-            } else {
-                log.info("未找到已訓練的模型，將創建新模型");
-                createAndTrainNewModel();
-            }
-        }
+    @GetMapping("/evaluate")
+    public CompletableFuture<Map<String, Object>> evaluateModel(@RequestParam(defaultValue = "3") int folds,
+                                                                @RequestParam(defaultValue = "100") int maxTestSamplesPerFold) {
+        return evaluationJobService.submit(null, folds, maxTestSamplesPerFold).getCompletion().thenApply(result -> {
+            Map<String, Object> response = new HashMap<>();
+            response.put("accuracy", result.getAccuracy());
+            response.put("precision", result.getPrecision());
+            response.put("recall", result.getRecall());
+            response.put("f1Score", result.getF1Score());
+            response.put("r2Score", result.getR2Score());
+//            response.put("confusionMatrix", result.getConfusionMatrix());
+            response.put("classCounts", result.getClassCounts());
+
+            return response;
+        });
     }
 
     /**
-     * create and train new model.
+     * 序貫評估：不需要指定測試樣本數，分批預測直到準確率與宏F1的95%置信區間寬度不超過目標或時間預算用完
+     *
+     * @param folds 交叉驗證的折數
+     * @param targetWidth 置信區間的目標寬度（上界減下界）
+     * @param timeBudgetSeconds 時間預算（秒），0表示不限
+     * @param batchSize 每批並行預測的測試點數
+     * @return 評估指標、置信區間及與完整評估相比使用的樣本數
      */
-    private void createAndTrainNewModel() {
-        List<LabeledPoint> trainingData = new ArrayList<>();
-        try {
-            trainingData = readExcelData(xlsxFilePath);
-            // show the first 5 data points
-            int count = Math.min(5, trainingData.size());
-            log.info("成功讀取 {} 個資料點", trainingData.size());
-            log.info("前 {} 個資料點示例：", count);
-            for (int i = 0; i < count; i++) {
-                log.info(trainingData.get(i).toString());
-            }
+    @GetMapping("/evaluate/sequential")
+    public CompletableFuture<Map<String, Object>> evaluateSequentially(@RequestParam(defaultValue = "5") int folds,
+                                                                       @RequestParam(defaultValue = "0.02") double targetWidth,
+                                                                       @RequestParam(defaultValue = "60") long timeBudgetSeconds,
+                                                                       @RequestParam(defaultValue = "256") int batchSize) {
+        return evaluationJobService.submitSequential(null, folds, targetWidth, timeBudgetSeconds * 1000, batchSize)
+                .getCompletion().thenApply(result -> {
+                    Map<String, Object> response = new LinkedHashMap<>();
+                    response.put("accuracy", result.getAccuracy());
+                    response.put("precision", result.getPrecision());
+                    response.put("recall", result.getRecall());
+                    response.put("f1Score", result.getF1Score());
+                    response.putAll(EvaluationJobService.sequentialMetrics((SequentialEvaluationResult) result));
+                    return response;
+                });
+    }
 
-        } catch (IOException e) {
-            log.info("讀取Excel檔案時發生錯誤: {}", e.getMessage());
-            e.printStackTrace();
-        }
+    /**
+     * 提交異步序貫評估任務，通過 /evaluate/jobs/{id} 查看進度與結果
+     *
+     * @param folds 交叉驗證的折數
+     * @param targetWidth 置信區間的目標寬度
+     * @param timeBudgetSeconds 時間預算（秒），0表示不限
+     * @param batchSize 每批並行預測的測試點數
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
+     * @return 任務狀態，包含任務ID
+     */
+    @PostMapping("/evaluate/jobs/sequential")
+    public ResponseEntity<Map<String, Object>> submitSequentialEvaluation(@RequestParam(defaultValue = "5") int folds,
+                                                                          @RequestParam(defaultValue = "0.02") double targetWidth,
+                                                                          @RequestParam(defaultValue = "60") long timeBudgetSeconds,
+                                                                          @RequestParam(defaultValue = "256") int batchSize,
+                                                                          @RequestParam(required = false) String model) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(evaluationJobService
+                .submitSequential(model, folds, targetWidth, timeBudgetSeconds * 1000, batchSize).toStatus());
+    }
 
-        // 如果未配置 k 值，則定義為訓練數據的開平方根
-        if (k <= 0) {
-            k = (int) Math.sqrt(trainingData.size());
-        }
-        log.info("k值: {}", k);
-        classifier = new WeightedKNNClassifier(k);
-        // 啟用類別權重，對樣本少的類別給予更高權重
-        classifier.setUseClassWeights(true);
-        // 設置類別權重上限，避免單樣本類別權重過高
-        classifier.setMaxClassWeight(50.0);
-        // 增大距離權重因子，強調距離對分類的影響(距離近的樣本權重有極大提升)
-        classifier.setDistanceWeightFactor(2.0);
-
-        // train
-        classifier.train(trainingData);
-
-        // save model
-        try {
-            classifier.saveModel(modelFilePath);
-            log.info("成功訓練並保存新的加權KNN分類器");
-        } catch (IOException e) {
-            log.warn("保存模型失敗: {}", e.getMessage());
-        }
+    /**
+     * 提交異步評估任務
+     *
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
+     * @return 任務狀態，包含任務ID
+     */
+    @PostMapping("/evaluate/jobs")
+    public ResponseEntity<Map<String, Object>> submitEvaluation(@RequestParam(defaultValue = "3") int folds,
+                                                                @RequestParam(defaultValue = "100") int maxTestSamplesPerFold,
+                                                                @RequestParam(required = false) String model) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(evaluationJobService.submit(model, folds, maxTestSamplesPerFold).toStatus());
     }
 
-    @GetMapping("/evaluate")
-    public Map<String, Object> evaluateModel(@RequestParam(defaultValue = "3") int folds,
-                                             @RequestParam(defaultValue = "100") int maxTestSamplesPerFold) {
-        EvaluationResult result = classifier.evaluateModel(folds, maxTestSamplesPerFold);
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("accuracy", result.getAccuracy());
-        response.put("precision", result.getPrecision());
-        response.put("recall", result.getRecall());
-        response.put("f1Score", result.getF1Score());
-        response.put("r2Score", result.getR2Score());
-//        response.put("confusionMatrix", result.getConfusionMatrix());
-        response.put("classCounts", result.getClassCounts());
+    /**
+     * 所有保留的評估任務
+     *
+     * @return 任務狀態列表
+     */
+    @GetMapping("/evaluate/jobs")
+    public List<Map<String, Object>> getEvaluations() {
+        return evaluationJobService.getStatus();
+    }
+
+    /**
+     * 評估任務的進度（已完成折數、已處理樣本數、預計剩餘時間）及完成後的結果
+     *
+     * @param id 任務ID
+     * @return 任務狀態
+     */
+    @GetMapping("/evaluate/jobs/{id}")
+    public Map<String, Object> getEvaluation(@PathVariable String id) {
+        return evaluationJobService.getJob(id).toStatus();
+    }
+
+    /**
+     * 取消評估任務
+     *
+     * @param id 任務ID
+     * @return 任務狀態
+     */
+    @DeleteMapping("/evaluate/jobs/{id}")
+    public Map<String, Object> cancelEvaluation(@PathVariable String id) {
+        return evaluationJobService.cancel(id).toStatus();
+    }
+
+    /**
+     * 提交k-means聚類任務，例如按地址分布提出新的配送區域
+     *
+     * @param clusters 聚類數
+     * @param mode 聚類模式：full（Hamerly加速的Lloyd迭代）或 mini-batch（小批量，適合千萬級的點）
+     * @param maxIterations 最大迭代次數
+     * @param tolerance 質心最大移動距離不超過此值時視為收斂
+     * @param batchSize 小批量模式每次迭代抽取的點數
+     * @param seed 隨機種子，相同種子與數據得到相同結果
+     * @param source 數據來源：model（模型的訓練數據）或 file（重新讀取數據文件）
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
+     * @param label 只聚類該區域的點，例如把一個過大的區域拆分為多個
+     * @return 任務狀態，包含任務ID
+     */
+    @PostMapping("/clustering/jobs")
+    public ResponseEntity<Map<String, Object>> submitClustering(@RequestParam int clusters,
+                                                                @RequestParam(defaultValue = "full") String mode,
+                                                                @RequestParam(defaultValue = "100") int maxIterations,
+                                                                @RequestParam(defaultValue = "1e-6") double tolerance,
+                                                                @RequestParam(defaultValue = "1024") int batchSize,
+                                                                @RequestParam(defaultValue = "42") long seed,
+                                                                @RequestParam(defaultValue = "model") String source,
+                                                                @RequestParam(required = false) String model,
+                                                                @RequestParam(required = false) String label) {
+        ClusteringJobService.ClusteringRequest request = new ClusteringJobService.ClusteringRequest(clusters,
+                parseOption("mode", mode, KMeansEngine.Mode::parse), maxIterations, tolerance, batchSize, seed, source,
+                model, label);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(clusteringJobService.submit(request).toStatus());
+    }
+
+    /**
+     * 所有保留的聚類任務
+     *
+     * @return 任務狀態列表
+     */
+    @GetMapping("/clustering/jobs")
+    public List<Map<String, Object>> getClusterings() {
+        return clusteringJobService.getStatus();
+    }
+
+    /**
+     * 聚類任務的進度（迭代次數、重新分配的點數、質心最大移動距離、跳過距離計算的比例）及完成後的模型統計
+     *
+     * @param id 任務ID
+     * @return 任務狀態
+     */
+    @GetMapping("/clustering/jobs/{id}")
+    public Map<String, Object> getClustering(@PathVariable String id) {
+        return clusteringJobService.getJob(id).toStatus();
+    }
+
+    /**
+     * 取消聚類任務
+     *
+     * @param id 任務ID
+     * @return 任務狀態
+     */
+    @DeleteMapping("/clustering/jobs/{id}")
+    public Map<String, Object> cancelClustering(@PathVariable String id) {
+        return clusteringJobService.cancel(id).toStatus();
+    }
 
+    /**
+     * 聚類結果的質心；任務已移出保留列表或服務重啟後從保存的模型文件載入
+     *
+     * @param id 任務ID
+     * @return 模型統計與按權重排列的質心
+     */
+    @GetMapping("/clustering/jobs/{id}/centroids")
+    public Map<String, Object> getClusteringCentroids(@PathVariable String id) {
+        KMeansModel kMeansModel = clusteringJobService.getModel(id);
+        Map<String, Object> response = new LinkedHashMap<>(kMeansModel.getStats());
+        response.put("centroids", ClusteringJobService.centroids(kMeansModel));
         return response;
     }
 
+    /**
+     * 下載二進制格式的聚類模型，可用KMeansModel.load載入
+     *
+     * @param id 任務ID
+     * @return 模型文件內容
+     */
+    @GetMapping(value = "/clustering/jobs/{id}/model", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> downloadClusteringModel(@PathVariable String id) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        clusteringJobService.getModel(id).writeTo(out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + id + ".kmeans\"")
+                .body(out.toByteArray());
+    }
 
     /**
      * 分類API端點 - 根據座標值預測類別
      *
      * @param latitude  第一個座標值
      * @param longitude 第二個座標值
-     * @return 預測的類別
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
+     * @return 預測的類別；在分類艙壁或微批處理線程中異步完成，未駐留的模型在管理艙壁中載入；
+     *         默認模型的結果按採樣率複製給影子候選模型
      */
     @GetMapping("/classifier")
-    public String classify(@RequestParam double latitude, @RequestParam double longitude) {
-        log.info("收到分類請求: latitude={}, longitude={}", latitude, longitude);
-        return classifier.predict(latitude, longitude);
+    public CompletableFuture<String> classify(@RequestParam double latitude, @RequestParam double longitude,
+                                              @RequestParam(required = false) String model) {
+        log.info("收到分類請求: latitude={}, longitude={}, model={}", latitude, longitude, model);
+        if (model == null && shardRouter.isEnabled()) {
+            return bulkheads.getClassification().submit(() -> shardRouter.predict(latitude, longitude));
+        }
+        CompletableFuture<WeightedKNNClassifier> resolved;
+        WeightedKNNClassifier resident = model == null || model.isBlank()
+                ? classifierService.getClassifier() : modelRegistry.getResidentModel(model);
+        if (resident != null) {
+            resolved = CompletableFuture.completedFuture(resident);
+        } else {
+            // 載入模型可能需要數秒，不能佔用分類線程
+            resolved = bulkheads.getAdmin().submit(() -> modelRegistry.getModel(model));
+        }
+        return resolved.thenCompose(classifier -> {
+            long started = System.nanoTime();
+            CompletableFuture<String> label = predict(classifier, latitude, longitude, model);
+            if (model == null && shadowEvaluator.isEnabled()) {
+                // 主模型記錄請求路徑上實際的服務耗時，包括分類艙壁或微批處理中的排隊
+                label.thenAccept(served -> shadowEvaluator.offer(latitude, longitude, served,
+                        System.nanoTime() - started));
+            }
+            return label;
+        });
+    }
+
+    private CompletableFuture<String> predict(WeightedKNNClassifier classifier, double latitude, double longitude,
+                                              String model) {
+        if (classifierService.isZonePolygonsEnabled()) {
+            String zone = classifier.getZonePolygonIndex().locate(latitude, longitude);
+            if (zone != null) {
+                return CompletableFuture.completedFuture(zone);
+            }
+        }
+        if (model == null && predictionBatcher.isEnabled()) {
+            return predictionBatcher.submit(latitude, longitude);
+        }
+        return bulkheads.getClassification().submit(() -> classifier.predict(latitude, longitude));
+    }
+
+    /**
+     * 影子模型評估結果
+     *
+     * @return 候選模型與主模型的延遲分位數、不一致率及不一致矩陣
+     */
+    @GetMapping("/classifier/shadow")
+    public Map<String, Object> getShadowStatus() {
+        return shadowEvaluator.getStatus();
+    }
+
+    /**
+     * 開始影子模型評估，清空之前的統計；候選模型在管理艙壁中載入
+     *
+     * @param model 候選模型標識（name 或 name:version）
+     * @param sampleRate 複製給候選模型的默認模型請求比例
+     * @return 評估狀態
+     */
+    @PostMapping("/classifier/shadow")
+    public CompletableFuture<Map<String, Object>> startShadow(@RequestParam String model,
+                                                              @RequestParam(defaultValue = "0.01") double sampleRate) {
+        return bulkheads.getAdmin().submit(() -> shadowEvaluator.start(model, sampleRate));
+    }
+
+    /**
+     * 停止影子模型評估
+     *
+     * @return 停止前的評估結果
+     */
+    @DeleteMapping("/classifier/shadow")
+    public Map<String, Object> stopShadow() {
+        return shadowEvaluator.stop();
+    }
+
+    /**
+     * JFR錄製狀態
+     *
+     * @return 本服務的持續錄製設置及JVM中所有錄製
+     */
+    @GetMapping("/classifier/jfr")
+    public Map<String, Object> getFlightRecorderStatus() {
+        return flightRecorderService.getStatus();
+    }
+
+    /**
+     * 導出當前保留的JFR錄製數據，用 jfr print --events com.yc.kmeans.* 或 JDK Mission Control 離線分析
+     *
+     * @return 導出的文件路徑與大小
+     */
+    @PostMapping("/classifier/jfr/dump")
+    public CompletableFuture<Map<String, Object>> dumpFlightRecording() {
+        return bulkheads.getAdmin().submit(flightRecorderService::dump);
+    }
+
+    /**
+     * 各流量類別的艙壁統計
+     *
+     * @return 分類、評估與管理線程池的隊列長度、拒絕次數及排隊與執行延遲
+     */
+    @GetMapping("/classifier/bulkheads")
+    public Map<String, Object> getBulkheadStatus() {
+        return bulkheads.getStatus();
+    }
+
+    /**
+     * 微批處理統計
+     *
+     * @return 批大小分佈與排隊延遲
+     */
+    @GetMapping("/classifier/batching")
+    public Map<String, Object> getBatchingStatus() {
+        return predictionBatcher.getStatus();
+    }
+
+    /**
+     * 二進制分類協議統計
+     *
+     * @return 監聽端口、連接數、處理的幀數與點數
+     */
+    @GetMapping("/classifier/binary")
+    public Map<String, Object> getBinaryStatus() {
+        return binaryClassifierServer.getStatus();
+    }
+
+    /**
+     * 導出每個區域的邊界多邊形（凸包）
+     *
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
+     * @return GeoJSON FeatureCollection
+     */
+    @GetMapping(value = "/classifier/zones", produces = "application/geo+json")
+    public Map<String, Object> getZonePolygons(@RequestParam(required = false) String model) {
+        return resolveClassifier(model).getZonePolygonIndex().toGeoJson();
     }
 
     /**
      * 用於檢查模型狀態的端點
      *
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
      * @return 模型信息
      */
     @GetMapping("/classifier/info")
-    public Map<String, Object> getModelInfo() {
+    public Map<String, Object> getModelInfo(@RequestParam(required = false) String model) {
+        WeightedKNNClassifier classifier = resolveClassifier(model);
         Map<String, Object> info = new HashMap<>();
         info.put("isTrained", classifier.isTrained());
         info.put("k", classifier.getK());
         info.put("trainingDataSize", classifier.getTrainingDataSize());
+        info.put("sampleCount", classifier.getSampleCount());
         info.put("useClassWeights", classifier.isUseClassWeights());
         info.put("maxClassWeight", classifier.getMaxClassWeight());
         info.put("distanceWeightFactor", classifier.getDistanceWeightFactor());
+        info.put("quantizedStorage", classifier.isQuantizedStorage());
+        info.put("coordinateStoreBytes", classifier.getCoordinateStoreBytes());
+        info.put("neighbourEngine", classifier.getNeighbourEngine());
+        info.put("neighbourSearch", classifier.getNeighbourSearchStats());
+        info.put("engineSelection", classifier.getEngineSelection());
         return info;
     }
     
     /**
-     * 調整分類器參數
+     * 矩形範圍查詢：返回外接矩形內的地址點，按空間索引順序分頁
+     *
+     * @param minLatitude 最小緯度
+     * @param minLongitude 最小經度
+     * @param maxLatitude 最大緯度
+     * @param maxLongitude 最大經度
+     * @param label 只返回該區域的點，省略時不過濾
+     * @param offset 跳過的匹配數
+     * @param limit 每頁最多返回的匹配數，上限為10000
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
+     * @return 當前頁的點及是否還有下一頁
+     */
+    @GetMapping("/classifier/range/box")
+    public Map<String, Object> findWithinBox(@RequestParam double minLatitude, @RequestParam double minLongitude,
+                                             @RequestParam double maxLatitude, @RequestParam double maxLongitude,
+                                             @RequestParam(required = false) String label,
+                                             @RequestParam(defaultValue = "0") int offset,
+                                             @RequestParam(defaultValue = "100") int limit,
+                                             @RequestParam(required = false) String model) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_RANGE_PAGE_SIZE));
+        List<RangeMatch> matches = resolveClassifier(model).findWithinBox(new double[]{minLatitude, minLongitude},
+                new double[]{maxLatitude, maxLongitude}, label, Math.max(0, offset), pageSize + 1);
+        return rangePage(matches, Math.max(0, offset), pageSize);
+    }
+
+    /**
+     * 半徑範圍查詢：返回距離中心不超過radius的地址點，按距離排序後分頁
+     *
+     * @param latitude 中心緯度
+     * @param longitude 中心經度
+     * @param radius 半徑，與座標使用相同的單位（度）
+     * @param label 只返回該區域的點，省略時不過濾
+     * @param offset 跳過的匹配數
+     * @param limit 每頁最多返回的匹配數，上限為10000
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
+     * @return 當前頁的點及距離，以及是否還有下一頁
+     */
+    @GetMapping("/classifier/range/radius")
+    public Map<String, Object> findWithinRadius(@RequestParam double latitude, @RequestParam double longitude,
+                                                @RequestParam double radius,
+                                                @RequestParam(required = false) String label,
+                                                @RequestParam(defaultValue = "0") int offset,
+                                                @RequestParam(defaultValue = "100") int limit,
+                                                @RequestParam(required = false) String model) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_RANGE_PAGE_SIZE));
+        List<RangeMatch> matches = resolveClassifier(model).findWithinRadius(new double[]{latitude, longitude},
+                radius, label, Math.max(0, offset), pageSize + 1);
+        return rangePage(matches, Math.max(0, offset), pageSize);
+    }
+
+    /**
+     * 在提交任務前解析枚舉類參數，無法識別的取值返回400而不是在任務中失敗
+     */
+    private static <T> T parseOption(String name, String value, Function<String, T> parser) {
+        try {
+            return parser.apply(value);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "無效的" + name + ": " + value);
+        }
+    }
+
+    /**
+     * 多查詢一個匹配以判斷是否還有下一頁
+     */
+    private static Map<String, Object> rangePage(List<RangeMatch> matches, int offset, int pageSize) {
+        List<Map<String, Object>> points = new ArrayList<>(Math.min(matches.size(), pageSize));
+        for (RangeMatch match : matches.subList(0, Math.min(matches.size(), pageSize))) {
+            LabeledPoint point = match.point();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("latitude", point.getFeatures()[0]);
+            item.put("longitude", point.getFeatures()[1]);
+            item.put("label", point.getLabel());
+            item.put("multiplicity", point.getMultiplicity());
+            if (!Double.isNaN(match.distance())) {
+                item.put("distance", match.distance());
+            }
+            points.add(item);
+        }
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("offset", offset);
+        page.put("limit", pageSize);
+        page.put("count", points.size());
+        page.put("hasMore", matches.size() > pageSize);
+        page.put("points", points);
+        return page;
+    }
+
+    /**
+     * 內存佔用明細，直接根據模型結構估算，可頻繁採集
+     *
+     * @param model 模型標識（name 或 name:version），省略時使用默認模型
+     * @return 各結構的估算字節數、索引統計、訓練前後的堆內存及當前JVM堆內存
+     */
+    @GetMapping("/classifier/memory")
+    public Map<String, Object> getMemoryFootprint(@RequestParam(required = false) String model) {
+        Map<String, Object> memory = new LinkedHashMap<>(resolveClassifier(model).getMemoryFootprint());
+        Runtime runtime = Runtime.getRuntime();
+        Map<String, Object> jvmHeap = new LinkedHashMap<>();
+        jvmHeap.put("used", runtime.totalMemory() - runtime.freeMemory());
+        jvmHeap.put("committed", runtime.totalMemory());
+        jvmHeap.put("max", runtime.maxMemory());
+        memory.put("jvmHeap", jvmHeap);
+        return memory;
+    }
+
+    /**
+     * 調整分類器參數，替換方式見{@link ClassifierService#adjust}
      * 
      * @param useClassWeights 是否使用類別權重
      * @param maxClassWeight 類別權重上限
      * @param distanceWeightFactor 距離權重因子
+     * @param quantizedStorage 是否使用量化座標存儲
+     * @param neighbourEngine 最近鄰搜索引擎：brute-force、grid 或 prototype，無法識別時返回400
      * @return 更新後的模型信息
      */
     @GetMapping("/classifier/adjust")
-    public Map<String, Object> adjustClassifier(
+    public CompletableFuture<Map<String, Object>> adjustClassifier(
             @RequestParam(required = false) Boolean useClassWeights,
             @RequestParam(required = false) Double maxClassWeight,
-            @RequestParam(required = false) Double distanceWeightFactor) {
-        
-        if (useClassWeights != null) {
-            classifier.setUseClassWeights(useClassWeights);
-            log.info("已設置類別權重使用狀態: {}", useClassWeights);
-        }
-        
-        if (maxClassWeight != null && maxClassWeight > 0) {
-            classifier.setMaxClassWeight(maxClassWeight);
-            log.info("已設置類別權重上限: {}", maxClassWeight);
-        }
-        
-        if (distanceWeightFactor != null && distanceWeightFactor > 0) {
-            classifier.setDistanceWeightFactor(distanceWeightFactor);
-            log.info("已設置距離權重因子: {}", distanceWeightFactor);
+            @RequestParam(required = false) Double distanceWeightFactor,
+            @RequestParam(required = false) Boolean quantizedStorage,
+            @RequestParam(required = false) String neighbourEngine) {
+        WeightedKNNClassifier.NeighbourEngine engine = neighbourEngine == null ? null
+                : parseOption("neighbourEngine", neighbourEngine, WeightedKNNClassifier.NeighbourEngine::parse);
+        return bulkheads.getAdmin().submit(() -> {
+            // 沒有參數變化時不複製模型
+            if (useClassWeights == null && maxClassWeight == null && distanceWeightFactor == null
+                    && quantizedStorage == null && engine == null) {
+                return getModelInfo(null);
+            }
+
+            classifierService.adjust(classifier -> {
+                if (useClassWeights != null) {
+                    classifier.setUseClassWeights(useClassWeights);
+                    log.info("已設置類別權重使用狀態: {}", useClassWeights);
+                }
+
+                if (maxClassWeight != null && maxClassWeight > 0) {
+                    classifier.setMaxClassWeight(maxClassWeight);
+                    log.info("已設置類別權重上限: {}", maxClassWeight);
+                }
+
+                if (distanceWeightFactor != null && distanceWeightFactor > 0) {
+                    classifier.setDistanceWeightFactor(distanceWeightFactor);
+                    log.info("已設置距離權重因子: {}", distanceWeightFactor);
+                }
+
+                if (quantizedStorage != null) {
+                    classifier.setQuantizedStorage(quantizedStorage);
+                    log.info("已設置量化座標存儲: {}", quantizedStorage);
+                }
+
+                if (engine != null) {
+                    classifier.setNeighbourEngine(engine);
+                    log.info("已設置最近鄰搜索引擎: {}", engine);
+                }
+            });
+            // 只在後台保存參數文件，訓練數據不變無需重新序列化
+            log.info("已替換為調整後的模型並提交參數");
+
+            return getModelInfo(null);
+        });
+    }
+
+    /**
+     * 參數文件狀態
+     *
+     * @return 參數文件路徑、已寫入的版本以及提交與寫入次數
+     */
+    @GetMapping("/classifier/parameters")
+    public Map<String, Object> getParametersStatus() {
+        Map<String, Object> status = new HashMap<>(modelParameterStore.getStatus());
+        status.put("current", classifierService.getClassifier().getParameters().toProperties());
+        return status;
+    }
+
+    /**
+     * 一次性超參數搜索
+     * 每個測試點只搜索一次k_max最近鄰，再從緩存中為所有參數組合計分，不會修改當前模型
+     *
+     * @param kMax 最大k值
+     * @param distanceWeightFactors 候選距離權重因子
+     * @param maxClassWeights 候選類別權重上限
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @param top 返回排行榜的前幾名
+     * @param apply 是否以原子替換的方式應用最佳參數並保存模型；計算期間默認模型被替換時返回409
+     * @return 排行榜及搜索信息
+     * @throws ResponseStatusException top為負數時返回400
+     */
+    @GetMapping("/classifier/tune")
+    public CompletableFuture<Map<String, Object>> tuneClassifier(
+            @RequestParam(defaultValue = "20") int kMax,
+            @RequestParam(defaultValue = "1.0,2.0,3.0,4.0,5.0") List<Double> distanceWeightFactors,
+            @RequestParam(defaultValue = "10.0,20.0,30.0,50.0,100.0") List<Double> maxClassWeights,
+            @RequestParam(defaultValue = "3") int folds,
+            @RequestParam(defaultValue = "100") int maxTestSamplesPerFold,
+            @RequestParam(defaultValue = "10") int top,
+            @RequestParam(defaultValue = "false") boolean apply) {
+        if (top < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "top不能為負數: " + top);
         }
-        
-        // 如果參數有變化，嘗試保存模型
-        if (useClassWeights != null || maxClassWeight != null || distanceWeightFactor != null) {
-            try {
-                classifier.saveModel(modelFilePath);
-                log.info("已保存更新後的模型參數");
-            } catch (IOException e) {
-                log.warn("保存模型失敗: {}", e.getMessage());
+        return bulkheads.getAdmin().submit(() -> {
+            WeightedKNNClassifier current = classifierService.getClassifier();
+            long start = System.currentTimeMillis();
+            List<TuningResult> leaderboard = HyperparameterTuner.tune(current, kMax, distanceWeightFactors,
+                    maxClassWeights, folds, maxTestSamplesPerFold);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("evaluatedCombinations", leaderboard.size());
+            response.put("elapsedMs", System.currentTimeMillis() - start);
+            response.put("leaderboard", HyperparameterTuner.top(leaderboard, top));
+
+            if (apply && !leaderboard.isEmpty()) {
+                TuningResult best = leaderboard.get(0);
+                classifierService.replace(current, candidate -> {
+                    candidate.setK(best.getK());
+                    candidate.setDistanceWeightFactor(best.getDistanceWeightFactor());
+                    candidate.setUseClassWeights(best.isUseClassWeights());
+                    candidate.setMaxClassWeight(best.getMaxClassWeight());
+                }, current.getTrainingData(), "應用最佳參數 " + best);
             }
+            response.put("applied", apply && !leaderboard.isEmpty());
+            return response;
+        });
+    }
+
+    /**
+     * 訓練集縮減
+     * 使用相同的折劃分分別評估完整訓練集與縮減後訓練集（每折只縮減訓練部分），報告壓縮比與準確率變化
+     *
+     * @param method 縮減方法：enn（Wilson編輯）、cnn（壓縮最近鄰）或 enn-cnn
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @param apply 是否以原子替換的方式將縮減後的模型作為服務模型並保存；計算期間默認模型被替換時返回409
+     * @return 壓縮比、評估結果對比等信息
+     */
+    @GetMapping("/classifier/reduce")
+    public CompletableFuture<Map<String, Object>> reduceClassifier(
+            @RequestParam(defaultValue = "enn-cnn") String method,
+            @RequestParam(defaultValue = "3") int folds,
+            @RequestParam(defaultValue = "100") int maxTestSamplesPerFold,
+            @RequestParam(defaultValue = "false") boolean apply) {
+        TrainingSetReducer.Method reduction = parseOption("method", method, TrainingSetReducer.Method::parse);
+        return bulkheads.getAdmin().submit(() -> {
+            WeightedKNNClassifier current = classifierService.getClassifier();
+            long start = System.currentTimeMillis();
+
+            List<LabeledPoint> reducedData = TrainingSetReducer.reduce(current.getTrainingData(), current, reduction);
+            long seed = new Random().nextLong();
+            EvaluationResult before = WeightedKNNUtils.evaluateModel(current, folds, maxTestSamplesPerFold,
+                    seed, UnaryOperator.identity());
+            EvaluationResult after = WeightedKNNUtils.evaluateModel(current, folds, maxTestSamplesPerFold,
+                    seed, trainFold -> TrainingSetReducer.reduce(trainFold, current, reduction));
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("method", reduction);
+            response.put("originalSize", current.getTrainingDataSize());
+            response.put("reducedSize", reducedData.size());
+            response.put("compressionRatio", (double) reducedData.size() / current.getTrainingDataSize());
+            response.put("originalAccuracy", before.getAccuracy());
+            response.put("reducedAccuracy", after.getAccuracy());
+            response.put("accuracyDelta", after.getAccuracy() - before.getAccuracy());
+            response.put("originalF1Score", before.getF1Score());
+            response.put("reducedF1Score", after.getF1Score());
+
+            if (apply) {
+                classifierService.replace(current, _ -> { }, reducedData,
+                        "縮減訓練集 " + current.getTrainingDataSize() + " -> " + reducedData.size() + " 個數據點");
+            }
+            response.put("applied", apply);
+            response.put("elapsedMs", System.currentTimeMillis() - start);
+            return response;
+        });
+    }
+
+    /**
+     * 按區域的k-means原型壓縮
+     * 每個區域的訓練點壓縮為至多prototypesPerLabel個加權質心，預測時先按質心選出candidateZones個候選區域，
+     * 再只在這些區域的完整訓練點中搜索；使用相同的折劃分分別評估當前搜索引擎與原型引擎，報告加速比與準確率損失
+     *
+     * @param prototypesPerLabel 每個區域的質心數上限
+     * @param candidateZones 第一步選出的候選區域數
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @param apply 是否以原子替換的方式將原型引擎的模型作為服務模型並保存；計算期間默認模型被替換時返回409
+     * @return 原型數、壓縮比、預測耗時與評估結果對比
+     */
+    @GetMapping("/classifier/prototypes")
+    public CompletableFuture<Map<String, Object>> compressToPrototypes(
+            @RequestParam(defaultValue = "8") int prototypesPerLabel,
+            @RequestParam(defaultValue = "3") int candidateZones,
+            @RequestParam(defaultValue = "3") int folds,
+            @RequestParam(defaultValue = "500") int maxTestSamplesPerFold,
+            @RequestParam(defaultValue = "false") boolean apply) {
+        return bulkheads.getAdmin().submit(() -> {
+            WeightedKNNClassifier current = classifierService.getClassifier();
+            long start = System.currentTimeMillis();
+
+            Consumer<WeightedKNNClassifier> prototypeSettings = classifier -> {
+                classifier.setPrototypesPerLabel(prototypesPerLabel);
+                classifier.setPrototypeCandidateZones(candidateZones);
+                classifier.setNeighbourEngine(WeightedKNNClassifier.NeighbourEngine.PROTOTYPE);
+            };
+            WeightedKNNClassifier candidate = current.newUntrainedCopy();
+            prototypeSettings.accept(candidate);
+            candidate.train(current.getTrainingData());
+
+            long seed = new Random().nextLong();
+            EvaluationResult before = WeightedKNNUtils.evaluateModel(current, folds, maxTestSamplesPerFold,
+                    seed, UnaryOperator.identity());
+            EvaluationResult after = WeightedKNNUtils.evaluateModel(candidate, folds, maxTestSamplesPerFold,
+                    seed, UnaryOperator.identity());
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("baselineEngine", current.getNeighbourEngine());
+            response.put("points", current.getTrainingDataSize());
+            response.put("prototypes", candidate.getPrototypes().size());
+            response.put("compressionRatio", (double) candidate.getPrototypes().size() / current.getTrainingDataSize());
+            response.put("baselineAccuracy", before.getAccuracy());
+            response.put("prototypeAccuracy", after.getAccuracy());
+            response.put("accuracyLoss", before.getAccuracy() - after.getAccuracy());
+            response.put("baselineF1Score", before.getF1Score());
+            response.put("prototypeF1Score", after.getF1Score());
+            response.put("baselinePredictMicros", before.getAveragePredictMicros());
+            response.put("prototypePredictMicros", after.getAveragePredictMicros());
+            response.put("speedup", after.getAveragePredictMicros() > 0
+                    ? before.getAveragePredictMicros() / after.getAveragePredictMicros() : null);
+
+            if (apply) {
+                classifierService.replace(current, prototypeSettings, current.getTrainingData(),
+                        "切換到原型引擎 " + current.getTrainingDataSize() + " 個數據點，"
+                                + candidate.getPrototypes().size() + " 個原型");
+            }
+            response.put("applied", apply);
+            response.put("elapsedMs", System.currentTimeMillis() - start);
+            return response;
+        });
+    }
+
+    /**
+     * 模型註冊表狀態
+     *
+     * @return 駐留模型、內存佔用及命中統計
+     */
+    @GetMapping("/classifier/registry")
+    public Map<String, Object> getRegistryStatus() {
+        return modelRegistry.getStatus();
+    }
+
+    /**
+     * 從註冊表中淘汰模型
+     *
+     * @param model 模型標識（name 或 name:version）
+     * @return 註冊表狀態
+     */
+    @DeleteMapping("/classifier/registry")
+    public CompletableFuture<Map<String, Object>> evictModel(@RequestParam String model) {
+        return bulkheads.getAdmin().submit(() -> {
+            boolean evicted = modelRegistry.evict(model);
+            log.info("淘汰模型 {}: {}", model, evicted);
+            return modelRegistry.getStatus();
+        });
+    }
+
+    /**
+     * 根據模型標識選擇分類器，未指定時使用默認模型
+     */
+    private WeightedKNNClassifier resolveClassifier(String model) {
+        if (model == null || model.isBlank()) {
+            return classifierService.getClassifier();
         }
-        
-        return getModelInfo();
+        return modelRegistry.getModel(model);
+    }
+
+    /**
+     * 分片端點：返回本分片中距離查詢點最近的k個點，供路由器合併
+     *
+     * @param latitude 緯度
+     * @param longitude 經度
+     * @param k 鄰居數量
+     * @return 按距離排序的最近鄰
+     */
+    @GetMapping("/shard/neighbours")
+    public List<Neighbour> getShardNeighbours(@RequestParam double latitude, @RequestParam double longitude,
+                                              @RequestParam int k) {
+        return classifierService.getClassifier().findNearestNeighbours(new double[]{latitude, longitude}, k);
+    }
+
+    /**
+     * 分片端點：返回本分片的外接矩形與類別計數，供路由器剪枝及計算全局類別權重
+     *
+     * @return 分片信息
+     */
+    @GetMapping("/shard/info")
+    public Map<String, Object> getShardInfo() {
+        WeightedKNNClassifier current = classifierService.getClassifier();
+        double[][] boundingBox = current.getBoundingBox();
+        Map<String, Object> info = new HashMap<>();
+        info.put("zonePrefixes", classifierService.getShardZonePrefixes());
+        info.put("min", boundingBox[0]);
+        info.put("max", boundingBox[1]);
+        info.put("trainingDataSize", current.getTrainingDataSize());
+        info.put("labelCounts", current.getLabelCounts());
+        return info;
+    }
+
+    /**
+     * 路由器端點：查看已連接的分片
+     *
+     * @return 分片狀態
+     */
+    @GetMapping("/router/shards")
+    public List<Map<String, Object>> getRouterShards() {
+        return shardRouter.getStatus();
+    }
+
+    /**
+     * 路由器端點：重新獲取分片的外接矩形與類別計數
+     *
+     * @return 分片狀態
+     */
+    @PostMapping("/router/refresh")
+    public CompletableFuture<List<Map<String, Object>>> refreshRouter() {
+        return bulkheads.getAdmin().submit(shardRouter::refresh);
+    }
+
+    /**
+     * 就緒探針：模型發布並完成預熱後返回200，否則返回503，負載均衡器應在就緒前暫停轉發流量
+     *
+     * @return 就緒狀態
+     */
+    @GetMapping("/health/readiness")
+    public ResponseEntity<Map<String, Object>> readiness() {
+        ReadinessState state = classifierService.getReadinessState();
+        HttpStatus status = state == ReadinessState.ACCEPTING_TRAFFIC ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status).body(Map.of("status", state.name()));
+    }
+
+    /**
+     * 存活探針：後台構建失敗且沒有任何可用模型時返回503
+     *
+     * @return 存活狀態
+     */
+    @GetMapping("/health/liveness")
+    public ResponseEntity<Map<String, Object>> liveness() {
+        LivenessState state = classifierService.getLivenessState();
+        HttpStatus status = state == LivenessState.CORRECT ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status).body(Map.of("status", state.name()));
     }
-}
\ No newline at end of file
+}
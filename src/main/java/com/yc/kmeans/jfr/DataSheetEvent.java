@@ -0,0 +1,31 @@
+package com.yc.kmeans.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import lombok.Setter;
+
+/**
+ * 讀取一個Excel工作表或CSV檔案
+ */
+@Name("com.yc.kmeans.DataSheet")
+@Label("數據讀取")
+@Category({"KNN分類器", "數據導入"})
+@Setter
+public class DataSheetEvent extends Event {
+    @Label("檔案")
+    private String file;
+
+    @Label("工作表")
+    private String sheet;
+
+    @Label("數據行數")
+    private int rows;
+
+    @Label("有效數據點數")
+    private int points;
+
+    @Label("跳過的行數")
+    private int skippedRows;
+}
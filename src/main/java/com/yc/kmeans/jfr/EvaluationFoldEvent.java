@@ -0,0 +1,43 @@
+package com.yc.kmeans.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import lombok.Setter;
+
+/**
+ * 交叉驗證的一折：訓練臨時分類器並預測該折的測試點
+ */
+@Name("com.yc.kmeans.EvaluationFold")
+@Label("評估折")
+@Category({"KNN分類器", "評估"})
+@Setter
+public class EvaluationFoldEvent extends Event {
+    @Label("評估方式")
+    private String mode;
+
+    @Label("折序號")
+    private int fold;
+
+    @Label("折數")
+    private int folds;
+
+    @Label("訓練點數")
+    private int trainingPoints;
+
+    @Label("測試樣本數")
+    private int testSamples;
+
+    @Label("預測正確數")
+    private int correct;
+
+    @Label("訓練耗時")
+    @Timespan(Timespan.NANOSECONDS)
+    private long trainDuration;
+
+    @Label("預測耗時")
+    @Timespan(Timespan.NANOSECONDS)
+    private long predictDuration;
+}
@@ -0,0 +1,40 @@
+package com.yc.kmeans.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import lombok.Setter;
+
+/**
+ * 構建座標存儲與最近鄰索引，訓練、反序列化以及切換引擎或存儲方式時都會觸發
+ */
+@Name("com.yc.kmeans.IndexBuild")
+@Label("索引構建")
+@Category({"KNN分類器", "訓練"})
+@Description("座標存儲（量化或雙精度）與網格、原型索引的構建")
+@Setter
+public class IndexBuildEvent extends Event {
+    @Label("搜索引擎")
+    private String engine;
+
+    @Label("量化存儲")
+    private boolean quantized;
+
+    @Label("訓練點數")
+    private int points;
+
+    @Label("維度")
+    private int dimension;
+
+    @Label("索引節點數")
+    @Description("網格單元數或原型數，暴力掃描為0")
+    private int nodes;
+
+    @Label("佔用內存")
+    @Description("座標存儲與索引的字節數")
+    @DataAmount
+    private long size;
+}
@@ -0,0 +1,32 @@
+package com.yc.kmeans.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import lombok.Setter;
+
+/**
+ * 模型註冊表的查找：命中駐留模型，或未命中後從文件載入（持續時間即等待載入的時間）
+ * 默認只記錄超過1毫秒的查找，即實際發生載入或等待其他線程載入的查找
+ */
+@Name("com.yc.kmeans.ModelLookup")
+@Label("模型查找")
+@Category({"KNN分類器", "預測"})
+@Description("按 name:version 查找模型，未駐留時包含載入時間")
+@StackTrace(false)
+@Threshold("1 ms")
+@Setter
+public class ModelLookupEvent extends Event {
+    @Label("模型")
+    private String model;
+
+    @Label("緩存命中")
+    private boolean hit;
+
+    @Label("由本線程載入")
+    private boolean loaded;
+}
@@ -0,0 +1,48 @@
+package com.yc.kmeans.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import lombok.Setter;
+
+/**
+ * 單次預測（或一個分塊批量預測）的最近鄰搜索與投票
+ * 每次預測都會觸發，默認只記錄耗時超過1毫秒的預測且不採集調用棧；
+ * 調用方先檢查事件類型是否啟用，未錄製時不創建事件對象，預測路徑仍然不分配內存
+ */
+@Name("com.yc.kmeans.Prediction")
+@Label("KNN預測")
+@Category({"KNN分類器", "預測"})
+@Description("一次最近鄰搜索與加權投票，批量預測時一個事件對應一批查詢點")
+@StackTrace(false)
+@Threshold("1 ms")
+@Setter
+public class PredictionEvent extends Event {
+    @Label("搜索引擎")
+    private String engine;
+
+    @Label("k")
+    private int k;
+
+    @Label("查詢點數")
+    private int queries;
+
+    @Label("訓練點數")
+    private int trainingPoints;
+
+    @Label("掃描的訓練點數")
+    @Description("計算過距離的訓練點數，批量預測時為所有查詢點之和")
+    private long pointsScanned;
+
+    @Label("訪問的索引節點數")
+    @Description("網格引擎為掃描的網格單元數，原型引擎為掃描的區域數，暴力掃描為0")
+    private int nodesVisited;
+
+    @Label("提前結束")
+    @Description("網格引擎在找齊k個最近鄰之前已確定投票結果")
+    private boolean earlyTermination;
+}
@@ -0,0 +1,53 @@
+package com.yc.kmeans.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import lombok.Setter;
+
+/**
+ * 一次train()：數據規模與各階段耗時
+ */
+@Name("com.yc.kmeans.Training")
+@Label("KNN訓練")
+@Category({"KNN分類器", "訓練"})
+@Description("合併重複點、空間重排與構建派生結構的耗時")
+@Setter
+public class TrainingEvent extends Event {
+    @Label("原始行數")
+    private long samples;
+
+    @Label("訓練點數")
+    @Description("合併重複座標後的點數")
+    private int points;
+
+    @Label("類別數")
+    private int labels;
+
+    @Label("維度")
+    private int dimension;
+
+    @Label("搜索引擎")
+    private String engine;
+
+    @Label("合併重複點耗時")
+    @Timespan(Timespan.NANOSECONDS)
+    private long collapseDuration;
+
+    @Label("空間重排耗時")
+    @Timespan(Timespan.NANOSECONDS)
+    private long orderingDuration;
+
+    @Label("構建派生結構耗時")
+    @Description("標籤編號、類別權重、座標存儲與最近鄰索引")
+    @Timespan(Timespan.NANOSECONDS)
+    private long structuresDuration;
+
+    @Label("堆內存增量")
+    @DataAmount
+    private long heapDelta;
+}
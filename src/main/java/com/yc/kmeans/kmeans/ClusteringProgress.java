@@ -0,0 +1,78 @@
+package com.yc.kmeans.kmeans;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * k-means聚類的進度與取消標記
+ * 由聚類線程在每次迭代後更新，其他線程可隨時讀取進度或請求取消；聚類線程在每次迭代之間檢查取消標記
+ */
+public class ClusteringProgress {
+    private final long startNanos = System.nanoTime();
+    private volatile int maxIterations;
+    private volatile int iterations;
+    private volatile long reassigned;
+    private volatile double maxShift;
+    private volatile double skipRatio;
+    private volatile boolean cancelled;
+
+    /**
+     * 請求取消聚類，聚類線程會在下一次迭代前拋出CancellationException
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * 最近一次迭代中改變所屬質心的點數（小批量模式下為批內點數）
+     */
+    public long getReassigned() {
+        return reassigned;
+    }
+
+    /**
+     * 最近一次迭代中質心移動的最大距離
+     */
+    public double getMaxShift() {
+        return maxShift;
+    }
+
+    /**
+     * 最近一次迭代中借助三角不等式跳過完整距離計算的點所佔比例
+     */
+    public double getSkipRatio() {
+        return skipRatio;
+    }
+
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    void start(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    void iterationCompleted(long reassigned, double maxShift, double skipRatio) {
+        this.reassigned = reassigned;
+        this.maxShift = maxShift;
+        this.skipRatio = skipRatio;
+        iterations++;
+    }
+
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("聚類已取消");
+        }
+    }
+}
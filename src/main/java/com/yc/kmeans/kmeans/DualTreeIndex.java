@@ -0,0 +1,487 @@
+package com.yc.kmeans.kmeans;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 雙樹全最近鄰搜索，用於一次查詢大量點的批量預測與評估
+ * 訓練點與查詢批次各自構建kd樹，同時遍歷兩棵樹：查詢節點中所有點的第k近距離上界小於
+ * 兩個節點外接矩形的最小距離時，整對節點不再展開，一次剪枝即可跳過一組查詢點與一組訓練點之間的全部距離計算。
+ * 節點距離與點距離使用相同的浮點運算順序，剪枝條件是嚴格的，結果與逐個全量掃描完全一致（距離相同時按訓練點索引）
+ */
+final class DualTreeIndex {
+    private static final int LEAF_SIZE = 32;
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final Tree reference;
+
+    private DualTreeIndex(Tree reference) {
+        this.reference = reference;
+    }
+
+    /**
+     * 構建訓練點的kd樹
+     *
+     * @param coordinates 連續存放的座標
+     * @param dimension 維度
+     * @return 雙樹索引
+     */
+    static DualTreeIndex build(double[] coordinates, int dimension) {
+        return new DualTreeIndex(Tree.build(coordinates, dimension));
+    }
+
+    /**
+     * 為批次中的每個查詢點查找前count個最近鄰
+     *
+     * @param queries 查詢點，維度須與訓練點一致
+     * @param count 需要的最近鄰數量，須大於0
+     * @param pool 並行遍歷使用的線程池，為null時在調用線程中遍歷
+     * @return 每個查詢點的最近鄰
+     */
+    Neighbours search(double[][] queries, int count, ForkJoinPool pool) {
+        int dimension = reference.dimension;
+        double[] flat = new double[queries.length * dimension];
+        for (int q = 0; q < queries.length; q++) {
+            System.arraycopy(queries[q], 0, flat, q * dimension, dimension);
+        }
+        Neighbours neighbours = new Neighbours(queries.length, count);
+        if (queries.length == 0 || reference.size() == 0) {
+            return neighbours;
+        }
+        Tree queryTree = Tree.build(flat, dimension);
+        double[] bounds = new double[queryTree.nodes];
+        Arrays.fill(bounds, Double.POSITIVE_INFINITY);
+
+        List<Integer> roots = pool == null ? List.of(0) : splitQueryTree(queryTree, pool.getParallelism() * TASKS_PER_THREAD);
+        if (roots.size() == 1) {
+            Traversal traversal = new Traversal(queryTree, neighbours, bounds);
+            traversal.start(roots.get(0));
+            neighbours.distanceComputations = traversal.distanceComputations;
+            neighbours.nodePairs = traversal.nodePairs;
+            return neighbours;
+        }
+        // 各子樹的查詢點與節點上界互不重疊，可以並行遍歷，無需同步
+        List<ForkJoinTask<Traversal>> tasks = new ArrayList<>(roots.size());
+        for (int root : roots) {
+            tasks.add(pool.submit(() -> {
+                Traversal traversal = new Traversal(queryTree, neighbours, bounds);
+                traversal.start(root);
+                return traversal;
+            }));
+        }
+        for (ForkJoinTask<Traversal> task : tasks) {
+            Traversal traversal = task.join();
+            neighbours.distanceComputations += traversal.distanceComputations;
+            neighbours.nodePairs += traversal.nodePairs;
+        }
+        return neighbours;
+    }
+
+    /**
+     * 從根節點開始按層展開查詢樹，得到至少target個（或全部葉子）互不重疊的子樹
+     */
+    private static List<Integer> splitQueryTree(Tree tree, int target) {
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        List<Integer> roots = new ArrayList<>();
+        pending.add(0);
+        while (!pending.isEmpty() && pending.size() + roots.size() < target) {
+            int node = pending.poll();
+            if (tree.left[node] < 0) {
+                roots.add(node);
+            } else {
+                pending.add(tree.left[node]);
+                pending.add(tree.right[node]);
+            }
+        }
+        roots.addAll(pending);
+        return roots;
+    }
+
+    /**
+     * 索引佔用的字節數：重排後的座標、索引及節點數組
+     *
+     * @return 字節數
+     */
+    long getSizeInBytes() {
+        return reference.getSizeInBytes();
+    }
+
+    /**
+     * 樹結構統計
+     *
+     * @return 點數、節點數、葉子大小上限與深度
+     */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("points", reference.size());
+        stats.put("nodes", reference.nodes);
+        stats.put("leafSize", LEAF_SIZE);
+        stats.put("depth", reference.depth(0));
+        stats.put("bytes", getSizeInBytes());
+        return stats;
+    }
+
+    /**
+     * 一個查詢子樹與訓練點樹的遍歷，每個並行任務一個實例
+     */
+    private final class Traversal {
+        private final Tree queries;
+        private final Neighbours neighbours;
+        private final double[] bounds; // 每個查詢節點中所有點的第k近距離平方上界
+        private long distanceComputations;
+        private long nodePairs;
+
+        Traversal(Tree queries, Neighbours neighbours, double[] bounds) {
+            this.queries = queries;
+            this.neighbours = neighbours;
+            this.bounds = bounds;
+        }
+
+        void start(int queryNode) {
+            traverse(queryNode, 0, minDistance(queries, queryNode, reference, 0));
+        }
+
+        /**
+         * 遍歷一對節點，調用前已確認兩者的最小距離不超過查詢節點的上界；
+         * 優先拆分點數較多的節點，拆分訓練節點時先訪問較近的子節點，使上界盡快收緊
+         */
+        private void traverse(int queryNode, int referenceNode, double lowerBound) {
+            nodePairs++;
+            Tree refs = reference;
+            boolean queryLeaf = queries.left[queryNode] < 0;
+            boolean referenceLeaf = refs.left[referenceNode] < 0;
+            if (queryLeaf && referenceLeaf) {
+                scanLeaves(queryNode, referenceNode);
+                return;
+            }
+            if (referenceLeaf || (!queryLeaf && queries.count(queryNode) >= refs.count(referenceNode))) {
+                int left = queries.left[queryNode];
+                int right = queries.right[queryNode];
+                double leftBound = minDistance(queries, left, refs, referenceNode);
+                if (leftBound <= bounds[left]) {
+                    traverse(left, referenceNode, leftBound);
+                }
+                double rightBound = minDistance(queries, right, refs, referenceNode);
+                if (rightBound <= bounds[right]) {
+                    traverse(right, referenceNode, rightBound);
+                }
+                bounds[queryNode] = Math.max(bounds[left], bounds[right]);
+                return;
+            }
+            int near = refs.left[referenceNode];
+            int far = refs.right[referenceNode];
+            double nearBound = minDistance(queries, queryNode, refs, near);
+            double farBound = minDistance(queries, queryNode, refs, far);
+            if (farBound < nearBound) {
+                int swap = near;
+                near = far;
+                far = swap;
+                double swapBound = nearBound;
+                nearBound = farBound;
+                farBound = swapBound;
+            }
+            if (nearBound <= bounds[queryNode]) {
+                traverse(queryNode, near, nearBound);
+            }
+            if (farBound <= bounds[queryNode]) {
+                traverse(queryNode, far, farBound);
+            }
+        }
+
+        /**
+         * 兩個葉子之間逐點計算距離，每個查詢點先用到訓練葉子外接矩形的距離排除整個葉子
+         */
+        private void scanLeaves(int queryNode, int referenceNode) {
+            Tree refs = reference;
+            int dim = refs.dimension;
+            double[] queryPoints = queries.points;
+            double[] referencePoints = refs.points;
+            int from = refs.start[referenceNode];
+            int to = refs.end[referenceNode];
+            double bound = 0.0;
+            for (int qp = queries.start[queryNode]; qp < queries.end[queryNode]; qp++) {
+                int query = queries.indices[qp];
+                double limit = neighbours.limits[query];
+                if (pointDistance(queryPoints, qp * dim, refs, referenceNode) <= limit) {
+                    for (int rp = from, offset = from * dim; rp < to; rp++, offset += dim) {
+                        double sum = 0.0;
+                        for (int d = 0; d < dim; d++) {
+                            double diff = queryPoints[qp * dim + d] - referencePoints[offset + d];
+                            sum += diff * diff;
+                        }
+                        if (sum <= limit) {
+                            limit = neighbours.offer(query, sum, refs.indices[rp]);
+                        }
+                    }
+                    distanceComputations += to - from;
+                }
+                bound = Math.max(bound, limit);
+            }
+            bounds[queryNode] = bound;
+        }
+    }
+
+    /**
+     * 兩個節點外接矩形之間最小距離的平方
+     * 與點距離按相同的維度順序累加，浮點運算單調，因此不會大於兩節點中任意一對點計算出的距離平方
+     */
+    private static double minDistance(Tree a, int nodeA, Tree b, int nodeB) {
+        int dim = a.dimension;
+        double sum = 0.0;
+        for (int d = 0; d < dim; d++) {
+            double gap;
+            if (a.lower[nodeA * dim + d] > b.upper[nodeB * dim + d]) {
+                gap = a.lower[nodeA * dim + d] - b.upper[nodeB * dim + d];
+            } else if (b.lower[nodeB * dim + d] > a.upper[nodeA * dim + d]) {
+                gap = a.upper[nodeA * dim + d] - b.lower[nodeB * dim + d];
+            } else {
+                continue;
+            }
+            sum += gap * gap;
+        }
+        return sum;
+    }
+
+    /**
+     * 點到節點外接矩形最小距離的平方
+     */
+    private static double pointDistance(double[] points, int offset, Tree tree, int node) {
+        int dim = tree.dimension;
+        double sum = 0.0;
+        for (int d = 0; d < dim; d++) {
+            double value = points[offset + d];
+            double gap;
+            if (value < tree.lower[node * dim + d]) {
+                gap = value - tree.lower[node * dim + d];
+            } else if (value > tree.upper[node * dim + d]) {
+                gap = value - tree.upper[node * dim + d];
+            } else {
+                continue;
+            }
+            sum += gap * gap;
+        }
+        return sum;
+    }
+
+    /**
+     * 批次中每個查詢點的前count個最近鄰，按查詢點在批次中的位置連續存放
+     */
+    static final class Neighbours {
+        private final int count;
+        private final double[] distances;
+        private final double[] squared;
+        private final int[] indices;
+        private final int[] sizes;
+        private final double[] limits; // 距離平方不超過此值的點才可能進入最近鄰，未滿時為正無窮
+        long distanceComputations;     // 實際計算的查詢點與訓練點距離次數
+        long nodePairs;                // 訪問的節點對數
+
+        Neighbours(int queries, int count) {
+            this.count = count;
+            this.distances = new double[queries * count];
+            this.squared = new double[queries * count];
+            this.indices = new int[queries * count];
+            this.sizes = new int[queries];
+            this.limits = new double[queries];
+            Arrays.fill(limits, Double.POSITIVE_INFINITY);
+        }
+
+        /**
+         * 嘗試加入一個點，排序規則與PredictScratch.offer相同
+         *
+         * @return 加入後該查詢點的距離平方閾值
+         */
+        private double offer(int query, double sum, int index) {
+            int base = query * count;
+            int size = sizes[query];
+            double distance = Math.sqrt(sum);
+            int position;
+            if (size < count) {
+                position = size++;
+                sizes[query] = size;
+            } else if (distance < distances[base + size - 1]
+                    || (distance == distances[base + size - 1] && index < indices[base + size - 1])) {
+                position = size - 1;
+            } else {
+                return limits[query];
+            }
+            while (position > 0 && (distances[base + position - 1] > distance
+                    || (distances[base + position - 1] == distance && indices[base + position - 1] > index))) {
+                distances[base + position] = distances[base + position - 1];
+                squared[base + position] = squared[base + position - 1];
+                indices[base + position] = indices[base + position - 1];
+                position--;
+            }
+            distances[base + position] = distance;
+            squared[base + position] = sum;
+            indices[base + position] = index;
+            if (size == count) {
+                // 開方後與第count近的距離相等、索引更小的點仍可能進入最近鄰，閾值放寬到開方結果相同的最大平方值
+                double worst = distances[base + count - 1];
+                double limit = squared[base + count - 1];
+                while (limit < Double.POSITIVE_INFINITY && Math.sqrt(Math.nextUp(limit)) == worst) {
+                    limit = Math.nextUp(limit);
+                }
+                limits[query] = limit;
+            }
+            return limits[query];
+        }
+
+        /**
+         * 把查詢點的最近鄰複製到工作區，用於投票
+         *
+         * @param query 查詢點在批次中的位置
+         * @param workspace 工作區
+         */
+        void copyTo(int query, PredictScratch workspace) {
+            workspace.reset(count);
+            int base = query * count;
+            int size = sizes[query];
+            System.arraycopy(distances, base, workspace.bestDistances, 0, size);
+            System.arraycopy(squared, base, workspace.bestSquared, 0, size);
+            System.arraycopy(indices, base, workspace.bestIndices, 0, size);
+            workspace.size = size;
+        }
+    }
+
+    /**
+     * kd樹：每個節點按外接矩形最長的一維在中位數處對半劃分，點數不超過LEAF_SIZE時為葉子；
+     * 點按葉子順序重排後連續存放
+     */
+    private static final class Tree {
+        final int dimension;
+        final double[] points;  // 按樹中順序重排後連續存放的座標
+        final int[] indices;    // 每個位置對應的原始點索引
+        final int[] start;      // 節點在重排後數組中的起始位置
+        final int[] end;        // 節點的結束位置（不含）
+        final int[] left;       // 左子節點，葉子為-1
+        final int[] right;      // 右子節點，葉子為-1
+        final double[] lower;   // 外接矩形各維的最小值
+        final double[] upper;   // 外接矩形各維的最大值
+        int nodes;
+
+        private Tree(int dimension, int size) {
+            this.dimension = dimension;
+            // 每個葉子至少有LEAF_SIZE / 2個點，節點數不超過 4 × 點數 / LEAF_SIZE + 1
+            int capacity = 4 * size / LEAF_SIZE + 4;
+            this.points = new double[size * dimension];
+            this.indices = new int[size];
+            this.start = new int[capacity];
+            this.end = new int[capacity];
+            this.left = new int[capacity];
+            this.right = new int[capacity];
+            this.lower = new double[capacity * dimension];
+            this.upper = new double[capacity * dimension];
+        }
+
+        static Tree build(double[] coordinates, int dimension) {
+            int size = coordinates.length / dimension;
+            Tree tree = new Tree(dimension, size);
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            if (size > 0) {
+                tree.buildNode(coordinates, order, 0, size);
+            }
+            for (int position = 0; position < size; position++) {
+                tree.indices[position] = order[position];
+                System.arraycopy(coordinates, order[position] * dimension, tree.points, position * dimension, dimension);
+            }
+            return tree;
+        }
+
+        private int buildNode(double[] coordinates, int[] order, int from, int to) {
+            int node = nodes++;
+            int dim = dimension;
+            start[node] = from;
+            end[node] = to;
+            Arrays.fill(lower, node * dim, (node + 1) * dim, Double.POSITIVE_INFINITY);
+            Arrays.fill(upper, node * dim, (node + 1) * dim, Double.NEGATIVE_INFINITY);
+            for (int i = from; i < to; i++) {
+                int offset = order[i] * dim;
+                for (int d = 0; d < dim; d++) {
+                    lower[node * dim + d] = Math.min(lower[node * dim + d], coordinates[offset + d]);
+                    upper[node * dim + d] = Math.max(upper[node * dim + d], coordinates[offset + d]);
+                }
+            }
+            if (to - from <= LEAF_SIZE) {
+                left[node] = -1;
+                right[node] = -1;
+                return node;
+            }
+            int axis = 0;
+            for (int d = 1; d < dim; d++) {
+                if (upper[node * dim + d] - lower[node * dim + d] > upper[node * dim + axis] - lower[node * dim + axis]) {
+                    axis = d;
+                }
+            }
+            int middle = (from + to) >>> 1;
+            select(coordinates, dim, axis, order, from, to, middle);
+            left[node] = buildNode(coordinates, order, from, middle);
+            right[node] = buildNode(coordinates, order, middle, to);
+            return node;
+        }
+
+        /**
+         * 部分排序order[from, to)，使位置nth上是按axis維座標排序後的第nth個點，左側都不大於它，右側都不小於它
+         */
+        private static void select(double[] coordinates, int dim, int axis, int[] order, int from, int to, int nth) {
+            int lo = from;
+            int hi = to - 1;
+            while (hi > lo) {
+                double pivot = coordinates[order[(lo + hi) >>> 1] * dim + axis];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (coordinates[order[i] * dim + axis] < pivot) {
+                        i++;
+                    }
+                    while (coordinates[order[j] * dim + axis] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int swap = order[i];
+                        order[i] = order[j];
+                        order[j] = swap;
+                        i++;
+                        j--;
+                    }
+                }
+                if (nth <= j) {
+                    hi = j;
+                } else if (nth >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        int size() {
+            return indices.length;
+        }
+
+        int count(int node) {
+            return end[node] - start[node];
+        }
+
+        int depth(int node) {
+            if (nodes == 0) {
+                return 0;
+            }
+            return left[node] < 0 ? 1 : 1 + Math.max(depth(left[node]), depth(right[node]));
+        }
+
+        long getSizeInBytes() {
+            return (long) points.length * Double.BYTES + (long) indices.length * Integer.BYTES
+                    + (long) start.length * Integer.BYTES * 4 + (long) lower.length * Double.BYTES * 2;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.yc.kmeans.kmeans;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 交叉驗證的進度與取消標記
+ * 由評估線程更新，其他線程可隨時讀取進度或請求取消；評估線程在每個測試樣本之間檢查取消標記
+ */
+public class EvaluationProgress {
+    private final long startNanos = System.nanoTime();
+    private volatile int folds;
+    private volatile int foldsCompleted;
+    private volatile long totalSamples;
+    private volatile long samplesProcessed;
+    private volatile boolean cancelled;
+
+    /**
+     * 請求取消評估，評估線程會在處理下一個測試樣本前拋出CancellationException
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getFolds() {
+        return folds;
+    }
+
+    public int getFoldsCompleted() {
+        return foldsCompleted;
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    public long getSamplesProcessed() {
+        return samplesProcessed;
+    }
+
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * 按已處理樣本的平均耗時估算剩餘時間（包含每折訓練臨時分類器的時間）
+     *
+     * @return 預計剩餘毫秒數，尚未處理任何樣本時返回-1
+     */
+    public long getEtaMillis() {
+        long processed = samplesProcessed;
+        if (processed == 0) {
+            return -1;
+        }
+        return getElapsedMillis() * (totalSamples - processed) / processed;
+    }
+
+    void start(int folds, long totalSamples) {
+        this.folds = folds;
+        this.totalSamples = totalSamples;
+    }
+
+    void sampleProcessed() {
+        samplesProcessed++;
+    }
+
+    void samplesProcessed(int count) {
+        samplesProcessed += count;
+    }
+
+    void foldCompleted() {
+        foldsCompleted++;
+    }
+
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("評估已取消");
+        }
+    }
+}
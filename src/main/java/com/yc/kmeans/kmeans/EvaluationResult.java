@@ -13,6 +13,7 @@ public class EvaluationResult implements Serializable {
     private double r2Score;
     private Map<String, Integer> classCounts;
     private Map<String, Map<String, Integer>> confusionMatrix;
+    private double averagePredictMicros;
 
     public EvaluationResult() {
         this.classCounts = new HashMap<>();
@@ -75,6 +76,17 @@ public class EvaluationResult implements Serializable {
         return confusionMatrix;
     }
 
+    public void setAveragePredictMicros(double averagePredictMicros) {
+        this.averagePredictMicros = averagePredictMicros;
+    }
+
+    /**
+     * 測試樣本的平均預測耗時（微秒），不包括訓練每折臨時分類器的時間，用於比較不同搜索引擎的速度
+     */
+    public double getAveragePredictMicros() {
+        return averagePredictMicros;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -84,6 +96,7 @@ public class EvaluationResult implements Serializable {
         sb.append("Recall: ").append(String.format("%.4f", recall)).append("\n");
         sb.append("F1 Score: ").append(String.format("%.4f", f1Score)).append("\n");
         sb.append("R² Score: ").append(String.format("%.4f", r2Score)).append("\n");
+        sb.append("Average Predict: ").append(String.format("%.2f", averagePredictMicros)).append(" µs\n");
 
         sb.append("\nClass Distribution:\n");
         for (Map.Entry<String, Integer> entry : classCounts.entrySet()) {
@@ -0,0 +1,279 @@
+package com.yc.kmeans.kmeans;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * 二維均勻網格最近鄰索引
+ * 訓練點按所在網格單元排序後連續存放，查詢時從查詢點所在的單元開始逐圈向外擴展，
+ * 每完成一圈即可得到未訪問點距離的下界：前k個最近鄰都小於下界時停止；
+ * 提供投票判定時，還會在已確定的最近鄰足以決定投票結果時提前停止
+ */
+final class GridNeighbourIndex {
+    private static final int TARGET_POINTS_PER_CELL = 8;
+
+    /**
+     * 根據已確定的部分最近鄰判斷投票結果
+     */
+    @FunctionalInterface
+    interface VoteDecider {
+        /**
+         * @param workspace 已收集部分最近鄰的工作區
+         * @param lowerBound 所有未訪問點距離的下界，距離小於它的最近鄰已經確定
+         * @return 已能確定的標籤編號，無法確定時返回-1
+         */
+        int decide(PredictScratch workspace, double lowerBound);
+    }
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;          // 每個單元在排序後數組中的起始位置，長度為單元數+1
+    private final int[] pointIndices;       // 按單元排序後每個位置對應的訓練點索引
+    private final double[] cellCoordinates; // 按單元排序後連續存放的座標
+
+    private GridNeighbourIndex(double minX, double minY, double cellSize, int columns, int rows,
+                               int[] cellStart, int[] pointIndices, double[] cellCoordinates) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.cellStart = cellStart;
+        this.pointIndices = pointIndices;
+        this.cellCoordinates = cellCoordinates;
+    }
+
+    /**
+     * 構建網格索引，單元大小使每個單元平均約有TARGET_POINTS_PER_CELL個點
+     *
+     * @param coordinates 連續存放的二維座標
+     * @return 網格索引
+     */
+    static GridNeighbourIndex build(double[] coordinates) {
+        int size = coordinates.length / 2;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, coordinates[2 * i]);
+            maxX = Math.max(maxX, coordinates[2 * i]);
+            minY = Math.min(minY, coordinates[2 * i + 1]);
+            maxY = Math.max(maxY, coordinates[2 * i + 1]);
+        }
+        double width = maxX - minX;
+        double height = maxY - minY;
+        // 按面積估算單元大小；數據退化為一條線時按最長邊估算，避免單元數超過點數
+        double cellSize = Math.max(Math.sqrt(width * height * TARGET_POINTS_PER_CELL / size),
+                Math.max(width, height) * TARGET_POINTS_PER_CELL / size);
+        if (!(cellSize > 0)) {
+            cellSize = 1.0;
+        }
+        int columns = (int) (width / cellSize) + 1;
+        int rows = (int) (height / cellSize) + 1;
+
+        int[] cellStart = new int[columns * rows + 1];
+        int[] cellOf = new int[size];
+        for (int i = 0; i < size; i++) {
+            int column = Math.min(columns - 1, (int) ((coordinates[2 * i] - minX) / cellSize));
+            int row = Math.min(rows - 1, (int) ((coordinates[2 * i + 1] - minY) / cellSize));
+            cellOf[i] = row * columns + column;
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = cellStart.clone();
+        int[] pointIndices = new int[size];
+        double[] cellCoordinates = new double[size * 2];
+        for (int i = 0; i < size; i++) {
+            int position = next[cellOf[i]]++;
+            pointIndices[position] = i;
+            cellCoordinates[2 * position] = coordinates[2 * i];
+            cellCoordinates[2 * position + 1] = coordinates[2 * i + 1];
+        }
+        return new GridNeighbourIndex(minX, minY, cellSize, columns, rows, cellStart, pointIndices, cellCoordinates);
+    }
+
+    /**
+     * 查找前count個最近鄰，結果與全量掃描完全一致（距離相同時按訓練點索引）
+     *
+     * @param query 查詢點
+     * @param count 需要的最近鄰數量
+     * @param workspace 當前線程的工作區，visited記錄計算過距離的點數
+     * @param decider 投票判定，為null時總是找齊前count個最近鄰
+     * @return decider提前確定的標籤編號；未提前確定時返回-1，工作區中為完整的前count個最近鄰
+     */
+    int search(double[] query, int count, PredictScratch workspace, VoteDecider decider) {
+        workspace.reset(count);
+        workspace.visited = 0;
+        workspace.nodesVisited = 0;
+        if (count <= 0) {
+            return -1;
+        }
+        double qx = query[0];
+        double qy = query[1];
+        int centerColumn = clamp((qx - minX) / cellSize, columns);
+        int centerRow = clamp((qy - minY) / cellSize, rows);
+        int maxRing = Math.max(Math.max(centerColumn, columns - 1 - centerColumn),
+                Math.max(centerRow, rows - 1 - centerRow));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            int rowFrom = Math.max(0, centerRow - ring);
+            int rowTo = Math.min(rows - 1, centerRow + ring);
+            for (int row = rowFrom; row <= rowTo; row++) {
+                if (row == centerRow - ring || row == centerRow + ring) {
+                    scanCells(qx, qy, row, Math.max(0, centerColumn - ring),
+                            Math.min(columns - 1, centerColumn + ring), workspace);
+                } else {
+                    if (centerColumn - ring >= 0) {
+                        scanCells(qx, qy, row, centerColumn - ring, centerColumn - ring, workspace);
+                    }
+                    if (centerColumn + ring < columns) {
+                        scanCells(qx, qy, row, centerColumn + ring, centerColumn + ring, workspace);
+                    }
+                }
+            }
+
+            double lowerBound = unvisitedLowerBound(qx, qy, centerColumn, centerRow, ring);
+            if (workspace.size == count && workspace.bestDistances[count - 1] < lowerBound) {
+                return -1;
+            }
+            if (decider != null && ring < maxRing) {
+                int label = decider.decide(workspace, lowerBound);
+                if (label >= 0) {
+                    return label;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按單元順序訪問外接矩形[boxMinX, boxMaxX] × [boxMinY, boxMaxY]內的訓練點，只掃描與矩形相交的單元
+     *
+     * @param visitor 接收訓練點索引，返回false時停止訪問
+     */
+    void forEachInBox(double boxMinX, double boxMinY, double boxMaxX, double boxMaxY, IntPredicate visitor) {
+        if (!(boxMinX <= boxMaxX && boxMinY <= boxMaxY)) {
+            return;
+        }
+        int fromColumn = clamp((boxMinX - minX) / cellSize, columns);
+        int toColumn = clamp((boxMaxX - minX) / cellSize, columns);
+        int fromRow = clamp((boxMinY - minY) / cellSize, rows);
+        int toRow = clamp((boxMaxY - minY) / cellSize, rows);
+        double[] coords = cellCoordinates;
+        for (int row = fromRow; row <= toRow; row++) {
+            int to = cellStart[row * columns + toColumn + 1];
+            for (int position = cellStart[row * columns + fromColumn]; position < to; position++) {
+                double x = coords[2 * position];
+                double y = coords[2 * position + 1];
+                if (x >= boxMinX && x <= boxMaxX && y >= boxMinY && y <= boxMaxY
+                        && !visitor.test(pointIndices[position])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 掃描同一行中[fromColumn, toColumn]範圍內的單元
+     */
+    private void scanCells(double qx, double qy, int row, int fromColumn, int toColumn, PredictScratch workspace) {
+        double[] coords = cellCoordinates;
+        int from = cellStart[row * columns + fromColumn];
+        int to = cellStart[row * columns + toColumn + 1];
+        double worst = workspace.worstSquared();
+        for (int position = from; position < to; position++) {
+            double dx = qx - coords[2 * position];
+            double dy = qy - coords[2 * position + 1];
+            double sum = dx * dx + dy * dy;
+            if (sum <= worst) {
+                workspace.offer(Math.sqrt(sum), sum, pointIndices[position]);
+                worst = workspace.worstSquared();
+            }
+        }
+        workspace.visited += to - from;
+        workspace.nodesVisited += toColumn - fromColumn + 1;
+    }
+
+    /**
+     * 已訪問以中心單元為中心、切比雪夫距離不超過ring的所有單元後，未訪問點到查詢點距離的下界
+     * 即查詢點到各方向上仍有未訪問單元的已訪問區域邊界的最小距離，全部訪問完時為正無窮；
+     * 減去單元大小的1e-9以抵消點歸入單元時的捨入誤差
+     */
+    private double unvisitedLowerBound(double qx, double qy, int centerColumn, int centerRow, int ring) {
+        double bound = Double.POSITIVE_INFINITY;
+        if (centerColumn - ring > 0) {
+            bound = Math.min(bound, qx - (minX + (centerColumn - ring) * cellSize));
+        }
+        if (centerColumn + ring < columns - 1) {
+            bound = Math.min(bound, minX + (centerColumn + ring + 1) * cellSize - qx);
+        }
+        if (centerRow - ring > 0) {
+            bound = Math.min(bound, qy - (minY + (centerRow - ring) * cellSize));
+        }
+        if (centerRow + ring < rows - 1) {
+            bound = Math.min(bound, minY + (centerRow + ring + 1) * cellSize - qy);
+        }
+        return Math.max(0.0, bound - cellSize * 1e-9);
+    }
+
+    private static int clamp(double cell, int cells) {
+        if (!(cell >= 0)) {
+            return 0;
+        }
+        return cell >= cells ? cells - 1 : (int) cell;
+    }
+
+    /**
+     * 網格結構統計：單元數、非空單元數及每個單元的點數分佈
+     *
+     * @return 統計信息
+     */
+    Map<String, Object> getStats() {
+        int cells = columns * rows;
+        int occupied = 0;
+        int maxPoints = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            int count = cellStart[cell + 1] - cellStart[cell];
+            if (count > 0) {
+                occupied++;
+                maxPoints = Math.max(maxPoints, count);
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("columns", columns);
+        stats.put("rows", rows);
+        stats.put("cellSize", cellSize);
+        stats.put("cells", cells);
+        stats.put("occupiedCells", occupied);
+        stats.put("maxPointsPerCell", maxPoints);
+        stats.put("meanPointsPerOccupiedCell", occupied == 0 ? 0 : (double) pointIndices.length / occupied);
+        stats.put("bytes", getSizeInBytes());
+        return stats;
+    }
+
+    /**
+     * 網格單元數
+     *
+     * @return 列數 × 行數
+     */
+    int cellCount() {
+        return columns * rows;
+    }
+
+    /**
+     * 索引佔用的字節數：排序後的座標、索引與單元起始位置
+     *
+     * @return 字節數
+     */
+    long getSizeInBytes() {
+        return (long) cellCoordinates.length * Double.BYTES + (long) pointIndices.length * Integer.BYTES
+                + (long) cellStart.length * Integer.BYTES;
+    }
+}
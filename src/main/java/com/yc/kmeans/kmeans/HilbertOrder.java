@@ -0,0 +1,87 @@
+package com.yc.kmeans.kmeans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按希爾伯特曲線排列二維數據點
+ * 把外接矩形量化為65536 × 65536的網格並計算每個點在曲線上的位置，空間上相鄰的點在排序後也大多相鄰，
+ * 使網格單元、索引葉子及按訓練點索引訪問的數組對應到連續的內存範圍
+ */
+final class HilbertOrder {
+    private static final int ORDER = 16;
+    private static final int SIDE = 1 << ORDER;
+
+    private HilbertOrder() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * 按希爾伯特曲線位置穩定排序（位置相同時保持原有順序），使用並行排序
+     *
+     * @param points 二維數據點
+     * @return 排序後的新列表；不是二維數據時按原順序返回
+     */
+    static List<LabeledPoint> sort(List<LabeledPoint> points) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (LabeledPoint point : points) {
+            double[] features = point.getFeatures();
+            if (features.length != 2) {
+                return new ArrayList<>(points);
+            }
+            minX = Math.min(minX, features[0]);
+            maxX = Math.max(maxX, features[0]);
+            minY = Math.min(minY, features[1]);
+            maxY = Math.max(maxY, features[1]);
+        }
+        double scaleX = maxX > minX ? (SIDE - 1) / (maxX - minX) : 0.0;
+        double scaleY = maxY > minY ? (SIDE - 1) / (maxY - minY) : 0.0;
+
+        // 高32位為曲線位置，低32位為原索引，排序後即為穩定順序
+        long[] keys = new long[points.size()];
+        for (int i = 0; i < keys.length; i++) {
+            double[] features = points.get(i).getFeatures();
+            int x = (int) ((features[0] - minX) * scaleX);
+            int y = (int) ((features[1] - minY) * scaleY);
+            keys[i] = (index(x, y) << 32) | i;
+        }
+        Arrays.parallelSort(keys);
+
+        List<LabeledPoint> sorted = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            sorted.add(points.get((int) key));
+        }
+        return sorted;
+    }
+
+    /**
+     * 網格座標在希爾伯特曲線上的位置
+     *
+     * @param x 第一維網格座標，範圍[0, 65535]
+     * @param y 第二維網格座標，範圍[0, 65535]
+     * @return 曲線位置，範圍[0, 2^32)
+     */
+    static long index(int x, int y) {
+        long d = 0;
+        for (int s = SIDE >> 1; s > 0; s >>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // 旋轉象限，使子曲線與父曲線的方向一致
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = SIDE - 1 - x;
+                    y = SIDE - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+}
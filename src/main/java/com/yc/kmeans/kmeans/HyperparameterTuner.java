@@ -0,0 +1,239 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * 加權KNN的一次性超參數搜索
+ * 每個測試點只在k_max下搜索一次最近鄰並緩存排序後的距離與標籤，
+ * 再從緩存中並行地為網格中的每個參數組合（k、距離權重因子、類別權重上限、是否使用類別權重）重新計分
+ */
+@Slf4j
+public class HyperparameterTuner {
+
+    private HyperparameterTuner() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * 執行網格搜索
+     *
+     * @param classifier 已訓練的分類器，提供訓練數據與epsilon
+     * @param kMax 最大k值，搜索範圍為1..kMax
+     * @param distanceWeightFactors 候選的距離權重因子
+     * @param maxClassWeights 候選的類別權重上限
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @return 按準確率、F1分數降序排列的排行榜
+     */
+    public static List<TuningResult> tune(WeightedKNNClassifier classifier,
+                                          int kMax,
+                                          List<Double> distanceWeightFactors,
+                                          List<Double> maxClassWeights,
+                                          int folds,
+                                          int maxTestSamplesPerFold) {
+        if (!classifier.isTrained()) {
+            throw new IllegalStateException("分類器尚未訓練");
+        }
+        if (kMax <= 0) {
+            throw new IllegalArgumentException("kMax必須大於0");
+        }
+
+        List<LabeledPoint> trainingData = new ArrayList<>(classifier.getTrainingData());
+        if (trainingData.size() < folds) {
+            throw new IllegalStateException("訓練數據不足以進行指定折數的交叉驗證");
+        }
+
+        // 為標籤分配整數編號，緩存與計分都使用編號
+        Map<String, Integer> labelToId = new HashMap<>();
+        for (LabeledPoint point : trainingData) {
+            labelToId.putIfAbsent(point.getLabel(), labelToId.size());
+        }
+        int labelCount = labelToId.size();
+
+        List<LabeledPoint> shuffledData = new ArrayList<>(trainingData);
+        Collections.shuffle(shuffledData);
+        int foldSize = shuffledData.size() / folds;
+
+        List<CachedQuery> cache = new ArrayList<>();
+        int[][] foldLabelCounts = new int[folds][labelCount];
+
+        for (int i = 0; i < folds; i++) {
+            int startIdx = i * foldSize;
+            int endIdx = (i == folds - 1) ? shuffledData.size() : (i + 1) * foldSize;
+
+            List<LabeledPoint> testFold = new ArrayList<>(shuffledData.subList(startIdx, endIdx));
+            if (testFold.size() > maxTestSamplesPerFold) {
+                Collections.shuffle(testFold);
+                testFold = new ArrayList<>(testFold.subList(0, maxTestSamplesPerFold));
+            }
+
+            List<LabeledPoint> trainFold = new ArrayList<>(shuffledData.size() - (endIdx - startIdx));
+            trainFold.addAll(shuffledData.subList(0, startIdx));
+            trainFold.addAll(shuffledData.subList(endIdx, shuffledData.size()));
+            for (LabeledPoint point : trainFold) {
+                foldLabelCounts[i][labelToId.get(point.getLabel())] += point.getMultiplicity();
+            }
+
+            WeightedKNNClassifier foldClassifier = classifier.newUntrainedCopy();
+            foldClassifier.setUseClassWeights(false);
+            foldClassifier.train(trainFold);
+
+            // 每個測試點只做一次k_max最近鄰搜索
+            int fold = i;
+            List<LabeledPoint> foldTests = testFold;
+            List<CachedQuery> foldCache = IntStream.range(0, foldTests.size())
+                    .parallel()
+                    .mapToObj(j -> {
+                        LabeledPoint testPoint = foldTests.get(j);
+                        List<Neighbour> neighbours = foldClassifier.findNearestNeighbours(testPoint.getFeatures(), kMax);
+                        double[] distances = new double[neighbours.size()];
+                        int[] labels = new int[neighbours.size()];
+                        for (int n = 0; n < neighbours.size(); n++) {
+                            distances[n] = neighbours.get(n).getDistance();
+                            labels[n] = labelToId.get(neighbours.get(n).getLabel());
+                        }
+                        return new CachedQuery(fold, labelToId.get(testPoint.getLabel()), distances, labels);
+                    })
+                    .toList();
+            cache.addAll(foldCache);
+            log.info("第 {} 折已緩存 {} 個測試點的最近鄰", i + 1, foldCache.size());
+        }
+
+        // 構建參數組，每組一次遍歷即可得到所有k值的結果
+        List<ScoringGroup> groups = new ArrayList<>();
+        for (double factor : distanceWeightFactors) {
+            groups.add(new ScoringGroup(factor, false, classifier.getMaxClassWeight(), null));
+            for (double cap : maxClassWeights) {
+                groups.add(new ScoringGroup(factor, true, cap, computeClassWeights(foldLabelCounts, cap)));
+            }
+        }
+
+        double epsilon = classifier.getEpsilon();
+        List<TuningResult> leaderboard = groups.parallelStream()
+                .flatMap(group -> scoreGroup(group, cache, kMax, labelCount, epsilon).stream())
+                .sorted(Comparator.comparingDouble(TuningResult::getAccuracy).reversed()
+                        .thenComparing(Comparator.comparingDouble(TuningResult::getF1Score).reversed())
+                        .thenComparingInt(TuningResult::getK))
+                .toList();
+
+        log.info("超參數搜索完成，共評估 {} 個參數組合，{} 個測試樣本", leaderboard.size(), cache.size());
+        return leaderboard;
+    }
+
+    /**
+     * 排行榜的前n名
+     *
+     * @param leaderboard tune返回的排行榜
+     * @param n 名次數，超過排行榜長度時返回整個排行榜
+     * @return 前n名
+     * @throws IllegalArgumentException n為負數
+     */
+    public static List<TuningResult> top(List<TuningResult> leaderboard, int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("名次數不能為負數: " + n);
+        }
+        return leaderboard.subList(0, Math.min(n, leaderboard.size()));
+    }
+
+    /**
+     * 按WeightedKNNClassifier的公式計算每折的類別權重
+     */
+    private static double[][] computeClassWeights(int[][] foldLabelCounts, double cap) {
+        double[][] weights = new double[foldLabelCounts.length][];
+        for (int fold = 0; fold < foldLabelCounts.length; fold++) {
+            int[] counts = foldLabelCounts[fold];
+            int maxCount = 0;
+            for (int count : counts) {
+                maxCount = Math.max(maxCount, count);
+            }
+            weights[fold] = new double[counts.length];
+            for (int label = 0; label < counts.length; label++) {
+                // 訓練折中不存在的類別與分類器中的getOrDefault一致，權重為1.0
+                weights[fold][label] = counts[label] == 0 ? 1.0
+                        : WeightedKNNUtils.calculateClassWeight(maxCount, counts[label], cap);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * 為一個參數組的所有k值計分
+     * 投票只會遞增，逐個加入鄰居時即可同時得到k=1..kMax的預測結果
+     */
+    private static List<TuningResult> scoreGroup(ScoringGroup group, List<CachedQuery> cache,
+                                                 int kMax, int labelCount, double epsilon) {
+        int[][] truePositives = new int[kMax][labelCount];
+        int[][] predictedCounts = new int[kMax][labelCount];
+        int[] actualCounts = new int[labelCount];
+        int[] correct = new int[kMax];
+        double[] votes = new double[labelCount];
+
+        for (CachedQuery query : cache) {
+            actualCounts[query.actualLabel]++;
+            int leader = -1;
+            int available = query.labels.length;
+            for (int n = 0; n < kMax; n++) {
+                if (n < available) {
+                    int label = query.labels[n];
+                    double weight = Math.pow(1.0 / (query.distances[n] + epsilon), group.distanceWeightFactor);
+                    if (group.useClassWeights) {
+                        weight *= group.classWeights[query.fold][label];
+                    }
+                    votes[label] += weight;
+                    if (leader < 0 || votes[label] > votes[leader]) {
+                        leader = label;
+                    }
+                }
+                // 訓練點少於k時，結果與可用鄰居全部投票時相同
+                predictedCounts[n][leader]++;
+                if (leader == query.actualLabel) {
+                    truePositives[n][leader]++;
+                    correct[n]++;
+                }
+            }
+            for (int n = 0; n < available; n++) {
+                votes[query.labels[n]] = 0.0;
+            }
+        }
+
+        List<TuningResult> results = new ArrayList<>(kMax);
+        int totalSamples = cache.size();
+        for (int n = 0; n < kMax; n++) {
+            double totalPrecision = 0;
+            double totalRecall = 0;
+            for (int label = 0; label < labelCount; label++) {
+                int tp = truePositives[n][label];
+                totalPrecision += predictedCounts[n][label] > 0 ? (double) tp / predictedCounts[n][label] : 0;
+                totalRecall += actualCounts[label] > 0 ? (double) tp / actualCounts[label] : 0;
+            }
+            double precision = totalPrecision / labelCount;
+            double recall = totalRecall / labelCount;
+            double f1Score = (precision + recall) > 0 ? 2 * precision * recall / (precision + recall) : 0;
+            double accuracy = totalSamples > 0 ? (double) correct[n] / totalSamples : 0;
+            results.add(new TuningResult(n + 1, group.distanceWeightFactor, group.useClassWeights,
+                    group.maxClassWeight, accuracy, precision, recall, f1Score));
+        }
+        return results;
+    }
+
+    /**
+     * 單個測試點在k_max下的緩存鄰居（按距離排序）
+     */
+    private record CachedQuery(int fold, int actualLabel, double[] distances, int[] labels) {
+    }
+
+    /**
+     * 共享同一距離權重因子與類別權重設定的參數組
+     */
+    private record ScoringGroup(double distanceWeightFactor, boolean useClassWeights,
+                                double maxClassWeight, double[][] classWeights) {
+    }
+}
@@ -0,0 +1,644 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntFunction;
+
+/**
+ * 面向大數據量的並行k-means聚類
+ * 點以連續的double[]座標加int[]權重存放，每個分配步驟把點按固定區間切分後在專用ForkJoinPool中並行處理，
+ * 各區間累加自己的質心和，最後按區間順序合併，因此同一種子的結果與線程數無關。
+ * <ul>
+ *   <li>FULL：k-means++初始化後進行Lloyd迭代，accelerated時按Hamerly算法維護每個點到所屬質心距離的上界
+ *       和到第二近質心距離的下界，上界不超過 max(下界, 所屬質心到最近其他質心距離的一半) 時所屬質心不可能改變，
+ *       跳過該點的完整距離計算；結果與不加速的Lloyd迭代相同</li>
+ *   <li>MINI_BATCH：在均勻抽樣的子集上做k-means++初始化，每次迭代隨機抽取batchSize個點，
+ *       按每個質心累計的權重以遞減的學習率移動質心，最後並行做一次完整分配統計權重和組內平方和，適合千萬級的點</li>
+ * </ul>
+ * 原型索引對每個區域分別聚類，這類大量的小規模聚類在調用方提供的線程池中運行，不為每次聚類創建線程池
+ */
+@Getter
+public final class KMeansEngine {
+    /** 默認最大迭代次數 */
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+    /** 每個並行區間的最少點數，點數很少時不值得切分 */
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    /**
+     * 聚類模式
+     */
+    public enum Mode {
+        /** 每次迭代分配所有點 */
+        FULL,
+        /** 每次迭代只用隨機抽取的一小批點更新質心 */
+        MINI_BATCH;
+
+        /**
+         * 從請求參數解析聚類模式，例如 full、mini-batch
+         *
+         * @param value 參數值
+         * @return 聚類模式
+         */
+        public static Mode parse(String value) {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private final int clusters;
+    @Setter
+    private Mode mode = Mode.FULL;
+    @Setter
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+    /** 質心的最大移動距離不超過此值時視為收斂 */
+    @Setter
+    private double tolerance = 1e-6;
+    /** 小批量模式每次迭代抽取的點數 */
+    @Setter
+    private int batchSize = 1024;
+    /** 是否使用三角不等式跳過不必要的距離計算，只影響速度，不影響結果 */
+    @Setter
+    private boolean accelerated = true;
+    /** 並行度，不大於0時使用全部CPU核心 */
+    @Setter
+    private int parallelism;
+    @Setter
+    private long seed = 42;
+
+    /**
+     * @param clusters 聚類數，不少於點數時每個點單獨成為一個質心
+     */
+    public KMeansEngine(int clusters) {
+        if (clusters < 1) {
+            throw new IllegalArgumentException("聚類數必須大於0");
+        }
+        this.clusters = clusters;
+    }
+
+    /**
+     * 把帶重複次數的數據點展開為連續存放的座標
+     *
+     * @param points 數據點
+     * @param dimension 維度
+     * @return 座標
+     */
+    public static double[] coordinates(List<? extends LabeledPoint> points, int dimension) {
+        double[] coordinates = new double[points.size() * dimension];
+        for (int i = 0; i < points.size(); i++) {
+            System.arraycopy(points.get(i).getFeatures(), 0, coordinates, i * dimension, dimension);
+        }
+        return coordinates;
+    }
+
+    /**
+     * 每個數據點的重複次數，作為聚類權重
+     *
+     * @param points 數據點
+     * @return 權重
+     */
+    public static int[] weights(List<? extends LabeledPoint> points) {
+        int[] weights = new int[points.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = points.get(i).getMultiplicity();
+        }
+        return weights;
+    }
+
+    /**
+     * 執行聚類；沒有分配到點的質心會被移除
+     *
+     * @param coordinates 連續存放的點座標
+     * @param weights 每個點的權重
+     * @param dimension 維度
+     * @param progress 進度與取消標記，可為null
+     * @return 聚類模型
+     * @throws java.util.concurrent.CancellationException 聚類被取消
+     */
+    public KMeansModel fit(double[] coordinates, int[] weights, int dimension, ClusteringProgress progress) {
+        return fit(coordinates, weights, dimension, progress, null);
+    }
+
+    /**
+     * 在調用方提供的線程池中執行聚類，線程池由調用方管理，聚類結束後不會關閉；
+     * 為null時按parallelism創建專用線程池
+     *
+     * @param coordinates 連續存放的點座標
+     * @param weights 每個點的權重
+     * @param dimension 維度
+     * @param progress 進度與取消標記，可為null
+     * @param sharedPool 共用的線程池，可為null
+     * @return 聚類模型
+     */
+    KMeansModel fit(double[] coordinates, int[] weights, int dimension, ClusteringProgress progress,
+                    ForkJoinPool sharedPool) {
+        long start = System.currentTimeMillis();
+        ClusteringProgress tracker = progress != null ? progress : new ClusteringProgress();
+        int size = weights.length;
+        if (coordinates.length != size * dimension) {
+            throw new IllegalArgumentException("座標數與點數不一致");
+        }
+        tracker.start(maxIterations);
+        if (size == 0) {
+            return new KMeansModel(dimension, new double[0], new long[0], mode, 0, true, 0.0, 0, 0,
+                    System.currentTimeMillis() - start);
+        }
+        if (clusters >= size) {
+            long[] centroidWeights = new long[size];
+            for (int i = 0; i < size; i++) {
+                centroidWeights[i] = weights[i];
+            }
+            return new KMeansModel(dimension, coordinates.clone(), centroidWeights, mode, 0, true, 0.0, size, 0,
+                    System.currentTimeMillis() - start);
+        }
+
+        ForkJoinPool pool = sharedPool != null ? sharedPool : newPool();
+        try {
+            Points data = new Points(coordinates, weights, dimension, chunkStarts(size, pool.getParallelism()));
+            Random random = new Random(seed);
+            Result result = mode == Mode.MINI_BATCH
+                    ? miniBatch(pool, data, random, tracker)
+                    : lloyd(pool, data, seedCentroids(pool, data, clusters, random), tracker);
+            return compact(result, dimension, size, System.currentTimeMillis() - start);
+        } finally {
+            if (pool != sharedPool) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private ForkJoinPool newPool() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        return new ForkJoinPool(threads, forkJoinPool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("classifier-kmeans-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * FULL模式：Lloyd迭代，accelerated時按Hamerly算法跳過距離計算
+     */
+    private Result lloyd(ForkJoinPool pool, Points data, double[] centroids, ClusteringProgress progress) {
+        int size = data.size();
+        int dim = data.dimension;
+        int k = clusters;
+        int[] assignments = new int[size];
+        double[] upper = new double[size];
+        double[] lower = new double[size];
+        double[] shifts = new double[k];
+        double[] halfGaps = new double[k];
+        long[] centroidWeights = new long[k];
+        long distances = 0;
+        int iteration = 0;
+        boolean converged = false;
+
+        while (iteration < maxIterations) {
+            progress.checkCancelled();
+            boolean first = iteration == 0;
+            boolean bounded = accelerated && !first;
+            if (bounded) {
+                halfGaps(pool, centroids, halfGaps);
+            }
+            // 所有其他質心中移動最大的距離，用於放寬下界；所屬質心恰好移動最大時取第二大
+            int largest = 0;
+            for (int c = 1; c < k; c++) {
+                if (shifts[c] > shifts[largest]) {
+                    largest = c;
+                }
+            }
+            double secondShift = largestExcept(shifts, largest);
+            double largestShift = shifts[largest];
+            int largestIndex = largest;
+            double[] current = centroids;
+
+            List<Partial> partials = runChunks(pool, data.chunks(), chunk -> {
+                Partial partial = new Partial(k, dim);
+                double[] coords = data.coordinates;
+                for (int i = data.chunkStart(chunk), end = data.chunkStart(chunk + 1); i < end; i++) {
+                    int offset = i * dim;
+                    int assigned = assignments[i];
+                    if (bounded) {
+                        upper[i] += shifts[assigned];
+                        lower[i] -= assigned == largestIndex ? secondShift : largestShift;
+                        double bound = Math.max(halfGaps[assigned], lower[i]);
+                        if (upper[i] > bound) {
+                            upper[i] = Math.sqrt(squaredDistance(coords, offset, current,
+                                    assigned * dim, dim));
+                            partial.distances++;
+                        }
+                        if (upper[i] <= bound) {
+                            partial.skipped++;
+                            partial.add(coords, offset, assigned, data.weights[i]);
+                            continue;
+                        }
+                    }
+                    // 完整搜索最近與第二近的質心
+                    int best = 0;
+                    double bestSquared = Double.POSITIVE_INFINITY;
+                    double secondSquared = Double.POSITIVE_INFINITY;
+                    for (int c = 0; c < k; c++) {
+                        double squared = squaredDistance(coords, offset, current, c * dim, dim);
+                        if (squared < bestSquared) {
+                            secondSquared = bestSquared;
+                            bestSquared = squared;
+                            best = c;
+                        } else if (squared < secondSquared) {
+                            secondSquared = squared;
+                        }
+                    }
+                    partial.distances += k;
+                    if (first || best != assigned) {
+                        partial.reassigned++;
+                    }
+                    assignments[i] = best;
+                    upper[i] = Math.sqrt(bestSquared);
+                    lower[i] = Math.sqrt(secondSquared);
+                    partial.add(coords, offset, best, data.weights[i]);
+                }
+                return partial;
+            });
+
+            Partial total = merge(partials, k, dim);
+            distances += total.distances;
+            iteration++;
+            // 空聚類保留原質心
+            double[] next = centroids.clone();
+            double maxShift = 0.0;
+            for (int c = 0; c < k; c++) {
+                centroidWeights[c] = total.weights[c];
+                if (total.weights[c] > 0) {
+                    for (int d = 0; d < dim; d++) {
+                        next[c * dim + d] = total.sums[c * dim + d] / total.weights[c];
+                    }
+                }
+                shifts[c] = Math.sqrt(squaredDistance(centroids, c * dim, next, c * dim, dim));
+                maxShift = Math.max(maxShift, shifts[c]);
+            }
+            centroids = next;
+            progress.iterationCompleted(total.reassigned, maxShift, (double) total.skipped / size);
+            if (!first && (total.reassigned == 0 || maxShift <= tolerance)) {
+                converged = true;
+                break;
+            }
+        }
+        double inertia = inertia(pool, data, centroids, assignments);
+        return new Result(centroids, centroidWeights, iteration, converged, inertia, distances);
+    }
+
+    /**
+     * MINI_BATCH模式：每次迭代抽取一批點，質心向所分配的點移動 權重 / 質心累計權重 的比例
+     */
+    private Result miniBatch(ForkJoinPool pool, Points data, Random random, ClusteringProgress progress) {
+        int size = data.size();
+        int dim = data.dimension;
+        int k = clusters;
+        int batch = Math.min(Math.max(1, batchSize), size);
+
+        // 在抽樣子集上初始化，避免k-means++對全部點掃描k遍
+        int sampleSize = Math.min(size, Math.max(10 * k, 4 * batch));
+        Points sample = data;
+        if (sampleSize < size) {
+            double[] sampleCoordinates = new double[sampleSize * dim];
+            int[] sampleWeights = new int[sampleSize];
+            for (int j = 0; j < sampleSize; j++) {
+                int i = random.nextInt(size);
+                System.arraycopy(data.coordinates, i * dim, sampleCoordinates, j * dim, dim);
+                sampleWeights[j] = data.weights[i];
+            }
+            sample = new Points(sampleCoordinates, sampleWeights, dim,
+                    chunkStarts(sampleSize, pool.getParallelism()));
+        }
+        double[] centroids = seedCentroids(pool, sample, k, random);
+
+        long[] counts = new long[k];
+        int[] indices = new int[batch];
+        int[] nearest = new int[batch];
+        int batchChunks = Math.max(1, Math.min(pool.getParallelism(), batch / 256));
+        long distances = 0;
+        int iteration = 0;
+        boolean converged = false;
+        while (iteration < maxIterations) {
+            progress.checkCancelled();
+            for (int j = 0; j < batch; j++) {
+                indices[j] = random.nextInt(size);
+            }
+            double[] current = centroids;
+            runChunks(pool, batchChunks, chunk -> {
+                for (int j = batch * chunk / batchChunks, end = batch * (chunk + 1) / batchChunks; j < end; j++) {
+                    nearest[j] = nearest(data.coordinates, indices[j] * dim, current, k, dim);
+                }
+                return null;
+            });
+            distances += (long) batch * k;
+
+            double[] previous = centroids.clone();
+            for (int j = 0; j < batch; j++) {
+                int c = nearest[j];
+                int i = indices[j];
+                counts[c] += data.weights[i];
+                double rate = (double) data.weights[i] / counts[c];
+                for (int d = 0; d < dim; d++) {
+                    int position = c * dim + d;
+                    centroids[position] += rate * (data.coordinates[i * dim + d] - centroids[position]);
+                }
+            }
+            double maxShift = 0.0;
+            for (int c = 0; c < k; c++) {
+                maxShift = Math.max(maxShift,
+                        Math.sqrt(squaredDistance(previous, c * dim, centroids, c * dim, dim)));
+            }
+            iteration++;
+            progress.iterationCompleted(batch, maxShift, 0.0);
+            if (maxShift <= tolerance) {
+                converged = true;
+                break;
+            }
+        }
+
+        // 完整分配一次，統計每個質心代表的權重與組內平方和
+        double[] finalCentroids = centroids;
+        List<Partial> partials = runChunks(pool, data.chunks(), chunk -> {
+            Partial partial = new Partial(k, 0);
+            for (int i = data.chunkStart(chunk), end = data.chunkStart(chunk + 1); i < end; i++) {
+                int offset = i * dim;
+                int c = nearest(data.coordinates, offset, finalCentroids, k, dim);
+                partial.weights[c] += data.weights[i];
+                partial.inertia += data.weights[i]
+                        * squaredDistance(data.coordinates, offset, finalCentroids, c * dim, dim);
+            }
+            partial.distances = (long) (data.chunkStart(chunk + 1) - data.chunkStart(chunk)) * k;
+            return partial;
+        });
+        Partial total = merge(partials, k, 0);
+        distances += total.distances;
+        return new Result(centroids, total.weights, iteration, converged, total.inertia, distances);
+    }
+
+    /**
+     * 並行的加權k-means++初始化：每選出一個質心，各區間並行更新點到最近質心的距離平方並匯總 權重 × 距離平方，
+     * 再先按區間、後在區間內定位抽中的點
+     */
+    private static double[] seedCentroids(ForkJoinPool pool, Points data, int k, Random random) {
+        int size = data.size();
+        int dim = data.dimension;
+        double[] centroids = new double[k * dim];
+        double[] nearestSquared = new double[size];
+        Arrays.fill(nearestSquared, Double.POSITIVE_INFINITY);
+
+        long totalWeight = 0;
+        for (int weight : data.weights) {
+            totalWeight += weight;
+        }
+        int first = 0;
+        for (long target = (long) (random.nextDouble() * totalWeight); first < size - 1; first++) {
+            target -= data.weights[first];
+            if (target < 0) {
+                break;
+            }
+        }
+        System.arraycopy(data.coordinates, first * dim, centroids, 0, dim);
+
+        for (int c = 1; c < k; c++) {
+            int previous = (c - 1) * dim;
+            List<Double> chunkTotals = runChunks(pool, data.chunks(), chunk -> {
+                double sum = 0.0;
+                for (int i = data.chunkStart(chunk), end = data.chunkStart(chunk + 1); i < end; i++) {
+                    nearestSquared[i] = Math.min(nearestSquared[i], squaredDistance(
+                            data.coordinates, i * dim, centroids, previous, dim));
+                    sum += data.weights[i] * nearestSquared[i];
+                }
+                return sum;
+            });
+            double total = 0.0;
+            for (double chunkTotal : chunkTotals) {
+                total += chunkTotal;
+            }
+            int chosen = size - 1;
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+                int chunk = 0;
+                while (chunk < chunkTotals.size() - 1 && target >= chunkTotals.get(chunk)) {
+                    target -= chunkTotals.get(chunk);
+                    chunk++;
+                }
+                chosen = data.chunkStart(chunk + 1) - 1;
+                for (int i = data.chunkStart(chunk), end = data.chunkStart(chunk + 1); i < end; i++) {
+                    target -= data.weights[i] * nearestSquared[i];
+                    if (target < 0) {
+                        chosen = i;
+                        break;
+                    }
+                }
+            } else {
+                // 剩餘的點都與已選質心重合
+                chosen = random.nextInt(size);
+            }
+            System.arraycopy(data.coordinates, chosen * dim, centroids, c * dim, dim);
+        }
+        return centroids;
+    }
+
+    /**
+     * 每個質心到最近其他質心距離的一半：點到所屬質心的距離不超過此值時，其他質心不可能更近
+     */
+    private static void halfGaps(ForkJoinPool pool, double[] centroids, double[] halfGaps) {
+        int k = halfGaps.length;
+        int dim = centroids.length / k;
+        int chunks = Math.max(1, Math.min(pool.getParallelism(), k / 64));
+        runChunks(pool, chunks, chunk -> {
+            for (int c = k * chunk / chunks, end = k * (chunk + 1) / chunks; c < end; c++) {
+                double closest = Double.POSITIVE_INFINITY;
+                for (int other = 0; other < k; other++) {
+                    if (other != c) {
+                        closest = Math.min(closest,
+                                squaredDistance(centroids, c * dim, centroids, other * dim, dim));
+                    }
+                }
+                halfGaps[c] = Math.sqrt(closest) / 2;
+            }
+            return null;
+        });
+    }
+
+    private static double largestExcept(double[] values, int excluded) {
+        double largest = 0.0;
+        for (int i = 0; i < values.length; i++) {
+            if (i != excluded) {
+                largest = Math.max(largest, values[i]);
+            }
+        }
+        return largest;
+    }
+
+    private static double inertia(ForkJoinPool pool, Points data, double[] centroids, int[] assignments) {
+        int dim = data.dimension;
+        double inertia = 0.0;
+        for (double chunkInertia : runChunks(pool, data.chunks(), chunk -> {
+            double sum = 0.0;
+            for (int i = data.chunkStart(chunk), end = data.chunkStart(chunk + 1); i < end; i++) {
+                sum += data.weights[i] * squaredDistance(data.coordinates, i * dim, centroids,
+                        assignments[i] * dim, dim);
+            }
+            return sum;
+        })) {
+            inertia += chunkInertia;
+        }
+        return inertia;
+    }
+
+    private static int nearest(double[] coordinates, int offset, double[] centroids, int k, int dim) {
+        int best = 0;
+        double bestSquared = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            double squared = squaredDistance(coordinates, offset, centroids, c * dim, dim);
+            if (squared < bestSquared) {
+                bestSquared = squared;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 兩點距離的平方
+     */
+    static double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int dimension) {
+        double sum = 0.0;
+        for (int d = 0; d < dimension; d++) {
+            double diff = a[aOffset + d] - b[bOffset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * 在線程池中並行執行各區間的任務，按區間順序返回結果
+     */
+    private static <T> List<T> runChunks(ForkJoinPool pool, int chunks, IntFunction<T> task) {
+        if (chunks == 1) {
+            return Collections.singletonList(task.apply(0));
+        }
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int index = chunk;
+            tasks.add(pool.submit(() -> task.apply(index)));
+        }
+        List<T> results = new ArrayList<>(chunks);
+        for (ForkJoinTask<T> pending : tasks) {
+            results.add(pending.join());
+        }
+        return results;
+    }
+
+    /**
+     * 按區間順序合併各區間的累加結果，保證浮點求和順序固定
+     */
+    private static Partial merge(List<Partial> partials, int k, int dim) {
+        Partial total = new Partial(k, dim);
+        for (Partial partial : partials) {
+            for (int j = 0; j < total.sums.length; j++) {
+                total.sums[j] += partial.sums[j];
+            }
+            for (int c = 0; c < k; c++) {
+                total.weights[c] += partial.weights[c];
+            }
+            total.reassigned += partial.reassigned;
+            total.distances += partial.distances;
+            total.skipped += partial.skipped;
+            total.inertia += partial.inertia;
+        }
+        return total;
+    }
+
+    /**
+     * 點數劃分為並行區間的邊界：區間數為線程數的4倍以便負載均衡，但每個區間至少MIN_CHUNK_SIZE個點
+     */
+    private static int[] chunkStarts(int size, int threads) {
+        int chunks = Math.max(1, Math.min(threads * 4, size / MIN_CHUNK_SIZE));
+        int[] starts = new int[chunks + 1];
+        for (int chunk = 0; chunk <= chunks; chunk++) {
+            starts[chunk] = (int) ((long) size * chunk / chunks);
+        }
+        return starts;
+    }
+
+    /**
+     * 移除沒有分配到點的質心
+     */
+    private KMeansModel compact(Result result, int dimension, long points, long elapsedMillis) {
+        int kept = 0;
+        for (long weight : result.weights) {
+            if (weight > 0) {
+                kept++;
+            }
+        }
+        double[] centroids = new double[kept * dimension];
+        long[] weights = new long[kept];
+        int next = 0;
+        for (int c = 0; c < result.weights.length; c++) {
+            if (result.weights[c] > 0) {
+                System.arraycopy(result.centroids, c * dimension, centroids, next * dimension, dimension);
+                weights[next++] = result.weights[c];
+            }
+        }
+        return new KMeansModel(dimension, centroids, weights, mode, result.iterations, result.converged,
+                result.inertia, points, result.distances, elapsedMillis);
+    }
+
+    /**
+     * 連續存放的點及其並行區間
+     */
+    private record Points(double[] coordinates, int[] weights, int dimension, int[] starts) {
+        int size() {
+            return weights.length;
+        }
+
+        int chunks() {
+            return starts.length - 1;
+        }
+
+        int chunkStart(int chunk) {
+            return starts[chunk];
+        }
+    }
+
+    private record Result(double[] centroids, long[] weights, int iterations, boolean converged, double inertia,
+                          long distances) {
+    }
+
+    /**
+     * 單個區間的累加結果
+     */
+    private static final class Partial {
+        final int dimension;
+        final double[] sums;
+        final long[] weights;
+        long reassigned;
+        long distances;
+        long skipped;
+        double inertia;
+
+        Partial(int k, int dim) {
+            dimension = dim;
+            sums = new double[k * dim];
+            weights = new long[k];
+        }
+
+        void add(double[] coordinates, int offset, int centroid, int weight) {
+            weights[centroid] += weight;
+            int base = centroid * dimension;
+            for (int d = 0; d < dimension; d++) {
+                sums[base + d] += weight * coordinates[offset + d];
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.yc.kmeans.kmeans;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * k-means聚類模型：質心、每個質心代表的權重及訓練統計
+ * 以緊湊的二進制格式保存，不依賴Java序列化：魔數、版本、維度、質心數、統計字段，然後依次是質心座標與權重
+ */
+public final class KMeansModel {
+    /** 二進制格式的魔數 "KMC1" */
+    public static final int MAGIC = 0x4B4D4331;
+    /** 二進制格式版本 */
+    public static final int FORMAT_VERSION = 1;
+
+    private final int dimension;
+    private final double[] centroids;
+    private final long[] weights;
+    private final KMeansEngine.Mode mode;
+    private final int iterations;
+    private final boolean converged;
+    private final double inertia;
+    private final long points;
+    private final long distanceComputations;
+    private final long elapsedMillis;
+
+    KMeansModel(int dimension, double[] centroids, long[] weights, KMeansEngine.Mode mode, int iterations,
+                boolean converged, double inertia, long points, long distanceComputations, long elapsedMillis) {
+        this.dimension = dimension;
+        this.centroids = centroids;
+        this.weights = weights;
+        this.mode = mode;
+        this.iterations = iterations;
+        this.converged = converged;
+        this.inertia = inertia;
+        this.points = points;
+        this.distanceComputations = distanceComputations;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * 質心數
+     *
+     * @return 質心數
+     */
+    public int size() {
+        return weights.length;
+    }
+
+    /**
+     * 第c個質心的座標副本
+     *
+     * @param c 質心編號
+     * @return 座標
+     */
+    public double[] getCentroid(int c) {
+        return Arrays.copyOfRange(centroids, c * dimension, (c + 1) * dimension);
+    }
+
+    /**
+     * 第c個質心所屬點的權重之和
+     *
+     * @param c 質心編號
+     * @return 權重
+     */
+    public long getWeight(int c) {
+        return weights[c];
+    }
+
+    public KMeansEngine.Mode getMode() {
+        return mode;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * 加權的組內平方和：每個點的權重 × 到所屬質心距離的平方
+     */
+    public double getInertia() {
+        return inertia;
+    }
+
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * 訓練過程中計算的點到質心距離次數，與 點數 × 質心數 × 迭代次數 對比即可看出三角不等式省下的計算量
+     */
+    public long getDistanceComputations() {
+        return distanceComputations;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * 距離查詢點最近的質心
+     *
+     * @param features 查詢點
+     * @return 質心編號，模型為空時返回-1
+     */
+    public int nearest(double[] features) {
+        int best = -1;
+        double bestSquared = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < weights.length; c++) {
+            double squared = KMeansEngine.squaredDistance(features, 0, centroids, c * dimension, dimension);
+            if (squared < bestSquared) {
+                bestSquared = squared;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 模型統計
+     *
+     * @return 質心數、模式、迭代次數、組內平方和等
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("clusters", size());
+        stats.put("dimension", dimension);
+        stats.put("mode", mode);
+        stats.put("iterations", iterations);
+        stats.put("converged", converged);
+        stats.put("inertia", inertia);
+        stats.put("points", points);
+        stats.put("distanceComputations", distanceComputations);
+        stats.put("elapsedMs", elapsedMillis);
+        return stats;
+    }
+
+    /**
+     * 寫入二進制格式
+     *
+     * @param output 輸出流，調用方負責關閉
+     * @throws IOException 寫入失敗
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(dimension);
+        out.writeInt(weights.length);
+        out.writeByte(mode.ordinal());
+        out.writeInt(iterations);
+        out.writeBoolean(converged);
+        out.writeDouble(inertia);
+        out.writeLong(points);
+        out.writeLong(distanceComputations);
+        out.writeLong(elapsedMillis);
+        for (double value : centroids) {
+            out.writeDouble(value);
+        }
+        for (long weight : weights) {
+            out.writeLong(weight);
+        }
+        out.flush();
+    }
+
+    /**
+     * 讀取二進制格式
+     *
+     * @param input 輸入流，調用方負責關閉
+     * @return 模型
+     * @throws IOException 讀取失敗，或魔數、版本不符
+     */
+    public static KMeansModel readFrom(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("不是k-means模型文件");
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("不支持的k-means模型格式版本: " + version);
+        }
+        int dimension = in.readInt();
+        int clusters = in.readInt();
+        if (dimension <= 0 || clusters < 0) {
+            throw new IOException("k-means模型文件已損壞");
+        }
+        int modeOrdinal = in.readUnsignedByte();
+        KMeansEngine.Mode[] modes = KMeansEngine.Mode.values();
+        if (modeOrdinal >= modes.length) {
+            throw new IOException("k-means模型文件已損壞");
+        }
+        int iterations = in.readInt();
+        boolean converged = in.readBoolean();
+        double inertia = in.readDouble();
+        long points = in.readLong();
+        long distanceComputations = in.readLong();
+        long elapsedMillis = in.readLong();
+        double[] centroids = new double[Math.multiplyExact(clusters, dimension)];
+        for (int i = 0; i < centroids.length; i++) {
+            centroids[i] = in.readDouble();
+        }
+        long[] weights = new long[clusters];
+        for (int c = 0; c < clusters; c++) {
+            weights[c] = in.readLong();
+        }
+        return new KMeansModel(dimension, centroids, weights, modes[modeOrdinal], iterations, converged, inertia,
+                points, distanceComputations, elapsedMillis);
+    }
+
+    /**
+     * 保存到文件：先寫臨時文件再原子替換，讀取方不會看到寫了一半的文件
+     *
+     * @param path 文件路徑
+     * @throws IOException 寫入失敗
+     */
+    public void save(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            writeTo(out);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 從文件載入
+     *
+     * @param path 文件路徑
+     * @return 模型
+     * @throws IOException 讀取失敗或格式不符
+     */
+    public static KMeansModel load(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return readFrom(in);
+        }
+    }
+}
@@ -7,20 +7,41 @@ import java.util.Arrays;
 
 /**
  * 帶標籤的數據點，繼承自基礎數據點
+ * multiplicity 表示座標與標籤完全相同的原始數據行數（例如同一建築物內的多個單位），投票時按此倍數計算
  */
 @Getter
 public class LabeledPoint extends Point {
     @Serial
     private static final long serialVersionUID = 1L;
     private final String label;
+    private final int multiplicity;
 
     public LabeledPoint(double[] features, String label) {
+        this(features, label, 1);
+    }
+
+    public LabeledPoint(double[] features, String label, int multiplicity) {
         super(features);
+        if (multiplicity < 1) {
+            throw new IllegalArgumentException("重複次數必須大於0");
+        }
         this.label = label;
+        this.multiplicity = multiplicity;
+    }
+
+    /**
+     * 獲取重複次數
+     * 舊版本序列化的模型中沒有此字段，反序列化後為0，視為1
+     *
+     * @return 重複次數
+     */
+    public int getMultiplicity() {
+        return Math.max(multiplicity, 1);
     }
 
     @Override
     public String toString() {
-        return "LabeledPoint{" + super.toString() + ", label=" + label + '}';
+        String suffix = getMultiplicity() > 1 ? ", multiplicity=" + getMultiplicity() : "";
+        return "LabeledPoint{" + super.toString() + ", label=" + label + suffix + '}';
     }
 }
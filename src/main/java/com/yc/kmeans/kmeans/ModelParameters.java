@@ -0,0 +1,102 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.Getter;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * 分類器的超參數快照
+ * 與訓練數據分開保存為一個小的版本化參數文件，啟動時疊加在載入的模型之上，調整參數時無需重新序列化訓練集
+ */
+@Getter
+public final class ModelParameters implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final long version;
+    private final int k;
+    private final double epsilon;
+    private final boolean useClassWeights;
+    private final double maxClassWeight;
+    private final double distanceWeightFactor;
+    private final boolean quantizedStorage;
+    private final WeightedKNNClassifier.NeighbourEngine neighbourEngine;
+
+    public ModelParameters(long version, int k, double epsilon, boolean useClassWeights, double maxClassWeight,
+                           double distanceWeightFactor, boolean quantizedStorage,
+                           WeightedKNNClassifier.NeighbourEngine neighbourEngine) {
+        this.version = version;
+        this.k = k;
+        this.epsilon = epsilon;
+        this.useClassWeights = useClassWeights;
+        this.maxClassWeight = maxClassWeight;
+        this.distanceWeightFactor = distanceWeightFactor;
+        this.quantizedStorage = quantizedStorage;
+        this.neighbourEngine = neighbourEngine;
+    }
+
+    /**
+     * 創建版本號不同、其餘參數相同的副本
+     *
+     * @param newVersion 新版本號
+     * @return 參數副本
+     */
+    public ModelParameters withVersion(long newVersion) {
+        return new ModelParameters(newVersion, k, epsilon, useClassWeights, maxClassWeight, distanceWeightFactor,
+                quantizedStorage, neighbourEngine);
+    }
+
+    /**
+     * 轉換為properties格式
+     *
+     * @return 參數屬性
+     */
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("version", Long.toString(version));
+        properties.setProperty("k", Integer.toString(k));
+        properties.setProperty("epsilon", Double.toString(epsilon));
+        properties.setProperty("useClassWeights", Boolean.toString(useClassWeights));
+        properties.setProperty("maxClassWeight", Double.toString(maxClassWeight));
+        properties.setProperty("distanceWeightFactor", Double.toString(distanceWeightFactor));
+        properties.setProperty("quantizedStorage", Boolean.toString(quantizedStorage));
+        properties.setProperty("neighbourEngine", neighbourEngine.name());
+        return properties;
+    }
+
+    /**
+     * 從properties格式解析
+     *
+     * @param properties 參數屬性
+     * @return 參數快照
+     * @throws IllegalArgumentException 缺少參數或格式錯誤
+     */
+    public static ModelParameters fromProperties(Properties properties) {
+        return new ModelParameters(
+                Long.parseLong(require(properties, "version")),
+                Integer.parseInt(require(properties, "k")),
+                Double.parseDouble(require(properties, "epsilon")),
+                Boolean.parseBoolean(require(properties, "useClassWeights")),
+                Double.parseDouble(require(properties, "maxClassWeight")),
+                Double.parseDouble(require(properties, "distanceWeightFactor")),
+                Boolean.parseBoolean(require(properties, "quantizedStorage")),
+                WeightedKNNClassifier.NeighbourEngine.parse(properties.getProperty("neighbourEngine", "BRUTE_FORCE")));
+    }
+
+    private static String require(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("參數文件缺少 " + key);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "ModelParameters{version=" + version + ", k=" + k + ", epsilon=" + epsilon
+                + ", useClassWeights=" + useClassWeights + ", maxClassWeight=" + maxClassWeight
+                + ", distanceWeightFactor=" + distanceWeightFactor + ", quantizedStorage=" + quantizedStorage
+                + ", neighbourEngine=" + neighbourEngine + '}';
+    }
+}
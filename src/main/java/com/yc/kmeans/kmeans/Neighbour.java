@@ -0,0 +1,27 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.Getter;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * 最近鄰查詢結果：訓練點到查詢點的距離及其標籤
+ */
+@Getter
+public final class Neighbour implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final double distance; // 到查詢點的距離
+    private final String label;    // 訓練點的標籤
+
+    public Neighbour(double distance, String label) {
+        this.distance = distance;
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return "Neighbour{distance=" + distance + ", label='" + label + "'}";
+    }
+}
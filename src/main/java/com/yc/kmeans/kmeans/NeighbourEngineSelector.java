@@ -0,0 +1,151 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 最近鄰搜索引擎的自動選擇
+ * 對每個候選引擎（雙精度暴力掃描、量化暴力掃描、網格索引）在同一批未參與訓練的查詢點上逐個計時，
+ * 預測結果與雙精度暴力掃描不一致或座標存儲超出內存預算的候選不參與選擇，其餘按p99延遲選出最快的引擎
+ */
+@Slf4j
+public class NeighbourEngineSelector {
+    private static final int WARMUP_ROUNDS = 2;
+
+    private NeighbourEngineSelector() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * 單個候選引擎的計時結果
+     *
+     * @param name 候選名稱
+     * @param engine 搜索引擎
+     * @param quantizedStorage 是否使用量化座標存儲
+     * @param memoryBytes 座標存儲與索引佔用的字節數
+     * @param p50Micros 單次預測延遲的中位數（微秒）
+     * @param p99Micros 單次預測延遲的p99（微秒）
+     * @param agreesWithBruteForce 所有查詢點的預測是否與雙精度暴力掃描一致
+     * @param withinBudget 是否在內存預算內
+     */
+    public record Candidate(String name, WeightedKNNClassifier.NeighbourEngine engine, boolean quantizedStorage,
+                            long memoryBytes, double p50Micros, double p99Micros, boolean agreesWithBruteForce,
+                            boolean withinBudget) {
+    }
+
+    /**
+     * 選擇結果
+     *
+     * @param chosen 選中的候選名稱
+     * @param queries 計時使用的查詢點數
+     * @param memoryBudgetBytes 內存預算
+     * @param elapsedMs 選擇耗時
+     * @param candidates 所有候選的計時結果
+     */
+    public record Selection(String chosen, int queries, long memoryBudgetBytes, long elapsedMs,
+                            List<Candidate> candidates) {
+    }
+
+    /**
+     * 為已訓練的分類器選擇最快的搜索引擎並應用
+     *
+     * @param classifier 已訓練的分類器
+     * @param queryCount 計時使用的查詢點數
+     * @param memoryBudgetBytes 座標存儲與索引的內存預算
+     * @return 選擇結果
+     */
+    public static Selection select(WeightedKNNClassifier classifier, int queryCount, long memoryBudgetBytes) {
+        if (!classifier.isTrained()) {
+            throw new IllegalStateException("分類器尚未訓練");
+        }
+        long start = System.currentTimeMillis();
+        double[][] queries = heldOutQueries(classifier, Math.max(1, queryCount));
+        int dimension = queries[0].length;
+
+        List<Candidate> candidates = new ArrayList<>();
+        String[] reference = null;
+        for (String name : dimension == 2
+                ? List.of("brute-force", "brute-force-quantized", "grid")
+                : List.of("brute-force", "brute-force-quantized")) {
+            WeightedKNNClassifier.NeighbourEngine engine = name.equals("grid")
+                    ? WeightedKNNClassifier.NeighbourEngine.GRID : WeightedKNNClassifier.NeighbourEngine.BRUTE_FORCE;
+            boolean quantized = name.equals("brute-force-quantized");
+            classifier.setNeighbourEngine(engine);
+            classifier.setQuantizedStorage(quantized);
+            // 座標超出量化範圍時會退回雙精度存儲，此時不是獨立的候選
+            if (quantized && !classifier.isQuantizedStoreActive()) {
+                continue;
+            }
+
+            String[] labels = new String[queries.length];
+            long[] nanos = new long[queries.length];
+            for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+                for (int q = 0; q < queries.length; q++) {
+                    long before = System.nanoTime();
+                    labels[q] = classifier.predict(queries[q]);
+                    nanos[q] = System.nanoTime() - before;
+                }
+            }
+            if (reference == null) {
+                reference = labels;
+            }
+            Arrays.sort(nanos);
+            long memoryBytes = classifier.getCoordinateStoreBytes();
+            Candidate candidate = new Candidate(name, engine, quantized, memoryBytes,
+                    percentile(nanos, 0.50) / 1000.0, percentile(nanos, 0.99) / 1000.0,
+                    Arrays.equals(reference, labels), memoryBytes <= memoryBudgetBytes);
+            candidates.add(candidate);
+            log.info("搜索引擎候選 {}: p50={}µs, p99={}µs, 內存 {} 字節, 與暴力掃描一致: {}", name,
+                    candidate.p50Micros(), candidate.p99Micros(), memoryBytes, candidate.agreesWithBruteForce());
+        }
+
+        // 沒有候選滿足條件時保留雙精度暴力掃描
+        Candidate best = candidates.get(0);
+        for (Candidate candidate : candidates) {
+            if (candidate.agreesWithBruteForce() && candidate.withinBudget()
+                    && (!best.withinBudget() || candidate.p99Micros() < best.p99Micros())) {
+                best = candidate;
+            }
+        }
+        classifier.setNeighbourEngine(best.engine());
+        classifier.setQuantizedStorage(best.quantizedStorage());
+
+        Selection selection = new Selection(best.name(), queries.length, memoryBudgetBytes,
+                System.currentTimeMillis() - start, candidates);
+        log.info("已選擇搜索引擎 {}，耗時 {} 毫秒", best.name(), selection.elapsedMs());
+        return selection;
+    }
+
+    /**
+     * 生成不在訓練數據中的查詢點：一半為訓練點附近的隨機偏移，一半均勻分佈在外接矩形內
+     */
+    private static double[][] heldOutQueries(WeightedKNNClassifier classifier, int count) {
+        List<LabeledPoint> trainingData = classifier.getTrainingData();
+        double[][] boundingBox = classifier.getBoundingBox();
+        Random random = new Random(42);
+        double[][] queries = new double[count][];
+        for (int i = 0; i < count; i++) {
+            double[] query = new double[boundingBox[0].length];
+            if (i % 2 == 0) {
+                double[] features = trainingData.get(random.nextInt(trainingData.size())).getFeatures();
+                for (int d = 0; d < query.length; d++) {
+                    query[d] = features[d] + random.nextGaussian() * 1e-4;
+                }
+            } else {
+                for (int d = 0; d < query.length; d++) {
+                    query[d] = boundingBox[0][d] + random.nextDouble() * (boundingBox[1][d] - boundingBox[0][d]);
+                }
+            }
+            queries[i] = query;
+        }
+        return queries;
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+}
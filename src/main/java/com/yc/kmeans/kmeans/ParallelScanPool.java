@@ -0,0 +1,67 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 大模型單次查詢並行掃描使用的專用線程池
+ * 與公共ForkJoinPool及Web請求線程隔離，並行度有上限；同時使用並行掃描的查詢數也有上限，
+ * 超出時查詢直接在調用線程中串行掃描，避免少數大查詢佔滿CPU而餓死其他並發請求
+ */
+@Slf4j
+public final class ParallelScanPool {
+    private static volatile ForkJoinPool pool;
+    private static volatile Semaphore permits;
+
+    private ParallelScanPool() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * 設置並行度，替換現有的線程池
+     *
+     * @param parallelism 線程池並行度，不大於0時使用CPU核心數的一半
+     * @param maxConcurrentQueries 同時使用並行掃描的查詢數上限
+     */
+    public static synchronized void configure(int parallelism, int maxConcurrentQueries) {
+        int threads = parallelism > 0 ? parallelism : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        ForkJoinPool previous = pool;
+        pool = new ForkJoinPool(threads, forkJoinPool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("knn-parallel-scan-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        permits = new Semaphore(Math.max(1, maxConcurrentQueries));
+        if (previous != null) {
+            previous.shutdown();
+        }
+        log.info("並行掃描線程池：並行度 {}，同時並行的查詢數上限 {}", threads, Math.max(1, maxConcurrentQueries));
+    }
+
+    static ForkJoinPool pool() {
+        ForkJoinPool current = pool;
+        if (current == null) {
+            synchronized (ParallelScanPool.class) {
+                if (pool == null) {
+                    configure(0, 2);
+                }
+                current = pool;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 嘗試取得並行掃描許可
+     *
+     * @return 取得的許可，用完後須釋放；已達上限時返回null，調用方應改為串行掃描
+     */
+    static Semaphore tryAcquire() {
+        pool();
+        Semaphore current = permits;
+        return current.tryAcquire() ? current : null;
+    }
+}
@@ -0,0 +1,111 @@
+package com.yc.kmeans.kmeans;
+
+import java.util.Arrays;
+
+/**
+ * 每個線程獨立持有的預測工作區
+ * 保存前k個最近鄰的有序數組、按標籤編號索引的投票累加數組以及量化掃描的候選緩衝區，
+ * 穩定狀態下預測過程不再分配任何對象
+ */
+final class PredictScratch {
+    final double[] query;        // 查詢點，避免predict(x, y)每次創建數組
+    final double[] scaledQuery;  // 換算到量化單位的查詢點
+    final double[] votes;        // 按標籤編號累加的投票權重
+
+    double[] bestDistances;      // 按距離升序排列的最近鄰距離
+    double[] bestSquared;        // 對應的距離平方，用於在開方前快速排除
+    int[] bestIndices;           // 對應的訓練點索引
+    int size;
+    int visited;                 // 最近一次搜索中計算過距離的訓練點數
+    int nodesVisited;            // 最近一次搜索中掃描的網格單元數或原型區域數
+    boolean decidedEarly;        // 最近一次網格搜索是否在找齊k個最近鄰前確定了投票結果
+    private int capacity;
+
+    double[] heap;               // 量化掃描中第count小距離的最大堆
+    int[] candidates;            // 量化掃描收集的候選點索引
+    double[] candidateDistances; // 候選點的量化距離
+
+    final double[] zoneDistances; // 原型引擎中每個區域到查詢點最近的原型距離平方
+
+    PredictScratch(int dimension, int labelCount, int capacity) {
+        this.query = new double[dimension];
+        this.scaledQuery = new double[dimension];
+        this.votes = new double[labelCount];
+        this.bestDistances = new double[capacity];
+        this.bestSquared = new double[capacity];
+        this.bestIndices = new int[capacity];
+        this.heap = new double[capacity];
+        this.candidates = new int[Math.max(capacity * 4, 16)];
+        this.candidateDistances = new double[candidates.length];
+        this.zoneDistances = new double[labelCount];
+    }
+
+    /**
+     * 清空最近鄰數組，必要時擴容
+     *
+     * @param capacity 需要保留的最近鄰數量
+     */
+    void reset(int capacity) {
+        if (capacity > bestDistances.length) {
+            bestDistances = new double[capacity];
+            bestSquared = new double[capacity];
+            bestIndices = new int[capacity];
+            heap = new double[capacity];
+        }
+        this.capacity = capacity;
+        this.size = 0;
+    }
+
+    /**
+     * 當前第capacity近的距離平方，未滿時為正無窮
+     * 距離平方大於此值的點不可能進入最近鄰
+     *
+     * @return 距離平方閾值
+     */
+    double worstSquared() {
+        return size < capacity ? Double.POSITIVE_INFINITY : bestSquared[size - 1];
+    }
+
+    /**
+     * 嘗試加入一個點
+     * 距離相同時索引小的點排在前面，與按索引遞增掃描後按距離穩定排序的結果一致，因此調用方可以按任意順序提供點
+     *
+     * @param distance 距離
+     * @param squared 距離平方
+     * @param index 訓練點索引
+     */
+    void offer(double distance, double squared, int index) {
+        if (capacity == 0) {
+            return;
+        }
+        int position;
+        if (size < capacity) {
+            position = size++;
+        } else if (distance < bestDistances[size - 1]
+                || (distance == bestDistances[size - 1] && index < bestIndices[size - 1])) {
+            position = size - 1;
+        } else {
+            return;
+        }
+        while (position > 0 && (bestDistances[position - 1] > distance
+                || (bestDistances[position - 1] == distance && bestIndices[position - 1] > index))) {
+            bestDistances[position] = bestDistances[position - 1];
+            bestSquared[position] = bestSquared[position - 1];
+            bestIndices[position] = bestIndices[position - 1];
+            position--;
+        }
+        bestDistances[position] = distance;
+        bestSquared[position] = squared;
+        bestIndices[position] = index;
+    }
+
+    /**
+     * 確保候選緩衝區可以再容納一個元素
+     */
+    void ensureCandidateCapacity(int count) {
+        if (count == candidates.length) {
+            candidates = Arrays.copyOf(candidates, count * 2);
+            candidateDistances = Arrays.copyOf(candidateDistances, count * 2);
+        }
+    }
+}
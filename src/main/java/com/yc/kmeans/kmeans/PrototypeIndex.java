@@ -0,0 +1,256 @@
+package com.yc.kmeans.kmeans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 按區域（標籤）的k-means原型索引
+ * 每個標籤的訓練點用加權k-means壓縮為至多prototypesPerLabel個質心（原型），預測分兩步：
+ * 先計算查詢點到所有原型的距離，選出最近原型所屬的candidateZones個區域，再只在這些區域的完整訓練點中搜索k個最近鄰。
+ * 與暴力掃描相比只掃描少數區域的點，但真正的最近鄰落在未選中區域時結果會不同，準確率損失通過交叉驗證衡量
+ */
+final class PrototypeIndex {
+    private static final int MAX_ITERATIONS = 25; // 每個區域k-means的最大迭代次數，原型只用於選出候選區域，不需要完全收斂
+    private final int dimension;
+    private final double[] prototypes;       // 連續存放的原型座標
+    private final int[] prototypeLabels;     // 每個原型所屬的標籤編號
+    private final long[] prototypeWeights;   // 每個原型代表的原始行數
+    private final int[] zoneStarts;          // 標籤l的訓練點位於zoneCoordinates中的[zoneStarts[l], zoneStarts[l + 1])
+    private final double[] zoneCoordinates;  // 按標籤分組連續存放的訓練點座標
+    private final int[] zoneIndices;         // 分組後每個位置對應的訓練點索引
+    private final long[] zoneRows;           // 每個標籤的原始行數
+    private final int candidateZones;
+    private final long buildMillis;
+
+    private PrototypeIndex(int dimension, double[] prototypes, int[] prototypeLabels, long[] prototypeWeights,
+                           int[] zoneStarts, double[] zoneCoordinates, int[] zoneIndices, long[] zoneRows,
+                           int candidateZones, long buildMillis) {
+        this.dimension = dimension;
+        this.prototypes = prototypes;
+        this.prototypeLabels = prototypeLabels;
+        this.prototypeWeights = prototypeWeights;
+        this.zoneStarts = zoneStarts;
+        this.zoneCoordinates = zoneCoordinates;
+        this.zoneIndices = zoneIndices;
+        this.zoneRows = zoneRows;
+        this.candidateZones = candidateZones;
+        this.buildMillis = buildMillis;
+    }
+
+    /**
+     * 構建原型索引，各標籤的k-means在並行掃描線程池中並行運行
+     *
+     * @param coordinates 連續存放的訓練點座標
+     * @param dimension 維度
+     * @param labelIds 每個訓練點的標籤編號
+     * @param multiplicities 每個訓練點的重複次數，作為k-means的權重
+     * @param labelCount 標籤數
+     * @param prototypesPerLabel 每個標籤的原型數上限
+     * @param candidateZones 第一步選出的候選區域數
+     * @return 原型索引
+     */
+    static PrototypeIndex build(double[] coordinates, int dimension, int[] labelIds, int[] multiplicities,
+                                int labelCount, int prototypesPerLabel, int candidateZones) {
+        long start = System.currentTimeMillis();
+        int size = labelIds.length;
+
+        // 按標籤分組：計數排序，組內保持訓練點原有順序
+        int[] zoneStarts = new int[labelCount + 1];
+        long[] zoneRows = new long[labelCount];
+        for (int i = 0; i < size; i++) {
+            zoneStarts[labelIds[i] + 1]++;
+            zoneRows[labelIds[i]] += multiplicities[i];
+        }
+        for (int l = 0; l < labelCount; l++) {
+            zoneStarts[l + 1] += zoneStarts[l];
+        }
+        int[] next = new int[labelCount];
+        System.arraycopy(zoneStarts, 0, next, 0, labelCount);
+        double[] zoneCoordinates = new double[size * dimension];
+        int[] zoneIndices = new int[size];
+        int[] zoneWeights = new int[size];
+        for (int i = 0; i < size; i++) {
+            int position = next[labelIds[i]]++;
+            System.arraycopy(coordinates, i * dimension, zoneCoordinates, position * dimension, dimension);
+            zoneIndices[position] = i;
+            zoneWeights[position] = multiplicities[i];
+        }
+
+        ForkJoinPool pool = ParallelScanPool.pool();
+        List<ForkJoinTask<KMeansModel>> tasks = new ArrayList<>(labelCount);
+        for (int l = 0; l < labelCount; l++) {
+            int from = zoneStarts[l];
+            int to = zoneStarts[l + 1];
+            KMeansEngine engine = new KMeansEngine(Math.max(1, prototypesPerLabel));
+            engine.setMaxIterations(MAX_ITERATIONS);
+            engine.setSeed(l);
+            tasks.add(pool.submit(() -> engine.fit(
+                    Arrays.copyOfRange(zoneCoordinates, from * dimension, to * dimension),
+                    Arrays.copyOfRange(zoneWeights, from, to), dimension, null, pool)));
+        }
+        int total = 0;
+        List<KMeansModel> clusterings = new ArrayList<>(labelCount);
+        for (ForkJoinTask<KMeansModel> task : tasks) {
+            KMeansModel clustering = task.join();
+            clusterings.add(clustering);
+            total += clustering.size();
+        }
+
+        double[] prototypes = new double[total * dimension];
+        int[] prototypeLabels = new int[total];
+        long[] prototypeWeights = new long[total];
+        int offset = 0;
+        for (int l = 0; l < labelCount; l++) {
+            KMeansModel clustering = clusterings.get(l);
+            for (int c = 0; c < clustering.size(); c++) {
+                System.arraycopy(clustering.getCentroid(c), 0, prototypes, (offset + c) * dimension, dimension);
+                prototypeWeights[offset + c] = clustering.getWeight(c);
+                prototypeLabels[offset + c] = l;
+            }
+            offset += clustering.size();
+        }
+        return new PrototypeIndex(dimension, prototypes, prototypeLabels, prototypeWeights, zoneStarts,
+                zoneCoordinates, zoneIndices, zoneRows, Math.max(1, candidateZones),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 兩步搜索前k個最近鄰：先按原型選出候選區域，候選區域的原始行數不足k時繼續加入下一個最近的區域，
+     * 再在這些區域的訓練點中搜索；結果按(距離, 訓練點索引)排序，與暴力掃描的排序規則相同
+     *
+     * @param features 查詢點
+     * @param k 最近鄰數量
+     * @param workspace 當前線程的工作區
+     */
+    void search(double[] features, int k, PredictScratch workspace) {
+        // 每個區域到查詢點最近的原型距離平方
+        double[] zoneDistances = workspace.zoneDistances;
+        Arrays.fill(zoneDistances, Double.POSITIVE_INFINITY);
+        for (int p = 0; p < prototypeLabels.length; p++) {
+            double squared = KMeansEngine.squaredDistance(features, 0, prototypes, p * dimension, dimension);
+            int label = prototypeLabels[p];
+            if (squared < zoneDistances[label]) {
+                zoneDistances[label] = squared;
+            }
+        }
+
+        workspace.reset(k);
+        workspace.visited = 0;
+        workspace.nodesVisited = 0;
+        if (k <= 0) {
+            return;
+        }
+        long rows = 0;
+        for (int selected = 0; selected < candidateZones || rows < k; selected++) {
+            int zone = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int l = 0; l < zoneDistances.length; l++) {
+                if (zoneDistances[l] < best) {
+                    best = zoneDistances[l];
+                    zone = l;
+                }
+            }
+            if (zone < 0) {
+                break;
+            }
+            zoneDistances[zone] = Double.POSITIVE_INFINITY;
+            rows += zoneRows[zone];
+            scanZone(features, zone, workspace);
+        }
+    }
+
+    private void scanZone(double[] features, int zone, PredictScratch workspace) {
+        double[] coords = zoneCoordinates;
+        int dim = dimension;
+        int from = zoneStarts[zone];
+        int to = zoneStarts[zone + 1];
+        double worst = workspace.worstSquared();
+        for (int position = from, offset = from * dim; position < to; position++, offset += dim) {
+            double sum = 0.0;
+            for (int d = 0; d < dim; d++) {
+                double diff = features[d] - coords[offset + d];
+                sum += diff * diff;
+            }
+            if (sum <= worst) {
+                workspace.offer(Math.sqrt(sum), sum, zoneIndices[position]);
+                worst = workspace.worstSquared();
+            }
+        }
+        workspace.visited += to - from;
+        workspace.nodesVisited++;
+    }
+
+    /**
+     * 把原型作為縮減後的訓練集：每個原型是一個帶標籤的點，重複次數為它代表的原始行數
+     *
+     * @param labelNames 標籤編號到標籤的映射
+     * @return 原型列表
+     */
+    List<LabeledPoint> toLabeledPoints(String[] labelNames) {
+        List<LabeledPoint> points = new ArrayList<>(prototypeLabels.length);
+        for (int p = 0; p < prototypeLabels.length; p++) {
+            double[] features = Arrays.copyOfRange(prototypes, p * dimension, (p + 1) * dimension);
+            int multiplicity = (int) Math.min(Integer.MAX_VALUE, Math.max(1, prototypeWeights[p]));
+            points.add(new LabeledPoint(features, labelNames[prototypeLabels[p]], multiplicity));
+        }
+        return points;
+    }
+
+    /**
+     * 原型數量
+     *
+     * @return 所有標籤的原型總數
+     */
+    int size() {
+        return prototypeLabels.length;
+    }
+
+    /**
+     * 佔用的字節數：原型座標、標籤與權重，以及按標籤分組的座標副本與索引
+     *
+     * @return 字節數
+     */
+    long getSizeInBytes() {
+        return 16 + (long) prototypes.length * Double.BYTES
+                + 16 + (long) prototypeLabels.length * Integer.BYTES
+                + 16 + (long) prototypeWeights.length * Long.BYTES
+                + 16 + (long) zoneStarts.length * Integer.BYTES
+                + 16 + (long) zoneCoordinates.length * Double.BYTES
+                + 16 + (long) zoneIndices.length * Integer.BYTES
+                + 16 + (long) zoneRows.length * Long.BYTES;
+    }
+
+    /**
+     * 索引統計
+     *
+     * @return 原型數、區域數、壓縮比、每個區域的原型數範圍及構建耗時
+     */
+    Map<String, Object> getStats() {
+        int zones = zoneRows.length;
+        int[] perZone = new int[zones];
+        for (int label : prototypeLabels) {
+            perZone[label]++;
+        }
+        int minPerZone = zones == 0 ? 0 : Integer.MAX_VALUE;
+        int maxPerZone = 0;
+        for (int count : perZone) {
+            minPerZone = Math.min(minPerZone, count);
+            maxPerZone = Math.max(maxPerZone, count);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("prototypes", prototypeLabels.length);
+        stats.put("zones", zones);
+        stats.put("points", zoneIndices.length);
+        stats.put("compressionRatio", zoneIndices.length == 0 ? 0.0 : (double) prototypeLabels.length / zoneIndices.length);
+        stats.put("minPrototypesPerZone", minPerZone);
+        stats.put("maxPrototypesPerZone", maxPerZone);
+        stats.put("candidateZones", candidateZones);
+        stats.put("buildMs", buildMillis);
+        return stats;
+    }
+}
@@ -0,0 +1,113 @@
+package com.yc.kmeans.kmeans;
+
+import java.util.List;
+
+/**
+ * 定點量化的座標存儲
+ * 將每個座標按1e-7度的精度編碼為int32（例如經緯度22.3193039存為223193039），
+ * 所有點的座標連續存放在一個int數組中，每點只佔用 4 × 維度 個字節
+ * 量化距離與真實距離的誤差有上界，可用於篩選候選點，最終再用原始座標精確重算
+ */
+final class QuantizedCoordinateStore {
+    /**
+     * 量化比例：1個單位 = 1e-7
+     */
+    static final double SCALE = 1e7;
+
+    private final int dimension;
+    private final int[] coordinates;
+    private final double errorBound;
+
+    private QuantizedCoordinateStore(int dimension, int[] coordinates) {
+        this.dimension = dimension;
+        this.coordinates = coordinates;
+        // 查詢點不量化，每個座標的捨入誤差不超過0.5個單位；再加一點餘量吸收浮點運算誤差
+        this.errorBound = 0.5 * Math.sqrt(dimension) + 1e-3;
+    }
+
+    /**
+     * 從訓練數據構建量化存儲
+     *
+     * @param points 訓練數據點
+     * @return 量化存儲；若有座標超出int32可表示範圍則返回null
+     */
+    static QuantizedCoordinateStore fromPoints(List<LabeledPoint> points) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        int dimension = points.get(0).getFeatures().length;
+        int[] coordinates = new int[points.size() * dimension];
+        for (int i = 0; i < points.size(); i++) {
+            double[] features = points.get(i).getFeatures();
+            if (features.length != dimension) {
+                return null;
+            }
+            for (int d = 0; d < dimension; d++) {
+                long quantized = Math.round(features[d] * SCALE);
+                if (quantized > Integer.MAX_VALUE || quantized < Integer.MIN_VALUE) {
+                    return null;
+                }
+                coordinates[i * dimension + d] = (int) quantized;
+            }
+        }
+        return new QuantizedCoordinateStore(dimension, coordinates);
+    }
+
+    /**
+     * 將查詢點換算到量化單位（不捨入）
+     *
+     * @param features 查詢特徵向量
+     * @param target 輸出數組，長度為維度
+     */
+    void scaleQuery(double[] features, double[] target) {
+        if (features.length != dimension) {
+            throw new IllegalArgumentException("特徵維度不匹配");
+        }
+        for (int d = 0; d < dimension; d++) {
+            target[d] = features[d] * SCALE;
+        }
+    }
+
+    /**
+     * 計算量化單位下查詢點到第index個點的近似距離
+     *
+     * @param scaledQuery 已換算的查詢點
+     * @param index 點的索引
+     * @return 近似距離（量化單位）
+     */
+    double approximateDistance(double[] scaledQuery, int index) {
+        int offset = index * dimension;
+        double sum = 0.0;
+        for (int d = 0; d < dimension; d++) {
+            double diff = scaledQuery[d] - coordinates[offset + d];
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * 近似距離與真實距離（量化單位）之差的上界
+     *
+     * @return 誤差上界
+     */
+    double getErrorBound() {
+        return errorBound;
+    }
+
+    int getDimension() {
+        return dimension;
+    }
+
+    int size() {
+        return coordinates.length / dimension;
+    }
+
+    /**
+     * 存儲佔用的字節數（不含數組對象頭）
+     *
+     * @return 字節數
+     */
+    long getSizeInBytes() {
+        return (long) coordinates.length * Integer.BYTES;
+    }
+}
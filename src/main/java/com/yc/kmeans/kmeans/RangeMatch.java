@@ -0,0 +1,10 @@
+package com.yc.kmeans.kmeans;
+
+/**
+ * 範圍查詢結果：訓練點及其到查詢中心的距離
+ *
+ * @param point 訓練點
+ * @param distance 到查詢中心的距離，矩形查詢時為NaN
+ */
+public record RangeMatch(LabeledPoint point, double distance) {
+}
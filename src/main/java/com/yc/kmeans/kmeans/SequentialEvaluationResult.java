@@ -0,0 +1,144 @@
+package com.yc.kmeans.kmeans;
+
+/**
+ * 序貫評估的結果：在EvaluationResult的指標之外，記錄置信區間、停止原因以及與完整評估相比使用的樣本數
+ */
+public class SequentialEvaluationResult extends EvaluationResult {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 停止原因
+     */
+    public enum StopReason {
+        /** 準確率與宏F1的置信區間寬度都已不超過目標 */
+        TARGET_REACHED,
+        /** 時間預算用完 */
+        TIME_BUDGET,
+        /** 所有折的測試點都已預測，即完整評估 */
+        EXHAUSTED
+    }
+
+    private StopReason stopReason;
+    private double confidenceLevel;
+    private double targetWidth;
+    private double accuracyLower;
+    private double accuracyUpper;
+    private double f1Lower;
+    private double f1Upper;
+    private long samplesUsed;
+    private long fullEvaluationSamples;
+    private int foldsUsed;
+    private long elapsedMillis;
+    private long estimatedFullEvaluationMillis;
+
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    public void setStopReason(StopReason stopReason) {
+        this.stopReason = stopReason;
+    }
+
+    public double getConfidenceLevel() {
+        return confidenceLevel;
+    }
+
+    public void setConfidenceLevel(double confidenceLevel) {
+        this.confidenceLevel = confidenceLevel;
+    }
+
+    public double getTargetWidth() {
+        return targetWidth;
+    }
+
+    public void setTargetWidth(double targetWidth) {
+        this.targetWidth = targetWidth;
+    }
+
+    public double getAccuracyLower() {
+        return accuracyLower;
+    }
+
+    public void setAccuracyLower(double accuracyLower) {
+        this.accuracyLower = accuracyLower;
+    }
+
+    public double getAccuracyUpper() {
+        return accuracyUpper;
+    }
+
+    public void setAccuracyUpper(double accuracyUpper) {
+        this.accuracyUpper = accuracyUpper;
+    }
+
+    public double getF1Lower() {
+        return f1Lower;
+    }
+
+    public void setF1Lower(double f1Lower) {
+        this.f1Lower = f1Lower;
+    }
+
+    public double getF1Upper() {
+        return f1Upper;
+    }
+
+    public void setF1Upper(double f1Upper) {
+        this.f1Upper = f1Upper;
+    }
+
+    public long getSamplesUsed() {
+        return samplesUsed;
+    }
+
+    public void setSamplesUsed(long samplesUsed) {
+        this.samplesUsed = samplesUsed;
+    }
+
+    /**
+     * 完整交叉驗證需要預測的樣本數，即訓練數據大小
+     */
+    public long getFullEvaluationSamples() {
+        return fullEvaluationSamples;
+    }
+
+    public void setFullEvaluationSamples(long fullEvaluationSamples) {
+        this.fullEvaluationSamples = fullEvaluationSamples;
+    }
+
+    public int getFoldsUsed() {
+        return foldsUsed;
+    }
+
+    public void setFoldsUsed(int foldsUsed) {
+        this.foldsUsed = foldsUsed;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * 按已測得的每折訓練時間和每樣本預測時間估算的完整評估耗時
+     */
+    public long getEstimatedFullEvaluationMillis() {
+        return estimatedFullEvaluationMillis;
+    }
+
+    public void setEstimatedFullEvaluationMillis(long estimatedFullEvaluationMillis) {
+        this.estimatedFullEvaluationMillis = estimatedFullEvaluationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString()
+                + "\nStop Reason: " + stopReason + "\n"
+                + String.format("Accuracy %.0f%% CI: [%.4f, %.4f]%n", confidenceLevel * 100, accuracyLower, accuracyUpper)
+                + String.format("F1 Score %.0f%% CI: [%.4f, %.4f]%n", confidenceLevel * 100, f1Lower, f1Upper)
+                + "Samples: " + samplesUsed + " / " + fullEvaluationSamples + "\n";
+    }
+}
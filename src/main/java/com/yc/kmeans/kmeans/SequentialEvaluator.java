@@ -0,0 +1,370 @@
+package com.yc.kmeans.kmeans;
+
+import com.yc.kmeans.jfr.EvaluationFoldEvent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序貫提前停止的交叉驗證
+ * 與WeightedKNNUtils.evaluateModel相同地打亂數據並劃分折，但不預先指定每折的測試樣本數：
+ * 按折依次取出測試點，每批在並行掃描線程池中並行預測，每批之後更新準確率的Wilson區間和宏F1的自助法（bootstrap）區間，
+ * 兩個區間的寬度都不超過目標或時間預算用完時停止。數據已打亂，折內按順序取出的測試點即為隨機樣本，
+ * 因此提前停止得到的是完整交叉驗證指標的無偏估計
+ */
+@Slf4j
+public final class SequentialEvaluator {
+    /** 置信水平 */
+    public static final double CONFIDENCE_LEVEL = 0.95;
+    /** 95%置信水平對應的標準正態分位數 */
+    private static final double Z = 1.959963984540054;
+    /** 至少預測這麼多個樣本後才檢查停止條件，樣本太少時Wilson區間與自助法區間都不可靠 */
+    static final int MIN_SAMPLES = 200;
+    private static final int BOOTSTRAP_RESAMPLES = 200;
+    private static final int MIN_PARALLEL_CHUNK = 32;
+
+    private SequentialEvaluator() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * 執行序貫評估
+     *
+     * @param classifier 待評估的分類器
+     * @param folds 交叉驗證的折數
+     * @param targetWidth 準確率與宏F1置信區間的目標寬度（上界減下界），例如0.02
+     * @param timeBudgetMillis 時間預算（毫秒），不大於0表示不限
+     * @param batchSize 每批預測的測試點數，每批之後檢查一次停止條件
+     * @param seed 打亂數據及自助法抽樣使用的隨機種子
+     * @param progress 進度與取消標記，總樣本數為完整評估的樣本數
+     * @return 評估結果
+     * @throws java.util.concurrent.CancellationException 評估被取消
+     */
+    public static SequentialEvaluationResult evaluate(WeightedKNNClassifier classifier, int folds, double targetWidth,
+                                                      long timeBudgetMillis, int batchSize, long seed,
+                                                      EvaluationProgress progress) {
+        if (!classifier.isTrained()) {
+            throw new IllegalStateException("分類器尚未訓練");
+        }
+        List<LabeledPoint> shuffledData = new ArrayList<>(classifier.getTrainingData());
+        if (folds < 2 || shuffledData.size() < folds) {
+            throw new IllegalStateException("訓練數據不足以進行指定折數的交叉驗證");
+        }
+        batchSize = Math.max(1, batchSize);
+        Random random = new Random(seed);
+        Collections.shuffle(shuffledData, random);
+
+        List<String> labels = new ArrayList<>(classifier.getLabelCounts().keySet());
+        Collections.sort(labels);
+        Map<String, Integer> labelIndex = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            labelIndex.put(labels.get(i), i);
+        }
+
+        int size = shuffledData.size();
+        int foldSize = size / folds;
+        progress.start(folds, size);
+        long startNanos = System.nanoTime();
+        long deadline = timeBudgetMillis > 0
+                ? startNanos + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis) : Long.MAX_VALUE;
+        long trainNanos = 0;
+        long predictNanos = 0;
+        int foldsUsed = 0;
+        Tally tally = new Tally(labels.size());
+        double[] f1Interval = null;
+        SequentialEvaluationResult.StopReason stopReason = SequentialEvaluationResult.StopReason.EXHAUSTED;
+
+        for (int i = 0; i < folds; i++) {
+            int startIdx = i * foldSize;
+            int endIdx = (i == folds - 1) ? size : (i + 1) * foldSize;
+            List<LabeledPoint> trainFold = new ArrayList<>(size - (endIdx - startIdx));
+            trainFold.addAll(shuffledData.subList(0, startIdx));
+            trainFold.addAll(shuffledData.subList(endIdx, size));
+
+            progress.checkCancelled();
+            EvaluationFoldEvent foldEvent = new EvaluationFoldEvent();
+            foldEvent.begin();
+            long trainStart = System.nanoTime();
+            WeightedKNNClassifier tempClassifier = classifier.newUntrainedCopy();
+            tempClassifier.train(trainFold);
+            long foldTrainNanos = System.nanoTime() - trainStart;
+            trainNanos += foldTrainNanos;
+            foldsUsed++;
+            int samplesBefore = tally.size;
+            int correctBefore = tally.correct;
+            long predictNanosBefore = predictNanos;
+            List<String> dictionary = tempClassifier.getLabelDictionary();
+
+            for (int batchStart = startIdx; batchStart < endIdx; batchStart += batchSize) {
+                progress.checkCancelled();
+                int batchEnd = Math.min(endIdx, batchStart + batchSize);
+                double[][] queries = new double[batchEnd - batchStart][];
+                for (int q = 0; q < queries.length; q++) {
+                    queries[q] = shuffledData.get(batchStart + q).getFeatures();
+                }
+                long predictStart = System.nanoTime();
+                int[] predicted = predictInParallel(tempClassifier, queries);
+                predictNanos += System.nanoTime() - predictStart;
+                for (int q = 0; q < queries.length; q++) {
+                    tally.add(labelIndex.get(shuffledData.get(batchStart + q).getLabel()),
+                            labelIndex.get(dictionary.get(predicted[q])));
+                }
+                progress.samplesProcessed(queries.length);
+
+                // 先檢查計算量小的準確率區間，通過後才做自助法
+                if (tally.size >= MIN_SAMPLES && width(tally.accuracyInterval()) <= targetWidth) {
+                    f1Interval = tally.bootstrapF1Interval(random);
+                    if (width(f1Interval) <= targetWidth) {
+                        stopReason = SequentialEvaluationResult.StopReason.TARGET_REACHED;
+                        break;
+                    }
+                }
+                if (System.nanoTime() >= deadline) {
+                    stopReason = SequentialEvaluationResult.StopReason.TIME_BUDGET;
+                    break;
+                }
+            }
+            foldEvent.end();
+            if (foldEvent.shouldCommit()) {
+                foldEvent.setMode("sequential");
+                foldEvent.setFold(i);
+                foldEvent.setFolds(folds);
+                foldEvent.setTrainingPoints(trainFold.size());
+                foldEvent.setTestSamples(tally.size - samplesBefore);
+                foldEvent.setCorrect(tally.correct - correctBefore);
+                foldEvent.setTrainDuration(foldTrainNanos);
+                foldEvent.setPredictDuration(predictNanos - predictNanosBefore);
+                foldEvent.commit();
+            }
+            if (stopReason != SequentialEvaluationResult.StopReason.EXHAUSTED) {
+                break;
+            }
+            progress.foldCompleted();
+        }
+        if (stopReason != SequentialEvaluationResult.StopReason.TARGET_REACHED) {
+            f1Interval = tally.bootstrapF1Interval(random);
+        }
+
+        SequentialEvaluationResult result = new SequentialEvaluationResult();
+        result.setClassCounts(classifier.getLabelCounts());
+        double[] macro = tally.macro(tally.truePositives, tally.actualCounts, tally.predictedCounts);
+        double[] accuracyInterval = tally.accuracyInterval();
+        result.setAccuracy(tally.size > 0 ? (double) tally.correct / tally.size : 0.0);
+        result.setPrecision(macro[0]);
+        result.setRecall(macro[1]);
+        result.setF1Score(macro[2]);
+        result.setR2Score(tally.r2());
+        result.setAveragePredictMicros(tally.size > 0 ? predictNanos / 1000.0 / tally.size : 0.0);
+        result.setConfusionMatrix(tally.confusionMatrix(labels));
+        result.setStopReason(stopReason);
+        result.setConfidenceLevel(CONFIDENCE_LEVEL);
+        result.setTargetWidth(targetWidth);
+        result.setAccuracyLower(accuracyInterval[0]);
+        result.setAccuracyUpper(accuracyInterval[1]);
+        result.setF1Lower(f1Interval[0]);
+        result.setF1Upper(f1Interval[1]);
+        result.setSamplesUsed(tally.size);
+        result.setFullEvaluationSamples(size);
+        result.setFoldsUsed(foldsUsed);
+        result.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        long estimatedNanos = trainNanos / foldsUsed * folds + (tally.size > 0 ? predictNanos / tally.size * size : 0);
+        result.setEstimatedFullEvaluationMillis(TimeUnit.NANOSECONDS.toMillis(estimatedNanos));
+
+        log.info("序貫評估在 {} 個樣本後停止（{}），完整評估需 {} 個樣本；準確率 {} [{}, {}]，宏F1 {} [{}, {}]",
+                tally.size, stopReason, size, result.getAccuracy(), accuracyInterval[0], accuracyInterval[1],
+                result.getF1Score(), f1Interval[0], f1Interval[1]);
+        return result;
+    }
+
+    /**
+     * 把一批查詢點切塊後在並行掃描線程池中預測；取不到並行許可或批次太小時在調用線程中預測。
+     * 使用雙樹搜索時整批交給分類器，由雙樹遍歷自己並行
+     */
+    private static int[] predictInParallel(WeightedKNNClassifier classifier, double[][] queries) {
+        if (classifier.usesDualTree(queries.length)) {
+            return classifier.predictLabelIds(queries);
+        }
+        Semaphore permit = queries.length >= 2 * MIN_PARALLEL_CHUNK ? ParallelScanPool.tryAcquire() : null;
+        if (permit == null) {
+            return classifier.predictLabelIds(queries);
+        }
+        try {
+            ForkJoinPool pool = ParallelScanPool.pool();
+            int chunks = Math.max(1, Math.min(pool.getParallelism(), queries.length / MIN_PARALLEL_CHUNK));
+            List<ForkJoinTask<int[]>> tasks = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                int from = queries.length * c / chunks;
+                int to = queries.length * (c + 1) / chunks;
+                tasks.add(pool.submit(() -> classifier.predictLabelIds(Arrays.copyOfRange(queries, from, to))));
+            }
+            int[] labelIds = new int[queries.length];
+            for (int c = 0; c < chunks; c++) {
+                int[] partial = tasks.get(c).join();
+                System.arraycopy(partial, 0, labelIds, queries.length * c / chunks, partial.length);
+            }
+            return labelIds;
+        } finally {
+            permit.release();
+        }
+    }
+
+    private static double width(double[] interval) {
+        return interval[1] - interval[0];
+    }
+
+    /**
+     * 已預測樣本的實際與預測標籤編號及每個類別的計數
+     */
+    private static final class Tally {
+        private final int[] truePositives;
+        private final int[] actualCounts;
+        private final int[] predictedCounts;
+        private int[] actual = new int[1024];
+        private int[] predicted = new int[1024];
+        private int size;
+        private int correct;
+
+        Tally(int labelCount) {
+            truePositives = new int[labelCount];
+            actualCounts = new int[labelCount];
+            predictedCounts = new int[labelCount];
+        }
+
+        void add(int actualLabel, int predictedLabel) {
+            if (size == actual.length) {
+                actual = Arrays.copyOf(actual, size * 2);
+                predicted = Arrays.copyOf(predicted, size * 2);
+            }
+            actual[size] = actualLabel;
+            predicted[size] = predictedLabel;
+            size++;
+            actualCounts[actualLabel]++;
+            predictedCounts[predictedLabel]++;
+            if (actualLabel == predictedLabel) {
+                truePositives[actualLabel]++;
+                correct++;
+            }
+        }
+
+        /**
+         * 準確率的Wilson得分區間，樣本較少或準確率接近0或1時比正態近似可靠
+         */
+        double[] accuracyInterval() {
+            if (size == 0) {
+                return new double[]{0.0, 1.0};
+            }
+            double p = (double) correct / size;
+            double z2 = Z * Z;
+            double denominator = 1 + z2 / size;
+            double center = (p + z2 / (2.0 * size)) / denominator;
+            double half = Z * Math.sqrt(p * (1 - p) / size + z2 / (4.0 * size * size)) / denominator;
+            return new double[]{Math.max(0.0, center - half), Math.min(1.0, center + half)};
+        }
+
+        /**
+         * 宏平均的精確率、召回率與F1，F1的定義與WeightedKNNUtils.evaluateModel一致（宏精確率與宏召回率的調和平均）；
+         * 只對樣本中出現過（作為實際或預測標籤）的類別取平均，未抽到的類別不會把指標拉低
+         *
+         * @return {精確率, 召回率, F1}
+         */
+        double[] macro(int[] tp, int[] actualCount, int[] predictedCount) {
+            double totalPrecision = 0;
+            double totalRecall = 0;
+            int present = 0;
+            for (int c = 0; c < tp.length; c++) {
+                if (actualCount[c] == 0 && predictedCount[c] == 0) {
+                    continue;
+                }
+                present++;
+                totalPrecision += predictedCount[c] > 0 ? (double) tp[c] / predictedCount[c] : 0;
+                totalRecall += actualCount[c] > 0 ? (double) tp[c] / actualCount[c] : 0;
+            }
+            if (present == 0) {
+                return new double[]{0.0, 0.0, 0.0};
+            }
+            double precision = totalPrecision / present;
+            double recall = totalRecall / present;
+            double f1 = precision + recall > 0 ? 2 * precision * recall / (precision + recall) : 0;
+            return new double[]{precision, recall, f1};
+        }
+
+        /**
+         * 宏F1的自助法百分位區間：有放回地重抽樣已預測的樣本並重新計算宏F1
+         */
+        double[] bootstrapF1Interval(Random random) {
+            if (size == 0) {
+                return new double[]{0.0, 1.0};
+            }
+            int labelCount = truePositives.length;
+            int[] tp = new int[labelCount];
+            int[] actualCount = new int[labelCount];
+            int[] predictedCount = new int[labelCount];
+            double[] f1 = new double[BOOTSTRAP_RESAMPLES];
+            for (int b = 0; b < BOOTSTRAP_RESAMPLES; b++) {
+                Arrays.fill(tp, 0);
+                Arrays.fill(actualCount, 0);
+                Arrays.fill(predictedCount, 0);
+                for (int n = 0; n < size; n++) {
+                    int j = random.nextInt(size);
+                    actualCount[actual[j]]++;
+                    predictedCount[predicted[j]]++;
+                    if (actual[j] == predicted[j]) {
+                        tp[actual[j]]++;
+                    }
+                }
+                f1[b] = macro(tp, actualCount, predictedCount)[2];
+            }
+            Arrays.sort(f1);
+            double tail = (1 - CONFIDENCE_LEVEL) / 2;
+            int lower = (int) Math.floor(tail * BOOTSTRAP_RESAMPLES);
+            int upper = Math.min(BOOTSTRAP_RESAMPLES - 1, (int) Math.ceil((1 - tail) * BOOTSTRAP_RESAMPLES) - 1);
+            return new double[]{f1[lower], f1[upper]};
+        }
+
+        /**
+         * 與WeightedKNNUtils.evaluateModel相同地把標籤編號視為數值計算的R²
+         */
+        double r2() {
+            double sumActual = 0;
+            double sumPredicted = 0;
+            double sumActualSquared = 0;
+            double sumPredictedSquared = 0;
+            double sumProduct = 0;
+            for (int n = 0; n < size; n++) {
+                sumActual += actual[n];
+                sumPredicted += predicted[n];
+                sumActualSquared += (double) actual[n] * actual[n];
+                sumPredictedSquared += (double) predicted[n] * predicted[n];
+                sumProduct += (double) actual[n] * predicted[n];
+            }
+            double numerator = size * sumProduct - sumActual * sumPredicted;
+            double denomPart1 = size * sumActualSquared - sumActual * sumActual;
+            double denomPart2 = size * sumPredictedSquared - sumPredicted * sumPredicted;
+            double r = denomPart1 > 0 && denomPart2 > 0 ? numerator / Math.sqrt(denomPart1 * denomPart2) : 0;
+            return r * r;
+        }
+
+        /**
+         * 只包含非零計數的混淆矩陣
+         */
+        Map<String, Map<String, Integer>> confusionMatrix(List<String> labels) {
+            Map<String, Map<String, Integer>> matrix = new TreeMap<>();
+            for (int n = 0; n < size; n++) {
+                matrix.computeIfAbsent(labels.get(actual[n]), label -> new TreeMap<>())
+                        .merge(labels.get(predicted[n]), 1, Integer::sum);
+            }
+            return matrix;
+        }
+    }
+}
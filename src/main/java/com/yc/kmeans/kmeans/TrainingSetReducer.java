@@ -0,0 +1,165 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * 訓練集縮減
+ * 位於區域內部的數據點通常不會改變任何預測結果，但每次查詢都要為它們付出掃描成本。
+ * 支持兩種經典方法及其組合：
+ * <ul>
+ *     <li>Wilson編輯（ENN）：刪除被其餘k個最近鄰誤分類的噪聲點</li>
+ *     <li>壓縮最近鄰（CNN）：只保留決定分類邊界所需的點</li>
+ * </ul>
+ */
+@Slf4j
+public class TrainingSetReducer {
+
+    /**
+     * 縮減方法
+     */
+    public enum Method {
+        ENN, CNN, ENN_CNN;
+
+        /**
+         * 從請求參數解析縮減方法，例如 enn、cnn、enn-cnn
+         *
+         * @param value 參數值
+         * @return 縮減方法
+         */
+        public static Method parse(String value) {
+            return Method.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private static final int MAX_CNN_PASSES = 50;
+
+    private TrainingSetReducer() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * 使用模板分類器的參數縮減訓練集
+     *
+     * @param data 訓練數據
+     * @param template 提供k、類別權重等參數的分類器
+     * @param method 縮減方法
+     * @return 縮減後的訓練數據
+     */
+    public static List<LabeledPoint> reduce(List<LabeledPoint> data, WeightedKNNClassifier template, Method method) {
+        long start = System.currentTimeMillis();
+        List<LabeledPoint> reduced = switch (method) {
+            case ENN -> wilsonEdit(data, template);
+            case CNN -> condense(data, template);
+            case ENN_CNN -> condense(wilsonEdit(data, template), template);
+        };
+        log.info("訓練集縮減({})：{} -> {} 個數據點，壓縮比 {}，耗時 {} 毫秒", method, data.size(), reduced.size(),
+                String.format("%.4f", (double) reduced.size() / data.size()), System.currentTimeMillis() - start);
+        return reduced;
+    }
+
+    /**
+     * Wilson編輯：並行地用每個點的其餘k個最近鄰對其投票，刪除被誤分類的點
+     * 某個類別的所有點都被判定為噪聲時保留該類別，避免單樣本類別從模型中消失
+     *
+     * @param data 訓練數據
+     * @param template 提供參數的分類器
+     * @return 編輯後的訓練數據
+     */
+    public static List<LabeledPoint> wilsonEdit(List<LabeledPoint> data, WeightedKNNClassifier template) {
+        WeightedKNNClassifier classifier = template.newUntrainedCopy();
+        classifier.train(data);
+        int k = classifier.getK();
+        Map<String, Double> classWeights = classifier.isUseClassWeights() ? classifier.getClassWeights() : null;
+
+        boolean[] keep = new boolean[data.size()];
+        IntStream.range(0, data.size()).parallel().forEach(i -> {
+            LabeledPoint point = data.get(i);
+            List<Neighbour> neighbours = new ArrayList<>(classifier.findNearestNeighbours(point.getFeatures(), k + 1));
+            // 去掉點自身（距離為0且標籤相同的第一個鄰居）
+            int self = -1;
+            for (int n = 0; n < neighbours.size() && neighbours.get(n).getDistance() == 0.0; n++) {
+                if (neighbours.get(n).getLabel().equals(point.getLabel())) {
+                    self = n;
+                    break;
+                }
+            }
+            neighbours.remove(self >= 0 ? self : neighbours.size() - 1);
+            String predicted = WeightedKNNUtils.weightedVote(neighbours, classWeights,
+                    classifier.getEpsilon(), classifier.getDistanceWeightFactor());
+            keep[i] = point.getLabel().equals(predicted);
+        });
+
+        Set<String> survivingLabels = new HashSet<>();
+        for (int i = 0; i < data.size(); i++) {
+            if (keep[i]) {
+                survivingLabels.add(data.get(i).getLabel());
+            }
+        }
+        List<LabeledPoint> edited = new ArrayList<>();
+        for (int i = 0; i < data.size(); i++) {
+            LabeledPoint point = data.get(i);
+            if (keep[i] || !survivingLabels.contains(point.getLabel())) {
+                edited.add(point);
+            }
+        }
+        return edited;
+    }
+
+    /**
+     * 壓縮最近鄰（批量並行版本）
+     * 存儲集從每個類別的第一個點開始；每一輪並行地用當前存儲集分類其餘所有點，
+     * 從誤分類的點中隨機選取至多與存儲集同樣多的點加入，直到所有點都被正確分類
+     *
+     * @param data 訓練數據
+     * @param template 提供參數的分類器
+     * @return 壓縮後的訓練數據
+     */
+    public static List<LabeledPoint> condense(List<LabeledPoint> data, WeightedKNNClassifier template) {
+        boolean[] inStore = new boolean[data.size()];
+        Map<String, Integer> firstByLabel = new HashMap<>();
+        for (int i = 0; i < data.size(); i++) {
+            firstByLabel.putIfAbsent(data.get(i).getLabel(), i);
+        }
+        List<LabeledPoint> store = new ArrayList<>();
+        for (int index : firstByLabel.values()) {
+            inStore[index] = true;
+            store.add(data.get(index));
+        }
+
+        Random random = new Random(data.size());
+        for (int pass = 1; pass <= MAX_CNN_PASSES; pass++) {
+            WeightedKNNClassifier classifier = template.newUntrainedCopy();
+            classifier.train(store);
+            int[] misclassified = IntStream.range(0, data.size())
+                    .parallel()
+                    .filter(i -> !inStore[i] && !classifier.predict(data.get(i).getFeatures()).equals(data.get(i).getLabel()))
+                    .toArray();
+            log.info("CNN第 {} 輪：存儲集 {} 個點，誤分類 {} 個點", pass, store.size(), misclassified.length);
+            if (misclassified.length == 0) {
+                break;
+            }
+
+            // 每輪最多加入與存儲集等量的點，避免早期存儲集很小時一次加入大量冗餘點
+            int additions = Math.min(misclassified.length, Math.max(store.size(), 64));
+            for (int a = 0; a < additions; a++) {
+                int pick = a + random.nextInt(misclassified.length - a);
+                int index = misclassified[pick];
+                misclassified[pick] = misclassified[a];
+                misclassified[a] = index;
+                inStore[index] = true;
+                store.add(data.get(index));
+            }
+        }
+        return store;
+    }
+}
@@ -0,0 +1,42 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.Getter;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * 超參數搜索中單個參數組合的評估結果
+ */
+@Getter
+public final class TuningResult implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private final int k;
+    private final double distanceWeightFactor;
+    private final boolean useClassWeights;
+    private final double maxClassWeight;
+    private final double accuracy;
+    private final double precision;
+    private final double recall;
+    private final double f1Score;
+
+    public TuningResult(int k, double distanceWeightFactor, boolean useClassWeights, double maxClassWeight,
+                        double accuracy, double precision, double recall, double f1Score) {
+        this.k = k;
+        this.distanceWeightFactor = distanceWeightFactor;
+        this.useClassWeights = useClassWeights;
+        this.maxClassWeight = maxClassWeight;
+        this.accuracy = accuracy;
+        this.precision = precision;
+        this.recall = recall;
+        this.f1Score = f1Score;
+    }
+
+    @Override
+    public String toString() {
+        return "TuningResult{k=" + k + ", distanceWeightFactor=" + distanceWeightFactor
+                + ", useClassWeights=" + useClassWeights + ", maxClassWeight=" + maxClassWeight
+                + ", accuracy=" + String.format("%.4f", accuracy) + ", f1Score=" + String.format("%.4f", f1Score) + '}';
+    }
+}
@@ -1,5 +1,9 @@
 package com.yc.kmeans.kmeans;
 
+import com.yc.kmeans.jfr.IndexBuildEvent;
+import com.yc.kmeans.jfr.PredictionEvent;
+import com.yc.kmeans.jfr.TrainingEvent;
+import jdk.jfr.EventType;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -12,12 +16,24 @@ import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.function.UnaryOperator;
 
 /**
  * 加權K最近鄰（KNN）分類器實現
@@ -26,8 +42,32 @@ import java.util.Set;
  */
 @Slf4j
 public class WeightedKNNClassifier implements Serializable {
+    /**
+     * 最近鄰搜索引擎
+     */
+    public enum NeighbourEngine {
+        BRUTE_FORCE, GRID, PROTOTYPE;
+
+        /**
+         * 從配置或請求參數解析搜索引擎，例如 brute-force、grid、prototype
+         *
+         * @param value 參數值
+         * @return 搜索引擎
+         */
+        public static NeighbourEngine parse(String value) {
+            return NeighbourEngine.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
     @Serial
     private static final long serialVersionUID = 1L;
+    private static final int MIN_PARALLEL_CHUNK_SIZE = 16_384; // 並行掃描時每塊的最少訓練點數
+    private static final int DEFAULT_PROTOTYPES_PER_LABEL = 8;
+    private static final int DEFAULT_PROTOTYPE_CANDIDATE_ZONES = 3;
+    // 預測事件未被錄製時不創建事件對象，保持預測路徑不分配內存
+    private static final EventType PREDICTION_EVENT = EventType.getEventType(PredictionEvent.class);
+    private static final int BATCH_TILE_POINTS = 1024; // 批量預測時每個訓練數據塊的點數（二維時16KB，可放入L1緩存）
+    private static final int DEFAULT_DUAL_TREE_MIN_BATCH = 256;
     
     @Getter
     private final List<LabeledPoint> trainingData;
@@ -40,11 +80,9 @@ public class WeightedKNNClassifier implements Serializable {
     @Getter
     private double epsilon = 0.00001; // 防止除零錯誤的小值
     
-    @Setter
     @Getter
     private boolean useClassWeights = true; // 是否使用類別權重來平衡類別
     
-    @Setter
     @Getter
     private double maxClassWeight = 50.0; // 類別權重的最大值
     
@@ -52,8 +90,30 @@ public class WeightedKNNClassifier implements Serializable {
     @Getter
     private double distanceWeightFactor = 2.0; // 距離權重因子，增加距離權重的影響
     
+    @Getter
+    private boolean quantizedStorage = false; // 是否使用定點量化的座標存儲進行距離掃描
+
+    @Setter
+    @Getter
+    private boolean spatialOrdering = true; // 訓練時是否按希爾伯特曲線重排二維數據點，使空間上相鄰的點在內存中相鄰
+
+    @Setter
+    @Getter
+    private int parallelScanThreshold = 0; // 訓練點數量達到此值時單次查詢分塊並行掃描，0表示不啟用
+
+    @Setter
+    @Getter
+    private int dualTreeMinBatch = DEFAULT_DUAL_TREE_MIN_BATCH; // 批量預測的查詢數達到此值時使用雙樹搜索，0表示不啟用
+
+    private NeighbourEngine neighbourEngine = NeighbourEngine.BRUTE_FORCE; // 最近鄰搜索引擎
+
+    private int prototypesPerLabel = DEFAULT_PROTOTYPES_PER_LABEL; // 原型引擎中每個標籤的k-means質心數上限
+
+    private int prototypeCandidateZones = DEFAULT_PROTOTYPE_CANDIDATE_ZONES; // 原型引擎第一步選出的候選區域數
+
     private boolean isTrained = false;
     
+    @Setter
     @Getter
     private EvaluationResult lastEvaluation;
     
@@ -61,6 +121,33 @@ public class WeightedKNNClassifier implements Serializable {
     private final Map<String, List<LabeledPoint>> labelToPointsMap; // 按標籤存儲訓練數據的映射
     private Map<String, Double> classWeights; // 類別權重，用於處理類別不平衡
 
+    // 以下為由訓練數據派生的預測結構，不參與序列化，反序列化後重建
+    private transient QuantizedCoordinateStore quantizedStore; // 量化座標存儲
+    private transient double[] coordinates; // 連續存放的雙精度座標，未啟用量化存儲時使用
+    private transient int dimension; // 特徵維度
+    private transient String[] labelNames; // 標籤編號到標籤的映射
+    private transient int[] pointLabelIds; // 每個訓練點的標籤編號
+    private transient int[] pointMultiplicities; // 每個訓練點的重複次數
+    private transient double[] classWeightArray; // 按標籤編號索引的類別權重
+    private transient double maxClassWeightValue; // classWeightArray中的最大值，用於投票差距的上界
+    private transient GridNeighbourIndex gridIndex; // 網格最近鄰索引，使用網格引擎時構建
+    private transient PrototypeIndex prototypeIndex; // 按區域的k-means原型索引，使用原型引擎時構建
+    private transient GridNeighbourIndex.VoteDecider voteDecider; // 網格搜索中根據投票差距提前停止
+    private transient LongAdder gridSearches; // 網格搜索次數
+    private transient LongAdder earlyTerminations; // 因投票結果已確定而提前停止的次數
+    private transient LongAdder visitedCandidates; // 網格搜索中計算過距離的訓練點總數
+    private transient LongAdder skippedCandidates; // 提前停止時尚未計算距離的訓練點總數
+    private transient LongAdder dualTreeSearches; // 雙樹搜索的批次數
+    private transient LongAdder dualTreeQueries; // 雙樹搜索的查詢點總數
+    private transient LongAdder dualTreeDistances; // 雙樹搜索中計算的距離總數
+    private transient NeighbourEngineSelector.Selection engineSelection; // 最近一次自動選擇搜索引擎的結果
+    private transient ThreadLocal<PredictScratch> scratch; // 每線程的預測工作區
+    private transient volatile ZonePolygonIndex zonePolygonIndex; // 區域邊界多邊形索引，首次使用時構建
+    private transient volatile GridNeighbourIndex rangeIndex; // 範圍查詢的網格索引，未使用網格引擎時首次範圍查詢構建
+    private transient volatile DualTreeIndex dualTreeIndex; // 批量預測的雙樹索引，首次大批量預測時構建
+    private transient long trainHeapUsedBefore; // 最近一次train()開始時的已用堆內存
+    private transient long trainHeapUsedAfter; // 最近一次train()結束時的已用堆內存
+
     /**
      * 構造函數
      *
@@ -83,14 +170,27 @@ public class WeightedKNNClassifier implements Serializable {
         if (labeledPoints == null || labeledPoints.isEmpty()) {
             throw new IllegalArgumentException("訓練數據不能為空");
         }
+        TrainingEvent event = new TrainingEvent();
+        event.begin();
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsedBefore = runtime.totalMemory() - runtime.freeMemory();
 
         trainingData.clear();
         uniqueLabels.clear();
         labelToPointsMap.clear();
-        classWeights.clear();
 
-        // 存儲所有訓練數據點並收集唯一標籤
-        for (LabeledPoint point : labeledPoints) {
+        // 合併座標與標籤相同的重複點，二維數據再按希爾伯特曲線重排，存儲所有訓練數據點並收集唯一標籤
+        long phaseStart = System.nanoTime();
+        List<LabeledPoint> collapsed = WeightedKNNUtils.collapseDuplicates(labeledPoints);
+        long collapseNanos = System.nanoTime() - phaseStart;
+        long orderingNanos = 0;
+        if (spatialOrdering) {
+            phaseStart = System.nanoTime();
+            collapsed = HilbertOrder.sort(collapsed);
+            orderingNanos = System.nanoTime() - phaseStart;
+            log.info("已按希爾伯特曲線重排 {} 個數據點，耗時 {} 毫秒", collapsed.size(), orderingNanos / 1_000_000);
+        }
+        for (LabeledPoint point : collapsed) {
             trainingData.add(point);
             String label = point.getLabel();
             uniqueLabels.add(label);
@@ -100,16 +200,35 @@ public class WeightedKNNClassifier implements Serializable {
         }
         
         // 計算類別權重（逆比於類別頻率）
-        if (useClassWeights) {
-            calculateClassWeights();
-        }
+        classWeights = calculateClassWeights();
+
+        phaseStart = System.nanoTime();
+        rebuildDerivedStructures();
+        long structuresNanos = System.nanoTime() - phaseStart;
 
         isTrained = true;
-        log.info("已完成訓練，共有 {} 個數據點、{} 個類別", trainingData.size(), uniqueLabels.size());
+        trainHeapUsedBefore = heapUsedBefore;
+        trainHeapUsedAfter = runtime.totalMemory() - runtime.freeMemory();
+        event.end();
+        if (event.shouldCommit()) {
+            event.setSamples(getSampleCount());
+            event.setPoints(trainingData.size());
+            event.setLabels(uniqueLabels.size());
+            event.setDimension(dimension);
+            event.setEngine(activeEngineName());
+            event.setCollapseDuration(collapseNanos);
+            event.setOrderingDuration(orderingNanos);
+            event.setStructuresDuration(structuresNanos);
+            event.setHeapDelta(trainHeapUsedAfter - trainHeapUsedBefore);
+            event.commit();
+        }
+        Map<String, Integer> labelCounts = getLabelCounts();
+        log.info("已完成訓練，共有 {} 個數據點（{} 個不同座標）、{} 個類別",
+                getSampleCount(), trainingData.size(), uniqueLabels.size());
         
         // 輸出每個類別的樣本數和權重
         for (String label : uniqueLabels) {
-            int sampleCount = labelToPointsMap.get(label).size();
+            int sampleCount = labelCounts.get(label);
             double weight = useClassWeights ? classWeights.get(label) : 1.0;
             log.info("類別 '{}': {} 個樣本, 權重: {}", label, sampleCount, weight);
             
@@ -123,25 +242,472 @@ public class WeightedKNNClassifier implements Serializable {
     /**
      * 計算類別權重，處理類別不平衡問題
      * 權重與類別樣本數成反比：maxCount/count
+     *
+     * @return 新的類別權重映射，不使用類別權重時為空
      */
-    private void calculateClassWeights() {
-        // 獲取最大類別的樣本數
-        int maxCount = 0;
-        for (List<LabeledPoint> points : labelToPointsMap.values()) {
-            maxCount = Math.max(maxCount, points.size());
+    private Map<String, Double> calculateClassWeights() {
+        if (!useClassWeights) {
+            return new HashMap<>();
         }
-        
-        // 計算每個類別的權重
+        return new HashMap<>(WeightedKNNUtils.calculateClassWeights(getLabelCounts(), maxClassWeight));
+    }
+
+    /**
+     * 設置是否使用類別權重，已訓練的模型會立即重新計算類別權重
+     *
+     * @param useClassWeights 是否使用類別權重
+     */
+    public void setUseClassWeights(boolean useClassWeights) {
+        this.useClassWeights = useClassWeights;
+        refreshClassWeights();
+    }
+
+    /**
+     * 設置類別權重上限，已訓練的模型會立即重新計算類別權重
+     *
+     * @param maxClassWeight 類別權重上限
+     */
+    public void setMaxClassWeight(double maxClassWeight) {
+        this.maxClassWeight = maxClassWeight;
+        refreshClassWeights();
+    }
+
+    private void refreshClassWeights() {
+        if (!isTrained) {
+            return;
+        }
+        // 整體替換映射，不修改查詢可能正在讀取的舊映射
+        classWeights = calculateClassWeights();
+        rebuildClassWeightArray();
+    }
+
+    /**
+     * 設置是否使用定點量化的座標存儲
+     * 啟用後距離掃描在int32微度座標上進行，只有最終候選點才用原始座標精確重算，預測結果不變。
+     * 訓練集仍保留雙精度座標，節省的只是掃描存儲的一半（每點 4 × 維度 個字節）
+     *
+     * @param quantizedStorage 是否啟用
+     */
+    public void setQuantizedStorage(boolean quantizedStorage) {
+        this.quantizedStorage = quantizedStorage;
+        rebuildCoordinateStore();
+    }
+
+    /**
+     * 設置最近鄰搜索引擎
+     * GRID只支持二維座標，使用原始雙精度座標，預測結果與暴力掃描完全一致；
+     * PROTOTYPE先按每個標籤的k-means原型選出候選區域，再只在這些區域的訓練點中搜索，結果是近似的
+     *
+     * @param neighbourEngine 搜索引擎
+     */
+    public void setNeighbourEngine(NeighbourEngine neighbourEngine) {
+        this.neighbourEngine = neighbourEngine;
+        rebuildCoordinateStore();
+    }
+
+    /**
+     * 設置原型引擎中每個標籤的k-means質心數上限，使用原型引擎時重建原型索引
+     *
+     * @param prototypesPerLabel 質心數上限
+     */
+    public void setPrototypesPerLabel(int prototypesPerLabel) {
+        this.prototypesPerLabel = prototypesPerLabel;
+        if (getNeighbourEngine() == NeighbourEngine.PROTOTYPE) {
+            rebuildCoordinateStore();
+        }
+    }
+
+    /**
+     * 獲取原型引擎中每個標籤的k-means質心數上限
+     *
+     * @return 質心數上限，舊版本保存的模型為默認值
+     */
+    public int getPrototypesPerLabel() {
+        return prototypesPerLabel > 0 ? prototypesPerLabel : DEFAULT_PROTOTYPES_PER_LABEL;
+    }
+
+    /**
+     * 設置原型引擎第一步選出的候選區域數，使用原型引擎時重建原型索引
+     *
+     * @param prototypeCandidateZones 候選區域數
+     */
+    public void setPrototypeCandidateZones(int prototypeCandidateZones) {
+        this.prototypeCandidateZones = prototypeCandidateZones;
+        if (getNeighbourEngine() == NeighbourEngine.PROTOTYPE) {
+            rebuildCoordinateStore();
+        }
+    }
+
+    /**
+     * 獲取原型引擎第一步選出的候選區域數
+     *
+     * @return 候選區域數，舊版本保存的模型為默認值
+     */
+    public int getPrototypeCandidateZones() {
+        return prototypeCandidateZones > 0 ? prototypeCandidateZones : DEFAULT_PROTOTYPE_CANDIDATE_ZONES;
+    }
+
+    /**
+     * 原型引擎的原型，作為縮減後的訓練集：每個原型是一個標籤的k-means質心，重複次數為它代表的原始行數
+     *
+     * @return 原型列表；未使用原型引擎時返回空列表
+     */
+    public List<LabeledPoint> getPrototypes() {
+        PrototypeIndex prototypes = prototypeIndex;
+        return prototypes == null ? List.of() : prototypes.toLabeledPoints(labelNames);
+    }
+
+    /**
+     * 獲取最近鄰搜索引擎
+     *
+     * @return 搜索引擎，舊版本保存的模型為BRUTE_FORCE
+     */
+    public NeighbourEngine getNeighbourEngine() {
+        return neighbourEngine == null ? NeighbourEngine.BRUTE_FORCE : neighbourEngine;
+    }
+
+    /**
+     * 在當前訓練數據上對各搜索引擎計時，選擇與暴力掃描結果一致、在內存預算內且p99延遲最低的引擎並應用
+     *
+     * @param queryCount 計時使用的查詢點數
+     * @param memoryBudgetBytes 座標存儲與索引的內存預算
+     * @return 選擇結果，同時可通過getEngineSelection獲取
+     */
+    public NeighbourEngineSelector.Selection selectNeighbourEngine(int queryCount, long memoryBudgetBytes) {
+        engineSelection = NeighbourEngineSelector.select(this, queryCount, memoryBudgetBytes);
+        return engineSelection;
+    }
+
+    /**
+     * 獲取最近一次自動選擇搜索引擎的結果
+     *
+     * @return 選擇結果，未進行自動選擇時返回null
+     */
+    public NeighbourEngineSelector.Selection getEngineSelection() {
+        return engineSelection;
+    }
+
+    /**
+     * 距離掃描當前是否使用量化座標存儲；座標超出int32量化範圍或使用網格引擎時即使開啟也不使用
+     *
+     * @return 是否使用量化座標存儲
+     */
+    public boolean isQuantizedStoreActive() {
+        return quantizedStore != null;
+    }
+
+    /**
+     * 重建預測使用的派生結構：標籤編號、按編號索引的類別權重、座標存儲及每線程工作區
+     */
+    private void rebuildDerivedStructures() {
+        int size = trainingData.size();
+        dimension = size == 0 ? 0 : trainingData.get(0).getFeatures().length;
+
+        // 按首次出現的順序為標籤分配編號
+        Map<String, Integer> labelIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        pointLabelIds = new int[size];
+        pointMultiplicities = new int[size];
+        for (int i = 0; i < size; i++) {
+            String label = trainingData.get(i).getLabel();
+            pointMultiplicities[i] = trainingData.get(i).getMultiplicity();
+            Integer id = labelIds.get(label);
+            if (id == null) {
+                id = names.size();
+                labelIds.put(label, id);
+                names.add(label);
+            }
+            pointLabelIds[i] = id;
+        }
+        labelNames = names.toArray(String[]::new);
+        zonePolygonIndex = null;
+        rangeIndex = null;
+        dualTreeIndex = null;
+        voteDecider = this::decideByVoteMargin;
+        gridSearches = new LongAdder();
+        earlyTerminations = new LongAdder();
+        visitedCandidates = new LongAdder();
+        skippedCandidates = new LongAdder();
+        dualTreeSearches = new LongAdder();
+        dualTreeQueries = new LongAdder();
+        dualTreeDistances = new LongAdder();
+
+        rebuildClassWeightArray();
+        rebuildCoordinateStore();
+
+        int labelCount = labelNames.length;
+        int featureDimension = dimension;
+        scratch = ThreadLocal.withInitial(() -> new PredictScratch(featureDimension, labelCount, Math.max(k, 1)));
+    }
+
+    /**
+     * 將類別權重展開為按標籤編號索引的數組，不使用類別權重時全部為1.0
+     */
+    private void rebuildClassWeightArray() {
+        if (labelNames == null) {
+            return;
+        }
+        double[] weights = new double[labelNames.length];
+        double max = 0.0;
+        for (int id = 0; id < labelNames.length; id++) {
+            weights[id] = useClassWeights ? classWeights.getOrDefault(labelNames[id], 1.0) : 1.0;
+            max = Math.max(max, weights[id]);
+        }
+        maxClassWeightValue = max;
+        classWeightArray = weights;
+    }
+
+    /**
+     * 根據當前設置重建座標存儲：量化存儲或連續存放的雙精度座標，使用網格引擎時再構建網格索引
+     */
+    private void rebuildCoordinateStore() {
+        IndexBuildEvent event = new IndexBuildEvent();
+        event.begin();
+        buildCoordinateStore();
+        event.end();
+        if (event.shouldCommit()) {
+            GridNeighbourIndex grid = gridIndex;
+            PrototypeIndex prototypes = prototypeIndex;
+            event.setEngine(activeEngineName());
+            event.setQuantized(quantizedStore != null);
+            event.setPoints(trainingData.size());
+            event.setDimension(dimension);
+            event.setNodes(grid != null ? grid.cellCount() : prototypes != null ? prototypes.size() : 0);
+            event.setSize(getCoordinateStoreBytes());
+            event.commit();
+        }
+    }
+
+    /**
+     * 先在局部變量中構建全部結構，最後再賦值給字段，構建期間字段仍指向舊結構而不會為null；
+     * 雙樹索引只依賴訓練數據，不隨搜索引擎或量化設置重建
+     */
+    private void buildCoordinateStore() {
+        QuantizedCoordinateStore store = null;
+        double[] flat = null;
+        GridNeighbourIndex builtGrid = null;
+        PrototypeIndex builtPrototypes = null;
+        if (!trainingData.isEmpty()) {
+            boolean grid = getNeighbourEngine() == NeighbourEngine.GRID;
+            if (grid && dimension != 2) {
+                log.warn("網格最近鄰索引只支持二維座標，將使用暴力掃描");
+                grid = false;
+            }
+            boolean prototype = getNeighbourEngine() == NeighbourEngine.PROTOTYPE;
+            if (quantizedStorage && (grid || prototype)) {
+                log.info("{}使用原始座標，不構建量化座標存儲", grid ? "網格最近鄰索引" : "原型索引");
+            } else if (quantizedStorage) {
+                store = QuantizedCoordinateStore.fromPoints(trainingData);
+                if (store == null) {
+                    log.warn("訓練數據的座標超出int32量化範圍或維度不一致，將使用原始座標");
+                } else {
+                    log.info("已構建量化座標存儲，共 {} 個數據點，佔用 {} 字節", store.size(), store.getSizeInBytes());
+                }
+            }
+            if (store == null) {
+                flat = flattenCoordinates();
+                if (grid) {
+                    builtGrid = GridNeighbourIndex.build(flat);
+                    log.info("已構建網格最近鄰索引，共 {} 個數據點，佔用 {} 字節", trainingData.size(),
+                            builtGrid.getSizeInBytes());
+                }
+                if (prototype) {
+                    builtPrototypes = PrototypeIndex.build(flat, dimension, pointLabelIds, pointMultiplicities,
+                            labelNames.length, getPrototypesPerLabel(), getPrototypeCandidateZones());
+                    log.info("已構建原型索引，{} 個數據點壓縮為 {} 個原型，佔用 {} 字節", trainingData.size(),
+                            builtPrototypes.size(), builtPrototypes.getSizeInBytes());
+                }
+            }
+        }
+        // 先發布新的存儲再清除不再使用的存儲，掃描路徑先檢查quantizedStore再使用coordinates
+        if (store != null) {
+            quantizedStore = store;
+            gridIndex = null;
+            prototypeIndex = null;
+            coordinates = null;
+        } else {
+            coordinates = flat;
+            gridIndex = builtGrid;
+            prototypeIndex = builtPrototypes;
+            quantizedStore = null;
+        }
+    }
+
+    private double[] flattenCoordinates() {
+        double[] flat = new double[trainingData.size() * dimension];
+        for (int i = 0; i < trainingData.size(); i++) {
+            double[] features = trainingData.get(i).getFeatures();
+            if (features.length != dimension) {
+                throw new IllegalArgumentException("特徵維度不匹配");
+            }
+            System.arraycopy(features, 0, flat, i * dimension, dimension);
+        }
+        return flat;
+    }
+
+    /**
+     * 反序列化後重建派生的存儲結構
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        rebuildDerivedStructures();
+    }
+
+    /**
+     * 獲取距離掃描所用座標存儲佔用的字節數
+     * 量化存儲為每點 4 × 維度 字節，原始雙精度座標為每點 8 × 維度 字節，網格索引另需每點約 20 字節
+     *
+     * @return 字節數
+     */
+    public long getCoordinateStoreBytes() {
+        if (quantizedStore != null) {
+            return quantizedStore.getSizeInBytes();
+        }
+        long bytes = coordinates == null ? 0 : (long) coordinates.length * Double.BYTES;
+        GridNeighbourIndex grid = gridIndex;
+        PrototypeIndex prototypes = prototypeIndex;
+        return bytes + (grid == null ? 0 : grid.getSizeInBytes())
+                + (prototypes == null ? 0 : prototypes.getSizeInBytes());
+    }
+
+    /**
+     * 粗略估算模型佔用的堆內存（按64位JVM、壓縮指針估算）
+     * 包括訓練數據、按標籤分組的映射、類別權重、每點的標籤編號與重複次數、座標存儲及已構建的索引
+     *
+     * @return 估算的字節數
+     */
+    public long estimateMemoryBytes() {
+        if (trainingData.isEmpty()) {
+            return 0;
+        }
+        ZonePolygonIndex zones = zonePolygonIndex;
+        GridNeighbourIndex range = rangeIndex;
+        DualTreeIndex dualTree = dualTreeIndex;
+        return trainingStoreBytes() + labelMapBytes() + classWeightBytes() + pointArrayBytes()
+                + getCoordinateStoreBytes() + (zones == null ? 0 : zones.getSizeInBytes())
+                + (range == null ? 0 : range.getSizeInBytes()) + (dualTree == null ? 0 : dualTree.getSizeInBytes());
+    }
+
+    /**
+     * 內存佔用明細：直接根據各結構的大小估算，不需要堆轉儲，可以頻繁採集
+     * 所有結構都在堆內，offHeapBytes恆為0；trainHeap為最近一次train()前後的已用堆內存，未經GC，僅供對照
+     *
+     * @return 各結構的字節數、每點字節數、索引深度與扇出統計、標籤字典大小及訓練前後的堆內存
+     */
+    public Map<String, Object> getMemoryFootprint() {
+        int points = trainingData.size();
+        Map<String, Object> footprint = new LinkedHashMap<>();
+        footprint.put("points", points);
+        footprint.put("rows", getSampleCount());
+        footprint.put("dimension", dimension);
+        footprint.put("labelDictionarySize", labelNames == null ? 0 : labelNames.length);
+
+        Map<String, Object> structures = new LinkedHashMap<>();
+        structures.put("trainingStore", trainingStoreBytes());
+        structures.put("labelMap", labelMapBytes());
+        structures.put("classWeights", classWeightBytes());
+        structures.put("pointArrays", pointArrayBytes());
+        structures.put("coordinateStore", quantizedStore != null ? quantizedStore.getSizeInBytes()
+                : coordinates == null ? 0 : (long) coordinates.length * Double.BYTES);
+        footprint.put("structures", structures);
+
+        Map<String, Object> indexes = new LinkedHashMap<>();
+        GridNeighbourIndex grid = gridIndex;
+        if (grid != null) {
+            structures.put("gridIndex", grid.getSizeInBytes());
+            indexes.put("grid", grid.getStats());
+        }
+        PrototypeIndex prototypes = prototypeIndex;
+        if (prototypes != null) {
+            structures.put("prototypeIndex", prototypes.getSizeInBytes());
+            indexes.put("prototypes", prototypes.getStats());
+        }
+        ZonePolygonIndex zones = zonePolygonIndex;
+        if (zones != null) {
+            structures.put("zonePolygonIndex", zones.getSizeInBytes());
+            indexes.put("zonePolygons", zones.getStats());
+        }
+        GridNeighbourIndex range = rangeIndex;
+        if (range != null) {
+            structures.put("rangeIndex", range.getSizeInBytes());
+            indexes.put("range", range.getStats());
+        }
+        DualTreeIndex dualTree = dualTreeIndex;
+        if (dualTree != null) {
+            structures.put("dualTreeIndex", dualTree.getSizeInBytes());
+            indexes.put("dualTree", dualTree.getStats());
+        }
+        footprint.put("indexes", indexes);
+
+        long onHeapBytes = estimateMemoryBytes();
+        footprint.put("onHeapBytes", onHeapBytes);
+        footprint.put("offHeapBytes", 0L);
+        footprint.put("bytesPerPoint", points == 0 ? 0 : (double) onHeapBytes / points);
+
+        if (trainHeapUsedAfter > 0) {
+            Map<String, Object> trainHeap = new LinkedHashMap<>();
+            trainHeap.put("usedBefore", trainHeapUsedBefore);
+            trainHeap.put("usedAfter", trainHeapUsedAfter);
+            trainHeap.put("delta", trainHeapUsedAfter - trainHeapUsedBefore);
+            trainHeap.put("estimateToDeltaRatio", trainHeapUsedAfter > trainHeapUsedBefore
+                    ? (double) onHeapBytes / (trainHeapUsedAfter - trainHeapUsedBefore) : null);
+            footprint.put("trainHeap", trainHeap);
+        }
+        return footprint;
+    }
+
+    /**
+     * 訓練數據：LabeledPoint對象(24) + 特徵數組(16 + 8 × 維度) + 訓練數據列表中的引用(4)
+     */
+    private long trainingStoreBytes() {
+        long perPoint = 24 + 16 + (long) dimension * Double.BYTES + 4;
+        return perPoint * trainingData.size() + 16 + 16;
+    }
+
+    /**
+     * 按標籤分組的映射與唯一標籤集合：兩個HashMap、每個類別兩個節點(2 × 32)、標籤字串(40 + 長度)與列表對象(40)，
+     * 每個數據點在分組列表中一個引用(4)
+     */
+    private long labelMapBytes() {
+        long bytes = 4L * trainingData.size() + 2 * hashTableBytes(uniqueLabels.size());
         for (String label : uniqueLabels) {
-            int count = labelToPointsMap.get(label).size();
-            // 對於樣本數極少的類別(如只有1個)，給予更高權重
-            // 使用對數函數來平滑極端值，防止單樣本類別獲得過高權重
-            double rawWeight = (double) maxCount / count;
-            // 使用對數平滑並設定上限
-            double weight = Math.min(Math.log10(rawWeight * 10), maxClassWeight);
-            classWeights.put(label, weight);
-            log.debug("類別 '{}' 原始權重: {}, 平滑後權重: {}", label, rawWeight, weight);
+            bytes += 2 * 32 + 40 + label.length() + 40;
+        }
+        return bytes;
+    }
+
+    /**
+     * 類別權重：HashMap、每個類別一個節點(32)與Double對象(16)，以及按標籤編號索引的數組
+     */
+    private long classWeightBytes() {
+        long bytes = hashTableBytes(classWeights.size()) + 48L * classWeights.size();
+        return classWeightArray == null ? bytes : bytes + 16 + (long) classWeightArray.length * Double.BYTES;
+    }
+
+    /**
+     * HashMap對象(48)與桶數組(16 + 4 × 容量)，容量為大於 條目數/0.75 的2的冪
+     */
+    private static long hashTableBytes(int entries) {
+        int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, (int) (entries / 0.75f))) << 1);
+        return 48 + 16 + 4L * capacity;
+    }
+
+    /**
+     * 每點的標籤編號與重複次數，以及標籤字典
+     */
+    private long pointArrayBytes() {
+        long bytes = 0;
+        if (pointLabelIds != null) {
+            bytes += 16 + (long) pointLabelIds.length * Integer.BYTES;
+        }
+        if (pointMultiplicities != null) {
+            bytes += 16 + (long) pointMultiplicities.length * Integer.BYTES;
+        }
+        if (labelNames != null) {
+            bytes += 16 + 4L * labelNames.length;
         }
+        return bytes;
     }
 
     /**
@@ -156,8 +722,13 @@ public class WeightedKNNClassifier implements Serializable {
             throw new IllegalStateException("分類器尚未訓練");
         }
 
-        double[] features = {x, y};
-        return predict(features);
+        PredictScratch workspace = scratch.get();
+        if (workspace.query.length != 2) {
+            throw new IllegalArgumentException("特徵維度不匹配");
+        }
+        workspace.query[0] = x;
+        workspace.query[1] = y;
+        return labelNames[predictLabelId(workspace.query, workspace)];
     }
 
     /**
@@ -167,70 +738,915 @@ public class WeightedKNNClassifier implements Serializable {
      * @return 預測的標籤
      */
     public String predict(double[] features) {
-        Map<String, Double> labelWeights = getWeightedVotes(features);
-        return getMostWeightedLabel(labelWeights);
+        if (!isTrained) {
+            throw new IllegalStateException("分類器尚未訓練");
+        }
+
+        return labelNames[predictLabelId(features, scratch.get())];
     }
 
     /**
-     * 從標籤權重中獲取權重最高的標籤
-     * 
-     * @param labelWeights 標籤權重映射
-     * @return 權重最高的標籤
+     * 批量預測
+     *
+     * @param queries 查詢點的特徵數組
+     * @return 與查詢點一一對應的預測標籤
+     * @see #predictLabelIds(double[][])
      */
-    private static String getMostWeightedLabel(Map<String, Double> labelWeights) {
-        // 使用 Java 8 Stream 找出最權重最高的標籤
-        return labelWeights.entrySet()
-                .stream()
-                .max(Map.Entry.comparingByValue())
-                .map(Map.Entry::getKey)
-                .orElse(null);
+    public String[] predictBatch(double[][] queries) {
+        int[] labelIds = predictLabelIds(queries);
+        String[] labels = new String[labelIds.length];
+        for (int q = 0; q < labelIds.length; q++) {
+            labels[q] = labelNames[labelIds[q]];
+        }
+        return labels;
     }
 
     /**
-     * 獲取特徵向量k個最近鄰中各標籤的加權投票
+     * 批量預測標籤編號，編號與getLabelDictionary的下標對應
+     * 查詢數達到dualTreeMinBatch時使用雙樹搜索，在並行掃描線程池中同時遍歷查詢點與訓練點的kd樹；
+     * 否則訓練數據按塊掃描，每個塊載入緩存後依次用於批次中的所有查詢點，整個批次只遍歷一次訓練數據。
+     * 兩種方式的結果都與逐個調用predict完全一致。量化存儲、網格或原型引擎下逐個預測
      *
-     * @param features 特徵向量
-     * @return 標籤權重映射
+     * @param queries 查詢點的特徵數組
+     * @return 與查詢點一一對應的標籤編號
      */
-    private Map<String, Double> getWeightedVotes(double[] features) {
+    public int[] predictLabelIds(double[][] queries) {
         if (!isTrained) {
             throw new IllegalStateException("分類器尚未訓練");
         }
 
-        // 計算到所有訓練點的距離
-        List<DistanceResult> distances = new ArrayList<>();
-        for (LabeledPoint point : trainingData) {
-            double dist = WeightedKNNUtils.calculateDistance(features, point.getFeatures());
-            distances.add(new DistanceResult(dist, point.getLabel()));
+        int[] labelIds = new int[queries.length];
+        if (quantizedStore != null || gridIndex != null || prototypeIndex != null) {
+            PredictScratch workspace = scratch.get();
+            for (int q = 0; q < queries.length; q++) {
+                labelIds[q] = predictLabelId(queries[q], workspace);
+            }
+            return labelIds;
+        }
+
+        for (double[] query : queries) {
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("特徵維度不匹配");
+            }
+        }
+        if (usesDualTree(queries.length)) {
+            return predictDualTree(queries, labelIds);
         }
 
-        // 根據距離排序
-        Collections.sort(distances);
+        PredictionEvent event = PREDICTION_EVENT.isEnabled() ? new PredictionEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        PredictScratch[] workspaces = new PredictScratch[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            workspaces[q] = new PredictScratch(dimension, labelNames.length, Math.max(k, 1));
+            workspaces[q].reset(k);
+        }
+        int size = coordinates.length / dimension;
+        if (k > 0) {
+            for (int tileStart = 0; tileStart < size; tileStart += BATCH_TILE_POINTS) {
+                int tileEnd = Math.min(size, tileStart + BATCH_TILE_POINTS);
+                for (int q = 0; q < queries.length; q++) {
+                    scanCoordinates(queries[q], workspaces[q], tileStart, tileEnd);
+                }
+            }
+        }
+        for (int q = 0; q < queries.length; q++) {
+            labelIds[q] = vote(workspaces[q]);
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.setEngine(activeEngineName());
+                event.setK(k);
+                event.setQueries(queries.length);
+                event.setTrainingPoints(size);
+                event.setPointsScanned(k > 0 ? (long) size * queries.length : 0);
+                event.commit();
+            }
+        }
+        return labelIds;
+    }
 
-        // 取前k個點，計算加權投票
-        Map<String, Double> labelWeights = new HashMap<>();
-        int count = Math.min(k, distances.size());
+    /**
+     * 批量預測這麼多查詢點時是否使用雙樹搜索：只用於暴力掃描引擎的雙精度座標存儲
+     *
+     * @param queryCount 批次中的查詢數
+     * @return 是否使用雙樹搜索
+     */
+    boolean usesDualTree(int queryCount) {
+        return isTrained && k > 0 && dualTreeMinBatch > 0 && queryCount >= dualTreeMinBatch
+                && quantizedStore == null && gridIndex == null && prototypeIndex == null;
+    }
 
-        for (int i = 0; i < count; i++) {
-            DistanceResult result = distances.get(i);
-            String label = result.getLabel();
-            double distance = result.getDistance();
-            
+    /**
+     * 用雙樹搜索找出批次中每個查詢點的前k個最近鄰後逐個投票；
+     * 取得並行掃描許可時在專用線程池中並行遍歷，否則在調用線程中遍歷
+     */
+    private int[] predictDualTree(double[][] queries, int[] labelIds) {
+        PredictionEvent event = PREDICTION_EVENT.isEnabled() ? new PredictionEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        DualTreeIndex index = getDualTreeIndex();
+        DualTreeIndex.Neighbours neighbours;
+        Semaphore permit = ParallelScanPool.tryAcquire();
+        try {
+            neighbours = index.search(queries, k, permit != null ? ParallelScanPool.pool() : null);
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+        }
+        PredictScratch workspace = scratch.get();
+        for (int q = 0; q < queries.length; q++) {
+            neighbours.copyTo(q, workspace);
+            labelIds[q] = vote(workspace);
+        }
+        dualTreeSearches.increment();
+        dualTreeQueries.add(queries.length);
+        dualTreeDistances.add(neighbours.distanceComputations);
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.setEngine("dual-tree");
+                event.setK(k);
+                event.setQueries(queries.length);
+                event.setTrainingPoints(trainingData.size());
+                event.setPointsScanned(neighbours.distanceComputations);
+                event.setNodesVisited((int) Math.min(Integer.MAX_VALUE, neighbours.nodePairs));
+                event.commit();
+            }
+        }
+        return labelIds;
+    }
+
+    /**
+     * 批量預測的雙樹索引，首次使用時構建
+     */
+    private DualTreeIndex getDualTreeIndex() {
+        DualTreeIndex index = dualTreeIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = dualTreeIndex;
+                if (index == null) {
+                    index = DualTreeIndex.build(coordinates, dimension);
+                    dualTreeIndex = index;
+                    log.info("已構建雙樹搜索的kd樹，共 {} 個數據點，佔用 {} 字節", trainingData.size(), index.getSizeInBytes());
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 獲取標籤字典，下標即predictLabelIds返回的標籤編號
+     *
+     * @return 只讀的標籤列表
+     */
+    public List<String> getLabelDictionary() {
+        if (!isTrained) {
+            throw new IllegalStateException("分類器尚未訓練");
+        }
+        return List.of(labelNames);
+    }
+
+    /**
+     * 先用區域邊界多邊形判斷，查詢點嚴格位於唯一一個區域多邊形內時直接返回該區域，
+     * 位於多個多邊形重疊處或所有多邊形之外時退回k最近鄰預測
+     *
+     * @param x 第一個特徵值
+     * @param y 第二個特徵值
+     * @return 預測的標籤
+     */
+    public String predictWithZonePolygons(double x, double y) {
+        String label = getZonePolygonIndex().locate(x, y);
+        return label != null ? label : predict(x, y);
+    }
+
+    /**
+     * 獲取區域邊界多邊形索引，首次調用時根據當前訓練數據構建
+     *
+     * @return 多邊形索引
+     */
+    public ZonePolygonIndex getZonePolygonIndex() {
+        if (!isTrained) {
+            throw new IllegalStateException("分類器尚未訓練");
+        }
+        if (dimension != 2) {
+            throw new IllegalStateException("區域多邊形只支持二維座標");
+        }
+        ZonePolygonIndex index = zonePolygonIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = zonePolygonIndex;
+                if (index == null) {
+                    index = ZonePolygonIndex.build(labelToPointsMap);
+                    zonePolygonIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 矩形範圍查詢：返回各維度都位於[min, max]內的訓練點，按空間索引的單元順序分頁
+     * 只訪問與矩形相交的網格單元，不複製訓練數據
+     *
+     * @param min 矩形各維度的下界
+     * @param max 矩形各維度的上界
+     * @param label 只返回該標籤的點，為null時不過濾
+     * @param offset 跳過的匹配數
+     * @param limit 最多返回的匹配數
+     * @return 匹配的訓練點，distance為NaN
+     */
+    public List<RangeMatch> findWithinBox(double[] min, double[] max, String label, int offset, int limit) {
+        int labelId = rangeLabelId(min, label);
+        List<RangeMatch> matches = new ArrayList<>(Math.min(Math.max(limit, 0), 1024));
+        if (limit <= 0) {
+            return matches;
+        }
+        int[] skipped = {0};
+        forEachInBox(min, max, index -> {
+            if (labelId >= 0 && pointLabelIds[index] != labelId) {
+                return true;
+            }
+            if (skipped[0] < offset) {
+                skipped[0]++;
+                return true;
+            }
+            matches.add(new RangeMatch(trainingData.get(index), Double.NaN));
+            return matches.size() < limit;
+        });
+        return matches;
+    }
+
+    /**
+     * 半徑範圍查詢：返回到中心的距離不超過radius的訓練點，按距離排序後分頁（距離相同時按訓練點順序）
+     * 只訪問與外接正方形相交的網格單元，並只保留前offset + limit個最近的匹配
+     *
+     * @param center 查詢中心
+     * @param radius 半徑，與特徵使用相同的單位
+     * @param label 只返回該標籤的點，為null時不過濾
+     * @param offset 跳過的匹配數
+     * @param limit 最多返回的匹配數
+     * @return 匹配的訓練點及距離
+     */
+    public List<RangeMatch> findWithinRadius(double[] center, double radius, String label, int offset, int limit) {
+        int labelId = rangeLabelId(center, label);
+        double[] min = new double[center.length];
+        double[] max = new double[center.length];
+        for (int d = 0; d < center.length; d++) {
+            min[d] = center[d] - radius;
+            max[d] = center[d] + radius;
+        }
+        int keep = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        double radiusSquared = radius * radius;
+        // 以距離從大到小排列的有界堆，堆頂為當前保留的最遠匹配
+        Comparator<RangeCandidate> nearestFirst = Comparator.comparingDouble(RangeCandidate::distance)
+                .thenComparingInt(RangeCandidate::index);
+        PriorityQueue<RangeCandidate> nearest = new PriorityQueue<>(nearestFirst.reversed());
+        if (keep > 0) {
+            forEachInBox(min, max, index -> {
+                if (labelId >= 0 && pointLabelIds[index] != labelId) {
+                    return true;
+                }
+                double[] features = trainingData.get(index).getFeatures();
+                double sum = 0.0;
+                for (int d = 0; d < center.length; d++) {
+                    double diff = center[d] - features[d];
+                    sum += diff * diff;
+                }
+                if (sum <= radiusSquared) {
+                    RangeCandidate candidate = new RangeCandidate(Math.sqrt(sum), index);
+                    if (nearest.size() < keep) {
+                        nearest.add(candidate);
+                    } else if (nearestFirst.compare(candidate, nearest.peek()) < 0) {
+                        nearest.poll();
+                        nearest.add(candidate);
+                    }
+                }
+                return true;
+            });
+        }
+        List<RangeCandidate> sorted = new ArrayList<>(nearest);
+        sorted.sort(nearestFirst);
+        List<RangeMatch> matches = new ArrayList<>(Math.max(0, sorted.size() - offset));
+        for (int i = offset; i < sorted.size(); i++) {
+            RangeCandidate candidate = sorted.get(i);
+            matches.add(new RangeMatch(trainingData.get(candidate.index()), candidate.distance()));
+        }
+        return matches;
+    }
+
+    /**
+     * 半徑查詢中暫存的匹配：距離及訓練點索引
+     */
+    private record RangeCandidate(double distance, int index) {
+    }
+
+    /**
+     * 檢查範圍查詢的維度，並把標籤過濾條件轉換為標籤編號
+     *
+     * @return 標籤編號；不過濾時返回-1，標籤不存在時返回-2（不會匹配任何點）
+     */
+    private int rangeLabelId(double[] query, String label) {
+        if (!isTrained) {
+            throw new IllegalStateException("分類器尚未訓練");
+        }
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("特徵維度不匹配");
+        }
+        if (label == null) {
+            return -1;
+        }
+        for (int id = 0; id < labelNames.length; id++) {
+            if (labelNames[id].equals(label)) {
+                return id;
+            }
+        }
+        return -2;
+    }
+
+    /**
+     * 訪問矩形內的訓練點：二維時使用網格索引（未使用網格引擎時首次範圍查詢構建），其他維度逐點掃描
+     */
+    private void forEachInBox(double[] min, double[] max, IntPredicate visitor) {
+        if (dimension == 2) {
+            getRangeIndex().forEachInBox(min[0], min[1], max[0], max[1], visitor);
+            return;
+        }
+        for (int index = 0; index < trainingData.size(); index++) {
+            double[] features = trainingData.get(index).getFeatures();
+            boolean inside = true;
+            for (int d = 0; d < dimension && inside; d++) {
+                inside = features[d] >= min[d] && features[d] <= max[d];
+            }
+            if (inside && !visitor.test(index)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 範圍查詢使用的網格索引：使用網格引擎時共用最近鄰索引，否則首次調用時單獨構建
+     */
+    private GridNeighbourIndex getRangeIndex() {
+        GridNeighbourIndex grid = gridIndex;
+        if (grid != null) {
+            return grid;
+        }
+        GridNeighbourIndex index = rangeIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = rangeIndex;
+                if (index == null) {
+                    double[] flat = new double[trainingData.size() * 2];
+                    for (int i = 0; i < trainingData.size(); i++) {
+                        System.arraycopy(trainingData.get(i).getFeatures(), 0, flat, i * 2, 2);
+                    }
+                    index = GridNeighbourIndex.build(flat);
+                    rangeIndex = index;
+                    log.info("已構建範圍查詢網格索引，佔用 {} 字節", index.getSizeInBytes());
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 預測新點的標籤編號，全程只使用線程工作區中的數組；未錄製預測事件時不分配對象，
+     * 錄製時耗時超過閾值的預測提交JFR事件
+     *
+     * @param features 特徵數組
+     * @param workspace 當前線程的工作區
+     * @return 權重最高的標籤編號
+     */
+    private int predictLabelId(double[] features, PredictScratch workspace) {
+        if (!PREDICTION_EVENT.isEnabled()) {
+            return searchAndVote(features, workspace);
+        }
+        PredictionEvent event = new PredictionEvent();
+        event.begin();
+        int labelId = searchAndVote(features, workspace);
+        event.end();
+        if (event.shouldCommit()) {
+            event.setEngine(activeEngineName());
+            event.setK(k);
+            event.setQueries(1);
+            event.setTrainingPoints(trainingData.size());
+            event.setPointsScanned(workspace.visited);
+            event.setNodesVisited(workspace.nodesVisited);
+            event.setEarlyTermination(workspace.decidedEarly);
+            event.commit();
+        }
+        return labelId;
+    }
+
+    private int searchAndVote(double[] features, PredictScratch workspace) {
+        GridNeighbourIndex grid = gridIndex;
+        if (grid != null) {
+            if (features.length != dimension) {
+                throw new IllegalArgumentException("特徵維度不匹配");
+            }
+            int decided = grid.search(features, k, workspace, voteDecider);
+            gridSearches.increment();
+            visitedCandidates.add(workspace.visited);
+            workspace.decidedEarly = decided >= 0;
+            if (decided >= 0) {
+                earlyTerminations.increment();
+                skippedCandidates.add(trainingData.size() - workspace.visited);
+                return decided;
+            }
+            return vote(workspace);
+        }
+        PrototypeIndex prototypes = prototypeIndex;
+        if (prototypes != null) {
+            if (features.length != dimension) {
+                throw new IllegalArgumentException("特徵維度不匹配");
+            }
+            prototypes.search(features, k, workspace);
+            workspace.decidedEarly = false;
+            return vote(workspace);
+        }
+        collectNearest(features, k, workspace);
+        workspace.decidedEarly = false;
+        return vote(workspace);
+    }
+
+    /**
+     * 實際使用的搜索方式，用於JFR事件
+     */
+    private String activeEngineName() {
+        if (gridIndex != null) {
+            return "grid";
+        }
+        if (prototypeIndex != null) {
+            return "prototype";
+        }
+        return quantizedStore != null ? "brute-force-quantized" : "brute-force";
+    }
+
+    /**
+     * 網格搜索中根據已確定的最近鄰判斷投票結果是否已不會改變
+     * 距離小於下界的最近鄰已經確定，剩餘的remaining個名額中每個鄰居的權重至多為
+     * 最大類別權重 × (1/(下界+epsilon))^distanceWeightFactor，
+     * 領先標籤的得票比其他任何標籤多出這些名額的權重之和時即為最終結果，與完整搜索後投票完全一致
+     *
+     * @param workspace 已收集部分最近鄰的工作區
+     * @param lowerBound 所有未確定鄰居距離的下界
+     * @return 已確定的標籤編號，無法確定時返回-1
+     */
+    private int decideByVoteMargin(PredictScratch workspace, double lowerBound) {
+        if (distanceWeightFactor < 0) {
+            return -1;
+        }
+        double[] votes = workspace.votes;
+        double[] weights = classWeightArray;
+        int[] labels = pointLabelIds;
+        int remaining = k;
+        int used = 0;
+        while (used < workspace.size && remaining > 0 && workspace.bestDistances[used] < lowerBound) {
+            int index = workspace.bestIndices[used];
+            int label = labels[index];
+            int copies = Math.min(pointMultiplicities[index], remaining);
+            double distanceWeight = Math.pow(1.0 / (workspace.bestDistances[used] + epsilon), distanceWeightFactor);
+            votes[label] += copies * distanceWeight * weights[label];
+            remaining -= copies;
+            used++;
+        }
+        if (used == 0) {
+            return -1;
+        }
+
+        int leader = -1;
+        for (int n = 0; n < used; n++) {
+            int label = labels[workspace.bestIndices[n]];
+            if (leader < 0 || votes[label] > votes[leader]) {
+                leader = label;
+            }
+        }
+        // 尚未出現的標籤得票為0
+        double runnerUp = 0.0;
+        for (int n = 0; n < used; n++) {
+            int label = labels[workspace.bestIndices[n]];
+            if (label != leader) {
+                runnerUp = Math.max(runnerUp, votes[label]);
+            }
+        }
+        double margin = votes[leader] - runnerUp;
+        for (int n = 0; n < used; n++) {
+            votes[labels[workspace.bestIndices[n]]] = 0.0;
+        }
+
+        if (remaining == 0) {
+            return leader;
+        }
+        double bound = remaining * maxClassWeightValue * Math.pow(1.0 / (lowerBound + epsilon), distanceWeightFactor);
+        // 留出相對誤差餘量，避免浮點累加順序不同導致的差異
+        return margin > bound * (1 + 1e-9) ? leader : -1;
+    }
+
+    /**
+     * 網格搜索與雙樹搜索統計
+     *
+     * @return 搜索引擎、搜索次數、提前停止次數、計算過與跳過的候選點數，以及雙樹搜索的批次數、查詢數與平均每個查詢計算的距離數
+     */
+    public Map<String, Object> getNeighbourSearchStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("engine", getNeighbourEngine());
+        if (gridSearches == null) {
+            return stats;
+        }
+        stats.put("searches", gridSearches.sum());
+        stats.put("earlyTerminations", earlyTerminations.sum());
+        stats.put("visitedCandidates", visitedCandidates.sum());
+        stats.put("skippedCandidates", skippedCandidates.sum());
+        long dualTreeQueryCount = dualTreeQueries.sum();
+        if (dualTreeQueryCount > 0) {
+            Map<String, Object> dualTree = new LinkedHashMap<>();
+            dualTree.put("batches", dualTreeSearches.sum());
+            dualTree.put("queries", dualTreeQueryCount);
+            dualTree.put("distancesPerQuery", (double) dualTreeDistances.sum() / dualTreeQueryCount);
+            dualTree.put("trainingPoints", trainingData.size());
+            stats.put("dualTree", dualTree);
+        }
+        return stats;
+    }
+
+    /**
+     * 對工作區中的最近鄰進行加權投票
+     * 每個鄰居的權重為 1/(distance+epsilon)^distanceWeightFactor × 類別權重，
+     * 重複點按重複次數計為多個鄰居，直到湊滿k個；得票相同時取最近鄰中最先出現的標籤
+     *
+     * @param workspace 已收集最近鄰的工作區
+     * @return 權重最高的標籤編號
+     */
+    private int vote(PredictScratch workspace) {
+        double[] votes = workspace.votes;
+        double[] weights = classWeightArray;
+        int[] labels = pointLabelIds;
+        int remaining = k;
+        int used = 0;
+        while (used < workspace.size && remaining > 0) {
+            int index = workspace.bestIndices[used];
+            int label = labels[index];
+            int copies = Math.min(pointMultiplicities[index], remaining);
             // 計算距離的權重: 1/(distance+epsilon)^distanceWeightFactor
             // 增加距離權重因子可以放大近距離的優勢
-            double distanceWeight = Math.pow(1.0 / (distance + epsilon), distanceWeightFactor);
-            
-            // 如果使用類別權重，則結合距離權重和類別權重
-            double weight = distanceWeight;
-            if (useClassWeights) {
-                weight *= classWeights.getOrDefault(label, 1.0);
+            double distanceWeight = Math.pow(1.0 / (workspace.bestDistances[used] + epsilon), distanceWeightFactor);
+            votes[label] += copies * distanceWeight * weights[label];
+            remaining -= copies;
+            used++;
+        }
+
+        int leader = -1;
+        for (int n = 0; n < used; n++) {
+            int label = labels[workspace.bestIndices[n]];
+            if (leader < 0 || votes[label] > votes[leader]) {
+                leader = label;
+            }
+        }
+        // 只重置本次用到的標籤
+        for (int n = 0; n < used; n++) {
+            votes[labels[workspace.bestIndices[n]]] = 0.0;
+        }
+        return leader;
+    }
+
+    /**
+     * 收集前count個最近鄰到工作區，按距離升序排列，距離相同時按訓練數據順序
+     *
+     * @param features 特徵向量
+     * @param count 需要的最近鄰數量
+     * @param workspace 當前線程的工作區
+     */
+    private void collectNearest(double[] features, int count, PredictScratch workspace) {
+        if (features.length != dimension) {
+            throw new IllegalArgumentException("特徵維度不匹配");
+        }
+        GridNeighbourIndex grid = gridIndex;
+        if (grid != null) {
+            grid.search(features, count, workspace, null);
+            return;
+        }
+        PrototypeIndex prototypes = prototypeIndex;
+        if (prototypes != null) {
+            prototypes.search(features, count, workspace);
+            return;
+        }
+        workspace.reset(count);
+        workspace.nodesVisited = 0;
+        if (count <= 0) {
+            workspace.visited = 0;
+            return;
+        }
+        QuantizedCoordinateStore store = quantizedStore;
+        if (store != null) {
+            workspace.visited = store.size();
+            scanQuantized(store, features, count, workspace);
+            return;
+        }
+        int size = coordinates.length / dimension;
+        workspace.visited = size;
+        if (parallelScanThreshold > 0 && size >= parallelScanThreshold) {
+            Semaphore permit = ParallelScanPool.tryAcquire();
+            if (permit != null) {
+                try {
+                    scanCoordinatesInParallel(features, count, workspace);
+                } finally {
+                    permit.release();
+                }
+                return;
+            }
+        }
+        scanCoordinates(features, workspace, 0, size);
+    }
+
+    /**
+     * 在連續存放的雙精度座標上掃描索引範圍[from, to)內的訓練點
+     * 先比較距離平方，只有可能進入最近鄰的點才開方
+     */
+    private void scanCoordinates(double[] features, PredictScratch workspace, int from, int to) {
+        double[] coords = coordinates;
+        int dim = dimension;
+        double worst = workspace.worstSquared();
+        for (int i = from, offset = from * dim; i < to; i++, offset += dim) {
+            double sum = 0.0;
+            for (int d = 0; d < dim; d++) {
+                double diff = features[d] - coords[offset + d];
+                sum += diff * diff;
+            }
+            if (sum <= worst) {
+                workspace.offer(Math.sqrt(sum), sum, i);
+                worst = workspace.worstSquared();
             }
-            
-            // 累加該標籤的權重
-            labelWeights.put(label, labelWeights.getOrDefault(label, 0.0) + weight);
         }
-        
-        return labelWeights;
+    }
+
+    /**
+     * 把訓練點切成連續的塊，在專用線程池中並行掃描，每塊保留自己的前count個最近鄰，
+     * 再按塊的順序合併；塊內按(距離, 索引)排序，因此合併結果與串行掃描完全一致
+     */
+    private void scanCoordinatesInParallel(double[] features, int count, PredictScratch workspace) {
+        ForkJoinPool pool = ParallelScanPool.pool();
+        int size = coordinates.length / dimension;
+        int chunks = Math.max(1, Math.min(pool.getParallelism() * 4, size / MIN_PARALLEL_CHUNK_SIZE));
+        List<ForkJoinTask<PredictScratch>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) size * c / chunks);
+            int to = (int) ((long) size * (c + 1) / chunks);
+            tasks.add(pool.submit(() -> {
+                PredictScratch partial = new PredictScratch(0, 0, count);
+                partial.reset(count);
+                scanCoordinates(features, partial, from, to);
+                return partial;
+            }));
+        }
+        for (ForkJoinTask<PredictScratch> task : tasks) {
+            PredictScratch partial = task.join();
+            for (int n = 0; n < partial.size; n++) {
+                workspace.offer(partial.bestDistances[n], partial.bestSquared[n], partial.bestIndices[n]);
+            }
+        }
+    }
+
+    /**
+     * 在量化存儲上篩選候選點，再用原始座標精確計算距離
+     * 設量化距離的誤差上界為e，第count小的量化距離為h，則真正的前count個點的量化距離都不超過h + 2e，
+     * 因此只保留量化距離不超過h + 2e的候選點即可保證結果與全量掃描完全一致
+     */
+    private void scanQuantized(QuantizedCoordinateStore store, double[] features, int count, PredictScratch workspace) {
+        double[] scaledQuery = workspace.scaledQuery;
+        store.scaleQuery(features, scaledQuery);
+        double margin = 2 * store.getErrorBound();
+
+        // 大小為count的最大堆，堆頂為當前第count小的量化距離
+        double[] heap = workspace.heap;
+        int heapSize = 0;
+        int candidateCount = 0;
+
+        int size = store.size();
+        for (int i = 0; i < size; i++) {
+            double distance = store.approximateDistance(scaledQuery, i);
+            if (heapSize < count) {
+                heapSize = siftUp(heap, heapSize, distance);
+            } else if (distance > heap[0] + margin) {
+                continue;
+            } else if (distance < heap[0]) {
+                siftDown(heap, heapSize, distance);
+            }
+            workspace.ensureCandidateCapacity(candidateCount);
+            workspace.candidates[candidateCount] = i;
+            workspace.candidateDistances[candidateCount] = distance;
+            candidateCount++;
+        }
+
+        // 候選點按索引遞增收集，依次加入即與全量掃描的順序一致
+        double threshold = heapSize < count ? Double.POSITIVE_INFINITY : heap[0] + margin;
+        int[] candidates = workspace.candidates;
+        double[] candidateDistances = workspace.candidateDistances;
+        for (int c = 0; c < candidateCount; c++) {
+            if (candidateDistances[c] <= threshold) {
+                int index = candidates[c];
+                double[] point = trainingData.get(index).getFeatures();
+                double sum = 0.0;
+                for (int d = 0; d < point.length; d++) {
+                    double diff = features[d] - point[d];
+                    sum += diff * diff;
+                }
+                workspace.offer(Math.sqrt(sum), sum, index);
+            }
+        }
+    }
+
+    /**
+     * 向最大堆中加入元素
+     *
+     * @return 新的堆大小
+     */
+    private static int siftUp(double[] heap, int heapSize, double value) {
+        int index = heapSize;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] >= value) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = value;
+        return heapSize + 1;
+    }
+
+    /**
+     * 用新元素替換最大堆的堆頂
+     */
+    private static void siftDown(double[] heap, int heapSize, double value) {
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (heap[child] <= value) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = value;
+    }
+
+    /**
+     * 查找特徵向量的前count個最近鄰，按距離由近到遠排列
+     * 與predict使用相同的距離計算與排序規則，供參數搜索等場景緩存鄰居結果；
+     * 重複點按重複次數展開為多個鄰居，與合併前的結果一致
+     *
+     * @param features 特徵向量
+     * @param count 需要的鄰居數量
+     * @return 最近鄰列表
+     */
+    public List<Neighbour> findNearestNeighbours(double[] features, int count) {
+        if (!isTrained) {
+            throw new IllegalStateException("分類器尚未訓練");
+        }
+
+        PredictScratch workspace = scratch.get();
+        collectNearest(features, count, workspace);
+        List<Neighbour> neighbours = new ArrayList<>(workspace.size);
+        for (int n = 0; n < workspace.size && neighbours.size() < count; n++) {
+            int index = workspace.bestIndices[n];
+            Neighbour neighbour = new Neighbour(workspace.bestDistances[n], labelNames[pointLabelIds[index]]);
+            for (int c = 0; c < pointMultiplicities[index] && neighbours.size() < count; c++) {
+                neighbours.add(neighbour);
+            }
+        }
+        return neighbours;
+    }
+
+    /**
+     * 創建一個參數相同但尚未訓練的分類器
+     *
+     * @return 未訓練的分類器副本
+     */
+    public WeightedKNNClassifier newUntrainedCopy() {
+        WeightedKNNClassifier copy = new WeightedKNNClassifier(k);
+        copy.setEpsilon(epsilon);
+        copy.setUseClassWeights(useClassWeights);
+        copy.setMaxClassWeight(maxClassWeight);
+        copy.setDistanceWeightFactor(distanceWeightFactor);
+        copy.setQuantizedStorage(quantizedStorage);
+        copy.setParallelScanThreshold(parallelScanThreshold);
+        copy.setDualTreeMinBatch(dualTreeMinBatch);
+        copy.setSpatialOrdering(spatialOrdering);
+        copy.setPrototypesPerLabel(getPrototypesPerLabel());
+        copy.setPrototypeCandidateZones(getPrototypeCandidateZones());
+        copy.setNeighbourEngine(getNeighbourEngine());
+        return copy;
+    }
+
+    /**
+     * 複製已訓練的模型：共享不可變的訓練數據點，複製設置並重建派生結構，不重新合併重複點或排序。
+     * 正在服務的模型不應直接修改設置，應在副本上修改後通過ClassifierService原子替換
+     *
+     * @return 副本；本模型未訓練時返回未訓練的副本
+     */
+    public WeightedKNNClassifier copy() {
+        WeightedKNNClassifier copy = newUntrainedCopy();
+        if (!isTrained) {
+            return copy;
+        }
+        copy.trainingData.addAll(trainingData);
+        copy.uniqueLabels.addAll(uniqueLabels);
+        labelToPointsMap.forEach((label, points) -> copy.labelToPointsMap.put(label, new ArrayList<>(points)));
+        copy.classWeights = new HashMap<>(classWeights);
+        copy.lastEvaluation = lastEvaluation;
+        copy.isTrained = true;
+        copy.rebuildDerivedStructures();
+        return copy;
+    }
+
+    /**
+     * 獲取當前的超參數快照
+     *
+     * @return 版本號為0的參數快照，由參數存儲在寫入時分配版本號
+     */
+    public ModelParameters getParameters() {
+        return new ModelParameters(0, k, epsilon, useClassWeights, maxClassWeight, distanceWeightFactor,
+                quantizedStorage, getNeighbourEngine());
+    }
+
+    /**
+     * 將參數快照疊加到當前模型上，只有座標存儲或搜索引擎變化時才重建對應的結構
+     *
+     * @param parameters 參數快照
+     */
+    public void applyParameters(ModelParameters parameters) {
+        this.k = parameters.getK();
+        this.epsilon = parameters.getEpsilon();
+        this.distanceWeightFactor = parameters.getDistanceWeightFactor();
+        this.maxClassWeight = parameters.getMaxClassWeight();
+        setUseClassWeights(parameters.isUseClassWeights());
+        if (parameters.isQuantizedStorage() != quantizedStorage) {
+            setQuantizedStorage(parameters.isQuantizedStorage());
+        }
+        if (parameters.getNeighbourEngine() != getNeighbourEngine()) {
+            setNeighbourEngine(parameters.getNeighbourEngine());
+        }
+    }
+
+    /**
+     * 獲取當前生效的類別權重
+     *
+     * @return 標籤到類別權重的只讀映射；不使用類別權重時為空
+     */
+    public Map<String, Double> getClassWeights() {
+        return Collections.unmodifiableMap(classWeights);
+    }
+
+    /**
+     * 獲取每個類別的樣本數
+     *
+     * @return 標籤到樣本數的映射
+     */
+    public Map<String, Integer> getLabelCounts() {
+        Map<String, Integer> labelCounts = new HashMap<>();
+        for (Map.Entry<String, List<LabeledPoint>> entry : labelToPointsMap.entrySet()) {
+            int count = 0;
+            for (LabeledPoint point : entry.getValue()) {
+                count += point.getMultiplicity();
+            }
+            labelCounts.put(entry.getKey(), count);
+        }
+        return labelCounts;
+    }
+
+    /**
+     * 獲取訓練數據的外接矩形
+     *
+     * @return 二維數組，[0]為各維度最小值，[1]為各維度最大值；未訓練時返回null
+     */
+    public double[][] getBoundingBox() {
+        if (trainingData.isEmpty()) {
+            return null;
+        }
+        int dimension = trainingData.get(0).getFeatures().length;
+        double[] min = new double[dimension];
+        double[] max = new double[dimension];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for (LabeledPoint point : trainingData) {
+            double[] features = point.getFeatures();
+            for (int d = 0; d < dimension; d++) {
+                min[d] = Math.min(min[d], features[d]);
+                max[d] = Math.max(max[d], features[d]);
+            }
+        }
+        return new double[][]{min, max};
     }
 
     /**
@@ -278,14 +1694,48 @@ public class WeightedKNNClassifier implements Serializable {
      * @return 評估結果
      */
     public EvaluationResult evaluateModel(int folds, int maxTestSamplesPerFold) {
+        return evaluateModel(folds, maxTestSamplesPerFold, new EvaluationProgress());
+    }
+
+    /**
+     * 評估模型性能，在progress中報告進度並支持取消；結果保存為模型的lastEvaluation
+     *
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @param progress 進度與取消標記
+     * @return 評估結果
+     * @throws java.util.concurrent.CancellationException 評估被取消
+     */
+    public EvaluationResult evaluateModel(int folds, int maxTestSamplesPerFold, EvaluationProgress progress) {
         if (!isTrained) {
             throw new IllegalStateException("分類器尚未訓練");
         }
-        
-        this.lastEvaluation = WeightedKNNUtils.evaluateModel(this, folds, maxTestSamplesPerFold);
+
+        this.lastEvaluation = WeightedKNNUtils.evaluateModel(this, folds, maxTestSamplesPerFold,
+                new Random().nextLong(), UnaryOperator.identity(), progress);
         return this.lastEvaluation;
     }
 
+    /**
+     * 序貫評估：分批預測測試點，準確率與宏F1的95%置信區間寬度都不超過目標或時間預算用完時提前停止；
+     * 結果保存為模型的lastEvaluation
+     *
+     * @param folds 交叉驗證的折數
+     * @param targetWidth 置信區間的目標寬度
+     * @param timeBudgetMillis 時間預算（毫秒），不大於0表示不限
+     * @param batchSize 每批預測的測試點數
+     * @param progress 進度與取消標記
+     * @return 評估結果，包含置信區間及與完整評估相比使用的樣本數
+     * @see SequentialEvaluator
+     */
+    public SequentialEvaluationResult evaluateSequentially(int folds, double targetWidth, long timeBudgetMillis,
+                                                           int batchSize, EvaluationProgress progress) {
+        SequentialEvaluationResult result = SequentialEvaluator.evaluate(this, folds, targetWidth, timeBudgetMillis,
+                batchSize, new Random().nextLong(), progress);
+        this.lastEvaluation = result;
+        return result;
+    }
+
     /**
      * 保存模型到文件
      *
@@ -327,59 +1777,22 @@ public class WeightedKNNClassifier implements Serializable {
     /**
      * 獲取訓練數據大小
      *
-     * @return 訓練數據點數量
+     * @return 訓練數據點數量（重複座標合併後）
      */
     public int getTrainingDataSize() {
         return trainingData.size();
     }
 
     /**
-     * 存儲距離計算結果的不可變類
-     * 用於計算和排序距離結果
+     * 獲取合併前的原始樣本數，即所有數據點重複次數之和
+     *
+     * @return 原始樣本數
      */
-    private static final class DistanceResult implements Comparable<DistanceResult>, Serializable {
-        @Serial
-        private static final long serialVersionUID = 1L;
-        private final double distance; // 計算得出的距離
-        private final String label;   // 數據點的標籤
-
-        /**
-         * 建構一個距離計算結果
-         *
-         * @param distance 計算得出的距離
-         * @param label 數據點的標籤
-         */
-        public DistanceResult(double distance, String label) {
-            this.distance = distance;
-            this.label = label;
-        }
-
-        /**
-         * 獲取距離值
-         *
-         * @return 距離值
-         */
-        public double getDistance() {
-            return distance;
-        }
-
-        /**
-         * 獲取標籤
-         *
-         * @return 標籤
-         */
-        public String getLabel() {
-            return label;
-        }
-
-        @Override
-        public int compareTo(DistanceResult other) {
-            return Double.compare(this.distance, other.distance);
-        }
-
-        @Override
-        public String toString() {
-            return "DistanceResult{distance=" + distance + ", label='" + label + "'}"; 
+    public long getSampleCount() {
+        long count = 0;
+        for (LabeledPoint point : trainingData) {
+            count += point.getMultiplicity();
         }
+        return count;
     }
 }
@@ -1,18 +1,23 @@
 package com.yc.kmeans.kmeans;
 
+import com.yc.kmeans.jfr.EvaluationFoldEvent;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.function.UnaryOperator;
 
 /**
  * 加權KNN的輔助工具類，實現評估和計算相關功能
  */
 @Slf4j
 public class WeightedKNNUtils {
+    private static final int EVALUATION_BATCH_SIZE = 8192; // 評估時每批預測的測試樣本數，兩批之間檢查取消
 
     /**
      * 為WeightedKNNClassifier執行評估操作
@@ -25,6 +30,46 @@ public class WeightedKNNUtils {
     public static EvaluationResult evaluateModel(WeightedKNNClassifier classifier, 
                                                 int folds, 
                                                 int maxTestSamplesPerFold) {
+        return evaluateModel(classifier, folds, maxTestSamplesPerFold, new Random().nextLong(), UnaryOperator.identity());
+    }
+
+    /**
+     * 為WeightedKNNClassifier執行評估操作，可指定隨機種子及每折訓練集的處理方式
+     * 使用相同的種子可以讓兩次評估使用完全相同的折劃分和測試樣本，便於比較
+     *
+     * @param classifier 待評估的分類器
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @param seed 打亂數據使用的隨機種子
+     * @param trainFoldReducer 訓練每折臨時分類器前對訓練集的處理（例如訓練集縮減），測試集保持不變
+     * @return 評估結果
+     */
+    public static EvaluationResult evaluateModel(WeightedKNNClassifier classifier,
+                                                int folds,
+                                                int maxTestSamplesPerFold,
+                                                long seed,
+                                                UnaryOperator<List<LabeledPoint>> trainFoldReducer) {
+        return evaluateModel(classifier, folds, maxTestSamplesPerFold, seed, trainFoldReducer, new EvaluationProgress());
+    }
+
+    /**
+     * 為WeightedKNNClassifier執行評估操作，並在progress中報告進度
+     *
+     * @param classifier 待評估的分類器
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @param seed 打亂數據使用的隨機種子
+     * @param trainFoldReducer 訓練每折臨時分類器前對訓練集的處理，測試集保持不變
+     * @param progress 進度與取消標記
+     * @return 評估結果
+     * @throws java.util.concurrent.CancellationException 評估被取消
+     */
+    public static EvaluationResult evaluateModel(WeightedKNNClassifier classifier,
+                                                int folds,
+                                                int maxTestSamplesPerFold,
+                                                long seed,
+                                                UnaryOperator<List<LabeledPoint>> trainFoldReducer,
+                                                EvaluationProgress progress) {
         if (!classifier.isTrained()) {
             throw new IllegalStateException("分類器尚未訓練");
         }
@@ -42,11 +87,7 @@ public class WeightedKNNUtils {
         EvaluationResult result = new EvaluationResult();
 
         // 計算每個類別的樣本數
-        Map<String, Integer> classCounts = new HashMap<>();
-        for (Map.Entry<String, List<LabeledPoint>> entry : labelToPointsMap.entrySet()) {
-            classCounts.put(entry.getKey(), entry.getValue().size());
-        }
-        result.setClassCounts(classCounts);
+        result.setClassCounts(classifier.getLabelCounts());
 
         // 初始化混淆矩陣
         Map<String, Map<String, Integer>> confusionMatrix = new HashMap<>();
@@ -59,14 +100,22 @@ public class WeightedKNNUtils {
 
         // 打亂訓練數據
         log.info("打亂數據進行交叉驗證");
+        Random random = new Random(seed);
         List<LabeledPoint> shuffledData = new ArrayList<>(trainingData);
-        Collections.shuffle(shuffledData);
+        Collections.shuffle(shuffledData, random);
 
         // 計算每折的大小
         int foldSize = trainingData.size() / folds;
+        long plannedSamples = 0;
+        for (int i = 0; i < folds; i++) {
+            int foldEnd = (i == folds - 1) ? shuffledData.size() : (i + 1) * foldSize;
+            plannedSamples += Math.min(foldEnd - i * foldSize, maxTestSamplesPerFold);
+        }
+        progress.start(folds, plannedSamples);
 
         int totalCorrect = 0;
         int totalSamples = 0;
+        long predictNanos = 0;
 
         // 相關係數計算準備
         double sumActualY = 0;
@@ -93,7 +142,7 @@ public class WeightedKNNUtils {
 
             if (fullTestFold.size() > maxTestSamplesPerFold) {
                 // 從完整測試集中隨機抽樣
-                Collections.shuffle(fullTestFold);
+                Collections.shuffle(fullTestFold, random);
                 testFold = new ArrayList<>(fullTestFold.subList(0, maxTestSamplesPerFold));
                 log.info("縮減測試集大小從 {} 到 {}", fullTestFold.size(), testFold.size());
             } else {
@@ -109,49 +158,83 @@ public class WeightedKNNUtils {
             }
 
             // 創建並訓練臨時分類器
-            WeightedKNNClassifier tempClassifier = new WeightedKNNClassifier(classifier.getK());
-            tempClassifier.setUseClassWeights(classifier.isUseClassWeights());
-            tempClassifier.setEpsilon(classifier.getEpsilon());
-            tempClassifier.train(trainFold);
-
-            // 在測試集上評估
+            progress.checkCancelled();
+            EvaluationFoldEvent foldEvent = new EvaluationFoldEvent();
+            foldEvent.begin();
+            long trainStart = System.nanoTime();
+            WeightedKNNClassifier tempClassifier = classifier.newUntrainedCopy();
+            tempClassifier.train(trainFoldReducer.apply(trainFold));
+            long foldTrainNanos = System.nanoTime() - trainStart;
+            int correctBefore = totalCorrect;
+            long predictNanosBefore = predictNanos;
+
+            // 在測試集上評估：按批預測，批次足夠大時使用雙樹搜索，每批之間檢查取消
             int foldCorrect = 0;
-            for (LabeledPoint testPoint : testFold) {
-                foldCorrect++;
-                if(foldCorrect % 1000 == 0){
-                    log.info("已處理測試樣本數 = {}", foldCorrect);
+            for (int batchStart = 0; batchStart < testFold.size(); batchStart += EVALUATION_BATCH_SIZE) {
+                progress.checkCancelled();
+                List<LabeledPoint> batch = testFold.subList(batchStart,
+                        Math.min(testFold.size(), batchStart + EVALUATION_BATCH_SIZE));
+                double[][] queries = new double[batch.size()][];
+                for (int q = 0; q < queries.length; q++) {
+                    queries[q] = batch.get(q).getFeatures();
                 }
-                String actualLabel = testPoint.getLabel();
-                String predictedLabel = tempClassifier.predict(testPoint.getFeatures());
-
-                // 更新混淆矩陣
-                confusionMatrix.get(actualLabel).put(
-                        predictedLabel,
-                        confusionMatrix.get(actualLabel).get(predictedLabel) + 1
-                );
-
-                // 計算正確預測數
-                if (predictedLabel.equals(actualLabel)) {
-                    totalCorrect++;
+                long predictStart = System.nanoTime();
+                String[] predictedLabels = tempClassifier.predictBatch(queries);
+                predictNanos += System.nanoTime() - predictStart;
+
+                for (int q = 0; q < queries.length; q++) {
+                    LabeledPoint testPoint = batch.get(q);
+                    foldCorrect++;
+                    if(foldCorrect % 1000 == 0){
+                        log.info("已處理測試樣本數 = {}，預計剩餘 {} 毫秒", foldCorrect, progress.getEtaMillis());
+                    }
+                    String actualLabel = testPoint.getLabel();
+                    String predictedLabel = predictedLabels[q];
+
+                    // 更新混淆矩陣
+                    confusionMatrix.get(actualLabel).put(
+                            predictedLabel,
+                            confusionMatrix.get(actualLabel).get(predictedLabel) + 1
+                    );
+
+                    // 計算正確預測數
+                    if (predictedLabel.equals(actualLabel)) {
+                        totalCorrect++;
+                    }
+
+                    // 為R2計算收集數據
+                    int actualY = labelToNumber.get(actualLabel);
+                    int predictedY = labelToNumber.get(predictedLabel);
+
+                    sumActualY += actualY;
+                    sumPredictedY += predictedY;
+                    sumActualYSquared += actualY * actualY;
+                    sumPredictedYSquared += predictedY * predictedY;
+                    sumActualPredictedY += actualY * predictedY;
+
+                    totalSamples++;
+                    progress.sampleProcessed();
                 }
-
-                // 為R2計算收集數據
-                int actualY = labelToNumber.get(actualLabel);
-                int predictedY = labelToNumber.get(predictedLabel);
-
-                sumActualY += actualY;
-                sumPredictedY += predictedY;
-                sumActualYSquared += actualY * actualY;
-                sumPredictedYSquared += predictedY * predictedY;
-                sumActualPredictedY += actualY * predictedY;
-
-                totalSamples++;
             }
+            foldEvent.end();
+            if (foldEvent.shouldCommit()) {
+                foldEvent.setMode("cross-validation");
+                foldEvent.setFold(i);
+                foldEvent.setFolds(folds);
+                foldEvent.setTrainingPoints(tempClassifier.getTrainingDataSize());
+                foldEvent.setTestSamples(testFold.size());
+                foldEvent.setCorrect(totalCorrect - correctBefore);
+                foldEvent.setTrainDuration(foldTrainNanos);
+                foldEvent.setPredictDuration(predictNanos - predictNanosBefore);
+                foldEvent.commit();
+            }
+            progress.foldCompleted();
         }
 
         // 計算準確率
         double accuracy = (double) totalCorrect / totalSamples;
         result.setAccuracy(accuracy);
+        result.setAveragePredictMicros(predictNanos / 1000.0 / totalSamples);
 
         // 計算精確率、召回率和F1分數（多類別的宏平均）
         double totalPrecision = 0;
@@ -214,6 +297,71 @@ public class WeightedKNNUtils {
         return result;
     }
     
+    /**
+     * 計算類別權重，處理類別不平衡問題
+     * 原始權重與類別樣本數成反比：maxCount/count，再用對數平滑並設定上限，防止單樣本類別獲得過高權重
+     *
+     * @param labelCounts 每個類別的樣本數
+     * @param maxClassWeight 類別權重上限
+     * @return 標籤到類別權重的映射
+     */
+    public static Map<String, Double> calculateClassWeights(Map<String, Integer> labelCounts, double maxClassWeight) {
+        // 獲取最大類別的樣本數
+        int maxCount = 0;
+        for (int count : labelCounts.values()) {
+            maxCount = Math.max(maxCount, count);
+        }
+
+        Map<String, Double> classWeights = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : labelCounts.entrySet()) {
+            double rawWeight = (double) maxCount / entry.getValue();
+            double weight = calculateClassWeight(maxCount, entry.getValue(), maxClassWeight);
+            classWeights.put(entry.getKey(), weight);
+            log.debug("類別 '{}' 原始權重: {}, 平滑後權重: {}", entry.getKey(), rawWeight, weight);
+        }
+        return classWeights;
+    }
+
+    /**
+     * 計算單個類別的權重：min(log10(maxCount / count × 10), maxClassWeight)
+     *
+     * @param maxCount 最大類別的樣本數
+     * @param count 該類別的樣本數
+     * @param maxClassWeight 類別權重上限
+     * @return 類別權重
+     */
+    public static double calculateClassWeight(int maxCount, int count, double maxClassWeight) {
+        double rawWeight = (double) maxCount / count;
+        return Math.min(Math.log10(rawWeight * 10), maxClassWeight);
+    }
+
+    /**
+     * 對按距離排序的最近鄰進行加權投票
+     * 每個鄰居的權重為 1/(distance+epsilon)^distanceWeightFactor，再乘以其類別權重（若提供）
+     *
+     * @param neighbours 按距離排序的最近鄰
+     * @param classWeights 類別權重，為null時不使用類別權重
+     * @param epsilon 防止除零的小值
+     * @param distanceWeightFactor 距離權重因子
+     * @return 權重最高的標籤
+     */
+    public static String weightedVote(List<Neighbour> neighbours, Map<String, Double> classWeights,
+                                      double epsilon, double distanceWeightFactor) {
+        Map<String, Double> labelWeights = new HashMap<>();
+        for (Neighbour neighbour : neighbours) {
+            double weight = Math.pow(1.0 / (neighbour.getDistance() + epsilon), distanceWeightFactor);
+            if (classWeights != null) {
+                weight *= classWeights.getOrDefault(neighbour.getLabel(), 1.0);
+            }
+            labelWeights.merge(neighbour.getLabel(), weight, Double::sum);
+        }
+        return labelWeights.entrySet()
+                .stream()
+                .max(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .orElse(null);
+    }
+
     /**
      * 計算歐氏距離
      *
@@ -232,4 +380,55 @@ public class WeightedKNNUtils {
         }
         return Math.sqrt(sum);
     }
+
+    /**
+     * 合併座標與標籤完全相同的數據點，合併後的點以重複次數記錄原始行數
+     * 保持每組重複點首次出現的順序，投票時按重複次數計算，預測結果與合併前一致
+     *
+     * @param points 數據點列表
+     * @return 合併後的數據點列表
+     */
+    public static List<LabeledPoint> collapseDuplicates(List<LabeledPoint> points) {
+        Map<DuplicateKey, Integer> positions = new HashMap<>();
+        List<LabeledPoint> collapsed = new ArrayList<>();
+        List<Integer> multiplicities = new ArrayList<>();
+        long rows = 0;
+        for (LabeledPoint point : points) {
+            rows += point.getMultiplicity();
+            DuplicateKey key = new DuplicateKey(point.getFeatures(), point.getLabel());
+            Integer position = positions.putIfAbsent(key, collapsed.size());
+            if (position == null) {
+                collapsed.add(point);
+                multiplicities.add(point.getMultiplicity());
+            } else {
+                multiplicities.set(position, multiplicities.get(position) + point.getMultiplicity());
+            }
+        }
+        for (int i = 0; i < collapsed.size(); i++) {
+            LabeledPoint point = collapsed.get(i);
+            if (point.getMultiplicity() != multiplicities.get(i)) {
+                collapsed.set(i, new LabeledPoint(point.getFeatures(), point.getLabel(), multiplicities.get(i)));
+            }
+        }
+        if (collapsed.size() < points.size()) {
+            log.info("合併重複座標：{} 行 -> {} 個數據點，壓縮比 {}", rows, collapsed.size(),
+                    String.format("%.4f", (double) collapsed.size() / rows));
+        }
+        return collapsed;
+    }
+
+    /**
+     * 以座標與標籤判斷重複的鍵
+     */
+    private record DuplicateKey(double[] features, String label) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof DuplicateKey key && label.equals(key.label) && Arrays.equals(features, key.features);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(features) + label.hashCode();
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 單個區域（標籤）的邊界多邊形：該標籤所有訓練點的凸包
+ * 頂點按逆時針順序存放，座標與特徵一致，即 x 為緯度、y 為經度
+ */
+@Getter
+public final class ZonePolygon {
+    private final String label;
+    private final double[] xs;      // 頂點的第一個特徵（緯度）
+    private final double[] ys;      // 頂點的第二個特徵（經度）
+    private final long pointCount;  // 構建多邊形的樣本數
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+    private ZonePolygon(String label, double[] xs, double[] ys, long pointCount) {
+        this.label = label;
+        this.xs = xs;
+        this.ys = ys;
+        this.pointCount = pointCount;
+        this.minX = Arrays.stream(xs).min().orElseThrow();
+        this.maxX = Arrays.stream(xs).max().orElseThrow();
+        this.minY = Arrays.stream(ys).min().orElseThrow();
+        this.maxY = Arrays.stream(ys).max().orElseThrow();
+    }
+
+    /**
+     * 用單調鏈算法計算標籤所有點的凸包
+     *
+     * @param label 標籤
+     * @param points 該標籤的數據點（二維）
+     * @return 凸包多邊形；不同座標少於3個或全部共線時返回null
+     */
+    static ZonePolygon convexHull(String label, List<LabeledPoint> points) {
+        List<double[]> sorted = new ArrayList<>(points.size());
+        long pointCount = 0;
+        for (LabeledPoint point : points) {
+            sorted.add(point.getFeatures());
+            pointCount += point.getMultiplicity();
+        }
+        sorted.sort(Comparator.<double[]>comparingDouble(p -> p[0]).thenComparingDouble(p -> p[1]));
+
+        int n = sorted.size();
+        double[][] hull = new double[2 * n][];
+        int size = 0;
+        // 下凸殼
+        for (double[] p : sorted) {
+            while (size >= 2 && cross(hull[size - 2], hull[size - 1], p) <= 0) {
+                size--;
+            }
+            hull[size++] = p;
+        }
+        // 上凸殼
+        for (int i = n - 2, lower = size + 1; i >= 0; i--) {
+            double[] p = sorted.get(i);
+            while (size >= lower && cross(hull[size - 2], hull[size - 1], p) <= 0) {
+                size--;
+            }
+            hull[size++] = p;
+        }
+        // 最後一個點與第一個點重複
+        size--;
+        if (size < 3) {
+            return null;
+        }
+
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = hull[i][0];
+            ys[i] = hull[i][1];
+        }
+        return new ZonePolygon(label, xs, ys, pointCount);
+    }
+
+    private static double cross(double[] o, double[] a, double[] b) {
+        return (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
+    }
+
+    /**
+     * 判斷點是否嚴格位於多邊形內部，落在邊界上的點不算在內
+     * 凸多邊形的頂點按逆時針排列，點在每條邊的左側即位於內部
+     *
+     * @param x 第一個特徵
+     * @param y 第二個特徵
+     * @return 是否嚴格位於內部
+     */
+    public boolean containsStrictly(double x, double y) {
+        if (x <= minX || x >= maxX || y <= minY || y >= maxY) {
+            return false;
+        }
+        int n = xs.length;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            double cross = (xs[i] - xs[j]) * (y - ys[j]) - (ys[i] - ys[j]) * (x - xs[j]);
+            if (cross <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 多邊形的頂點數
+     *
+     * @return 頂點數
+     */
+    public int getVertexCount() {
+        return xs.length;
+    }
+}
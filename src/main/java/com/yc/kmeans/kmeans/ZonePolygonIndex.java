@@ -0,0 +1,291 @@
+package com.yc.kmeans.kmeans;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 區域邊界多邊形索引
+ * 為每個標籤構建凸包，並把多邊形的外接矩形按STR（Sort-Tile-Recursive）方式打包成靜態R樹。
+ * 查詢點嚴格位於唯一一個多邊形內時直接返回該標籤，否則交給k最近鄰處理
+ */
+@Slf4j
+public final class ZonePolygonIndex {
+    private static final int NODE_CAPACITY = 16;
+
+    private final List<ZonePolygon> polygons;
+    private final Node root;
+
+    private ZonePolygonIndex(List<ZonePolygon> polygons) {
+        this.polygons = polygons;
+        this.root = polygons.isEmpty() ? null : pack(polygons);
+    }
+
+    /**
+     * 為每個標籤構建凸包並建立索引
+     *
+     * @param labelToPointsMap 標籤到數據點的映射（二維特徵）
+     * @return 多邊形索引
+     */
+    public static ZonePolygonIndex build(Map<String, List<LabeledPoint>> labelToPointsMap) {
+        long start = System.currentTimeMillis();
+        List<ZonePolygon> polygons = new ArrayList<>();
+        for (Map.Entry<String, List<LabeledPoint>> entry : labelToPointsMap.entrySet()) {
+            ZonePolygon polygon = ZonePolygon.convexHull(entry.getKey(), entry.getValue());
+            if (polygon != null) {
+                polygons.add(polygon);
+            }
+        }
+        polygons.sort(Comparator.comparing(ZonePolygon::getLabel));
+        log.info("已構建 {} 個區域多邊形（共 {} 個類別），耗時 {} 毫秒", polygons.size(), labelToPointsMap.size(),
+                System.currentTimeMillis() - start);
+        return new ZonePolygonIndex(polygons);
+    }
+
+    /**
+     * 查找嚴格包含查詢點的唯一多邊形
+     *
+     * @param x 第一個特徵（緯度）
+     * @param y 第二個特徵（經度）
+     * @return 標籤；點不在任何多邊形內或同時位於多個多邊形內時返回null
+     */
+    public String locate(double x, double y) {
+        if (root == null) {
+            return null;
+        }
+        ZonePolygon found = null;
+        Node[] stack = new Node[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            if (!node.contains(x, y)) {
+                continue;
+            }
+            if (node.children != null) {
+                for (Node child : node.children) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = child;
+                }
+                continue;
+            }
+            for (int id : node.entries) {
+                ZonePolygon polygon = polygons.get(id);
+                if (polygon.containsStrictly(x, y)) {
+                    if (found != null) {
+                        // 多個區域重疊，由k最近鄰決定
+                        return null;
+                    }
+                    found = polygon;
+                }
+            }
+        }
+        return found == null ? null : found.getLabel();
+    }
+
+    /**
+     * 導出所有多邊形為GeoJSON FeatureCollection
+     * GeoJSON座標順序為 [經度, 緯度]，多邊形外環首尾相同並按逆時針排列
+     *
+     * @return 可直接序列化為JSON的結構
+     */
+    public Map<String, Object> toGeoJson() {
+        List<Map<String, Object>> features = new ArrayList<>(polygons.size());
+        for (ZonePolygon polygon : polygons) {
+            double[] xs = polygon.getXs();
+            double[] ys = polygon.getYs();
+            List<double[]> ring = new ArrayList<>(xs.length + 1);
+            // 特徵中x為緯度、y為經度；經度為橫軸時頂點順序由順時針變為逆時針，需反向輸出
+            for (int i = xs.length; i >= 0; i--) {
+                int vertex = i % xs.length;
+                ring.add(new double[]{ys[vertex], xs[vertex]});
+            }
+
+            Map<String, Object> geometry = new LinkedHashMap<>();
+            geometry.put("type", "Polygon");
+            geometry.put("coordinates", List.of(ring));
+
+            Map<String, Object> properties = new LinkedHashMap<>();
+            properties.put("zone", polygon.getLabel());
+            properties.put("pointCount", polygon.getPointCount());
+
+            Map<String, Object> feature = new LinkedHashMap<>();
+            feature.put("type", "Feature");
+            feature.put("properties", properties);
+            feature.put("geometry", geometry);
+            features.add(feature);
+        }
+
+        Map<String, Object> collection = new LinkedHashMap<>();
+        collection.put("type", "FeatureCollection");
+        collection.put("features", features);
+        return collection;
+    }
+
+    /**
+     * 獲取已構建的多邊形
+     *
+     * @return 多邊形列表
+     */
+    public List<ZonePolygon> getPolygons() {
+        return polygons;
+    }
+
+    /**
+     * R樹結構統計：深度、節點數與扇出
+     *
+     * @return 統計信息
+     */
+    public Map<String, Object> getStats() {
+        int depth = 0;
+        int nodes = 0;
+        int leaves = 0;
+        int maxFanOut = 0;
+        long fanOutTotal = 0;
+        List<Node> level = root == null ? List.of() : List.of(root);
+        while (!level.isEmpty()) {
+            depth++;
+            List<Node> next = new ArrayList<>();
+            for (Node node : level) {
+                nodes++;
+                int fanOut = node.children != null ? node.children.length : node.entries.length;
+                maxFanOut = Math.max(maxFanOut, fanOut);
+                fanOutTotal += fanOut;
+                if (node.children != null) {
+                    next.addAll(Arrays.asList(node.children));
+                } else {
+                    leaves++;
+                }
+            }
+            level = next;
+        }
+        int vertices = 0;
+        for (ZonePolygon polygon : polygons) {
+            vertices += polygon.getVertexCount();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("polygons", polygons.size());
+        stats.put("vertices", vertices);
+        stats.put("depth", depth);
+        stats.put("nodes", nodes);
+        stats.put("leaves", leaves);
+        stats.put("nodeCapacity", NODE_CAPACITY);
+        stats.put("maxFanOut", maxFanOut);
+        stats.put("meanFanOut", nodes == 0 ? 0 : (double) fanOutTotal / nodes);
+        stats.put("bytes", getSizeInBytes());
+        return stats;
+    }
+
+    /**
+     * 粗略估算索引佔用的堆內存：多邊形對象(64)及兩個頂點數組，R樹節點(56)及其子節點或編號數組
+     *
+     * @return 估算的字節數
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (ZonePolygon polygon : polygons) {
+            bytes += 64 + 2 * (16 + (long) polygon.getVertexCount() * Double.BYTES);
+        }
+        List<Node> level = root == null ? List.of() : List.of(root);
+        while (!level.isEmpty()) {
+            List<Node> next = new ArrayList<>();
+            for (Node node : level) {
+                bytes += 56 + 16 + 4L * (node.children != null ? node.children.length : node.entries.length);
+                if (node.children != null) {
+                    next.addAll(Arrays.asList(node.children));
+                }
+            }
+            level = next;
+        }
+        return bytes;
+    }
+
+    /**
+     * STR打包：按中心x排序後切成約√P個縱向條帶，每個條帶內按中心y排序後每NODE_CAPACITY個打包成一個節點，
+     * 對上一層節點重複此過程直到只剩一個根節點
+     */
+    private static Node pack(List<ZonePolygon> polygons) {
+        List<Node> level = new ArrayList<>();
+        for (int id = 0; id < polygons.size(); id++) {
+            ZonePolygon polygon = polygons.get(id);
+            level.add(new Node(polygon.getMinX(), polygon.getMinY(), polygon.getMaxX(), polygon.getMaxY(),
+                    null, new int[]{id}));
+        }
+        boolean leafLevel = true;
+        while (level.size() > 1 || leafLevel) {
+            level = packLevel(level, leafLevel);
+            leafLevel = false;
+        }
+        return level.get(0);
+    }
+
+    private static List<Node> packLevel(List<Node> items, boolean leafLevel) {
+        int nodeCount = (items.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        int sliceSize = sliceCount * NODE_CAPACITY;
+
+        List<Node> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingDouble(Node::centerX));
+        List<Node> packed = new ArrayList<>(nodeCount);
+        for (int sliceStart = 0; sliceStart < sorted.size(); sliceStart += sliceSize) {
+            List<Node> slice = new ArrayList<>(sorted.subList(sliceStart, Math.min(sliceStart + sliceSize, sorted.size())));
+            slice.sort(Comparator.comparingDouble(Node::centerY));
+            for (int start = 0; start < slice.size(); start += NODE_CAPACITY) {
+                List<Node> group = slice.subList(start, Math.min(start + NODE_CAPACITY, slice.size()));
+                packed.add(leafLevel ? Node.leaf(group) : Node.branch(group));
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * R樹節點：葉子節點保存多邊形編號，內部節點保存子節點
+     */
+    private record Node(double minX, double minY, double maxX, double maxY, Node[] children, int[] entries) {
+
+        static Node leaf(List<Node> items) {
+            int[] entries = new int[items.size()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = items.get(i).entries[0];
+            }
+            return bounding(items, null, entries);
+        }
+
+        static Node branch(List<Node> items) {
+            return bounding(items, items.toArray(Node[]::new), null);
+        }
+
+        private static Node bounding(List<Node> items, Node[] children, int[] entries) {
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (Node item : items) {
+                minX = Math.min(minX, item.minX);
+                minY = Math.min(minY, item.minY);
+                maxX = Math.max(maxX, item.maxX);
+                maxY = Math.max(maxY, item.maxY);
+            }
+            return new Node(minX, minY, maxX, maxY, children, entries);
+        }
+
+        double centerX() {
+            return (minX + maxX) / 2;
+        }
+
+        double centerY() {
+            return (minY + maxY) / 2;
+        }
+
+        boolean contains(double x, double y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+    }
+}
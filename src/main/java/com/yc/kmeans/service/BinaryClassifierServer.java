@@ -0,0 +1,371 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import com.yc.kmeans.tools.BinaryProtocol;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 二進制分類協議服務，與REST接口並行提供默認模型的分類
+ * 每個連接由一個線程按順序處理幀，客戶端可以流水線地連續發送請求；
+ * 輸入緩衝區中沒有更多已到達的幀時才刷新輸出，連續的響應合併寫出。
+ * 同時打開的連接數不超過max-connections，超出時回覆ERROR後關閉；連接在read-timeout-ms內沒有收到數據即關閉。
+ * 預測與REST接口一樣在分類艙壁中執行，艙壁已滿時該幀回覆ERROR並提示重試，連接保持打開。
+ * 協議格式見 {@link BinaryProtocol}
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class BinaryClassifierServer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ClassifierService classifierService;
+    private final Bulkheads bulkheads;
+
+    @Getter
+    @Value("${classifier.binary.enabled:false}")
+    private boolean enabled;
+
+    @Value("${classifier.binary.port:9090}")
+    private int port;
+
+    @Value("${classifier.binary.max-points-per-frame:4096}")
+    private int maxPointsPerFrame;
+
+    @Value("${classifier.binary.max-connections:256}")
+    private int maxConnections;
+
+    @Value("${classifier.binary.read-timeout-ms:60000}")
+    private int readTimeoutMs;
+
+    private ThreadPoolExecutor connectionExecutor;
+    private Semaphore connectionPermits;
+    private final AtomicLong refusedConnections = new AtomicLong();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger dictionaryVersions = new AtomicInteger();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong points = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rejectedFrames = new AtomicLong();
+
+    private volatile Dictionary dictionary;
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        maxConnections = Math.max(1, maxConnections);
+        connectionPermits = new Semaphore(maxConnections);
+        // 每個連接一個線程，並發連接數由連接許可限制；線程池本身不設上限，
+        // 避免剛釋放許可的線程尚未回到池中時新連接被拒絕，空閒線程一分鐘後回收
+        AtomicInteger threadCount = new AtomicInteger();
+        connectionExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "classifier-binary-connection-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+        acceptor = new Thread(this::accept, "classifier-binary-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("二進制分類協議已在端口 {} 上監聽，連接數上限 {}，讀取超時 {} 毫秒", serverSocket.getLocalPort(),
+                maxConnections, readTimeoutMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.debug("關閉二進制協議監聽失敗: {}", e.getMessage());
+        }
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        connectionExecutor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!connectionPermits.tryAcquire()) {
+                    refuse(socket);
+                    continue;
+                }
+                try {
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(readTimeoutMs);
+                    connections.add(socket);
+                    connectionExecutor.execute(() -> {
+                        try {
+                            serve(socket);
+                        } finally {
+                            connectionPermits.release();
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    connections.remove(socket);
+                    connectionPermits.release();
+                    closeQuietly(socket);
+                    log.warn("處理二進制協議連接失敗: {}", e.getMessage());
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("接受二進制協議連接失敗: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 連接數已達上限：回覆ERROR後關閉
+     */
+    private void refuse(Socket socket) {
+        refusedConnections.incrementAndGet();
+        try (socket; DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+            BinaryProtocol.writeError(out, -1, "連接數已達上限: " + maxConnections);
+            out.flush();
+        } catch (IOException e) {
+            log.debug("拒絕二進制協議連接失敗: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 處理一個連接上的所有幀，直到客戶端斷開或出現協議錯誤
+     */
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE))) {
+            int sentVersion = -1;
+            while (true) {
+                int length = in.readInt();
+                byte type = in.readByte();
+                if (type == BinaryProtocol.HELLO && length == 1 + Integer.BYTES) {
+                    if (in.readInt() != BinaryProtocol.MAGIC) {
+                        BinaryProtocol.writeError(out, -1, "不支持的協議版本");
+                        return;
+                    }
+                    sentVersion = sendDictionary(out, currentDictionary());
+                } else if (type == BinaryProtocol.CLASSIFY && length >= 1 + Long.BYTES + Integer.BYTES) {
+                    long requestId = in.readLong();
+                    int count = in.readInt();
+                    if (count < 0 || count > maxPointsPerFrame
+                            || length != 1 + Long.BYTES + Integer.BYTES + count * 2 * Double.BYTES) {
+                        BinaryProtocol.writeError(out, requestId, "每幀的點數必須在0到" + maxPointsPerFrame + "之間");
+                        return;
+                    }
+                    double[][] queries = new double[count][];
+                    for (int i = 0; i < count; i++) {
+                        queries[i] = new double[]{in.readDouble(), in.readDouble()};
+                    }
+                    sentVersion = classify(out, requestId, queries, sentVersion);
+                } else {
+                    BinaryProtocol.writeError(out, -1, "無效的幀類型或長度: " + type);
+                    return;
+                }
+                // 客戶端流水線發送時繼續處理已到達的幀，最後一次性刷新
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            log.debug("二進制協議連接已關閉: {}", socket.getRemoteSocketAddress());
+        } catch (SocketTimeoutException e) {
+            log.debug("二進制協議連接 {} 毫秒內沒有數據，已關閉: {}", readTimeoutMs, socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            log.warn("二進制協議連接出錯: {}", e.getMessage());
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * 在分類艙壁中預測一個CLASSIFY幀中的所有點並寫出RESULT；字典與連接上次發送的不同時先發送新字典。
+     * 艙壁已滿時只對該幀回覆ERROR，客戶端可在retry-after-seconds後重試
+     *
+     * @return 連接上最後發送的字典版本
+     */
+    private int classify(DataOutputStream out, long requestId, double[][] queries, int sentVersion) throws IOException {
+        Dictionary current;
+        int[] labelIds;
+        try {
+            current = currentDictionary();
+            Dictionary frameDictionary = current;
+            labelIds = bulkheads.getClassification().submit(() -> predict(frameDictionary, queries)).get();
+        } catch (BulkheadFullException e) {
+            rejectedFrames.incrementAndGet();
+            BinaryProtocol.writeError(out, requestId,
+                    e.getReason() + "，請在 " + bulkheads.getRetryAfterSeconds() + " 秒後重試");
+            return sentVersion;
+        } catch (ExecutionException e) {
+            errors.incrementAndGet();
+            BinaryProtocol.writeError(out, requestId, e.getCause().getMessage());
+            return sentVersion;
+        } catch (InterruptedException e) {
+            // 服務關閉時中斷連接線程，不再等待結果
+            Thread.currentThread().interrupt();
+            throw new SocketException("二進制協議服務正在關閉");
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            BinaryProtocol.writeError(out, requestId, e.getMessage());
+            return sentVersion;
+        }
+        if (current.version != sentVersion) {
+            sentVersion = sendDictionary(out, current);
+        }
+        BinaryProtocol.writeResult(out, requestId, current.version, labelIds);
+        frames.incrementAndGet();
+        points.addAndGet(queries.length);
+        return sentVersion;
+    }
+
+    /**
+     * 與REST接口一致：啟用區域多邊形時先做點在多邊形內判斷，其餘點一起批量預測
+     */
+    private int[] predict(Dictionary current, double[][] queries) {
+        WeightedKNNClassifier classifier = current.classifier;
+        if (!classifierService.isZonePolygonsEnabled()) {
+            return classifier.predictLabelIds(queries);
+        }
+        int[] labelIds = new int[queries.length];
+        List<Integer> remaining = new ArrayList<>();
+        for (int i = 0; i < queries.length; i++) {
+            String zone = classifier.getZonePolygonIndex().locate(queries[i][0], queries[i][1]);
+            if (zone != null) {
+                labelIds[i] = current.labelIds.get(zone);
+            } else {
+                remaining.add(i);
+            }
+        }
+        if (!remaining.isEmpty()) {
+            double[][] rest = new double[remaining.size()][];
+            for (int r = 0; r < rest.length; r++) {
+                rest[r] = queries[remaining.get(r)];
+            }
+            int[] predicted = classifier.predictLabelIds(rest);
+            for (int r = 0; r < rest.length; r++) {
+                labelIds[remaining.get(r)] = predicted[r];
+            }
+        }
+        return labelIds;
+    }
+
+    private int sendDictionary(DataOutputStream out, Dictionary current) throws IOException {
+        BinaryProtocol.writeDictionary(out, current.version, current.labels);
+        return current.version;
+    }
+
+    /**
+     * 獲取當前默認模型的標籤字典，模型替換後分配新的版本號
+     */
+    private Dictionary currentDictionary() {
+        WeightedKNNClassifier classifier = classifierService.getClassifier();
+        Dictionary current = dictionary;
+        if (current != null && current.classifier == classifier) {
+            return current;
+        }
+        synchronized (this) {
+            current = dictionary;
+            if (current == null || current.classifier != classifier) {
+                current = new Dictionary(classifier, dictionaryVersions.incrementAndGet(),
+                        classifier.getLabelDictionary());
+                dictionary = current;
+            }
+            return current;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("關閉二進制協議連接失敗: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 二進制協議統計
+     *
+     * @return 監聽端口、連接數、處理的幀數與點數以及因分類艙壁已滿被拒絕的幀數
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        if (!enabled) {
+            return status;
+        }
+        status.put("port", serverSocket.getLocalPort());
+        status.put("maxPointsPerFrame", maxPointsPerFrame);
+        status.put("maxConnections", maxConnections);
+        status.put("readTimeoutMs", readTimeoutMs);
+        status.put("connections", connections.size());
+        status.put("refusedConnections", refusedConnections.get());
+        status.put("frames", frames.get());
+        status.put("points", points.get());
+        status.put("errors", errors.get());
+        status.put("rejectedFrames", rejectedFrames.get());
+        Dictionary current = dictionary;
+        status.put("dictionaryVersion", current == null ? 0 : current.version);
+        return status;
+    }
+
+    /**
+     * 某個模型的標籤字典及其版本
+     */
+    private static final class Dictionary {
+        final WeightedKNNClassifier classifier;
+        final int version;
+        final List<String> labels;
+        final Map<String, Integer> labelIds = new HashMap<>();
+
+        Dictionary(WeightedKNNClassifier classifier, int version, List<String> labels) {
+            this.classifier = classifier;
+            this.version = version;
+            this.labels = labels;
+            for (int id = 0; id < labels.size(); id++) {
+                labelIds.put(labels.get(id), id);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.tools.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 單一流量類別的艙壁：固定大小的線程池加有界隊列
+ * 隊列已滿時立即拒絕並拋出BulkheadFullException，一類流量過載只會使該類請求被拒絕，不會佔用其他類別的線程
+ */
+@Slf4j
+public class Bulkhead {
+    private final String name;
+    private final int threads;
+    private final int queueCapacity;
+    private final long retryAfterSeconds;
+    private final ThreadPoolExecutor executor;
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param name 流量類別名稱，同時用作線程名前綴
+     * @param threads 線程數
+     * @param queueCapacity 排隊任務上限
+     * @param retryAfterSeconds 拒絕時建議客戶端等待的秒數
+     */
+    public Bulkhead(String name, int threads, int queueCapacity, long retryAfterSeconds) {
+        this.name = name;
+        this.threads = Math.max(1, threads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.retryAfterSeconds = retryAfterSeconds;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "classifier-" + name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交有返回值的任務
+     *
+     * @param task 任務
+     * @return 任務結果的Future，任務拋出的任何異常（包括Error）都會使Future異常完成
+     * @throws BulkheadFullException 隊列已滿
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                // 先完成Future，避免等待結果的請求永遠掛起；Error繼續向上拋出
+                future.completeExceptionally(e);
+                if (e instanceof Error error) {
+                    throw error;
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 提交任務
+     *
+     * @param task 任務
+     * @throws BulkheadFullException 隊列已滿
+     */
+    public void execute(Runnable task) {
+        long enqueued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long started = System.nanoTime();
+                queueWait.record(started - enqueued);
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    failed.incrementAndGet();
+                    log.warn("{} 任務失敗: {}", name, e.toString(), e);
+                    if (e instanceof Error error) {
+                        throw error;
+                    }
+                } finally {
+                    execution.record(System.nanoTime() - started);
+                }
+            });
+            accepted.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new BulkheadFullException(name, retryAfterSeconds);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 艙壁統計
+     *
+     * @return 線程數、隊列長度、接受與拒絕次數以及排隊和執行延遲分位數
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("threads", threads);
+        status.put("active", executor.getActiveCount());
+        status.put("queued", executor.getQueue().size());
+        status.put("queueCapacity", queueCapacity);
+        status.put("accepted", accepted.get());
+        status.put("rejected", rejected.get());
+        status.put("failed", failed.get());
+        status.put("queueWaitMicros", percentiles(queueWait));
+        status.put("executionMicros", percentiles(execution));
+        return status;
+    }
+
+    private static Map<String, Long> percentiles(LatencyHistogram histogram) {
+        Map<String, Long> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", histogram.percentileMicros(0.50));
+        percentiles.put("p99", histogram.percentileMicros(0.99));
+        percentiles.put("max", histogram.maxMicros());
+        return percentiles;
+    }
+}
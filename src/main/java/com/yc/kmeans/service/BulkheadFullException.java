@@ -0,0 +1,29 @@
+package com.yc.kmeans.service;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.Serial;
+
+/**
+ * 艙壁隊列已滿：立即返回503並通過Retry-After告知客戶端稍後重試，不在Web線程上排隊等待
+ */
+public class BulkheadFullException extends ResponseStatusException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public BulkheadFullException(String bulkhead, long retryAfterSeconds) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "服務繁忙，" + bulkhead + " 隊列已滿");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return headers;
+    }
+}
@@ -0,0 +1,103 @@
+package com.yc.kmeans.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按流量類別劃分的艙壁
+ * 分類、評估、聚類與管理（參數調整、搜索、縮減、模型載入與保存）請求分別在各自的有界線程池中執行，
+ * Web線程只負責接收請求並等待異步結果；評估或保存模型再慢也只會佔滿自己的線程池，分類延遲不受影響
+ */
+@Component
+public class Bulkheads {
+
+    @Value("${classifier.bulkhead.classification.threads:0}")
+    private int classificationThreads;
+
+    @Value("${classifier.bulkhead.classification.queue-capacity:1000}")
+    private int classificationQueueCapacity;
+
+    @Value("${classifier.evaluation.threads:1}")
+    private int evaluationThreads;
+
+    @Value("${classifier.evaluation.queue-capacity:4}")
+    private int evaluationQueueCapacity;
+
+    @Value("${classifier.bulkhead.admin.threads:2}")
+    private int adminThreads;
+
+    @Value("${classifier.bulkhead.admin.queue-capacity:16}")
+    private int adminQueueCapacity;
+
+    @Value("${classifier.shadow.threads:1}")
+    private int shadowThreads;
+
+    @Value("${classifier.shadow.queue-capacity:1000}")
+    private int shadowQueueCapacity;
+
+    @Value("${classifier.clustering.threads:1}")
+    private int clusteringThreads;
+
+    @Value("${classifier.clustering.queue-capacity:4}")
+    private int clusteringQueueCapacity;
+
+    @Getter
+    @Value("${classifier.bulkhead.retry-after-seconds:1}")
+    private long retryAfterSeconds;
+
+    @Getter
+    private Bulkhead classification;
+
+    @Getter
+    private Bulkhead evaluation;
+
+    @Getter
+    private Bulkhead admin;
+
+    @Getter
+    private Bulkhead shadow;
+
+    @Getter
+    private Bulkhead clustering;
+
+    @PostConstruct
+    public void init() {
+        // 0表示使用全部CPU核心
+        int threads = classificationThreads > 0 ? classificationThreads : Runtime.getRuntime().availableProcessors();
+        classification = new Bulkhead("classification", threads, classificationQueueCapacity, retryAfterSeconds);
+        evaluation = new Bulkhead("evaluation", evaluationThreads, evaluationQueueCapacity, retryAfterSeconds);
+        admin = new Bulkhead("admin", adminThreads, adminQueueCapacity, retryAfterSeconds);
+        shadow = new Bulkhead("shadow", shadowThreads, shadowQueueCapacity, retryAfterSeconds);
+        clustering = new Bulkhead("clustering", clusteringThreads, clusteringQueueCapacity, retryAfterSeconds);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        classification.shutdown();
+        evaluation.shutdown();
+        admin.shutdown();
+        shadow.shutdown();
+        clustering.shutdown();
+    }
+
+    /**
+     * 各艙壁的統計
+     *
+     * @return 按流量類別的線程池統計
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("classification", classification.getStatus());
+        status.put("evaluation", evaluation.getStatus());
+        status.put("admin", admin.getStatus());
+        status.put("shadow", shadow.getStatus());
+        status.put("clustering", clustering.getStatus());
+        return status;
+    }
+}
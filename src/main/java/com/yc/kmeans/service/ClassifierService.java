@@ -0,0 +1,466 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.EvaluationResult;
+import com.yc.kmeans.kmeans.LabeledPoint;
+import com.yc.kmeans.kmeans.ModelParameters;
+import com.yc.kmeans.kmeans.ParallelScanPool;
+import com.yc.kmeans.kmeans.TrainingSetReducer;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.LivenessState;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static com.yc.kmeans.utils.ReadExcel.readData;
+
+/**
+ * 默認分類模型的生命週期管理：啟動時載入或訓練模型、預熱、發布以及就緒/存活狀態
+ * 同步啟動模式（sync）與原先一致，在應用啟動期間完成載入或訓練；
+ * 異步啟動模式（async）下應用立即啟動，後台先發布上次保存的模型快照，需要時再重新訓練並在預熱後替換
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ClassifierService {
+    private final ShardRouter shardRouter;
+    private final ModelParameterStore parameterStore;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${classifier.xlsx-file-path:C:\\Users\\yanchen\\workspace\\ars\\Address-20250220103453.xlsx}")
+    private String xlsxFilePath;
+
+    @Getter
+    @Value("${classifier.model-path:weighted_knn_classifier.ser}")
+    private String modelFilePath;
+
+    @Value("${classifier.need-train:true}")
+    private boolean isNeedTrain;
+
+    @Value("${classifier.k:10}")
+    private int k;
+
+    @Value("${classifier.quantized-storage:false}")
+    private boolean quantizedStorage;
+
+    @Value("${classifier.spatial-ordering:true}")
+    private boolean spatialOrdering;
+
+    @Value("${classifier.neighbour-engine:brute-force}")
+    private String neighbourEngine;
+
+    @Value("${classifier.prototypes.per-label:8}")
+    private int prototypesPerLabel;
+
+    @Value("${classifier.prototypes.candidate-zones:3}")
+    private int prototypeCandidateZones;
+
+    @Value("${classifier.engine-selection.queries:2000}")
+    private int engineSelectionQueries;
+
+    @Value("${classifier.engine-selection.memory-budget-mb:256}")
+    private long engineSelectionMemoryBudgetMb;
+
+    @Value("${classifier.reduction:}")
+    private String reduction;
+
+    @Value("${classifier.parallel-scan.threshold:1000000}")
+    private int parallelScanThreshold;
+
+    @Value("${classifier.parallel-scan.parallelism:0}")
+    private int parallelScanParallelism;
+
+    @Value("${classifier.parallel-scan.max-concurrent-queries:2}")
+    private int parallelScanMaxConcurrentQueries;
+
+    @Value("${classifier.dual-tree.min-batch:256}")
+    private int dualTreeMinBatch;
+
+    @Getter
+    @Value("${classifier.zone-polygons.enabled:false}")
+    private boolean zonePolygonsEnabled;
+
+    @Getter
+    @Value("${classifier.shard.zone-prefixes:}")
+    private List<String> shardZonePrefixes;
+
+    @Value("${classifier.startup-mode:sync}")
+    private String startupMode;
+
+    @Value("${classifier.warmup.queries:2000}")
+    private int warmupQueries;
+
+    private final ExecutorService startupExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "classifier-startup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile WeightedKNNClassifier classifier;
+
+    @Getter
+    private volatile ReadinessState readinessState = ReadinessState.REFUSING_TRAFFIC;
+
+    @Getter
+    private volatile LivenessState livenessState = LivenessState.CORRECT;
+
+    /**
+     * start.
+     */
+    @PostConstruct
+    public void init() {
+        ParallelScanPool.configure(parallelScanParallelism, parallelScanMaxConcurrentQueries);
+        if (shardRouter.isEnabled()) {
+            log.info("以分片路由模式運行，本節點不載入模型");
+            readinessState = ReadinessState.ACCEPTING_TRAFFIC;
+            return;
+        }
+        if ("async".equalsIgnoreCase(startupMode)) {
+            log.info("異步啟動：模型將在後台載入，就緒前拒絕分類請求");
+            startupExecutor.submit(this::warmStart);
+        } else {
+            publish(loadOrTrain());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        startupExecutor.shutdownNow();
+    }
+
+    /**
+     * 同步啟動：按need-train載入或訓練模型
+     */
+    private WeightedKNNClassifier loadOrTrain() {
+        if (!isNeedTrain) {
+            WeightedKNNClassifier snapshot = loadSnapshot();
+            if (snapshot != null) {
+                warmUp(snapshot);
+                return snapshot;
+            }
+        }
+        WeightedKNNClassifier trained = createAndTrainNewModel();
+        warmUp(trained);
+        return trained;
+    }
+
+    /**
+     * 異步啟動：先發布上次保存的模型快照，再按需在後台重新訓練，預熱後原子替換
+     */
+    private void warmStart() {
+        try {
+            WeightedKNNClassifier snapshot = loadSnapshot();
+            if (snapshot != null) {
+                warmUp(snapshot);
+                publish(snapshot);
+            }
+            if (isNeedTrain || snapshot == null) {
+                WeightedKNNClassifier trained = createAndTrainNewModel();
+                warmUp(trained);
+                publish(trained);
+            }
+        } catch (Exception e) {
+            log.error("後台構建模型失敗: {}", e.getMessage(), e);
+            if (classifier == null) {
+                // 沒有任何可用模型，交由編排系統重啟
+                livenessState = LivenessState.BROKEN;
+                AvailabilityChangeEvent.publish(eventPublisher, this, LivenessState.BROKEN);
+            }
+        }
+    }
+
+    /**
+     * 載入上次保存的模型快照
+     *
+     * @return 模型；文件不存在或載入失敗時返回null
+     */
+    private WeightedKNNClassifier loadSnapshot() {
+        File modelFile = new File(modelFilePath);
+        if (!modelFile.exists()) {
+            log.info("未找到已訓練的模型，將創建新模型");
+            return null;
+        }
+        try {
+            WeightedKNNClassifier snapshot = WeightedKNNClassifier.loadModel(modelFilePath);
+            snapshot.setParallelScanThreshold(parallelScanThreshold);
+            snapshot.setDualTreeMinBatch(dualTreeMinBatch);
+            // 參數文件中的最新版本疊加在模型文件之上
+            ModelParameters parameters = parameterStore.load();
+            if (parameters != null) {
+                snapshot.applyParameters(parameters);
+                log.info("已疊加參數文件版本 {}: {}", parameters.getVersion(), parameters);
+            }
+            EvaluationResult evaluation = parameterStore.loadEvaluation(modelFilePath);
+            if (evaluation != null) {
+                snapshot.setLastEvaluation(evaluation);
+            }
+            if (isAutoEngine()) {
+                snapshot.selectNeighbourEngine(engineSelectionQueries, engineSelectionMemoryBudgetMb * 1024 * 1024);
+            }
+            log.info("成功載入已訓練的加權KNN分類器");
+            return snapshot;
+        } catch (Exception e) {
+            log.warn("載入模型失敗，將創建新模型: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * create and train new model.
+     */
+    private WeightedKNNClassifier createAndTrainNewModel() {
+        List<LabeledPoint> trainingData = new ArrayList<>();
+        try {
+            trainingData = readData(xlsxFilePath);
+            // show the first 5 data points
+            int count = Math.min(5, trainingData.size());
+            log.info("成功讀取 {} 個資料點", trainingData.size());
+            log.info("前 {} 個資料點示例：", count);
+            for (int i = 0; i < count; i++) {
+                log.info(trainingData.get(i).toString());
+            }
+
+        } catch (IOException e) {
+            log.error("讀取資料檔案時發生錯誤: {}", e.getMessage(), e);
+        }
+
+        trainingData = filterShardData(trainingData);
+
+        // 如果未配置 k 值，則定義為訓練數據的開平方根
+        if (k <= 0) {
+            k = (int) Math.sqrt(trainingData.size());
+        }
+        log.info("k值: {}", k);
+        WeightedKNNClassifier newClassifier = new WeightedKNNClassifier(k);
+        // 啟用類別權重，對樣本少的類別給予更高權重
+        newClassifier.setUseClassWeights(true);
+        // 設置類別權重上限，避免單樣本類別權重過高
+        newClassifier.setMaxClassWeight(50.0);
+        // 增大距離權重因子，強調距離對分類的影響(距離近的樣本權重有極大提升)
+        newClassifier.setDistanceWeightFactor(2.0);
+        // 使用int32微度座標進行距離掃描，減少掃描時的內存帶寬
+        newClassifier.setQuantizedStorage(quantizedStorage);
+        // 按希爾伯特曲線重排訓練點，空間上相鄰的點在座標存儲與索引中也相鄰
+        newClassifier.setSpatialOrdering(spatialOrdering);
+        // 訓練點數量達到閾值時，單次查詢在專用線程池中分塊並行掃描
+        newClassifier.setParallelScanThreshold(parallelScanThreshold);
+        // 批量預測與評估的查詢數達到閾值時，用雙樹搜索同時遍歷查詢點與訓練點的kd樹
+        newClassifier.setDualTreeMinBatch(dualTreeMinBatch);
+        // 原型引擎：每個區域壓縮為若干k-means質心，先按質心選出候選區域再在其中搜索
+        newClassifier.setPrototypesPerLabel(prototypesPerLabel);
+        newClassifier.setPrototypeCandidateZones(prototypeCandidateZones);
+        // 最近鄰搜索引擎：暴力掃描、網格索引（逐圈擴展，投票結果確定後提前停止）或原型兩步搜索，auto在訓練後自動選擇
+        if (!isAutoEngine()) {
+            newClassifier.setNeighbourEngine(WeightedKNNClassifier.NeighbourEngine.parse(neighbourEngine));
+        }
+
+        // train
+        newClassifier.train(trainingData);
+
+        // 可選的訓練集縮減，只保留維持分類邊界所需的點
+        if (!reduction.isBlank()) {
+            List<LabeledPoint> reducedData = TrainingSetReducer.reduce(trainingData, newClassifier,
+                    TrainingSetReducer.Method.parse(reduction));
+            newClassifier.train(reducedData);
+        }
+
+        if (isAutoEngine()) {
+            newClassifier.selectNeighbourEngine(engineSelectionQueries, engineSelectionMemoryBudgetMb * 1024 * 1024);
+        }
+
+        // save model
+        saveModel(newClassifier);
+        log.info("成功訓練新的加權KNN分類器");
+        return newClassifier;
+    }
+
+    private boolean isAutoEngine() {
+        return "auto".equalsIgnoreCase(neighbourEngine.trim());
+    }
+
+    /**
+     * 分片模式下只保留配置的區域代碼前綴（'-'之前的部分）的數據
+     */
+    private List<LabeledPoint> filterShardData(List<LabeledPoint> trainingData) {
+        List<String> prefixes = shardZonePrefixes.stream().filter(prefix -> !prefix.isBlank()).toList();
+        if (prefixes.isEmpty()) {
+            return trainingData;
+        }
+        List<LabeledPoint> shardData = trainingData.stream()
+                .filter(point -> prefixes.contains(point.getLabel().substring(0, point.getLabel().indexOf('-'))))
+                .toList();
+        log.info("分片區域前綴 {}：保留 {} / {} 個資料點", prefixes, shardData.size(), trainingData.size());
+        return shardData;
+    }
+
+    /**
+     * 在發布前用合成查詢預熱預測路徑，讓JIT完成編譯並初始化線程工作區；啟用區域多邊形時一併構建多邊形索引
+     * 查詢點一半取自訓練點附近，一半均勻分佈在訓練數據的外接矩形內
+     *
+     * @param candidate 待發布的模型
+     */
+    private void warmUp(WeightedKNNClassifier candidate) {
+        if (!candidate.isTrained()) {
+            return;
+        }
+        if (zonePolygonsEnabled) {
+            candidate.getZonePolygonIndex();
+        }
+        if (warmupQueries <= 0) {
+            return;
+        }
+        List<LabeledPoint> trainingData = candidate.getTrainingData();
+        double[][] boundingBox = candidate.getBoundingBox();
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < warmupQueries; i++) {
+            double[] query;
+            if (i % 2 == 0) {
+                double[] features = trainingData.get(random.nextInt(trainingData.size())).getFeatures();
+                query = new double[features.length];
+                for (int d = 0; d < features.length; d++) {
+                    query[d] = features[d] + random.nextGaussian() * 1e-4;
+                }
+            } else {
+                query = new double[boundingBox[0].length];
+                for (int d = 0; d < query.length; d++) {
+                    query[d] = boundingBox[0][d] + random.nextDouble() * (boundingBox[1][d] - boundingBox[0][d]);
+                }
+            }
+            candidate.predict(query);
+        }
+        log.info("模型預熱完成：{} 次預測，耗時 {} 毫秒", warmupQueries, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * 發布模型並標記為就緒
+     */
+    private void publish(WeightedKNNClassifier candidate) {
+        classifier = candidate;
+        if (readinessState != ReadinessState.ACCEPTING_TRAFFIC) {
+            readinessState = ReadinessState.ACCEPTING_TRAFFIC;
+            AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+            log.info("模型已就緒，開始接收分類請求");
+        }
+    }
+
+    /**
+     * Spring Boot在應用啟動完成後會發布ACCEPTING_TRAFFIC，模型尚未就緒時改回REFUSING_TRAFFIC
+     */
+    @EventListener
+    public void onReadinessChange(AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getState() == ReadinessState.ACCEPTING_TRAFFIC && readinessState != ReadinessState.ACCEPTING_TRAFFIC) {
+            AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        }
+    }
+
+    /**
+     * 獲取當前的默認模型
+     *
+     * @return 分類器
+     * @throws ResponseStatusException 模型尚未就緒時返回503
+     */
+    public WeightedKNNClassifier getClassifier() {
+        WeightedKNNClassifier current = classifier;
+        if (current == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "模型尚未就緒");
+        }
+        return current;
+    }
+
+    /**
+     * 重新讀取配置的數據文件，不做分片過濾
+     *
+     * @return 數據文件中的所有點
+     * @throws IOException 讀取失敗
+     */
+    public List<LabeledPoint> readDataFile() throws IOException {
+        return readData(xlsxFilePath);
+    }
+
+    /**
+     * 在當前模型的副本上修改設置，副本完整構建後原子替換並在後台保存參數；
+     * 正在服務的模型不會被修改，同一時間只進行一個調整，避免並發調整互相覆蓋
+     *
+     * @param changes 對副本的修改
+     * @return 替換後的模型
+     * @throws ResponseStatusException 模型尚未就緒時返回503
+     */
+    public synchronized WeightedKNNClassifier adjust(Consumer<WeightedKNNClassifier> changes) {
+        WeightedKNNClassifier candidate = getClassifier().copy();
+        changes.accept(candidate);
+        publish(candidate);
+        parameterStore.submit(candidate.getParameters());
+        return candidate;
+    }
+
+    /**
+     * 以當前模型的設置重新訓練出新模型，完整構建後原子替換並保存模型文件；
+     * 構建期間進行中的請求仍使用舊模型。與adjust共用同一把鎖，
+     * 調用方據以計算的模型在此期間已被替換（例如有參數調整或其他替換）時返回409，避免覆蓋其他修改
+     *
+     * @param basis 調用方讀取並據以計算的模型
+     * @param changes 訓練前對新模型的設置修改
+     * @param trainingData 新模型的訓練數據
+     * @param description 寫入日誌的替換說明
+     * @return 替換後的模型
+     * @throws ResponseStatusException 默認模型已被替換時返回409，模型尚未就緒時返回503
+     */
+    public synchronized WeightedKNNClassifier replace(WeightedKNNClassifier basis,
+                                                      Consumer<WeightedKNNClassifier> changes,
+                                                      List<LabeledPoint> trainingData, String description) {
+        if (getClassifier() != basis) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "默認模型已在計算期間被替換，請重新提交");
+        }
+        WeightedKNNClassifier candidate = basis.newUntrainedCopy();
+        changes.accept(candidate);
+        candidate.train(trainingData);
+        publish(candidate);
+        log.info("已替換默認模型: {}", description);
+        saveModel(candidate);
+        return candidate;
+    }
+
+    /**
+     * 保存模型到配置的模型路徑，並提交同一份參數，避免舊的參數文件在啟動時覆蓋新模型的參數；
+     * 上一個模型的評估結果不再適用，一併刪除
+     *
+     * @param model 模型
+     */
+    public void saveModel(WeightedKNNClassifier model) {
+        try {
+            model.saveModel(modelFilePath);
+        } catch (IOException e) {
+            log.warn("保存模型失敗: {}", e.getMessage());
+        }
+        parameterStore.submit(model.getParameters());
+        parameterStore.deleteEvaluation(modelFilePath);
+    }
+
+    /**
+     * 只保存超參數，不重新序列化訓練數據；在後台合併寫入
+     *
+     * @param model 模型
+     */
+    public void saveParameters(WeightedKNNClassifier model) {
+        parameterStore.submit(model.getParameters());
+    }
+}
@@ -0,0 +1,354 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.ClusteringProgress;
+import com.yc.kmeans.kmeans.KMeansEngine;
+import com.yc.kmeans.kmeans.KMeansModel;
+import com.yc.kmeans.kmeans.LabeledPoint;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Pattern;
+
+/**
+ * 異步k-means聚類任務，用於從地址數據中提出新的配送區域劃分
+ * 任務在聚類艙壁中排隊，運行時在自己的ForkJoinPool中用滿所有CPU核心；
+ * 完成的模型以二進制格式保存到聚類目錄，任務被移出保留列表或服務重啟後仍可按任務ID載入質心
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ClusteringJobService {
+    private static final Pattern JOB_ID = Pattern.compile("[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}");
+    private static final String MODEL_SUFFIX = ".kmeans";
+
+    private final ClassifierService classifierService;
+    private final ModelRegistry modelRegistry;
+    private final Bulkheads bulkheads;
+
+    @Value("${classifier.clustering.directory:clusters}")
+    private String directory;
+
+    @Value("${classifier.clustering.parallelism:0}")
+    private int parallelism;
+
+    @Value("${classifier.clustering.retained-jobs:20}")
+    private int retainedJobs;
+
+    private final Map<String, ClusteringJob> jobs = new LinkedHashMap<>();
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (jobs) {
+            jobs.values().forEach(job -> job.progress.cancel());
+        }
+    }
+
+    /**
+     * 提交聚類任務
+     *
+     * @param request 聚類參數與數據來源
+     * @return 任務
+     * @throws ResponseStatusException 參數無效時返回400
+     * @throws BulkheadFullException 聚類隊列已滿
+     */
+    public ClusteringJob submit(ClusteringRequest request) {
+        if (request.clusters() < 1 || request.maxIterations() < 1 || request.batchSize() < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "聚類數、最大迭代次數與批大小必須大於0");
+        }
+        ClusteringJob job = new ClusteringJob(UUID.randomUUID().toString(), request);
+        bulkheads.getClustering().execute(() -> run(job));
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            retain();
+        }
+        log.info("已提交聚類任務 {}: {}", job.id, request);
+        return job;
+    }
+
+    /**
+     * 獲取任務
+     *
+     * @param id 任務ID
+     * @return 任務
+     * @throws ResponseStatusException 任務不存在時返回404
+     */
+    public ClusteringJob getJob(String id) {
+        synchronized (jobs) {
+            ClusteringJob job = jobs.get(id);
+            if (job == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "聚類任務不存在: " + id);
+            }
+            return job;
+        }
+    }
+
+    /**
+     * 取消任務；排隊中的任務輪到時直接結束，運行中的任務在下一次迭代前停止
+     *
+     * @param id 任務ID
+     * @return 任務
+     */
+    public ClusteringJob cancel(String id) {
+        ClusteringJob job = getJob(id);
+        job.progress.cancel();
+        log.info("請求取消聚類任務 {}", job.id);
+        return job;
+    }
+
+    /**
+     * 所有保留的任務狀態，按提交順序排列
+     *
+     * @return 任務狀態列表
+     */
+    public List<Map<String, Object>> getStatus() {
+        List<Map<String, Object>> status = new ArrayList<>();
+        synchronized (jobs) {
+            for (ClusteringJob job : jobs.values()) {
+                status.add(job.toStatus());
+            }
+        }
+        return status;
+    }
+
+    /**
+     * 任務的聚類模型：保留中的已完成任務直接返回，否則從聚類目錄中的二進制文件載入
+     *
+     * @param id 任務ID
+     * @return 聚類模型
+     * @throws ResponseStatusException 任務未完成時返回409，模型不存在時返回404
+     */
+    public KMeansModel getModel(String id) {
+        ClusteringJob job;
+        synchronized (jobs) {
+            job = jobs.get(id);
+        }
+        if (job != null) {
+            if (job.model == null) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "聚類任務尚未成功完成: " + job.status);
+            }
+            return job.model;
+        }
+        if (!JOB_ID.matcher(id).matches()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "聚類任務不存在: " + id);
+        }
+        Path path = modelPath(id);
+        if (!Files.exists(path)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "聚類任務不存在: " + id);
+        }
+        try {
+            return KMeansModel.load(path);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "載入聚類模型失敗: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 質心列表，按代表的權重從大到小排列
+     *
+     * @param model 聚類模型
+     * @return 每個質心的座標與權重
+     */
+    public static List<Map<String, Object>> centroids(KMeansModel model) {
+        List<Integer> order = new ArrayList<>(model.size());
+        for (int c = 0; c < model.size(); c++) {
+            order.add(c);
+        }
+        order.sort((a, b) -> Long.compare(model.getWeight(b), model.getWeight(a)));
+        List<Map<String, Object>> centroids = new ArrayList<>(order.size());
+        for (int c : order) {
+            double[] centroid = model.getCentroid(c);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("cluster", c);
+            if (centroid.length == 2) {
+                entry.put("latitude", centroid[0]);
+                entry.put("longitude", centroid[1]);
+            } else {
+                entry.put("features", centroid);
+            }
+            entry.put("weight", model.getWeight(c));
+            centroids.add(entry);
+        }
+        return centroids;
+    }
+
+    private void run(ClusteringJob job) {
+        try {
+            if (job.progress.isCancelled()) {
+                throw new CancellationException();
+            }
+            job.status = Status.RUNNING;
+            ClusteringRequest request = job.request;
+            List<LabeledPoint> points = loadPoints(request);
+            if (points.isEmpty()) {
+                throw new IllegalStateException("沒有可聚類的數據點");
+            }
+            int dimension = points.get(0).getFeatures().length;
+            KMeansEngine engine = new KMeansEngine(request.clusters());
+            engine.setMode(request.mode());
+            engine.setMaxIterations(request.maxIterations());
+            engine.setTolerance(request.tolerance());
+            engine.setBatchSize(request.batchSize());
+            engine.setSeed(request.seed());
+            engine.setParallelism(parallelism);
+            job.points = points.size();
+            KMeansModel model = engine.fit(KMeansEngine.coordinates(points, dimension),
+                    KMeansEngine.weights(points), dimension, job.progress);
+            try {
+                model.save(modelPath(job.id));
+            } catch (IOException e) {
+                log.warn("保存聚類模型失敗: {}", e.getMessage());
+            }
+            job.model = model;
+            job.status = Status.SUCCEEDED;
+            log.info("聚類任務 {} 完成: {}", job.id, model.getStats());
+        } catch (CancellationException e) {
+            job.status = Status.CANCELLED;
+            log.info("聚類任務 {} 已取消", job.id);
+        } catch (IOException | RuntimeException e) {
+            job.error = e.getMessage();
+            job.status = Status.FAILED;
+            log.warn("聚類任務 {} 失敗: {}", job.id, e.getMessage());
+        }
+    }
+
+    /**
+     * 讀取要聚類的點：默認使用模型的訓練數據（即數據文件去重後帶重複次數的點），
+     * source為file時重新讀取數據文件，不受分片過濾；指定區域時只聚類該區域的點
+     */
+    private List<LabeledPoint> loadPoints(ClusteringRequest request) throws IOException {
+        List<LabeledPoint> points;
+        if ("file".equalsIgnoreCase(request.source())) {
+            points = classifierService.readDataFile();
+        } else {
+            String model = request.model();
+            points = (model == null || model.isBlank()
+                    ? classifierService.getClassifier() : modelRegistry.getModel(model)).getTrainingData();
+        }
+        if (request.label() == null || request.label().isBlank()) {
+            return points;
+        }
+        List<LabeledPoint> filtered = new ArrayList<>();
+        for (LabeledPoint point : points) {
+            if (request.label().equals(point.getLabel())) {
+                filtered.add(point);
+            }
+        }
+        return filtered;
+    }
+
+    private Path modelPath(String id) {
+        return Path.of(directory, id + MODEL_SUFFIX);
+    }
+
+    /**
+     * 超出保留數量時從最早的已結束任務開始移除，模型文件仍保留在聚類目錄中
+     */
+    private void retain() {
+        Iterator<ClusteringJob> iterator = jobs.values().iterator();
+        int excess = jobs.size() - retainedJobs;
+        while (excess > 0 && iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+                excess--;
+            }
+        }
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    /**
+     * 聚類參數與數據來源
+     *
+     * @param clusters 聚類數
+     * @param mode 聚類模式
+     * @param maxIterations 最大迭代次數
+     * @param tolerance 質心最大移動距離不超過此值時視為收斂
+     * @param batchSize 小批量模式每次迭代抽取的點數
+     * @param seed 隨機種子
+     * @param source 數據來源：model（模型的訓練數據）或 file（重新讀取數據文件）
+     * @param model 模型標識（name 或 name:version），為null時使用默認模型
+     * @param label 只聚類該區域的點，為null時聚類所有點
+     */
+    public record ClusteringRequest(int clusters, KMeansEngine.Mode mode, int maxIterations, double tolerance,
+                                    int batchSize, long seed, String source, String model, String label) {
+    }
+
+    /**
+     * 單個聚類任務
+     */
+    public static class ClusteringJob {
+        private final String id;
+        private final ClusteringRequest request;
+        private final ClusteringProgress progress = new ClusteringProgress();
+        private volatile Status status = Status.QUEUED;
+        private volatile long points;
+        private volatile KMeansModel model;
+        private volatile String error;
+
+        ClusteringJob(String id, ClusteringRequest request) {
+            this.id = id;
+            this.request = request;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isDone() {
+            return status != Status.QUEUED && status != Status.RUNNING;
+        }
+
+        /**
+         * 任務狀態：參數、迭代進度及完成後的模型統計
+         *
+         * @return 任務狀態
+         */
+        public Map<String, Object> toStatus() {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("id", id);
+            status.put("status", this.status);
+            status.put("clusters", request.clusters());
+            status.put("mode", request.mode());
+            status.put("source", request.source());
+            status.put("model", request.model() == null || request.model().isBlank() ? "default" : request.model());
+            if (request.label() != null && !request.label().isBlank()) {
+                status.put("label", request.label());
+            }
+            status.put("points", points);
+            status.put("iterations", progress.getIterations());
+            status.put("maxIterations", request.maxIterations());
+            status.put("reassigned", progress.getReassigned());
+            status.put("maxShift", progress.getMaxShift());
+            status.put("skipRatio", progress.getSkipRatio());
+            status.put("elapsedMs", isDone() && model != null ? model.getElapsedMillis() : progress.getElapsedMillis());
+            if (error != null) {
+                status.put("error", error);
+            }
+            if (model != null) {
+                status.put("result", model.getStats());
+            }
+            return status;
+        }
+    }
+}
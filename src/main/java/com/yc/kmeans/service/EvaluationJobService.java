@@ -0,0 +1,338 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.EvaluationProgress;
+import com.yc.kmeans.kmeans.EvaluationResult;
+import com.yc.kmeans.kmeans.SequentialEvaluationResult;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * 異步評估任務
+ * 交叉驗證在評估艙壁的有界線程池中運行，不佔用處理分類請求的線程；
+ * 同一個模型實例（即同一模型版本）同時只允許一個評估任務，隊列已滿時立即拒絕新任務；
+ * 完成的結果保存為模型的lastEvaluation，並寫入模型文件旁的評估文件，重啟或重新載入模型後恢復；
+ * 任務失敗或被取消時Future以帶原因的異常完成
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class EvaluationJobService {
+    private final ClassifierService classifierService;
+    private final ModelRegistry modelRegistry;
+    private final Bulkheads bulkheads;
+    private final ModelParameterStore parameterStore;
+
+    @Value("${classifier.evaluation.retained-jobs:20}")
+    private int retainedJobs;
+
+    private final Map<String, EvaluationJob> jobs = new LinkedHashMap<>();
+    private final Map<WeightedKNNClassifier, EvaluationJob> activeJobs = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    public void shutdown() {
+        activeJobs.values().forEach(job -> job.progress.cancel());
+    }
+
+    /**
+     * 提交評估任務
+     *
+     * @param model 模型標識（name 或 name:version），為null時評估默認模型
+     * @param folds 交叉驗證的折數
+     * @param maxTestSamplesPerFold 每折最大測試樣本數
+     * @return 任務
+     * @throws ResponseStatusException 該模型已有進行中的任務時返回409
+     * @throws BulkheadFullException 評估隊列已滿
+     */
+    public EvaluationJob submit(String model, int folds, int maxTestSamplesPerFold) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("folds", folds);
+        parameters.put("maxTestSamplesPerFold", maxTestSamplesPerFold);
+        return submit(model, parameters,
+                (classifier, progress) -> classifier.evaluateModel(folds, maxTestSamplesPerFold, progress));
+    }
+
+    /**
+     * 提交序貫評估任務：分批預測測試點，置信區間足夠窄或時間預算用完時提前停止
+     *
+     * @param model 模型標識（name 或 name:version），為null時評估默認模型
+     * @param folds 交叉驗證的折數
+     * @param targetWidth 準確率與宏F1置信區間的目標寬度
+     * @param timeBudgetMillis 時間預算（毫秒），不大於0表示不限
+     * @param batchSize 每批預測的測試點數
+     * @return 任務
+     * @throws ResponseStatusException 該模型已有進行中的任務時返回409
+     * @throws BulkheadFullException 評估隊列已滿
+     */
+    public EvaluationJob submitSequential(String model, int folds, double targetWidth, long timeBudgetMillis,
+                                          int batchSize) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("mode", "sequential");
+        parameters.put("folds", folds);
+        parameters.put("targetWidth", targetWidth);
+        parameters.put("timeBudgetMillis", timeBudgetMillis);
+        parameters.put("batchSize", batchSize);
+        return submit(model, parameters, (classifier, progress) ->
+                classifier.evaluateSequentially(folds, targetWidth, timeBudgetMillis, batchSize, progress));
+    }
+
+    private EvaluationJob submit(String model, Map<String, Object> parameters,
+                                 BiFunction<WeightedKNNClassifier, EvaluationProgress, EvaluationResult> evaluation) {
+        boolean defaultModel = model == null || model.isBlank();
+        WeightedKNNClassifier classifier = defaultModel ? classifierService.getClassifier() : modelRegistry.getModel(model);
+        // 在提交時確定模型文件，評估期間發佈的新版本不會收到舊版本的評估結果
+        String modelFilePath = defaultModel ? classifierService.getModelFilePath() : modelRegistry.getModelPath(model);
+        EvaluationJob job = new EvaluationJob(UUID.randomUUID().toString(),
+                model == null || model.isBlank() ? "default" : model, parameters, evaluation);
+        EvaluationJob running = activeJobs.putIfAbsent(classifier, job);
+        if (running != null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "該模型已有進行中的評估任務: " + running.id);
+        }
+        try {
+            bulkheads.getEvaluation().execute(() -> run(job, classifier, modelFilePath, defaultModel));
+        } catch (BulkheadFullException e) {
+            activeJobs.remove(classifier, job);
+            throw e;
+        }
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            retain();
+        }
+        log.info("已提交評估任務 {}: model={}, {}", job.id, job.model, parameters);
+        return job;
+    }
+
+    /**
+     * 獲取任務
+     *
+     * @param id 任務ID
+     * @return 任務
+     * @throws ResponseStatusException 任務不存在時返回404
+     */
+    public EvaluationJob getJob(String id) {
+        synchronized (jobs) {
+            EvaluationJob job = jobs.get(id);
+            if (job == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "評估任務不存在: " + id);
+            }
+            return job;
+        }
+    }
+
+    /**
+     * 取消任務；排隊中的任務輪到時直接結束，運行中的任務在處理下一個測試樣本前停止
+     * 任務真正結束後才釋放該模型的評估名額，避免同一模型上同時運行兩個評估
+     *
+     * @param id 任務ID
+     * @return 任務
+     */
+    public EvaluationJob cancel(String id) {
+        EvaluationJob job = getJob(id);
+        job.progress.cancel();
+        log.info("請求取消評估任務 {}", job.id);
+        return job;
+    }
+
+    /**
+     * 所有保留的任務狀態，按提交順序排列
+     *
+     * @return 任務狀態列表
+     */
+    public List<Map<String, Object>> getStatus() {
+        List<Map<String, Object>> status = new ArrayList<>();
+        synchronized (jobs) {
+            for (EvaluationJob job : jobs.values()) {
+                status.add(job.toStatus());
+            }
+        }
+        return status;
+    }
+
+    private void run(EvaluationJob job, WeightedKNNClassifier classifier, String modelFilePath, boolean defaultModel) {
+        try {
+            if (job.progress.isCancelled()) {
+                throw new CancellationException();
+            }
+            job.status = Status.RUNNING;
+            EvaluationResult result = job.evaluation.apply(classifier, job.progress);
+            persist(classifier, result, modelFilePath, defaultModel);
+            job.finish(Status.SUCCEEDED, result, null);
+            log.info("評估任務 {} 完成，耗時 {} 毫秒，準確率 {}", job.id, job.progress.getElapsedMillis(),
+                    result.getAccuracy());
+        } catch (CancellationException e) {
+            job.finish(Status.CANCELLED, null, e);
+            log.info("評估任務 {} 已取消", job.id);
+        } catch (Throwable e) {
+            // 包括Error在內的任何失敗都要結束任務並完成Future，否則等待結果的請求永遠不會返回
+            job.finish(Status.FAILED, null, e);
+            log.warn("評估任務 {} 失敗: {}", job.id, e.toString(), e);
+            if (e instanceof Error error) {
+                throw error;
+            }
+        } finally {
+            activeJobs.remove(classifier, job);
+        }
+    }
+
+    /**
+     * 把評估結果寫入模型文件旁的評估文件；默認模型在評估期間被重新訓練或調整時不寫入，
+     * 避免舊模型的結果覆蓋新模型
+     */
+    private void persist(WeightedKNNClassifier classifier, EvaluationResult result, String modelFilePath,
+                         boolean defaultModel) {
+        if (defaultModel && classifierService.getClassifier() != classifier) {
+            log.info("默認模型已在評估期間被替換，不保存評估結果");
+            return;
+        }
+        parameterStore.saveEvaluation(modelFilePath, result);
+    }
+
+    /**
+     * 超出保留數量時從最早的已結束任務開始移除
+     */
+    private void retain() {
+        Iterator<EvaluationJob> iterator = jobs.values().iterator();
+        int excess = jobs.size() - retainedJobs;
+        while (excess > 0 && iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+                excess--;
+            }
+        }
+    }
+
+    /**
+     * 序貫評估的置信區間、停止原因及與完整評估相比使用的樣本數
+     *
+     * @param result 序貫評估結果
+     * @return 附加指標
+     */
+    public static Map<String, Object> sequentialMetrics(SequentialEvaluationResult result) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("stopReason", result.getStopReason());
+        metrics.put("confidenceLevel", result.getConfidenceLevel());
+        metrics.put("accuracyInterval", List.of(result.getAccuracyLower(), result.getAccuracyUpper()));
+        metrics.put("f1Interval", List.of(result.getF1Lower(), result.getF1Upper()));
+        metrics.put("samplesUsed", result.getSamplesUsed());
+        metrics.put("fullEvaluationSamples", result.getFullEvaluationSamples());
+        metrics.put("samplesFraction", result.getFullEvaluationSamples() > 0
+                ? (double) result.getSamplesUsed() / result.getFullEvaluationSamples() : 0.0);
+        metrics.put("foldsUsed", result.getFoldsUsed());
+        metrics.put("elapsedMs", result.getElapsedMillis());
+        metrics.put("estimatedFullEvaluationMs", result.getEstimatedFullEvaluationMillis());
+        return metrics;
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    /**
+     * 單個評估任務
+     */
+    public static class EvaluationJob {
+        private final String id;
+        private final String model;
+        private final Map<String, Object> parameters;
+        private final BiFunction<WeightedKNNClassifier, EvaluationProgress, EvaluationResult> evaluation;
+        private final EvaluationProgress progress = new EvaluationProgress();
+        private final CompletableFuture<EvaluationResult> completion = new CompletableFuture<>();
+        private volatile Status status = Status.QUEUED;
+        private volatile EvaluationResult result;
+        private volatile String error;
+
+        EvaluationJob(String id, String model, Map<String, Object> parameters,
+                      BiFunction<WeightedKNNClassifier, EvaluationProgress, EvaluationResult> evaluation) {
+            this.id = id;
+            this.model = model;
+            this.parameters = parameters;
+            this.evaluation = evaluation;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isDone() {
+            return status != Status.QUEUED && status != Status.RUNNING;
+        }
+
+        /**
+         * 任務結束時完成的Future，任務失敗或被取消時以ResponseStatusException異常完成，原始異常作為其原因
+         *
+         * @return 評估結果的Future
+         */
+        public CompletableFuture<EvaluationResult> getCompletion() {
+            return completion;
+        }
+
+        /**
+         * 任務狀態：進度、預計剩餘時間及完成後的評估結果
+         *
+         * @return 任務狀態
+         */
+        public Map<String, Object> toStatus() {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("id", id);
+            status.put("model", model);
+            status.put("status", this.status);
+            status.putAll(parameters);
+            status.put("foldsCompleted", progress.getFoldsCompleted());
+            status.put("samplesProcessed", progress.getSamplesProcessed());
+            status.put("totalSamples", progress.getTotalSamples());
+            status.put("elapsedMs", progress.getElapsedMillis());
+            status.put("etaMs", isDone() ? 0 : progress.getEtaMillis());
+            if (error != null) {
+                status.put("error", error);
+            }
+            if (result != null) {
+                Map<String, Object> metrics = new LinkedHashMap<>();
+                metrics.put("accuracy", result.getAccuracy());
+                metrics.put("precision", result.getPrecision());
+                metrics.put("recall", result.getRecall());
+                metrics.put("f1Score", result.getF1Score());
+                metrics.put("r2Score", result.getR2Score());
+                metrics.put("classCounts", result.getClassCounts());
+                if (result instanceof SequentialEvaluationResult sequential) {
+                    metrics.putAll(sequentialMetrics(sequential));
+                }
+                status.put("result", metrics);
+            }
+            return status;
+        }
+
+        private void finish(Status finalStatus, EvaluationResult evaluationResult, Throwable cause) {
+            String message = cause == null || finalStatus == Status.CANCELLED ? null
+                    : cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            result = evaluationResult;
+            error = message;
+            status = finalStatus;
+            if (evaluationResult != null) {
+                completion.complete(evaluationResult);
+            } else {
+                completion.completeExceptionally(new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                        "評估任務未完成: " + finalStatus + (message == null ? "" : ", " + message), cause));
+            }
+        }
+    }
+}
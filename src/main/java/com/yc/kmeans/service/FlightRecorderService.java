@@ -0,0 +1,176 @@
+package com.yc.kmeans.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JFR持續錄製
+ * 啟用時在啟動時把JDK的基礎配置（默認default，開銷約1%）與打包的 jfr/knn-classifier.jfc 合併後開始錄製，
+ * 錄製數據按時長和大小滾動保留在磁盤上，需要時導出為 .jfr 文件，再用 jfr print 或 JDK Mission Control 離線分析。
+ * 未啟用時分類器的事件不會被記錄，埋點只剩一次事件類型是否啟用的判斷。
+ * 也可以不啟用本服務，改用 -XX:StartFlightRecording 啟動錄製，導出時同樣包含其中的數據
+ */
+@Component
+@Slf4j
+public class FlightRecorderService {
+    private static final String PROFILE = "/jfr/knn-classifier.jfc";
+    private static final String RECORDING_NAME = "knn-classifier";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @Value("${classifier.jfr.enabled:false}")
+    private boolean enabled;
+
+    @Value("${classifier.jfr.settings:default}")
+    private String baseSettings;
+
+    @Value("${classifier.jfr.max-age-minutes:60}")
+    private long maxAgeMinutes;
+
+    @Value("${classifier.jfr.max-size-mb:250}")
+    private long maxSizeMb;
+
+    @Value("${classifier.jfr.directory:jfr}")
+    private String directory;
+
+    private Recording recording;
+
+    @PostConstruct
+    public synchronized void init() {
+        if (!enabled) {
+            return;
+        }
+        if (!FlightRecorder.isAvailable()) {
+            log.warn("當前JVM不支持JFR，不啟動持續錄製");
+            return;
+        }
+        try {
+            recording = new Recording(settings(baseSettings));
+            recording.setName(RECORDING_NAME);
+            recording.setToDisk(true);
+            recording.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+            recording.setMaxSize(maxSizeMb * 1024 * 1024);
+            recording.start();
+            log.info("已啟動JFR持續錄製：基礎配置 {}，保留 {} 分鐘 / {} MB", baseSettings, maxAgeMinutes, maxSizeMb);
+        } catch (IOException | ParseException e) {
+            log.warn("啟動JFR錄製失敗: {}", e.getMessage());
+            recording = null;
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    /**
+     * 合併JDK的基礎配置與分類器事件配置，同名設置以分類器配置為準
+     *
+     * @param base 基礎配置名（default 或 profile）
+     * @return 錄製設置
+     * @throws IOException 讀取配置失敗
+     * @throws ParseException 配置格式錯誤
+     */
+    public static Map<String, String> settings(String base) throws IOException, ParseException {
+        Map<String, String> settings = new HashMap<>(Configuration.getConfiguration(base).getSettings());
+        try (InputStream in = FlightRecorderService.class.getResourceAsStream(PROFILE)) {
+            if (in == null) {
+                throw new IOException("找不到JFR配置: " + PROFILE);
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                settings.putAll(Configuration.create(reader).getSettings());
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * 把當前所有正在運行的錄製（包括 -XX:StartFlightRecording 啟動的）中保留的數據導出到錄製目錄
+     *
+     * @return 文件路徑、大小及時間範圍
+     * @throws ResponseStatusException 沒有正在運行的錄製時返回409
+     */
+    public Map<String, Object> dump() {
+        if (!FlightRecorder.isAvailable()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "當前JVM不支持JFR");
+        }
+        try (Recording snapshot = FlightRecorder.getFlightRecorder().takeSnapshot()) {
+            if (snapshot.getSize() == 0) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "沒有正在運行的JFR錄製");
+            }
+            Path dir = Path.of(directory);
+            Files.createDirectories(dir);
+            Path path = dir.resolve(RECORDING_NAME + "-" + LocalDateTime.now().format(FILE_TIME) + ".jfr");
+            snapshot.dump(path);
+            log.info("已導出JFR錄製: {}", path.toAbsolutePath());
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("file", path.toAbsolutePath().toString());
+            result.put("bytes", Files.size(path));
+            result.put("start", snapshot.getStartTime());
+            result.put("end", snapshot.getStopTime());
+            return result;
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "導出JFR錄製失敗: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 錄製狀態：本服務的錄製及JVM中所有錄製
+     *
+     * @return 狀態
+     */
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("available", FlightRecorder.isAvailable());
+        status.put("enabled", enabled);
+        status.put("settings", baseSettings + " + " + PROFILE.substring(1));
+        status.put("maxAgeMinutes", maxAgeMinutes);
+        status.put("maxSizeMb", maxSizeMb);
+        status.put("directory", directory);
+        List<Map<String, Object>> recordings = new ArrayList<>();
+        if (FlightRecorder.isAvailable()) {
+            for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("id", r.getId());
+                entry.put("name", r.getName());
+                entry.put("state", r.getState());
+                entry.put("start", r.getStartTime());
+                entry.put("bytes", r.getSize());
+                entry.put("classifierEvents", "true".equals(r.getSettings().get("com.yc.kmeans.Prediction#enabled")));
+                recordings.add(entry);
+            }
+        }
+        status.put("recording", recording != null && recording.getState() == RecordingState.RUNNING);
+        status.put("recordings", recordings);
+        return status;
+    }
+}
@@ -0,0 +1,223 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.EvaluationResult;
+import com.yc.kmeans.kmeans.ModelParameters;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 版本化的超參數文件
+ * 模型文件（訓練數據與索引）只在訓練後寫入，調整參數時只提交參數快照：
+ * 後台線程在合併窗口內只寫入最後一次提交，先寫入臨時文件並fsync，再原子重命名覆蓋參數文件；
+ * 啟動時參數文件中的最新版本疊加在載入的模型之上。
+ * 評估結果同樣不重寫模型文件，而是以相同方式寫入模型文件旁的 {模型文件}.evaluation，載入模型時恢復
+ */
+@Component
+@Slf4j
+public class ModelParameterStore {
+    public static final String EVALUATION_SUFFIX = ".evaluation";
+
+    @Value("${classifier.parameters-path:${classifier.model-path:weighted_knn_classifier.ser}.params}")
+    private String parametersPath;
+
+    @Value("${classifier.parameters.coalesce-millis:200}")
+    private long coalesceMillis;
+
+    private final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "classifier-parameter-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<ModelParameters> pending = new AtomicReference<>();
+    private final AtomicLong submissions = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong evaluationWrites = new AtomicLong();
+    private volatile long writtenVersion;
+
+    @PostConstruct
+    public void init() {
+        ModelParameters existing = load();
+        writtenVersion = existing == null ? 0 : existing.getVersion();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // 取消尚未到期的合併寫入，等待進行中的寫入完成後在當前線程寫入最後一次提交
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        writer.shutdown();
+        if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+            log.warn("等待參數文件寫入超時");
+        }
+        flush();
+    }
+
+    /**
+     * 讀取參數文件
+     *
+     * @return 最新的參數快照；文件不存在或無法解析時返回null
+     */
+    public ModelParameters load() {
+        Path path = Path.of(parametersPath);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            Properties properties = new Properties();
+            properties.load(in);
+            return ModelParameters.fromProperties(properties);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("讀取參數文件 {} 失敗: {}", parametersPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 提交參數快照，在合併窗口結束後異步寫入；窗口內的多次提交只寫入最後一次
+     *
+     * @param parameters 參數快照
+     */
+    public void submit(ModelParameters parameters) {
+        submissions.incrementAndGet();
+        if (pending.getAndSet(parameters) == null) {
+            writer.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        ModelParameters parameters = pending.getAndSet(null);
+        if (parameters == null) {
+            return;
+        }
+        ModelParameters versioned = parameters.withVersion(writtenVersion + 1);
+        try {
+            write(versioned);
+            writtenVersion = versioned.getVersion();
+            writes.incrementAndGet();
+            log.info("已保存參數文件 {}，版本 {}", parametersPath, versioned.getVersion());
+        } catch (IOException e) {
+            log.warn("保存參數文件失敗: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 保存模型的評估結果到模型文件旁的評估文件，寫入方式與參數文件相同
+     *
+     * @param modelFilePath 被評估的模型文件路徑
+     * @param result 評估結果
+     */
+    public void saveEvaluation(String modelFilePath, EvaluationResult result) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(result);
+        } catch (IOException e) {
+            log.warn("序列化評估結果失敗: {}", e.getMessage());
+            return;
+        }
+        try {
+            write(Path.of(modelFilePath + EVALUATION_SUFFIX), buffer.toByteArray());
+            evaluationWrites.incrementAndGet();
+            log.info("已保存評估結果 {}{}", modelFilePath, EVALUATION_SUFFIX);
+        } catch (IOException e) {
+            log.warn("保存評估結果失敗: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 讀取模型文件旁的評估文件
+     *
+     * @param modelFilePath 模型文件路徑
+     * @return 評估結果；文件不存在或無法解析時返回null
+     */
+    public EvaluationResult loadEvaluation(String modelFilePath) {
+        Path path = Path.of(modelFilePath + EVALUATION_SUFFIX);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(path))) {
+            return (EvaluationResult) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("讀取評估結果 {} 失敗: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 刪除模型文件旁的評估文件，模型重新訓練後舊的評估結果不再適用
+     *
+     * @param modelFilePath 模型文件路徑
+     */
+    public void deleteEvaluation(String modelFilePath) {
+        try {
+            Files.deleteIfExists(Path.of(modelFilePath + EVALUATION_SUFFIX));
+        } catch (IOException e) {
+            log.warn("刪除評估結果失敗: {}", e.getMessage());
+        }
+    }
+
+    private void write(ModelParameters parameters) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        parameters.toProperties().store(buffer, "classifier parameters");
+        write(Path.of(parametersPath), buffer.toByteArray());
+    }
+
+    /**
+     * 寫入臨時文件並fsync，再原子重命名，讀取方只會看到完整的舊版本或新版本
+     */
+    private void write(Path path, byte[] content) throws IOException {
+        Path target = path.toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(content);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // 同步目錄項，確保重命名本身在斷電後仍然有效；部分平台不支持打開目錄
+        try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            log.debug("無法同步目錄 {}: {}", target.getParent(), e.getMessage());
+        }
+    }
+
+    /**
+     * 參數存儲狀態
+     *
+     * @return 文件路徑、已寫入的版本、提交與寫入次數及評估結果的寫入次數
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("path", parametersPath);
+        status.put("version", writtenVersion);
+        status.put("pending", pending.get() != null);
+        status.put("submissions", submissions.get());
+        status.put("writes", writes.get());
+        status.put("evaluationWrites", evaluationWrites.get());
+        return status;
+    }
+}
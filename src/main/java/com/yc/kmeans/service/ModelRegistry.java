@@ -0,0 +1,337 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.jfr.ModelLookupEvent;
+import com.yc.kmeans.kmeans.EvaluationResult;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 多模型註冊表
+ * 按「模型名稱:版本」延遲載入模型文件 {directory}/{name}/{version}.ser，
+ * 在內存預算內保留常用模型，超出預算時按最近最少使用（LRU）順序淘汰；
+ * 同一模型的並發首次請求只會載入一次。
+ * 省略版本時使用的最新版本按模型目錄的修改時間緩存，目錄中新增或刪除版本後下一次請求即重新查找；
+ * 載入時一併恢復模型文件旁保存的評估結果
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ModelRegistry {
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_\\-.]+");
+    private static final String MODEL_SUFFIX = ".ser";
+
+    private final ModelParameterStore parameterStore;
+
+    @Value("${classifier.registry.directory:models}")
+    private String directory;
+
+    @Value("${classifier.registry.memory-budget-mb:512}")
+    private long memoryBudgetMb;
+
+    @Value("${classifier.parallel-scan.threshold:1000000}")
+    private int parallelScanThreshold;
+
+    @Value("${classifier.dual-tree.min-batch:256}")
+    private int dualTreeMinBatch;
+
+    private final LinkedHashMap<ModelKey, ResidentModel> residentModels = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<ModelKey, CompletableFuture<WeightedKNNClassifier>> loadingModels = new ConcurrentHashMap<>();
+    private final Map<String, LatestVersion> latestVersions = new ConcurrentHashMap<>();
+    private long residentBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * 獲取模型，未駐留時從文件載入
+     *
+     * @param model 模型標識，格式為 name 或 name:version，省略版本時使用最新版本
+     * @return 分類器
+     */
+    public WeightedKNNClassifier getModel(String model) {
+        ModelLookupEvent event = new ModelLookupEvent();
+        event.begin();
+        try {
+            return lookup(parseKey(model), event);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.setModel(model);
+                event.commit();
+            }
+        }
+    }
+
+    private WeightedKNNClassifier lookup(ModelKey key, ModelLookupEvent event) {
+        synchronized (this) {
+            ResidentModel resident = residentModels.get(key);
+            if (resident != null) {
+                hits.incrementAndGet();
+                event.setHit(true);
+                return resident.classifier;
+            }
+        }
+        misses.incrementAndGet();
+
+        // 單次載入：第一個請求負責載入，其他並發請求等待同一個Future
+        CompletableFuture<WeightedKNNClassifier> future = new CompletableFuture<>();
+        CompletableFuture<WeightedKNNClassifier> existing = loadingModels.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(existing, key);
+        }
+        try {
+            // 上一輪載入可能剛剛完成
+            synchronized (this) {
+                ResidentModel resident = residentModels.get(key);
+                if (resident != null) {
+                    future.complete(resident.classifier);
+                    return resident.classifier;
+                }
+            }
+            WeightedKNNClassifier classifier = load(key);
+            event.setLoaded(true);
+            admit(key, classifier);
+            future.complete(classifier);
+            return classifier;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadingModels.remove(key);
+        }
+    }
+
+    /**
+     * 獲取已駐留的模型，不觸發載入
+     *
+     * @param model 模型標識，格式為 name 或 name:version
+     * @return 分類器；未駐留時返回null
+     */
+    public WeightedKNNClassifier getResidentModel(String model) {
+        ModelKey key = parseKey(model);
+        synchronized (this) {
+            ResidentModel resident = residentModels.get(key);
+            if (resident == null) {
+                return null;
+            }
+            hits.incrementAndGet();
+            return resident.classifier;
+        }
+    }
+
+    /**
+     * 模型文件路徑
+     *
+     * @param model 模型標識，格式為 name 或 name:version，省略版本時使用最新版本
+     * @return 該版本的模型文件路徑
+     */
+    public String getModelPath(String model) {
+        return modelFile(parseKey(model)).getPath();
+    }
+
+    /**
+     * 淘汰指定模型，並清除其最新版本的緩存
+     *
+     * @param model 模型標識，格式為 name 或 name:version
+     * @return 是否有模型被淘汰
+     */
+    public boolean evict(String model) {
+        String[] parts = model.split(":", 2);
+        latestVersions.remove(parts[0]);
+        synchronized (this) {
+            boolean removed = false;
+            Iterator<Map.Entry<ModelKey, ResidentModel>> iterator = residentModels.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<ModelKey, ResidentModel> entry = iterator.next();
+                ModelKey key = entry.getKey();
+                if (key.name.equals(parts[0]) && (parts.length == 1 || key.version.equals(parts[1]))) {
+                    residentBytes -= entry.getValue().estimatedBytes;
+                    iterator.remove();
+                    evictions.incrementAndGet();
+                    removed = true;
+                }
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * 獲取註冊表狀態
+     *
+     * @return 駐留模型及命中統計
+     */
+    public synchronized Map<String, Object> getStatus() {
+        List<Map<String, Object>> models = new ArrayList<>();
+        for (Map.Entry<ModelKey, ResidentModel> entry : residentModels.entrySet()) {
+            Map<String, Object> model = new HashMap<>();
+            model.put("model", entry.getKey().toString());
+            model.put("trainingDataSize", entry.getValue().classifier.getTrainingDataSize());
+            model.put("estimatedBytes", entry.getValue().estimatedBytes);
+            models.add(model);
+        }
+        Map<String, Object> status = new HashMap<>();
+        status.put("residentModels", models);
+        status.put("residentBytes", residentBytes);
+        status.put("memoryBudgetBytes", memoryBudgetBytes());
+        status.put("hits", hits.get());
+        status.put("misses", misses.get());
+        status.put("loads", loads.get());
+        status.put("evictions", evictions.get());
+        return status;
+    }
+
+    private long memoryBudgetBytes() {
+        return memoryBudgetMb * 1024 * 1024;
+    }
+
+    /**
+     * 將新載入的模型加入駐留集合，並按LRU順序淘汰直至回到內存預算內
+     * 剛載入的模型即使單獨超出預算也會保留，以便完成當前請求
+     */
+    private synchronized void admit(ModelKey key, WeightedKNNClassifier classifier) {
+        long estimatedBytes = classifier.estimateMemoryBytes();
+        ResidentModel previous = residentModels.put(key, new ResidentModel(classifier, estimatedBytes));
+        if (previous != null) {
+            residentBytes -= previous.estimatedBytes;
+        }
+        residentBytes += estimatedBytes;
+
+        Iterator<Map.Entry<ModelKey, ResidentModel>> iterator = residentModels.entrySet().iterator();
+        while (residentBytes > memoryBudgetBytes() && iterator.hasNext()) {
+            Map.Entry<ModelKey, ResidentModel> eldest = iterator.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            residentBytes -= eldest.getValue().estimatedBytes;
+            iterator.remove();
+            evictions.incrementAndGet();
+            log.info("內存預算不足，已淘汰模型 {}", eldest.getKey());
+        }
+    }
+
+    private WeightedKNNClassifier load(ModelKey key) {
+        String path = modelFile(key).getPath();
+        try {
+            long start = System.currentTimeMillis();
+            WeightedKNNClassifier classifier = WeightedKNNClassifier.loadModel(path);
+            // 並行掃描閾值與雙樹搜索的最小批量是部署設置，與默認模型一致，不沿用模型文件中保存的值
+            classifier.setParallelScanThreshold(parallelScanThreshold);
+            classifier.setDualTreeMinBatch(dualTreeMinBatch);
+            EvaluationResult evaluation = parameterStore.loadEvaluation(path);
+            if (evaluation != null) {
+                classifier.setLastEvaluation(evaluation);
+            }
+            loads.incrementAndGet();
+            log.info("已載入模型 {}，耗時 {} 毫秒", key, System.currentTimeMillis() - start);
+            return classifier;
+        } catch (Exception e) {
+            log.warn("載入模型 {} 失敗: {}", key, e.getMessage());
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "無法載入模型: " + key, e);
+        }
+    }
+
+    private static WeightedKNNClassifier await(CompletableFuture<WeightedKNNClassifier> future, ModelKey key) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待模型載入時被中斷: " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("載入模型失敗: " + key, e.getCause());
+        }
+    }
+
+    private File modelFile(ModelKey key) {
+        return new File(new File(directory, key.name), key.version + MODEL_SUFFIX);
+    }
+
+    private ModelKey parseKey(String model) {
+        String[] parts = model.split(":", 2);
+        String name = validate(parts[0]);
+        String version = parts.length == 2 ? validate(parts[1]) : latestVersion(name);
+        return new ModelKey(name, version);
+    }
+
+    /**
+     * 獲取最新版本，模型目錄的修改時間與緩存時不同時重新查找
+     */
+    private String latestVersion(String name) {
+        long modified = new File(directory, name).lastModified();
+        LatestVersion cached = latestVersions.get(name);
+        if (cached != null && cached.directoryModified == modified) {
+            return cached.version;
+        }
+        String version = findLatestVersion(name);
+        latestVersions.put(name, new LatestVersion(version, modified));
+        return version;
+    }
+
+    private static String validate(String part) {
+        if (!NAME_PATTERN.matcher(part).matches() || part.contains("..")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "無效的模型標識: " + part);
+        }
+        return part;
+    }
+
+    /**
+     * 在模型目錄中查找最新版本，純數字版本按數值比較，其餘按字典序比較
+     */
+    private String findLatestVersion(String name) {
+        File[] files = new File(directory, name).listFiles((_, fileName) -> fileName.endsWith(MODEL_SUFFIX));
+        if (files == null || files.length == 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "未找到模型: " + name);
+        }
+        return Arrays.stream(files)
+                .map(file -> file.getName().substring(0, file.getName().length() - MODEL_SUFFIX.length()))
+                .max(Comparator.comparing((String version) -> version.matches("\\d+") ? Long.parseLong(version) : -1L)
+                        .thenComparing(Comparator.naturalOrder()))
+                .orElseThrow();
+    }
+
+    /**
+     * 模型鍵：名稱與版本
+     */
+    private record ModelKey(String name, String version) {
+        @Override
+        public String toString() {
+            return name + ":" + version;
+        }
+    }
+
+    /**
+     * 緩存的最新版本及查找時模型目錄的修改時間
+     */
+    private record LatestVersion(String version, long directoryModified) {
+    }
+
+    /**
+     * 駐留內存的模型及其估算大小
+     */
+    private record ResidentModel(WeightedKNNClassifier classifier, long estimatedBytes) {
+    }
+}
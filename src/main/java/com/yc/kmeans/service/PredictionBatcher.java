@@ -0,0 +1,219 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import com.yc.kmeans.tools.LatencyHistogram;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分類請求的微批處理
+ * 並發的分類請求先進入隊列，調度線程收集至多max-batch-size個請求或等待至多max-wait-micros微秒後，
+ * 把整個批次交給分類艙壁的線程池，用WeightedKNNClassifier.predictBatch一次處理，每個訓練數據塊只需載入緩存一次，
+ * 最後分別完成每個請求的Future。調度線程只負責湊批，多個批次在分類艙壁中並行計算
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class PredictionBatcher {
+    private final ClassifierService classifierService;
+    private final Bulkheads bulkheads;
+
+    @Getter
+    @Value("${classifier.batching.enabled:false}")
+    private boolean enabled;
+
+    @Value("${classifier.batching.max-batch-size:64}")
+    private int maxBatchSize;
+
+    @Value("${classifier.batching.max-wait-micros:200}")
+    private long maxWaitMicros;
+
+    @Value("${classifier.batching.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private final BlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private AtomicLongArray batchSizes;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        maxBatchSize = Math.max(1, maxBatchSize);
+        batchSizes = new AtomicLongArray(maxBatchSize + 1);
+        running = true;
+        dispatcher = new Thread(this::dispatch, "classifier-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        log.info("已啟用分類請求微批處理：每批至多 {} 個請求，至多等待 {} 微秒", maxBatchSize, maxWaitMicros);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+    }
+
+    /**
+     * 提交一個分類請求
+     *
+     * @param latitude 緯度
+     * @param longitude 經度
+     * @return 預測標籤的Future
+     * @throws BulkheadFullException 排隊的請求數已達到隊列上限
+     */
+    public CompletableFuture<String> submit(double latitude, double longitude) {
+        // 隊列上限是近似值，並發提交時可能略微超出
+        if (!running || queue.size() >= queueCapacity) {
+            rejected.incrementAndGet();
+            throw new BulkheadFullException("classification-batcher", bulkheads.getRetryAfterSeconds());
+        }
+        PendingRequest request = new PendingRequest(new double[]{latitude, longitude}, new CompletableFuture<>(),
+                System.nanoTime());
+        queue.add(request);
+        return request.future;
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<PendingRequest> batch = new ArrayList<>(maxBatchSize);
+            try {
+                batch.add(queue.take());
+                // 從第一個請求到達開始計時，湊滿一批或超時即處理
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    PendingRequest next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                submitBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(batch, new IllegalStateException("分類請求微批處理已停止"));
+            }
+        }
+        // 停止後隊列中剩餘的請求不會再被處理
+        List<PendingRequest> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        fail(remaining, new IllegalStateException("分類請求微批處理已停止"));
+    }
+
+    /**
+     * 把批次交給分類艙壁計算；艙壁已滿時整個批次以BulkheadFullException失敗
+     */
+    private void submitBatch(List<PendingRequest> batch) {
+        try {
+            bulkheads.getClassification().execute(() -> process(batch));
+        } catch (RuntimeException e) {
+            fail(batch, e);
+        }
+    }
+
+    private static void fail(List<PendingRequest> batch, Throwable cause) {
+        for (PendingRequest request : batch) {
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    private void process(List<PendingRequest> batch) {
+        long started = System.nanoTime();
+        double[][] queries = new double[batch.size()][];
+        for (int i = 0; i < batch.size(); i++) {
+            PendingRequest request = batch.get(i);
+            queries[i] = request.features;
+            queueWait.record(started - request.enqueuedNanos);
+        }
+        batches.incrementAndGet();
+        requests.addAndGet(batch.size());
+        batchSizes.incrementAndGet(batch.size());
+
+        try {
+            WeightedKNNClassifier classifier = classifierService.getClassifier();
+            String[] labels = classifier.predictBatch(queries);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(labels[i]);
+            }
+        } catch (Throwable e) {
+            // 包括Error在內的任何失敗都要完成整個批次的Future，否則等待的請求會一直掛起
+            fail(batch, e);
+            if (e instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * 微批處理統計
+     *
+     * @return 批次數、平均批大小、批大小分佈以及排隊延遲分位數
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        if (!enabled) {
+            return status;
+        }
+        long batchCount = batches.get();
+        status.put("maxBatchSize", maxBatchSize);
+        status.put("maxWaitMicros", maxWaitMicros);
+        status.put("batches", batchCount);
+        status.put("requests", requests.get());
+        status.put("averageBatchSize", batchCount > 0 ? (double) requests.get() / batchCount : 0.0);
+        status.put("queued", queue.size());
+        status.put("queueCapacity", queueCapacity);
+        status.put("rejected", rejected.get());
+
+        Map<Integer, Long> distribution = new LinkedHashMap<>();
+        for (int size = 1; size < batchSizes.length(); size++) {
+            long count = batchSizes.get(size);
+            if (count > 0) {
+                distribution.put(size, count);
+            }
+        }
+        status.put("batchSizeDistribution", distribution);
+
+        Map<String, Long> wait = new LinkedHashMap<>();
+        wait.put("p50", queueWait.percentileMicros(0.50));
+        wait.put("p99", queueWait.percentileMicros(0.99));
+        wait.put("p999", queueWait.percentileMicros(0.999));
+        wait.put("max", queueWait.maxMicros());
+        status.put("queueWaitMicros", wait);
+        return status;
+    }
+
+    /**
+     * 等待處理的分類請求
+     */
+    private record PendingRequest(double[] features, CompletableFuture<String> future, long enqueuedNanos) {
+    }
+}
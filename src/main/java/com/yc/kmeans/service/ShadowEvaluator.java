@@ -0,0 +1,239 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import com.yc.kmeans.tools.LatencyHistogram;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 影子模型評估
+ * 按採樣率把默認模型處理的分類請求複製給候選模型（註冊表中的某個版本），在影子艙壁中異步計算，
+ * 不影響響應內容與延遲；影子隊列已滿時直接丟棄樣本。
+ * 主模型記錄請求路徑上實際測得的服務延遲（包括排隊），候選模型記錄影子線程上的純計算耗時；
+ * 兩者口徑不同，分別報告而不計算比值。候選模型的結果與實際返回的標籤比較，
+ * 得到不一致率和不一致矩陣，作為是否上線候選模型的依據
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ShadowEvaluator {
+    private final ClassifierService classifierService;
+    private final ModelRegistry modelRegistry;
+    private final Bulkheads bulkheads;
+
+    @Value("${classifier.shadow.model:}")
+    private String configuredModel;
+
+    @Value("${classifier.shadow.sample-rate:0.01}")
+    private double configuredSampleRate;
+
+    private volatile ShadowRun run;
+
+    @PostConstruct
+    public void init() {
+        if (configuredModel != null && !configuredModel.isBlank()) {
+            run = new ShadowRun(configuredModel, null, clampRate(configuredSampleRate));
+            log.info("已啟用影子模型評估：候選模型 {}，採樣率 {}", configuredModel, run.sampleRate);
+        }
+    }
+
+    public boolean isEnabled() {
+        return run != null;
+    }
+
+    /**
+     * 開始評估候選模型，清空之前的統計
+     *
+     * @param model 候選模型標識（name 或 name:version）
+     * @param sampleRate 採樣率，範圍[0, 1]
+     * @return 評估狀態
+     */
+    public Map<String, Object> start(String model, double sampleRate) {
+        // 先載入模型，模型不存在時直接返回錯誤
+        WeightedKNNClassifier candidate = modelRegistry.getModel(model);
+        run = new ShadowRun(model, candidate, clampRate(sampleRate));
+        log.info("開始影子模型評估：候選模型 {}，採樣率 {}", model, run.sampleRate);
+        return getStatus();
+    }
+
+    /**
+     * 停止評估
+     *
+     * @return 停止前的評估結果
+     */
+    public Map<String, Object> stop() {
+        Map<String, Object> status = getStatus();
+        run = null;
+        log.info("已停止影子模型評估");
+        return status;
+    }
+
+    /**
+     * 按採樣率提交一個已返回的分類請求；未被採樣或影子隊列已滿時直接返回
+     *
+     * @param latitude 緯度
+     * @param longitude 經度
+     * @param servedLabel 實際返回的標籤
+     * @param servedNanos 主模型在請求路徑上從提交預測到返回標籤的耗時（納秒）
+     */
+    public void offer(double latitude, double longitude, String servedLabel, long servedNanos) {
+        ShadowRun current = run;
+        if (current == null || ThreadLocalRandom.current().nextDouble() >= current.sampleRate) {
+            return;
+        }
+        try {
+            bulkheads.getShadow().execute(() -> current.evaluate(latitude, longitude, servedLabel, servedNanos));
+            current.sampled.incrementAndGet();
+        } catch (BulkheadFullException e) {
+            current.dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * 評估結果
+     *
+     * @return 候選模型、採樣與丟棄次數、候選模型的載入失敗、主模型服務延遲與候選模型計算耗時的分位數、不一致率及不一致矩陣
+     */
+    public Map<String, Object> getStatus() {
+        ShadowRun current = run;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", current != null);
+        if (current != null) {
+            current.appendStatus(status);
+        }
+        return status;
+    }
+
+    private String classify(WeightedKNNClassifier classifier, double latitude, double longitude) {
+        if (classifierService.isZonePolygonsEnabled()) {
+            String zone = classifier.getZonePolygonIndex().locate(latitude, longitude);
+            if (zone != null) {
+                return zone;
+            }
+        }
+        return classifier.predict(latitude, longitude);
+    }
+
+    private static double clampRate(double sampleRate) {
+        return Math.max(0.0, Math.min(1.0, sampleRate));
+    }
+
+    private static Map<String, Long> percentiles(LatencyHistogram histogram) {
+        Map<String, Long> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", histogram.percentileMicros(0.50));
+        percentiles.put("p99", histogram.percentileMicros(0.99));
+        percentiles.put("max", histogram.maxMicros());
+        return percentiles;
+    }
+
+    /**
+     * 一次影子評估的候選模型與統計；重新開始評估時整體替換
+     */
+    private final class ShadowRun {
+        private final String model;
+        private final double sampleRate;
+        private final long startedAt = System.currentTimeMillis();
+        private volatile WeightedKNNClassifier candidate;
+        private final LatencyHistogram primaryServedLatency = new LatencyHistogram();
+        private final LatencyHistogram candidateComputeLatency = new LatencyHistogram();
+        private final AtomicLong sampled = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong compared = new AtomicLong();
+        private final AtomicLong disagreements = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong candidateLoadFailures = new AtomicLong();
+        private volatile String candidateLoadError;
+        // 實際返回的標籤 -> 候選模型的標籤 -> 次數，只記錄不一致的組合
+        private final Map<String, Map<String, Long>> disagreementMatrix = new TreeMap<>();
+
+        ShadowRun(String model, WeightedKNNClassifier candidate, double sampleRate) {
+            this.model = model;
+            this.candidate = candidate;
+            this.sampleRate = sampleRate;
+        }
+
+        void evaluate(double latitude, double longitude, String servedLabel, long servedNanos) {
+            WeightedKNNClassifier shadow = candidate;
+            if (shadow == null) {
+                // 由配置啟用時在影子線程中第一次載入，不阻塞啟動與請求；失敗時下一個樣本重試
+                shadow = loadCandidate();
+                if (shadow == null) {
+                    return;
+                }
+            }
+            try {
+                long started = System.nanoTime();
+                String candidateLabel = classify(shadow, latitude, longitude);
+                candidateComputeLatency.record(System.nanoTime() - started);
+                primaryServedLatency.record(servedNanos);
+
+                compared.incrementAndGet();
+                if (!candidateLabel.equals(servedLabel)) {
+                    disagreements.incrementAndGet();
+                    synchronized (disagreementMatrix) {
+                        disagreementMatrix.computeIfAbsent(servedLabel, label -> new TreeMap<>())
+                                .merge(candidateLabel, 1L, Long::sum);
+                    }
+                }
+            } catch (RuntimeException e) {
+                errors.incrementAndGet();
+                log.debug("影子模型評估失敗: {}", e.getMessage());
+            }
+        }
+
+        /**
+         * 載入候選模型；只在第一次失敗或錯誤原因變化時以warn級別記錄，避免每個樣本重複告警
+         */
+        private WeightedKNNClassifier loadCandidate() {
+            try {
+                WeightedKNNClassifier loaded = modelRegistry.getModel(model);
+                candidate = loaded;
+                candidateLoadError = null;
+                return loaded;
+            } catch (RuntimeException e) {
+                candidateLoadFailures.incrementAndGet();
+                String message = e.getMessage();
+                if (!Objects.equals(message, candidateLoadError)) {
+                    log.warn("載入影子候選模型 {} 失敗: {}", model, message);
+                }
+                candidateLoadError = message;
+                return null;
+            }
+        }
+
+        void appendStatus(Map<String, Object> status) {
+            long comparedCount = compared.get();
+            status.put("model", model);
+            status.put("sampleRate", sampleRate);
+            status.put("startedAt", startedAt);
+            status.put("sampled", sampled.get());
+            status.put("dropped", dropped.get());
+            status.put("compared", comparedCount);
+            status.put("errors", errors.get());
+            status.put("candidateLoaded", candidate != null);
+            status.put("candidateLoadFailures", candidateLoadFailures.get());
+            if (candidateLoadError != null) {
+                status.put("candidateLoadError", candidateLoadError);
+            }
+            status.put("disagreements", disagreements.get());
+            status.put("disagreementRate", comparedCount > 0 ? (double) disagreements.get() / comparedCount : 0.0);
+            status.put("primaryServedLatencyMicros", percentiles(primaryServedLatency));
+            status.put("candidateComputeLatencyMicros", percentiles(candidateComputeLatency));
+            Map<String, Map<String, Long>> matrix = new LinkedHashMap<>();
+            synchronized (disagreementMatrix) {
+                disagreementMatrix.forEach((served, counts) -> matrix.put(served, new LinkedHashMap<>(counts)));
+            }
+            status.put("disagreementMatrix", matrix);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.Neighbour;
+import com.yc.kmeans.kmeans.WeightedKNNUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 空間分片路由器
+ * 每個分片服務只持有部分區域（按區域代碼前綴劃分）的訓練數據，路由器先查詢距離查詢點最近的分片，
+ * 再並行查詢外接矩形可能包含前k個最近鄰的其他分片，合併候選點後按全局類別權重進行加權投票。
+ * 分片請求有連接與讀取超時；扇出線程池有界，排不進隊列的分片請求在調用線程（分類艙壁的線程）中執行，
+ * 因此並發的分片請求數受分類艙壁約束。個別分片失敗時用其餘分片的候選點投票，結果記為降級
+ */
+@Component
+@Slf4j
+public class ShardRouter {
+
+    @Value("${classifier.router.shard-urls:}")
+    private List<String> shardUrls;
+
+    @Value("${classifier.k:10}")
+    private int k;
+
+    @Value("${classifier.router.use-class-weights:true}")
+    private boolean useClassWeights;
+
+    @Value("${classifier.router.max-class-weight:50.0}")
+    private double maxClassWeight;
+
+    @Value("${classifier.router.distance-weight-factor:2.0}")
+    private double distanceWeightFactor;
+
+    @Value("${classifier.router.epsilon:0.00001}")
+    private double epsilon;
+
+    @Value("${classifier.router.connect-timeout-ms:500}")
+    private long connectTimeoutMs;
+
+    @Value("${classifier.router.read-timeout-ms:2000}")
+    private long readTimeoutMs;
+
+    @Value("${classifier.router.fan-out-threads:8}")
+    private int fanOutThreads;
+
+    @Value("${classifier.router.fan-out-queue-capacity:64}")
+    private int fanOutQueueCapacity;
+
+    private ShardClient client;
+    private ThreadPoolExecutor fanOutExecutor;
+
+    private volatile List<ShardInfo> shards;
+    private volatile Map<String, Double> globalClassWeights;
+
+    private final Map<String, AtomicLong> shardFailures = new ConcurrentHashMap<>();
+    private final AtomicLong degradedPredictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k必須為正數: " + k);
+        }
+        if (client == null) {
+            SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+            requestFactory.setConnectTimeout(Duration.ofMillis(connectTimeoutMs));
+            requestFactory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+            client = new RestShardClient(RestClient.builder().requestFactory(requestFactory).build());
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, fanOutThreads);
+        fanOutExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, fanOutQueueCapacity)), runnable -> {
+            Thread thread = new Thread(runnable, "classifier-router-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 是否配置了分片（即以路由模式運行）
+     *
+     * @return 是否啟用路由
+     */
+    public boolean isEnabled() {
+        return shardUrls != null && shardUrls.stream().anyMatch(url -> !url.isBlank());
+    }
+
+    /**
+     * 通過分片預測標籤
+     *
+     * @param latitude 緯度
+     * @param longitude 經度
+     * @return 預測的標籤
+     */
+    public String predict(double latitude, double longitude) {
+        return route(latitude, longitude).label();
+    }
+
+    /**
+     * 通過分片預測標籤，並返回訪問與失敗的分片
+     *
+     * @param latitude 緯度
+     * @param longitude 經度
+     * @return 預測結果
+     * @throws ResponseStatusException 所有被訪問的分片都失敗時返回503
+     */
+    Routing route(double latitude, double longitude) {
+        double[] query = {latitude, longitude};
+        List<ShardInfo> currentShards = getShards();
+        if (currentShards.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "沒有可用的分片");
+        }
+
+        // 按查詢點到分片外接矩形的最小距離排序，第一個即為擁有該點的分片
+        List<ShardInfo> ordered = new ArrayList<>(currentShards);
+        ordered.sort(Comparator.comparingDouble(shard -> shard.minDistance(query)));
+
+        List<String> queried = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        List<Neighbour> candidates = new ArrayList<>();
+        ShardInfo owner = ordered.get(0);
+        queried.add(owner.url);
+        try {
+            candidates.addAll(queryShard(owner, latitude, longitude));
+        } catch (RuntimeException e) {
+            recordFailure(owner, e);
+            failed.add(owner.url);
+        }
+        // 擁有查詢點的分片失敗時無法確定第k近距離，只能查詢所有其他分片
+        double kthDistance = candidates.size() < k ? Double.POSITIVE_INFINITY : candidates.get(k - 1).getDistance();
+
+        // 只有外接矩形與第k近距離的圓相交的分片才可能貢獻最近鄰
+        Map<ShardInfo, CompletableFuture<List<Neighbour>>> futures = new LinkedHashMap<>();
+        for (ShardInfo shard : ordered.subList(1, ordered.size())) {
+            if (shard.minDistance(query) <= kthDistance) {
+                queried.add(shard.url);
+                futures.put(shard, CompletableFuture.supplyAsync(() -> queryShard(shard, latitude, longitude), fanOutExecutor));
+            }
+        }
+        for (Map.Entry<ShardInfo, CompletableFuture<List<Neighbour>>> entry : futures.entrySet()) {
+            try {
+                candidates.addAll(entry.getValue().join());
+            } catch (CompletionException e) {
+                recordFailure(entry.getKey(), e.getCause() == null ? e : e.getCause());
+                failed.add(entry.getKey().url);
+            }
+        }
+        if (failed.size() == queried.size()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "所有分片請求均失敗: " + failed);
+        }
+        if (!failed.isEmpty()) {
+            degradedPredictions.incrementAndGet();
+        }
+
+        candidates.sort(Comparator.comparingDouble(Neighbour::getDistance));
+        List<Neighbour> nearest = candidates.subList(0, Math.min(k, candidates.size()));
+        log.debug("路由查詢共訪問 {} 個分片，失敗 {} 個，候選點 {} 個", queried.size(), failed.size(), candidates.size());
+        String label = WeightedKNNUtils.weightedVote(nearest, useClassWeights ? globalClassWeights : null,
+                epsilon, distanceWeightFactor);
+        return new Routing(label, queried, failed);
+    }
+
+    private void recordFailure(ShardInfo shard, Throwable cause) {
+        shardFailures.computeIfAbsent(shard.url, _ -> new AtomicLong()).incrementAndGet();
+        log.warn("分片 {} 查詢失敗，使用其餘分片的結果: {}", shard.url, cause.getMessage());
+    }
+
+    /**
+     * 重新獲取所有分片的外接矩形與類別計數
+     *
+     * @return 分片狀態
+     */
+    public synchronized List<Map<String, Object>> refresh() {
+        List<ShardInfo> loaded = new ArrayList<>();
+        Map<String, Integer> labelCounts = new HashMap<>();
+        for (String url : shardUrls) {
+            if (url.isBlank()) {
+                continue;
+            }
+            Map<String, Object> info = client.info(url);
+            ShardInfo shard = ShardInfo.fromResponse(url, info);
+            loaded.add(shard);
+            shard.labelCounts.forEach((label, count) -> labelCounts.merge(label, count, Integer::sum));
+            log.info("已連接分片 {}，數據點 {} 個，類別 {} 個", url, shard.size, shard.labelCounts.size());
+        }
+        // 類別權重必須基於全局樣本數計算，與單機模型保持一致
+        globalClassWeights = WeightedKNNUtils.calculateClassWeights(labelCounts, maxClassWeight);
+        shards = loaded;
+        return getStatus();
+    }
+
+    /**
+     * 獲取分片狀態
+     *
+     * @return 每個分片的地址、外接矩形與數據量
+     */
+    public List<Map<String, Object>> getStatus() {
+        List<Map<String, Object>> status = new ArrayList<>();
+        List<ShardInfo> currentShards = shards;
+        if (currentShards == null) {
+            return status;
+        }
+        for (ShardInfo shard : currentShards) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("url", shard.url);
+            item.put("min", shard.min);
+            item.put("max", shard.max);
+            item.put("trainingDataSize", shard.size);
+            item.put("labels", shard.labelCounts.size());
+            AtomicLong failures = shardFailures.get(shard.url);
+            item.put("failures", failures == null ? 0L : failures.get());
+            status.add(item);
+        }
+        return status;
+    }
+
+    /**
+     * 因個別分片失敗而只用部分分片結果投票的預測次數
+     *
+     * @return 降級預測次數
+     */
+    public long getDegradedPredictions() {
+        return degradedPredictions.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdownNow();
+        }
+    }
+
+    private List<ShardInfo> getShards() {
+        List<ShardInfo> currentShards = shards;
+        if (currentShards == null) {
+            refresh();
+            currentShards = shards;
+        }
+        return currentShards;
+    }
+
+    private List<Neighbour> queryShard(ShardInfo shard, double latitude, double longitude) {
+        return client.neighbours(shard.url, latitude, longitude, k);
+    }
+
+    /**
+     * 路由預測結果
+     *
+     * @param label 預測的標籤
+     * @param queried 訪問的分片地址，第一個為擁有查詢點的分片
+     * @param failed 請求失敗的分片地址，非空時結果只基於其餘分片
+     */
+    record Routing(String label, List<String> queried, List<String> failed) {
+        boolean degraded() {
+            return !failed.isEmpty();
+        }
+    }
+
+    /**
+     * 分片服務的訪問接口
+     */
+    interface ShardClient {
+        Map<String, Object> info(String url);
+
+        List<Neighbour> neighbours(String url, double latitude, double longitude, int k);
+    }
+
+    /**
+     * 通過HTTP訪問分片服務
+     */
+    private record RestShardClient(RestClient restClient) implements ShardClient {
+        @Override
+        public Map<String, Object> info(String url) {
+            return restClient.get()
+                    .uri(url + "/shard/info")
+                    .retrieve()
+                    .body(new ParameterizedTypeReference<>() {
+                    });
+        }
+
+        @Override
+        public List<Neighbour> neighbours(String url, double latitude, double longitude, int k) {
+            List<Map<String, Object>> response = restClient.get()
+                    .uri(url + "/shard/neighbours?latitude={latitude}&longitude={longitude}&k={k}",
+                            latitude, longitude, k)
+                    .retrieve()
+                    .body(new ParameterizedTypeReference<>() {
+                    });
+            List<Neighbour> neighbours = new ArrayList<>();
+            if (response != null) {
+                for (Map<String, Object> item : response) {
+                    neighbours.add(new Neighbour(((Number) item.get("distance")).doubleValue(), (String) item.get("label")));
+                }
+            }
+            return neighbours;
+        }
+    }
+
+    /**
+     * 分片的外接矩形與類別計數
+     */
+    private record ShardInfo(String url, double[] min, double[] max, int size, Map<String, Integer> labelCounts) {
+
+        @SuppressWarnings("unchecked")
+        static ShardInfo fromResponse(String url, Map<String, Object> info) {
+            List<Number> min = (List<Number>) info.get("min");
+            List<Number> max = (List<Number>) info.get("max");
+            Map<String, Number> counts = (Map<String, Number>) info.get("labelCounts");
+            Map<String, Integer> labelCounts = new HashMap<>();
+            counts.forEach((label, count) -> labelCounts.put(label, count.intValue()));
+            return new ShardInfo(url,
+                    min.stream().mapToDouble(Number::doubleValue).toArray(),
+                    max.stream().mapToDouble(Number::doubleValue).toArray(),
+                    ((Number) info.get("trainingDataSize")).intValue(),
+                    labelCounts);
+        }
+
+        /**
+         * 查詢點到外接矩形的最小歐氏距離，點在矩形內時為0
+         */
+        double minDistance(double[] query) {
+            double sum = 0.0;
+            for (int d = 0; d < query.length; d++) {
+                double diff = Math.max(0.0, Math.max(min[d] - query[d], query[d] - max[d]));
+                sum += diff * diff;
+            }
+            return Math.sqrt(sum);
+        }
+    }
+}
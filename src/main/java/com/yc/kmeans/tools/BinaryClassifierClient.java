@@ -0,0 +1,203 @@
+package com.yc.kmeans.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 二進制分類協議的Java客戶端
+ * 連接後發送HELLO並等待標籤字典；classifyAsync可以不等待響應連續發送請求（流水線），
+ * 由讀取線程按請求編號完成對應的Future。線程安全，一個連接可由多個線程共用
+ * <p>
+ * 用法：
+ * <pre>
+ * try (BinaryClassifierClient client = BinaryClassifierClient.connect("localhost", 9090)) {
+ *     String[] labels = client.classify(new double[][]{{22.3, 114.17}, {22.28, 114.15}});
+ * }
+ * </pre>
+ */
+public final class BinaryClassifierClient implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Map<Long, CompletableFuture<String[]>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+    private final CompletableFuture<Void> handshake = new CompletableFuture<>();
+    private final Thread reader;
+
+    private volatile List<String> labels;
+    private volatile int dictionaryVersion;
+    private volatile IOException failure;
+
+    private BinaryClassifierClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+        this.reader = new Thread(this::read, "binary-classifier-client-reader");
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * 連接到二進制分類協議服務並完成字典握手
+     *
+     * @param host 主機
+     * @param port 端口
+     * @return 已握手的客戶端
+     * @throws IOException 連接或握手失敗
+     */
+    public static BinaryClassifierClient connect(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), 5000);
+        BinaryClassifierClient client = new BinaryClassifierClient(socket);
+        client.reader.start();
+        synchronized (client.out) {
+            BinaryProtocol.writeHello(client.out);
+            client.out.flush();
+        }
+        try {
+            client.handshake.join();
+        } catch (CompletionException e) {
+            client.close();
+            throw new IOException("字典握手失敗", e.getCause());
+        }
+        return client;
+    }
+
+    /**
+     * 同步分類
+     *
+     * @param points 查詢點，每個為 {緯度, 經度}
+     * @return 與查詢點一一對應的標籤
+     */
+    public String[] classify(double[][] points) throws IOException {
+        try {
+            return classifyAsync(points).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 發送分類請求，不等待響應
+     *
+     * @param points 查詢點，每個為 {緯度, 經度}
+     * @return 與查詢點一一對應的標籤的Future
+     */
+    public CompletableFuture<String[]> classifyAsync(double[][] points) {
+        long requestId = requestIds.incrementAndGet();
+        CompletableFuture<String[]> future = new CompletableFuture<>();
+        pending.put(requestId, future);
+        try {
+            synchronized (out) {
+                if (failure != null) {
+                    throw failure;
+                }
+                BinaryProtocol.writeClassify(out, requestId, points);
+                out.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(requestId);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 當前的標籤字典，下標即標籤編號
+     *
+     * @return 標籤列表
+     */
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * 當前標籤字典的版本，模型替換後遞增
+     *
+     * @return 字典版本
+     */
+    public int getDictionaryVersion() {
+        return dictionaryVersion;
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                in.readInt();
+                byte type = in.readByte();
+                if (type == BinaryProtocol.DICTIONARY) {
+                    int version = in.readInt();
+                    labels = BinaryProtocol.readDictionaryLabels(in);
+                    dictionaryVersion = version;
+                    handshake.complete(null);
+                } else if (type == BinaryProtocol.RESULT) {
+                    long requestId = in.readLong();
+                    int version = in.readInt();
+                    int count = in.readInt();
+                    // 服務端總在使用新字典的結果之前發送字典，因此當前字典即為該結果所屬的字典
+                    List<String> dictionary = labels;
+                    String[] result = new String[count];
+                    for (int i = 0; i < count; i++) {
+                        result[i] = dictionary.get(in.readInt());
+                    }
+                    CompletableFuture<String[]> future = pending.remove(requestId);
+                    if (future != null) {
+                        if (version != dictionaryVersion) {
+                            future.completeExceptionally(new IOException("字典版本不一致: " + version));
+                        } else {
+                            future.complete(result);
+                        }
+                    }
+                } else if (type == BinaryProtocol.ERROR) {
+                    long requestId = in.readLong();
+                    IOException error = new IOException(in.readUTF());
+                    CompletableFuture<String[]> future = pending.remove(requestId);
+                    if (future != null) {
+                        future.completeExceptionally(error);
+                    } else {
+                        handshake.completeExceptionally(error);
+                    }
+                } else {
+                    throw new IOException("無效的幀類型: " + type);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * 連接斷開後讓所有等待中的請求失敗
+     */
+    private void fail(IOException e) {
+        synchronized (out) {
+            failure = e;
+        }
+        handshake.completeExceptionally(e);
+        for (Long requestId : pending.keySet()) {
+            CompletableFuture<String[]> future = pending.remove(requestId);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,146 @@
+package com.yc.kmeans.tools;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 二進制分類協議的本地壓測驅動
+ * 建立若干個連接，每個連接上有pipeline個工作線程以閉環方式（收到響應後立即發送下一幀）共用該連接，
+ * 因此每個連接上同時至多有pipeline個未完成的請求。預熱結束後記錄每幀的往返延遲，最後輸出幀吞吐量、點吞吐量與延遲分位數。
+ * <p>
+ * 參數均為 key=value 形式：
+ * <ul>
+ *     <li>host：服務地址，默認 localhost</li>
+ *     <li>port：二進制協議端口，默認 9090</li>
+ *     <li>connections：連接數，默認 4</li>
+ *     <li>pipeline：每個連接上的並發請求數，默認 8</li>
+ *     <li>batch：每幀的點數，默認 1</li>
+ *     <li>duration：計量時長（秒），默認 30</li>
+ *     <li>warmup：預熱時長（秒），默認 5</li>
+ *     <li>bbox：查詢點範圍 minLat,minLng,maxLat,maxLng，默認香港範圍</li>
+ * </ul>
+ */
+public final class BinaryLoadDriver {
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int pipeline;
+    private final int batch;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final double[] bbox;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    public BinaryLoadDriver(Map<String, String> options) {
+        this.host = options.getOrDefault("host", "localhost");
+        this.port = Integer.parseInt(options.getOrDefault("port", "9090"));
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "4"));
+        this.pipeline = Integer.parseInt(options.getOrDefault("pipeline", "8"));
+        this.batch = Integer.parseInt(options.getOrDefault("batch", "1"));
+        this.durationNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30"))).toNanos();
+        this.warmupNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5"))).toNanos();
+        String[] parts = options.getOrDefault("bbox", "22.20,113.85,22.55,114.40").split(",");
+        this.bbox = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            bbox[i] = Double.parseDouble(parts[i].trim());
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                System.err.println("參數格式應為 key=value: " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new BinaryLoadDriver(options).run();
+    }
+
+    /**
+     * 執行壓測並輸出報告
+     */
+    public void run() throws IOException, InterruptedException {
+        System.out.printf("壓測 %s:%d：%d 個連接，每連接 %d 個並發請求，每幀 %d 個點，預熱 %d 秒，計量 %d 秒%n",
+                host, port, connections, pipeline, batch, Duration.ofNanos(warmupNanos).toSeconds(),
+                Duration.ofNanos(durationNanos).toSeconds());
+
+        List<BinaryClassifierClient> clients = new ArrayList<>(connections);
+        for (int c = 0; c < connections; c++) {
+            clients.add(BinaryClassifierClient.connect(host, port));
+        }
+        System.out.printf("字典版本 %d，共 %d 個標籤%n", clients.get(0).getDictionaryVersion(),
+                clients.get(0).getLabels().size());
+
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+        List<Thread> workers = new ArrayList<>(connections * pipeline);
+        for (int c = 0; c < connections; c++) {
+            BinaryClassifierClient client = clients.get(c);
+            for (int p = 0; p < pipeline; p++) {
+                String name = "binary-load-driver-" + c + "-" + p;
+                Thread worker = new Thread(() -> work(client, measureStart, end), name);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (BinaryClassifierClient client : clients) {
+            client.close();
+        }
+        report(Duration.ofNanos(durationNanos).toMillis() / 1000.0);
+    }
+
+    private void work(BinaryClassifierClient client, long measureStart, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double[][] points = new double[batch][2];
+        while (true) {
+            for (double[] point : points) {
+                point[0] = bbox[0] + random.nextDouble() * (bbox[2] - bbox[0]);
+                point[1] = bbox[1] + random.nextDouble() * (bbox[3] - bbox[1]);
+            }
+            long sent = System.nanoTime();
+            if (sent >= end) {
+                return;
+            }
+            boolean ok;
+            try {
+                ok = client.classify(points).length == batch;
+            } catch (IOException e) {
+                ok = false;
+            }
+            long received = System.nanoTime();
+            if (sent >= measureStart && received <= end) {
+                histogram.record(received - sent);
+                if (!ok) {
+                    errors.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void report(double seconds) {
+        long frames = histogram.count();
+        System.out.printf("%10s %8s %12s %14s %10s %10s %10s %10s%n",
+                "frames", "errors", "frames/s", "points/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+        System.out.printf(Locale.ROOT, "%10d %8d %12.1f %14.1f %10.3f %10.3f %10.3f %10.3f%n",
+                frames, errors.get(), frames / seconds, frames * (double) batch / seconds,
+                histogram.percentileMicros(0.50) / 1000.0, histogram.percentileMicros(0.99) / 1000.0,
+                histogram.percentileMicros(0.999) / 1000.0, histogram.maxMicros() / 1000.0);
+    }
+}
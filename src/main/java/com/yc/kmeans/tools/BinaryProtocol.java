@@ -0,0 +1,127 @@
+package com.yc.kmeans.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二進制分類協議
+ * 每個幀為 int32 長度（不含長度字段本身）+ 1字節類型 + 負載，所有數值均為大端序：
+ * <ul>
+ *     <li>HELLO（客戶端）：int32 魔數。服務端以DICTIONARY回應</li>
+ *     <li>DICTIONARY（服務端）：int32 字典版本、int32 標籤數，以及按標籤編號排列的標籤（modified UTF-8）</li>
+ *     <li>CLASSIFY（客戶端）：int64 請求編號、int32 點數，以及每個點的 double 緯度、double 經度</li>
+ *     <li>RESULT（服務端）：int64 請求編號、int32 字典版本、int32 點數，以及每個點的 int32 標籤編號</li>
+ *     <li>ERROR（服務端）：int64 請求編號、錯誤信息（modified UTF-8）</li>
+ * </ul>
+ * 客戶端可以不等待響應連續發送多個CLASSIFY（流水線），服務端按接收順序返回；
+ * 模型替換後字典會變化，服務端在第一個使用新字典的RESULT之前先發送新的DICTIONARY
+ */
+public final class BinaryProtocol {
+    public static final int MAGIC = 0x4B4E4E31; // "KNN1"
+
+    public static final byte HELLO = 1;
+    public static final byte DICTIONARY = 2;
+    public static final byte CLASSIFY = 3;
+    public static final byte RESULT = 4;
+    public static final byte ERROR = 5;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * 寫入HELLO幀
+     */
+    public static void writeHello(DataOutputStream out) throws IOException {
+        out.writeInt(1 + Integer.BYTES);
+        out.writeByte(HELLO);
+        out.writeInt(MAGIC);
+    }
+
+    /**
+     * 寫入DICTIONARY幀
+     *
+     * @param version 字典版本
+     * @param labels 按標籤編號排列的標籤
+     */
+    public static void writeDictionary(DataOutputStream out, int version, List<String> labels) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(buffer);
+        payload.writeInt(version);
+        payload.writeInt(labels.size());
+        for (String label : labels) {
+            payload.writeUTF(label);
+        }
+        out.writeInt(1 + buffer.size());
+        out.writeByte(DICTIONARY);
+        buffer.writeTo(out);
+    }
+
+    /**
+     * 讀取DICTIONARY幀的負載（類型字節之後的部分）
+     *
+     * @return 按標籤編號排列的標籤
+     */
+    public static List<String> readDictionaryLabels(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> labels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            labels.add(in.readUTF());
+        }
+        return labels;
+    }
+
+    /**
+     * 寫入CLASSIFY幀
+     *
+     * @param requestId 請求編號
+     * @param points 查詢點，每個為 {緯度, 經度}
+     */
+    public static void writeClassify(DataOutputStream out, long requestId, double[][] points) throws IOException {
+        out.writeInt(1 + Long.BYTES + Integer.BYTES + points.length * 2 * Double.BYTES);
+        out.writeByte(CLASSIFY);
+        out.writeLong(requestId);
+        out.writeInt(points.length);
+        for (double[] point : points) {
+            out.writeDouble(point[0]);
+            out.writeDouble(point[1]);
+        }
+    }
+
+    /**
+     * 寫入RESULT幀
+     *
+     * @param requestId 請求編號
+     * @param dictionaryVersion 標籤編號所屬的字典版本
+     * @param labelIds 與查詢點一一對應的標籤編號
+     */
+    public static void writeResult(DataOutputStream out, long requestId, int dictionaryVersion, int[] labelIds)
+            throws IOException {
+        out.writeInt(1 + Long.BYTES + 2 * Integer.BYTES + labelIds.length * Integer.BYTES);
+        out.writeByte(RESULT);
+        out.writeLong(requestId);
+        out.writeInt(dictionaryVersion);
+        out.writeInt(labelIds.length);
+        for (int labelId : labelIds) {
+            out.writeInt(labelId);
+        }
+    }
+
+    /**
+     * 寫入ERROR幀
+     *
+     * @param requestId 出錯的請求編號，與具體請求無關時為-1
+     * @param message 錯誤信息
+     */
+    public static void writeError(DataOutputStream out, long requestId, String message) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new DataOutputStream(buffer).writeUTF(message == null ? "" : message);
+        out.writeInt(1 + Long.BYTES + buffer.size());
+        out.writeByte(ERROR);
+        out.writeLong(requestId);
+        buffer.writeTo(out);
+    }
+}
@@ -0,0 +1,91 @@
+package com.yc.kmeans.tools;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 線程安全的對數線性延遲直方圖（微秒精度）
+ * 小於256微秒的值逐一計數，更大的值每個二進制數量級分為128個桶，相對誤差不超過1%，
+ * 記錄時不分配對象，適合在壓測的熱路徑中使用
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 128;
+    private static final int BUCKETS = SUB_BUCKETS * 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * 記錄一次延遲
+     *
+     * @param nanos 延遲（納秒）
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos))));
+    }
+
+    /**
+     * 樣本總數
+     *
+     * @return 記錄的延遲次數
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * 計算分位數
+     *
+     * @param quantile 分位數，例如 0.99
+     * @return 該分位數所在桶的上界（微秒）；沒有樣本時返回0
+     */
+    public long percentileMicros(double quantile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= target) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * 最大延遲所在桶的上界
+     *
+     * @return 最大延遲（微秒）
+     */
+    public long maxMicros() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return upperBoundOf(i);
+            }
+        }
+        return 0;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - 7;
+        return SUB_BUCKETS * shift + (int) (micros >>> shift);
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,202 @@
+package com.yc.kmeans.tools;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地壓測驅動
+ * 以固定並發數的閉環方式（每個工作線程收到響應後立即發送下一個請求）向本機啟動的應用發送請求，
+ * 按配置的比例混合 /classifier 與 /evaluate，預熱結束後記錄延遲，最後輸出吞吐量與 p50/p99/p999 延遲。
+ * <p>
+ * 參數均為 key=value 形式：
+ * <ul>
+ *     <li>url：應用地址，默認 http://localhost:8080</li>
+ *     <li>concurrency：並發數，默認 16</li>
+ *     <li>duration：計量時長（秒），默認 30</li>
+ *     <li>warmup：預熱時長（秒），默認 5</li>
+ *     <li>mix：請求比例，默認 classifier:100，例如 classifier:99,evaluate:1</li>
+ *     <li>bbox：查詢點範圍 minLat,minLng,maxLat,maxLng，默認香港範圍</li>
+ *     <li>model：可選的模型標識，附加到 /classifier 請求</li>
+ * </ul>
+ */
+public final class LoadDriver {
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final String baseUrl;
+    private final int concurrency;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final List<Endpoint> endpoints;
+    private final double[] bbox;
+    private final String model;
+
+    public LoadDriver(Map<String, String> options) {
+        this.baseUrl = options.getOrDefault("url", "http://localhost:8080");
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        this.durationNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30"))).toNanos();
+        this.warmupNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5"))).toNanos();
+        this.bbox = parseDoubles(options.getOrDefault("bbox", "22.20,113.85,22.55,114.40"));
+        this.model = options.get("model");
+        this.endpoints = parseMix(options.getOrDefault("mix", "classifier:100"));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                System.err.println("參數格式應為 key=value: " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new LoadDriver(options).run();
+    }
+
+    /**
+     * 執行壓測並輸出報告
+     */
+    public void run() throws InterruptedException {
+        System.out.printf("壓測 %s：並發 %d，預熱 %d 秒，計量 %d 秒%n", baseUrl, concurrency,
+                Duration.ofNanos(warmupNanos).toSeconds(), Duration.ofNanos(durationNanos).toSeconds());
+
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+        List<Thread> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Thread worker = new Thread(() -> work(measureStart, end), "load-driver-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        report(Duration.ofNanos(durationNanos).toMillis() / 1000.0);
+    }
+
+    private void work(long measureStart, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            long sent = System.nanoTime();
+            if (sent >= end) {
+                return;
+            }
+            Endpoint endpoint = pick(random);
+            boolean ok;
+            try {
+                HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + endpoint.path(random)))
+                        .timeout(Duration.ofSeconds(60))
+                        .GET()
+                        .build();
+                ok = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                ok = false;
+            }
+            long received = System.nanoTime();
+            if (sent >= measureStart && received <= end) {
+                endpoint.histogram.record(received - sent);
+                if (!ok) {
+                    endpoint.errors.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private Endpoint pick(ThreadLocalRandom random) {
+        int roll = random.nextInt(endpoints.get(endpoints.size() - 1).cumulativeWeight);
+        for (Endpoint endpoint : endpoints) {
+            if (roll < endpoint.cumulativeWeight) {
+                return endpoint;
+            }
+        }
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+    private void report(double seconds) {
+        System.out.printf("%-12s %10s %8s %12s %10s %10s %10s %10s%n",
+                "endpoint", "requests", "errors", "req/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+        long totalRequests = 0;
+        for (Endpoint endpoint : endpoints) {
+            LatencyHistogram histogram = endpoint.histogram;
+            long requests = histogram.count();
+            totalRequests += requests;
+            System.out.printf(Locale.ROOT, "%-12s %10d %8d %12.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    endpoint.name, requests, endpoint.errors.get(), requests / seconds,
+                    histogram.percentileMicros(0.50) / 1000.0, histogram.percentileMicros(0.99) / 1000.0,
+                    histogram.percentileMicros(0.999) / 1000.0, histogram.maxMicros() / 1000.0);
+        }
+        System.out.printf(Locale.ROOT, "總吞吐量: %.1f req/s%n", totalRequests / seconds);
+    }
+
+    private List<Endpoint> parseMix(String mix) {
+        List<Endpoint> parsed = new ArrayList<>();
+        int cumulative = 0;
+        for (String item : mix.split(",")) {
+            String[] parts = item.trim().split(":");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            if (weight <= 0) {
+                continue;
+            }
+            cumulative += weight;
+            parsed.add(new Endpoint(parts[0].trim(), cumulative));
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("請求比例不能為空");
+        }
+        return parsed;
+    }
+
+    private static double[] parseDoubles(String value) {
+        String[] parts = value.split(",");
+        double[] parsed = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parsed[i] = Double.parseDouble(parts[i].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * 壓測的端點及其統計
+     */
+    private final class Endpoint {
+        final String name;
+        final int cumulativeWeight;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+
+        Endpoint(String name, int cumulativeWeight) {
+            if (!name.equals("classifier") && !name.equals("evaluate")) {
+                throw new IllegalArgumentException("不支持的端點: " + name);
+            }
+            this.name = name;
+            this.cumulativeWeight = cumulativeWeight;
+        }
+
+        String path(ThreadLocalRandom random) {
+            if (name.equals("evaluate")) {
+                return "/evaluate";
+            }
+            double latitude = bbox[0] + random.nextDouble() * (bbox[2] - bbox[0]);
+            double longitude = bbox[1] + random.nextDouble() * (bbox[3] - bbox[1]);
+            String path = String.format(Locale.ROOT, "/classifier?latitude=%.7f&longitude=%.6f", latitude, longitude);
+            return model == null ? path : path + "&model=" + model;
+        }
+    }
+}
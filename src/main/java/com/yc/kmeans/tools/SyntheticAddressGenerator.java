@@ -0,0 +1,205 @@
+package com.yc.kmeans.tools;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 合成地址數據生成器
+ * 在香港範圍內生成帶區域代碼的聚類座標：區域大小服從Zipf分佈，另有約5%的單樣本區域，
+ * 每個區域內的點再聚成建築物，同一建築物的多個單位共享同一座標，與真實地址表的特徵一致。
+ * 相同的參數與種子總是生成相同的數據。
+ * <p>
+ * 用法: SyntheticAddressGenerator &lt;輸出檔案.csv|.xlsx&gt; [行數=100000] [區域數=2000] [種子=42] [Zipf指數=1.1]
+ */
+public final class SyntheticAddressGenerator {
+    // xlsx每個工作表最多1048576行（含標題列）
+    private static final int XLSX_MAX_ROWS_PER_SHEET = 1_048_575;
+    private static final String[] SHEETS = {"ESTATE", "STREET", "STREET_NUMBER"};
+
+    // 香港大致範圍
+    private static final double MIN_LATITUDE = 22.20;
+    private static final double MAX_LATITUDE = 22.55;
+    private static final double MIN_LONGITUDE = 113.85;
+    private static final double MAX_LONGITUDE = 114.40;
+
+    private final long rows;
+    private final int zones;
+    private final long seed;
+    private final double zipfExponent;
+
+    public SyntheticAddressGenerator(long rows, int zones, long seed, double zipfExponent) {
+        if (rows <= 0 || zones <= 0) {
+            throw new IllegalArgumentException("行數與區域數必須大於0");
+        }
+        this.rows = rows;
+        this.zones = (int) Math.min(zones, rows);
+        this.seed = seed;
+        this.zipfExponent = zipfExponent;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("用法: SyntheticAddressGenerator <輸出檔案.csv|.xlsx> [行數=100000] [區域數=2000] [種子=42] [Zipf指數=1.1]");
+            System.exit(1);
+        }
+        Path output = Path.of(args[0]);
+        long rows = args.length > 1 ? Long.parseLong(args[1]) : 100_000;
+        int zones = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        double exponent = args.length > 4 ? Double.parseDouble(args[4]) : 1.1;
+
+        long start = System.currentTimeMillis();
+        new SyntheticAddressGenerator(rows, zones, seed, exponent).write(output);
+        System.out.printf("已生成 %d 行、%d 個區域到 %s，耗時 %d 毫秒%n", rows, Math.min(zones, rows), output,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 按副檔名寫出CSV或xlsx
+     *
+     * @param output 輸出路徑
+     * @throws IOException 寫出失敗
+     */
+    public void write(Path output) throws IOException {
+        if (output.toString().toLowerCase(Locale.ROOT).endsWith(".xlsx")) {
+            writeXlsx(output);
+        } else {
+            writeCsv(output);
+        }
+    }
+
+    private void writeCsv(Path output) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(output)) {
+            writer.write("LATITUDE,LONGITUDE,DELIVERY ZONE CODE\n");
+            generate((sheet, latitude, longitude, zone) -> {
+                writer.write(formatCoordinate(latitude, 7));
+                writer.write(',');
+                writer.write(formatCoordinate(longitude, 6));
+                writer.write(',');
+                writer.write(zone);
+                writer.write('\n');
+            });
+        }
+    }
+
+    private void writeXlsx(Path output) throws IOException {
+        if (rows > (long) XLSX_MAX_ROWS_PER_SHEET * SHEETS.length) {
+            throw new IllegalArgumentException("xlsx最多容納 " + (long) XLSX_MAX_ROWS_PER_SHEET * SHEETS.length
+                    + " 行，請改用csv");
+        }
+        // 流式寫出，內存中只保留最近的100行
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+             OutputStream stream = Files.newOutputStream(output)) {
+            Sheet[] sheets = new Sheet[SHEETS.length];
+            int[] rowCounts = new int[SHEETS.length];
+            for (int s = 0; s < SHEETS.length; s++) {
+                sheets[s] = workbook.createSheet(SHEETS[s]);
+                Row header = sheets[s].createRow(0);
+                header.createCell(0).setCellValue("LATITUDE");
+                header.createCell(1).setCellValue("LONGITUDE");
+                header.createCell(2).setCellValue("DELIVERY ZONE CODE");
+            }
+            generate((sheet, latitude, longitude, zone) -> {
+                // 目標工作表已滿時寫入下一個未滿的工作表
+                int target = sheet;
+                while (rowCounts[target] == XLSX_MAX_ROWS_PER_SHEET) {
+                    target = (target + 1) % SHEETS.length;
+                }
+                Row row = sheets[target].createRow(++rowCounts[target]);
+                row.createCell(0).setCellValue(latitude);
+                row.createCell(1).setCellValue(longitude);
+                row.createCell(2).setCellValue(zone);
+            });
+            workbook.write(stream);
+            workbook.dispose();
+        }
+    }
+
+    /**
+     * 生成所有數據行
+     * 各區域的行數見 zoneSizes；每個區域圍繞隨機中心生成建築物，
+     * 建築物的單位數服從幾何分佈，區域越大分佈越廣
+     */
+    void generate(RowSink sink) throws IOException {
+        Random random = new Random(seed);
+        long[] zoneSizes = zoneSizes(random);
+
+        for (int zone = 0; zone < zones; zone++) {
+            double centerLatitude = MIN_LATITUDE + random.nextDouble() * (MAX_LATITUDE - MIN_LATITUDE);
+            double centerLongitude = MIN_LONGITUDE + random.nextDouble() * (MAX_LONGITUDE - MIN_LONGITUDE);
+            String code = regionOf(centerLatitude, centerLongitude) + "-" + String.format("%05d", zone);
+            double spread = Math.min(0.01, 0.0004 * Math.sqrt(zoneSizes[zone]));
+
+            long remaining = zoneSizes[zone];
+            while (remaining > 0) {
+                double latitude = round(centerLatitude + random.nextGaussian() * spread, 1e7);
+                double longitude = round(centerLongitude + random.nextGaussian() * spread, 1e6);
+                // 約七成地址是獨立門牌，其餘為包含多個單位的屋苑或大廈
+                long units = random.nextDouble() < 0.7 ? 1 : 2 + (long) (-Math.log(1 - random.nextDouble()) * 10);
+                units = Math.min(units, remaining);
+                int sheet = units > 1 ? 0 : (random.nextInt(4) == 0 ? 1 : 2);
+                for (long u = 0; u < units; u++) {
+                    sink.accept(sheet, latitude, longitude, code);
+                }
+                remaining -= units;
+            }
+        }
+    }
+
+    /**
+     * 每個區域的行數：約5%的區域固定為單樣本區域，其餘區域先各分配一行，
+     * 剩餘的行按 1/rank^s 的權重抽樣分配
+     */
+    private long[] zoneSizes(Random random) {
+        long[] sizes = new long[zones];
+        Arrays.fill(sizes, 1);
+        int zipfZones = zones == 1 ? 1 : zones - Math.max(1, zones / 20);
+        if (rows == zones) {
+            return sizes;
+        }
+        double[] cumulative = new double[zipfZones];
+        double total = 0.0;
+        for (int rank = 0; rank < zipfZones; rank++) {
+            total += 1.0 / Math.pow(rank + 1, zipfExponent);
+            cumulative[rank] = total;
+        }
+        for (long r = zones; r < rows; r++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            sizes[index < 0 ? Math.min(-index - 1, zipfZones - 1) : index]++;
+        }
+        return sizes;
+    }
+
+    private static String regionOf(double latitude, double longitude) {
+        if (latitude < 22.29) {
+            return "HK";
+        }
+        return latitude < 22.34 && longitude > 114.13 ? "KLN" : "NT";
+    }
+
+    private static double round(double value, double scale) {
+        return Math.round(value * scale) / scale;
+    }
+
+    private static String formatCoordinate(double value, int decimals) {
+        return String.format(Locale.ROOT, "%." + decimals + "f", value);
+    }
+
+    /**
+     * 接收生成的每一行
+     */
+    @FunctionalInterface
+    interface RowSink {
+        void accept(int sheet, double latitude, double longitude, String zone) throws IOException;
+    }
+}
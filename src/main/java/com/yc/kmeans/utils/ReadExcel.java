@@ -1,5 +1,6 @@
 package com.yc.kmeans.utils;
 
+import com.yc.kmeans.jfr.DataSheetEvent;
 import com.yc.kmeans.kmeans.LabeledPoint;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.Cell;
@@ -9,8 +10,11 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -23,8 +27,74 @@ public class ReadExcel {
         throw new IllegalStateException("Utility class");
     }
 
+    /**
+     * 根據副檔名讀取資料：.csv 使用CSV格式，其餘按Excel讀取
+     *
+     * @param filePath 檔案路徑
+     * @return LabeledPoint列表
+     * @throws IOException 如果讀取檔案出錯
+     */
+    public static List<LabeledPoint> readData(String filePath) throws IOException {
+        if (filePath.toLowerCase().endsWith(".csv")) {
+            return readCsvData(filePath);
+        }
+        return readExcelData(filePath);
+    }
+
+    /**
+     * 從CSV檔案讀取資料，標題列需包含 LATITUDE、LONGITUDE、DELIVERY ZONE CODE 欄位（不支持帶引號的欄位）
+     * 每行一個數據點，重複的座標在訓練時才合併
+     *
+     * @param filePath CSV檔案路徑
+     * @return LabeledPoint列表
+     * @throws IOException 如果讀取檔案出錯
+     */
+    public static List<LabeledPoint> readCsvData(String filePath) throws IOException {
+        List<LabeledPoint> points = new ArrayList<>();
+        DataSheetEvent event = new DataSheetEvent();
+        event.begin();
+        int rows = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(filePath))) {
+            String header = reader.readLine();
+            if (header == null) {
+                return points;
+            }
+            Map<String, Integer> columnIndexes = new HashMap<>();
+            String[] columns = header.split(",");
+            for (int i = 0; i < columns.length; i++) {
+                columnIndexes.put(columns[i].trim().toUpperCase(), i);
+            }
+            if (!columnIndexes.keySet().containsAll(List.of("LATITUDE", "LONGITUDE", "DELIVERY ZONE CODE"))) {
+                log.info("CSV檔案缺少必要的欄位");
+                return points;
+            }
+            int latIndex = columnIndexes.get("LATITUDE");
+            int lngIndex = columnIndexes.get("LONGITUDE");
+            int zoneIndex = columnIndexes.get("DELIVERY ZONE CODE");
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                rows++;
+                String[] values = line.split(",", -1);
+                if (values.length <= Math.max(latIndex, Math.max(lngIndex, zoneIndex))) {
+                    continue;
+                }
+                Double latitude = parseStringToDouble(values[latIndex].trim());
+                Double longitude = parseStringToDouble(values[lngIndex].trim());
+                String zoneCode = values[zoneIndex].trim();
+                if (isValidData(latitude, longitude, zoneCode)) {
+                    points.add(new LabeledPoint(new double[]{latitude, longitude}, zoneCode));
+                }
+            }
+        }
+        log.info("從CSV檔案讀取了 {} 個資料點", points.size());
+        commitSheetEvent(event, filePath, "csv", rows, points.size());
+        return points;
+    }
+
     /**
      * 從Excel檔案讀取資料，轉換為LabeledPoint列表
+     * 每行一個數據點；同一建築物的多個單位座標相同，這些重複的座標在訓練時才合併
      *
      * @param filePath Excel檔案路徑
      * @return LabeledPoint列表
@@ -36,13 +106,15 @@ public class ReadExcel {
              Workbook workbook = new XSSFWorkbook(excelFile)) {
 
             for (String sheetName : List.of("ESTATE", "STREET", "STREET_NUMBER")) {
-                processSheet(workbook, sheetName, points);
+                processSheet(filePath, workbook, sheetName, points);
             }
         }
         return points;
     }
 
-    private static void processSheet(Workbook workbook, String sheetName, List<LabeledPoint> points) {
+    private static void processSheet(String filePath, Workbook workbook, String sheetName, List<LabeledPoint> points) {
+        DataSheetEvent event = new DataSheetEvent();
+        event.begin();
         Sheet sheet = workbook.getSheet(sheetName);
         if (sheet == null) {
             log.info("未找到工作表: {}", sheetName);
@@ -59,15 +131,34 @@ public class ReadExcel {
         int lngIndex = columnIndexes.get("LONGITUDE");
         int zoneIndex = columnIndexes.get("DELIVERY ZONE CODE");
 
+        int sheetPoints = 0;
         for (int rowIndex = 1; rowIndex <= sheet.getLastRowNum(); rowIndex++) {
-            processRow(sheet.getRow(rowIndex), latIndex, lngIndex, zoneIndex, points);
+            if (processRow(sheet.getRow(rowIndex), latIndex, lngIndex, zoneIndex, points)) {
+                sheetPoints++;
+            }
         }
 
         log.info("從 {} 工作表讀取了 {} 個資料點", sheetName, points.size());
+        commitSheetEvent(event, filePath, sheetName, sheet.getLastRowNum(), sheetPoints);
+    }
+
+    /**
+     * 提交工作表讀取事件，事件未啟用時不填充字段
+     */
+    private static void commitSheetEvent(DataSheetEvent event, String filePath, String sheet, int rows, int points) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setFile(filePath);
+            event.setSheet(sheet);
+            event.setRows(rows);
+            event.setPoints(points);
+            event.setSkippedRows(rows - points);
+            event.commit();
+        }
     }
 
-    private static void processRow(Row dataRow, int latIndex, int lngIndex, int zoneIndex, List<LabeledPoint> points) {
-        if (dataRow == null) return;
+    private static boolean processRow(Row dataRow, int latIndex, int lngIndex, int zoneIndex, List<LabeledPoint> points) {
+        if (dataRow == null) return false;
 
         Double latitude = getCellNumericValue(dataRow.getCell(latIndex));
         Double longitude = getCellNumericValue(dataRow.getCell(lngIndex));
@@ -75,7 +166,9 @@ public class ReadExcel {
 
         if (isValidData(latitude, longitude, zoneCode)) {
             points.add(new LabeledPoint(new double[]{latitude, longitude}, zoneCode));
+            return true;
         }
+        return false;
     }
 
 
@@ -3,7 +3,10 @@ package com.yc.kmeans;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = {
+        "classifier.startup-mode=async",
+        "classifier.model-path=target/test-classifier.ser"
+})
 class KmeansApplicationTests {
 
     @Test
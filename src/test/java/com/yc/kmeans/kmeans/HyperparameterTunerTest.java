@@ -0,0 +1,52 @@
+package com.yc.kmeans.kmeans;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperparameterTunerTest {
+
+    @Test
+    void leaderboardCoversTheGridInRankOrder() {
+        WeightedKNNClassifier classifier = WeightedKNNClassifierTest.trainedClassifier(
+                WeightedKNNClassifierTest.syntheticData(1500, 31), 10);
+        int kMax = 6;
+        List<Double> factors = List.of(1.0, 2.0);
+        List<Double> caps = List.of(10.0, 50.0);
+        List<TuningResult> leaderboard = HyperparameterTuner.tune(classifier, kMax, factors, caps, 3, 150);
+
+        // 每個距離權重因子一組不使用類別權重，再加上每個類別權重上限一組，每組k=1..kMax
+        assertEquals(kMax * factors.size() * (1 + caps.size()), leaderboard.size());
+        Set<String> combinations = new HashSet<>();
+        for (TuningResult result : leaderboard) {
+            assertTrue(result.getK() >= 1 && result.getK() <= kMax);
+            assertTrue(result.getAccuracy() >= 0 && result.getAccuracy() <= 1);
+            assertTrue(combinations.add(result.getK() + "/" + result.getDistanceWeightFactor() + "/"
+                    + result.isUseClassWeights() + "/" + (result.isUseClassWeights() ? result.getMaxClassWeight() : 0)));
+        }
+        // 按準確率降序，準確率相同時按F1降序，再按k升序
+        for (int i = 1; i < leaderboard.size(); i++) {
+            TuningResult previous = leaderboard.get(i - 1);
+            TuningResult current = leaderboard.get(i);
+            assertTrue(previous.getAccuracy() > current.getAccuracy()
+                    || previous.getAccuracy() == current.getAccuracy() && (previous.getF1Score() > current.getF1Score()
+                    || previous.getF1Score() == current.getF1Score() && previous.getK() <= current.getK()));
+        }
+        // 30個區域相互重疊，最好的組合仍應遠好於隨機猜測
+        assertTrue(leaderboard.get(0).getAccuracy() > 0.3, "最佳準確率 " + leaderboard.get(0).getAccuracy());
+
+        List<TuningResult> top = HyperparameterTuner.top(leaderboard, 5);
+        assertEquals(5, top.size());
+        assertSame(leaderboard.get(0), top.get(0));
+        assertEquals(leaderboard.size(), HyperparameterTuner.top(leaderboard, 1000).size());
+        assertEquals(0, HyperparameterTuner.top(leaderboard, 0).size());
+        assertThrows(IllegalArgumentException.class, () -> HyperparameterTuner.top(leaderboard, -1));
+    }
+}
@@ -0,0 +1,140 @@
+package com.yc.kmeans.kmeans;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KMeansEngineTest {
+
+    @Test
+    void prototypeEngineRefinesWithinCandidateZones() {
+        List<LabeledPoint> data = WeightedKNNClassifierTest.syntheticData(5000, 79);
+        WeightedKNNClassifier reference = WeightedKNNClassifierTest.trainedClassifier(data, 10);
+        WeightedKNNClassifier prototypes = reference.newUntrainedCopy();
+        prototypes.setNeighbourEngine(WeightedKNNClassifier.NeighbourEngine.PROTOTYPE);
+        prototypes.train(data);
+
+        List<LabeledPoint> centroids = prototypes.getPrototypes();
+        int labels = reference.getLabelCounts().size();
+        assertTrue(centroids.size() <= labels * prototypes.getPrototypesPerLabel());
+        assertEquals(reference.getSampleCount(), centroids.stream().mapToInt(LabeledPoint::getMultiplicity).sum());
+
+        // 候選區域覆蓋所有區域時與暴力掃描完全一致
+        WeightedKNNClassifier allZones = prototypes.newUntrainedCopy();
+        allZones.setPrototypeCandidateZones(labels);
+        allZones.train(data);
+
+        Random random = new Random(83);
+        int agreements = 0;
+        int queries = 1000;
+        for (int i = 0; i < queries; i++) {
+            double[] query = {22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            String expected = reference.predict(query);
+            assertEquals(expected, allZones.predict(query));
+            if (expected.equals(prototypes.predict(query))) {
+                agreements++;
+            }
+        }
+        assertTrue(agreements >= queries * 0.9, "agreements=" + agreements);
+
+        EvaluationResult result = WeightedKNNUtils.evaluateModel(prototypes, 3, 200, 5, list -> list);
+        assertTrue(result.getAveragePredictMicros() > 0);
+    }
+
+    @Test
+    void hamerlyKMeansMatchesPlainLloydAndRoundTrips() throws IOException {
+        List<LabeledPoint> data = WeightedKNNClassifierTest.syntheticData(20000, 89);
+        double[] coordinates = KMeansEngine.coordinates(data, 2);
+        int[] weights = KMeansEngine.weights(data);
+
+        KMeansEngine plain = new KMeansEngine(30);
+        plain.setAccelerated(false);
+        plain.setTolerance(0);
+        plain.setParallelism(4);
+        KMeansModel expected = plain.fit(coordinates, weights, 2, null);
+
+        KMeansEngine hamerly = new KMeansEngine(30);
+        hamerly.setTolerance(0);
+        hamerly.setParallelism(3);
+        ClusteringProgress progress = new ClusteringProgress();
+        KMeansModel accelerated = hamerly.fit(coordinates, weights, 2, progress);
+
+        assertEquals(expected.size(), accelerated.size());
+        assertEquals(expected.getIterations(), accelerated.getIterations());
+        assertEquals(expected.getInertia(), accelerated.getInertia());
+        for (int c = 0; c < expected.size(); c++) {
+            assertArrayEquals(expected.getCentroid(c), accelerated.getCentroid(c));
+            assertEquals(expected.getWeight(c), accelerated.getWeight(c));
+        }
+        assertTrue(accelerated.getDistanceComputations() < expected.getDistanceComputations() / 2,
+                accelerated.getDistanceComputations() + " vs " + expected.getDistanceComputations());
+        assertEquals(accelerated.getIterations(), progress.getIterations());
+        long totalWeight = data.stream().mapToLong(LabeledPoint::getMultiplicity).sum();
+        long clusteredWeight = 0;
+        for (int c = 0; c < accelerated.size(); c++) {
+            clusteredWeight += accelerated.getWeight(c);
+        }
+        assertEquals(totalWeight, clusteredWeight);
+
+        // 小批量模式的組內平方和與完整迭代相近
+        KMeansEngine miniBatch = new KMeansEngine(30);
+        miniBatch.setMode(KMeansEngine.Mode.MINI_BATCH);
+        miniBatch.setBatchSize(512);
+        KMeansModel approximate = miniBatch.fit(coordinates, weights, 2, null);
+        assertTrue(approximate.getInertia() < expected.getInertia() * 1.5,
+                approximate.getInertia() + " vs " + expected.getInertia());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        accelerated.writeTo(out);
+        KMeansModel loaded = KMeansModel.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(accelerated.getStats(), loaded.getStats());
+        for (int c = 0; c < accelerated.size(); c++) {
+            assertArrayEquals(accelerated.getCentroid(c), loaded.getCentroid(c));
+            assertEquals(accelerated.nearest(accelerated.getCentroid(c)), loaded.nearest(accelerated.getCentroid(c)));
+        }
+        assertThrows(IOException.class, () -> KMeansModel.readFrom(new ByteArrayInputStream(new byte[16])));
+    }
+
+    @Test
+    void sharedPoolMatchesDedicatedPoolAndStaysOpen() {
+        List<LabeledPoint> data = WeightedKNNClassifierTest.syntheticData(12000, 97);
+        double[] coordinates = KMeansEngine.coordinates(data, 2);
+        int[] weights = KMeansEngine.weights(data);
+        KMeansEngine engine = new KMeansEngine(12);
+        engine.setParallelism(2);
+        KMeansModel dedicated = engine.fit(coordinates, weights, 2, null);
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            KMeansModel shared = engine.fit(coordinates, weights, 2, null, pool);
+            assertEquals(dedicated.size(), shared.size());
+            assertEquals(dedicated.getIterations(), shared.getIterations());
+            assertEquals(dedicated.getInertia(), shared.getInertia());
+            assertEquals(dedicated.getDistanceComputations(), shared.getDistanceComputations());
+            for (int c = 0; c < dedicated.size(); c++) {
+                assertArrayEquals(dedicated.getCentroid(c), shared.getCentroid(c));
+                assertEquals(dedicated.getWeight(c), shared.getWeight(c));
+            }
+            assertFalse(pool.isShutdown());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // 聚類數不少於點數時每個點單獨成為一個質心
+        KMeansModel singletons = new KMeansEngine(5).fit(new double[]{22.3, 114.1, 22.4, 114.2}, new int[]{3, 1}, 2,
+                null, ForkJoinPool.commonPool());
+        assertEquals(2, singletons.size());
+        assertEquals(3L, singletons.getWeight(0));
+    }
+}
@@ -0,0 +1,599 @@
+package com.yc.kmeans.kmeans;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WeightedKNNClassifierTest {
+
+    /**
+     * 生成類似香港地址的聚類數據，包含同一座標的重複點與單樣本類別
+     */
+    static List<LabeledPoint> syntheticData(int size, long seed) {
+        Random random = new Random(seed);
+        List<LabeledPoint> points = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int zone = random.nextInt(30);
+            double latitude = 22.25 + (zone % 6) * 0.015 + random.nextGaussian() * 0.006;
+            double longitude = 114.10 + (zone / 6) * 0.015 + random.nextGaussian() * 0.006;
+            // Excel中的座標通常只有6到7位小數
+            latitude = Math.round(latitude * 1e7) / 1e7;
+            longitude = Math.round(longitude * 1e6) / 1e6;
+            int copies = random.nextInt(10) == 0 ? 1 + random.nextInt(5) : 1;
+            for (int c = 0; c < copies; c++) {
+                points.add(new LabeledPoint(new double[]{latitude, longitude}, "HK-Z" + zone));
+            }
+        }
+        points.add(new LabeledPoint(new double[]{22.4, 114.3}, "HK-SINGLE"));
+        return points;
+    }
+
+    static WeightedKNNClassifier trainedClassifier(List<LabeledPoint> data, int k) {
+        WeightedKNNClassifier classifier = new WeightedKNNClassifier(k);
+        classifier.train(data);
+        return classifier;
+    }
+
+    @Test
+    void quantizedStoragePredictsIdenticallyToDoubleStorage() {
+        List<LabeledPoint> data = syntheticData(3000, 42);
+        WeightedKNNClassifier reference = trainedClassifier(data, 10);
+        WeightedKNNClassifier quantized = trainedClassifier(data, 10);
+        quantized.setQuantizedStorage(true);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            double[] query = i % 4 == 0
+                    ? data.get(random.nextInt(data.size())).getFeatures()
+                    : new double[]{22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            assertEquals(reference.predict(query), quantized.predict(query));
+
+            List<Neighbour> expected = reference.findNearestNeighbours(query, 15);
+            List<Neighbour> actual = quantized.findNearestNeighbours(query, 15);
+            for (int n = 0; n < expected.size(); n++) {
+                assertEquals(expected.get(n).getDistance(), actual.get(n).getDistance());
+                assertEquals(expected.get(n).getLabel(), actual.get(n).getLabel());
+            }
+        }
+
+        // 訓練集本身仍保留雙精度座標用於精確重算，節省的只有掃描用的座標存儲：每點每維從8字節降到4字節
+        long saved = reference.estimateMemoryBytes() - quantized.estimateMemoryBytes();
+        assertEquals(4L * quantized.getTrainingDataSize() * 2, saved);
+        assertTrue(quantized.estimateMemoryBytes() < reference.estimateMemoryBytes());
+    }
+
+    @Test
+    void predictMatchesWeightedVoteOverNearestNeighbours() {
+        List<LabeledPoint> data = syntheticData(2000, 11);
+        WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+        Map<String, Double> classWeights = WeightedKNNUtils.calculateClassWeights(classifier.getLabelCounts(),
+                classifier.getMaxClassWeight());
+
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            double[] query = {22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            String expected = WeightedKNNUtils.weightedVote(classifier.findNearestNeighbours(query, 10), classWeights,
+                    classifier.getEpsilon(), classifier.getDistanceWeightFactor());
+            assertEquals(expected, classifier.predict(query[0], query[1]));
+        }
+    }
+
+    @Test
+    void collapsedDuplicatesPredictLikeRawRows() {
+        List<LabeledPoint> data = syntheticData(2000, 13);
+        WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+        assertTrue(classifier.getTrainingDataSize() < data.size());
+        assertEquals(data.size(), classifier.getSampleCount());
+
+        // 在未合併的原始行上逐一計算距離作為參照
+        Map<String, Integer> rawCounts = new HashMap<>();
+        data.forEach(point -> rawCounts.merge(point.getLabel(), 1, Integer::sum));
+        Map<String, Double> classWeights = WeightedKNNUtils.calculateClassWeights(rawCounts,
+                classifier.getMaxClassWeight());
+        Random random = new Random(17);
+        for (int i = 0; i < 500; i++) {
+            double[] query = {22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            List<Neighbour> raw = data.stream()
+                    .map(point -> new Neighbour(WeightedKNNUtils.calculateDistance(query, point.getFeatures()),
+                            point.getLabel()))
+                    .sorted(Comparator.comparingDouble(Neighbour::getDistance))
+                    .limit(10)
+                    .toList();
+            String expected = WeightedKNNUtils.weightedVote(raw, classWeights,
+                    classifier.getEpsilon(), classifier.getDistanceWeightFactor());
+            assertEquals(expected, classifier.predict(query));
+        }
+    }
+
+    @Test
+    void parallelScanMatchesSerialScan() {
+        List<LabeledPoint> data = syntheticData(60000, 23);
+        WeightedKNNClassifier serial = trainedClassifier(data, 10);
+        WeightedKNNClassifier parallel = trainedClassifier(data, 10);
+        parallel.setParallelScanThreshold(1);
+
+        Random random = new Random(29);
+        for (int i = 0; i < 300; i++) {
+            double[] query = i % 3 == 0
+                    ? data.get(random.nextInt(data.size())).getFeatures()
+                    : new double[]{22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            assertEquals(serial.predict(query), parallel.predict(query));
+            List<Neighbour> expected = serial.findNearestNeighbours(query, 25);
+            List<Neighbour> actual = parallel.findNearestNeighbours(query, 25);
+            assertEquals(expected.size(), actual.size());
+            for (int n = 0; n < expected.size(); n++) {
+                assertEquals(expected.get(n).getDistance(), actual.get(n).getDistance());
+                assertEquals(expected.get(n).getLabel(), actual.get(n).getLabel());
+            }
+        }
+    }
+
+    @Test
+    void predictBatchMatchesPredict() {
+        List<LabeledPoint> data = syntheticData(5000, 31);
+        WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+        Random random = new Random(37);
+        double[][] queries = new double[97][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = i % 3 == 0
+                    ? data.get(random.nextInt(data.size())).getFeatures()
+                    : new double[]{22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+        }
+        String[] labels = classifier.predictBatch(queries);
+        int[] labelIds = classifier.predictLabelIds(queries);
+        List<String> dictionary = classifier.getLabelDictionary();
+        for (int i = 0; i < queries.length; i++) {
+            assertEquals(classifier.predict(queries[i]), labels[i]);
+            assertEquals(labels[i], dictionary.get(labelIds[i]));
+        }
+    }
+
+    @Test
+    void dualTreeBatchMatchesIndependentQueries() {
+        List<LabeledPoint> data = syntheticData(5000, 17);
+        WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+        Random random = new Random(23);
+        double[][] queries = new double[3000][];
+        for (int q = 0; q < queries.length; q++) {
+            // 一部分查詢點與訓練點重合，覆蓋距離為0與距離相同的情況
+            queries[q] = q % 5 == 0 ? data.get(random.nextInt(data.size())).getFeatures()
+                    : new double[]{22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+        }
+        int[] dualTree = classifier.predictLabelIds(queries);
+        classifier.setDualTreeMinBatch(0);
+        assertArrayEquals(classifier.predictLabelIds(queries), dualTree);
+        for (int q = 0; q < queries.length; q++) {
+            assertEquals(classifier.predict(queries[q]), classifier.getLabelDictionary().get(dualTree[q]));
+        }
+        assertTrue(classifier.getNeighbourSearchStats().containsKey("dualTree"));
+
+        // 三維整數網格上的點有大量距離相同的最近鄰，並行遍歷的結果與按(距離, 索引)排序完全一致
+        int dimension = 3;
+        double[] coordinates = new double[4000 * dimension];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = random.nextInt(12);
+        }
+        double[][] latticeQueries = new double[500][dimension];
+        for (double[] query : latticeQueries) {
+            for (int d = 0; d < dimension; d++) {
+                query[d] = random.nextInt(24) * 0.5;
+            }
+        }
+        int count = 7;
+        DualTreeIndex.Neighbours neighbours = DualTreeIndex.build(coordinates, dimension)
+                .search(latticeQueries, count, ParallelScanPool.pool());
+        assertTrue(neighbours.distanceComputations < (long) latticeQueries.length * (coordinates.length / dimension));
+        PredictScratch workspace = new PredictScratch(dimension, 0, count);
+        for (int q = 0; q < latticeQueries.length; q++) {
+            double[] query = latticeQueries[q];
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < coordinates.length / dimension; i++) {
+                order.add(i);
+            }
+            order.sort(Comparator.<Integer>comparingDouble(i -> squaredDistance(query, coordinates, i * dimension))
+                    .thenComparingInt(i -> i));
+            neighbours.copyTo(q, workspace);
+            assertEquals(count, workspace.size);
+            for (int n = 0; n < count; n++) {
+                assertEquals((int) order.get(n), workspace.bestIndices[n]);
+                assertEquals(Math.sqrt(squaredDistance(query, coordinates, order.get(n) * dimension)),
+                        workspace.bestDistances[n]);
+            }
+        }
+    }
+
+    private static double squaredDistance(double[] query, double[] coordinates, int offset) {
+        double sum = 0.0;
+        for (int d = 0; d < query.length; d++) {
+            double diff = query[d] - coordinates[offset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Test
+    void gridEngineWithVoteMarginMatchesBruteForce() {
+        List<LabeledPoint> data = syntheticData(5000, 43);
+        WeightedKNNClassifier reference = trainedClassifier(data, 10);
+        WeightedKNNClassifier grid = trainedClassifier(data, 10);
+        grid.setNeighbourEngine(WeightedKNNClassifier.NeighbourEngine.GRID);
+
+        Random random = new Random(47);
+        for (int i = 0; i < 3000; i++) {
+            double[] query = i % 4 == 0
+                    ? data.get(random.nextInt(data.size())).getFeatures()
+                    // 包括訓練數據外接矩形之外的查詢點
+                    : new double[]{22.20 + random.nextDouble() * 0.20, 114.05 + random.nextDouble() * 0.18};
+            assertEquals(reference.predict(query), grid.predict(query));
+            assertEquals(reference.findNearestNeighbours(query, 15).toString(), grid.findNearestNeighbours(query, 15).toString());
+        }
+
+        Map<String, Object> stats = grid.getNeighbourSearchStats();
+        assertEquals(3000L, stats.get("searches"));
+        assertTrue((Long) stats.get("earlyTerminations") > 0);
+        assertTrue((Long) stats.get("skippedCandidates") > 0);
+    }
+
+    @Test
+    void engineSelectionPicksAnAgreeingEngineWithinBudget() {
+        List<LabeledPoint> data = syntheticData(20000, 53);
+        WeightedKNNClassifier reference = trainedClassifier(data, 10);
+        WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+
+        NeighbourEngineSelector.Selection selection = classifier.selectNeighbourEngine(500, Long.MAX_VALUE);
+        assertEquals(3, selection.candidates().size());
+        assertTrue(selection.candidates().stream().allMatch(NeighbourEngineSelector.Candidate::agreesWithBruteForce));
+        NeighbourEngineSelector.Candidate chosen = selection.candidates().stream()
+                .filter(candidate -> candidate.name().equals(selection.chosen())).findFirst().orElseThrow();
+        assertEquals(chosen.engine(), classifier.getNeighbourEngine());
+        assertEquals(chosen.quantizedStorage(), classifier.isQuantizedStorage());
+        assertTrue(selection.candidates().stream().allMatch(candidate -> chosen.p99Micros() <= candidate.p99Micros()));
+
+        // 預算只夠量化存儲時不能選擇雙精度座標
+        long quantizedBytes = selection.candidates().stream()
+                .filter(NeighbourEngineSelector.Candidate::quantizedStorage).findFirst().orElseThrow().memoryBytes();
+        assertEquals("brute-force-quantized", classifier.selectNeighbourEngine(200, quantizedBytes).chosen());
+
+        Random random = new Random(59);
+        for (int i = 0; i < 500; i++) {
+            double[] query = {22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            assertEquals(reference.predict(query), classifier.predict(query));
+        }
+    }
+
+    @Test
+    void evaluationReportsProgressAndStopsWhenCancelled() {
+        WeightedKNNClassifier classifier = trainedClassifier(syntheticData(3000, 61), 10);
+
+        EvaluationProgress progress = new EvaluationProgress();
+        EvaluationResult result = classifier.evaluateModel(3, 200, progress);
+        assertEquals(3, progress.getFoldsCompleted());
+        assertEquals(600, progress.getTotalSamples());
+        assertEquals(600, progress.getSamplesProcessed());
+        assertSame(result, classifier.getLastEvaluation());
+
+        EvaluationProgress cancelled = new EvaluationProgress();
+        cancelled.cancel();
+        assertThrows(CancellationException.class, () -> classifier.evaluateModel(3, 200, cancelled));
+        assertEquals(0, cancelled.getSamplesProcessed());
+    }
+
+    @Test
+    void sequentialEvaluationStopsOnceIntervalsAreNarrowEnough() {
+        WeightedKNNClassifier classifier = trainedClassifier(syntheticData(3000, 71), 10);
+        int size = classifier.getTrainingDataSize();
+
+        SequentialEvaluationResult early = classifier.evaluateSequentially(3, 0.5, 0, 100, new EvaluationProgress());
+        assertEquals(SequentialEvaluationResult.StopReason.TARGET_REACHED, early.getStopReason());
+        assertEquals(SequentialEvaluator.MIN_SAMPLES, early.getSamplesUsed());
+        assertEquals(size, early.getFullEvaluationSamples());
+        assertTrue(early.getAccuracyLower() <= early.getAccuracy() && early.getAccuracy() <= early.getAccuracyUpper());
+        assertTrue(early.getAccuracyUpper() - early.getAccuracyLower() <= 0.5);
+        assertTrue(early.getF1Upper() - early.getF1Lower() <= 0.5);
+        assertSame(early, classifier.getLastEvaluation());
+
+        EvaluationProgress progress = new EvaluationProgress();
+        SequentialEvaluationResult full = classifier.evaluateSequentially(3, 0.0, 0, 256, progress);
+        assertEquals(SequentialEvaluationResult.StopReason.EXHAUSTED, full.getStopReason());
+        assertEquals(size, full.getSamplesUsed());
+        assertEquals(3, progress.getFoldsCompleted());
+        assertEquals(size, progress.getSamplesProcessed());
+        assertTrue(full.getF1Lower() <= full.getF1Score() && full.getF1Score() <= full.getF1Upper());
+        assertTrue(full.getAccuracyUpper() - full.getAccuracyLower()
+                < early.getAccuracyUpper() - early.getAccuracyLower());
+    }
+
+    @Test
+    void adjustingACopyLeavesTheServingModelUntouched() {
+        List<LabeledPoint> data = syntheticData(3000, 83);
+        WeightedKNNClassifier serving = trainedClassifier(data, 10);
+        WeightedKNNClassifier expectedAdjusted = trainedClassifier(data, 10);
+        expectedAdjusted.setUseClassWeights(false);
+        expectedAdjusted.setQuantizedStorage(true);
+
+        Map<String, Double> weightsBefore = Map.copyOf(serving.getClassWeights());
+        WeightedKNNClassifier adjusted = serving.copy();
+        adjusted.setUseClassWeights(false);
+        adjusted.setQuantizedStorage(true);
+
+        assertTrue(serving.isUseClassWeights());
+        assertFalse(serving.isQuantizedStoreActive());
+        assertTrue(adjusted.isQuantizedStoreActive());
+        assertEquals(weightsBefore, serving.getClassWeights());
+        assertEquals(serving.getTrainingDataSize(), adjusted.getTrainingDataSize());
+
+        WeightedKNNClassifier reference = trainedClassifier(data, 10);
+        Random random = new Random(89);
+        for (int i = 0; i < 1000; i++) {
+            double[] query = {22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            assertEquals(reference.predict(query), serving.predict(query));
+            assertEquals(expectedAdjusted.predict(query), adjusted.predict(query));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void switchingEngineOnACopyLeavesTheServingModelUntouched() {
+        List<LabeledPoint> data = syntheticData(3000, 97);
+        WeightedKNNClassifier serving = trainedClassifier(data, 10);
+        WeightedKNNClassifier adjusted = serving.copy();
+        adjusted.setNeighbourEngine(WeightedKNNClassifier.NeighbourEngine.GRID);
+
+        assertEquals(WeightedKNNClassifier.NeighbourEngine.BRUTE_FORCE, serving.getNeighbourEngine());
+        assertEquals(WeightedKNNClassifier.NeighbourEngine.GRID, adjusted.getNeighbourEngine());
+        assertTrue(((Map<String, Object>) adjusted.getMemoryFootprint().get("structures")).containsKey("gridIndex"));
+        assertFalse(((Map<String, Object>) serving.getMemoryFootprint().get("structures")).containsKey("gridIndex"));
+
+        // 網格引擎與暴力掃描結果一致，切換前後兩個模型的預測都不變
+        Random random = new Random(101);
+        for (int i = 0; i < 1000; i++) {
+            double[] query = {22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            assertEquals(serving.predict(query), adjusted.predict(query));
+        }
+        assertFalse(((Map<String, Object>) serving.getMemoryFootprint().get("structures")).containsKey("gridIndex"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void memoryFootprintAddsUpToEstimate() {
+        WeightedKNNClassifier classifier = trainedClassifier(syntheticData(5000, 67), 10);
+        classifier.setNeighbourEngine(WeightedKNNClassifier.NeighbourEngine.GRID);
+        classifier.getZonePolygonIndex();
+
+        Map<String, Object> footprint = classifier.getMemoryFootprint();
+        Map<String, Object> structures = (Map<String, Object>) footprint.get("structures");
+        long total = structures.values().stream().mapToLong(bytes -> (Long) bytes).sum();
+        assertEquals(classifier.estimateMemoryBytes(), total);
+        assertEquals(total, footprint.get("onHeapBytes"));
+        assertEquals(classifier.getLabelDictionary().size(), footprint.get("labelDictionarySize"));
+
+        Map<String, Object> indexes = (Map<String, Object>) footprint.get("indexes");
+        Map<String, Object> grid = (Map<String, Object>) indexes.get("grid");
+        assertTrue((Integer) grid.get("occupiedCells") <= (Integer) grid.get("cells"));
+        Map<String, Object> zones = (Map<String, Object>) indexes.get("zonePolygons");
+        assertEquals(classifier.getZonePolygonIndex().getPolygons().size(), zones.get("polygons"));
+        assertTrue((Integer) zones.get("maxFanOut") <= (Integer) zones.get("nodeCapacity"));
+        assertTrue(footprint.containsKey("trainHeap"));
+    }
+
+    @Test
+    void rangeQueriesMatchLinearScan() {
+        List<LabeledPoint> data = syntheticData(20000, 71);
+        WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+        List<LabeledPoint> points = classifier.getTrainingData();
+        Random random = new Random(73);
+        for (int q = 0; q < 50; q++) {
+            double[] center = {22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            double radius = random.nextDouble() * 0.01;
+            double[] min = {center[0] - radius, center[1] - radius};
+            double[] max = {center[0] + radius, center[1] + radius};
+            String label = q % 2 == 0 ? null : points.get(random.nextInt(points.size())).getLabel();
+
+            List<LabeledPoint> expectedBox = new ArrayList<>();
+            List<Double> expectedDistances = new ArrayList<>();
+            for (LabeledPoint point : points) {
+                double[] features = point.getFeatures();
+                if (label != null && !label.equals(point.getLabel())) {
+                    continue;
+                }
+                if (Math.abs(features[0] - center[0]) <= radius && Math.abs(features[1] - center[1]) <= radius) {
+                    expectedBox.add(point);
+                }
+                double distance = WeightedKNNUtils.calculateDistance(center, features);
+                if (distance <= radius) {
+                    expectedDistances.add(distance);
+                }
+            }
+            expectedDistances.sort(Comparator.naturalOrder());
+
+            List<RangeMatch> box = classifier.findWithinBox(min, max, label, 0, Integer.MAX_VALUE);
+            assertEquals(expectedBox.size(), box.size());
+            assertTrue(box.stream().allMatch(match -> expectedBox.contains(match.point())));
+
+            List<RangeMatch> radiusMatches = classifier.findWithinRadius(center, radius, label, 0, Integer.MAX_VALUE);
+            assertEquals(expectedDistances, radiusMatches.stream().map(RangeMatch::distance).toList());
+
+            // 分頁拼接的結果與一次查詢相同
+            List<RangeMatch> paged = new ArrayList<>(classifier.findWithinRadius(center, radius, label, 0, 3));
+            paged.addAll(classifier.findWithinRadius(center, radius, label, 3, Integer.MAX_VALUE));
+            assertEquals(radiusMatches, paged);
+            List<RangeMatch> boxPaged = new ArrayList<>(classifier.findWithinBox(min, max, label, 0, 3));
+            boxPaged.addAll(classifier.findWithinBox(min, max, label, 3, Integer.MAX_VALUE));
+            assertEquals(box, boxPaged);
+        }
+    }
+
+    @Test
+    void hilbertOrderingKeepsPredictionsAndImprovesLocality() {
+        List<LabeledPoint> data = syntheticData(20000, 79);
+        WeightedKNNClassifier ordered = trainedClassifier(data, 10);
+        WeightedKNNClassifier insertionOrder = new WeightedKNNClassifier(10);
+        insertionOrder.setSpatialOrdering(false);
+        insertionOrder.train(data);
+
+        List<LabeledPoint> orderedPoints = ordered.getTrainingData();
+        List<LabeledPoint> originalPoints = insertionOrder.getTrainingData();
+        assertEquals(originalPoints.size(), orderedPoints.size());
+        // 合併重複點時會創建新對象，按座標、標籤與重複次數比較
+        Comparator<LabeledPoint> byContent = Comparator.<LabeledPoint>comparingDouble(point -> point.getFeatures()[0])
+                .thenComparingDouble(point -> point.getFeatures()[1])
+                .thenComparing(LabeledPoint::getLabel)
+                .thenComparingInt(LabeledPoint::getMultiplicity);
+        List<LabeledPoint> orderedSorted = new ArrayList<>(orderedPoints);
+        List<LabeledPoint> originalSorted = new ArrayList<>(originalPoints);
+        orderedSorted.sort(byContent);
+        originalSorted.sort(byContent);
+        for (int i = 0; i < orderedSorted.size(); i++) {
+            assertEquals(0, byContent.compare(originalSorted.get(i), orderedSorted.get(i)));
+        }
+        assertTrue(consecutiveDistance(orderedPoints) * 20 < consecutiveDistance(originalPoints));
+
+        Random random = new Random(83);
+        for (int i = 0; i < 1000; i++) {
+            double[] query = {22.23 + random.nextDouble() * 0.13, 114.08 + random.nextDouble() * 0.11};
+            assertEquals(insertionOrder.predict(query), ordered.predict(query));
+        }
+    }
+
+    private static double consecutiveDistance(List<LabeledPoint> points) {
+        double total = 0.0;
+        for (int i = 1; i < points.size(); i++) {
+            total += WeightedKNNUtils.calculateDistance(points.get(i - 1).getFeatures(), points.get(i).getFeatures());
+        }
+        return total;
+    }
+
+    @Test
+    void steadyStatePredictDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<LabeledPoint> data = syntheticData(2000, 5);
+        for (boolean quantized : new boolean[]{false, true}) {
+            WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+            classifier.setQuantizedStorage(quantized);
+            double[] latitudes = new double[1024];
+            double[] longitudes = new double[1024];
+            Random random = new Random(9);
+            for (int i = 0; i < latitudes.length; i++) {
+                latitudes[i] = 22.23 + random.nextDouble() * 0.13;
+                longitudes[i] = 114.08 + random.nextDouble() * 0.11;
+            }
+            // 預熱：讓JIT完成編譯，並讓量化候選緩衝區擴容到穩定大小
+            for (int i = 0; i < 20000; i++) {
+                classifier.predict(latitudes[i & 1023], longitudes[i & 1023]);
+            }
+
+            long before = threadBean.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 10000; i++) {
+                classifier.predict(latitudes[i & 1023], longitudes[i & 1023]);
+            }
+            long allocated = threadBean.getCurrentThreadAllocatedBytes() - before;
+            assertTrue(allocated < 1024, "穩定狀態下預測不應分配內存，實際分配 " + allocated + " 字節");
+        }
+    }
+
+    @Test
+    void flightRecorderEventsDescribeTrainingAndPrediction() throws IOException {
+        List<LabeledPoint> data = syntheticData(2000, 13);
+        Path file = Files.createTempFile("knn-classifier", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.yc.kmeans.Training");
+            recording.enable("com.yc.kmeans.IndexBuild");
+            recording.enable("com.yc.kmeans.Prediction").withThreshold(Duration.ZERO);
+            recording.start();
+            WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+            classifier.setNeighbourEngine(WeightedKNNClassifier.NeighbourEngine.GRID);
+            classifier.predict(22.3, 114.15);
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            RecordedEvent training = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("com.yc.kmeans.Training")).findFirst().orElseThrow();
+            assertEquals(data.size(), training.getLong("samples"));
+            assertEquals(classifier.getTrainingDataSize(), training.getInt("points"));
+            assertEquals(31, training.getInt("labels"));
+
+            assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("com.yc.kmeans.IndexBuild")
+                    && "grid".equals(e.getString("engine")) && e.getInt("nodes") > 0));
+
+            RecordedEvent prediction = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("com.yc.kmeans.Prediction")).findFirst().orElseThrow();
+            assertEquals("grid", prediction.getString("engine"));
+            assertEquals(10, prediction.getInt("k"));
+            assertEquals(1, prediction.getInt("queries"));
+            // 網格索引只計算查詢點附近單元中的點
+            long scanned = prediction.getLong("pointsScanned");
+            assertTrue(scanned >= 10 && scanned < classifier.getTrainingDataSize());
+            assertTrue(prediction.getInt("nodesVisited") > 0);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void trainingSetReductionKeepsEveryLabel() {
+        List<LabeledPoint> data = syntheticData(3000, 11);
+        WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+        for (TrainingSetReducer.Method method : TrainingSetReducer.Method.values()) {
+            List<LabeledPoint> reduced = TrainingSetReducer.reduce(data, classifier, method);
+            assertTrue(reduced.size() < data.size());
+            WeightedKNNClassifier reducedClassifier = trainedClassifier(reduced, 10);
+            // 單樣本類別在編輯後仍然存在，查詢其座標仍能得到該類別
+            assertEquals(classifier.getLabelCounts().keySet(), reducedClassifier.getLabelCounts().keySet());
+            assertEquals("HK-SINGLE", reducedClassifier.predict(new double[]{22.4, 114.3}));
+        }
+    }
+
+    @Test
+    void zonePolygonsAnswerPointsInsideExactlyOneZone() {
+        List<LabeledPoint> data = new ArrayList<>();
+        Random random = new Random(21);
+        for (int i = 0; i < 200; i++) {
+            data.add(new LabeledPoint(new double[]{22.30 + random.nextDouble() * 0.01, 114.10 + random.nextDouble() * 0.01}, "HK-A"));
+            data.add(new LabeledPoint(new double[]{22.30 + random.nextDouble() * 0.01, 114.12 + random.nextDouble() * 0.01}, "HK-B"));
+        }
+        data.add(new LabeledPoint(new double[]{22.35, 114.15}, "HK-SINGLE"));
+        WeightedKNNClassifier classifier = trainedClassifier(data, 10);
+
+        ZonePolygonIndex index = classifier.getZonePolygonIndex();
+        // 單個點無法構成多邊形
+        assertEquals(2, index.getPolygons().size());
+        assertEquals("HK-A", index.locate(22.305, 114.105));
+        assertEquals("HK-B", index.locate(22.305, 114.125));
+        assertNull(index.locate(22.305, 114.115));
+        // 多邊形之外退回k最近鄰
+        assertEquals(classifier.predict(22.35, 114.15), classifier.predictWithZonePolygons(22.35, 114.15));
+
+        Map<String, Object> geoJson = index.toGeoJson();
+        List<?> features = (List<?>) geoJson.get("features");
+        assertEquals(2, features.size());
+        Map<?, ?> geometry = (Map<?, ?>) ((Map<?, ?>) features.get(0)).get("geometry");
+        List<?> ring = (List<?>) ((List<?>) geometry.get("coordinates")).get(0);
+        double[] first = (double[]) ring.get(0);
+        // GeoJSON 座標順序為 [經度, 緯度]，外環首尾相同
+        assertTrue(first[0] > 114 && first[1] < 23);
+        assertArrayEquals(first, (double[]) ring.get(ring.size() - 1));
+    }
+}
@@ -0,0 +1,252 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.LabeledPoint;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import com.yc.kmeans.tools.BinaryClassifierClient;
+import com.yc.kmeans.tools.BinaryProtocol;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryClassifierServerTest {
+    private static final int MAX_POINTS_PER_FRAME = 16;
+
+    private static WeightedKNNClassifier trainedClassifier() {
+        Random random = new Random(3);
+        List<LabeledPoint> points = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double latitude = 22.2 + random.nextDouble() * 0.2;
+            double longitude = 114.0 + random.nextDouble() * 0.2;
+            String zone = (latitude < 22.3 ? "HK" : "KLN") + "-" + (longitude < 114.1 ? "W" : "E");
+            points.add(new LabeledPoint(new double[]{latitude, longitude}, zone));
+        }
+        WeightedKNNClassifier classifier = new WeightedKNNClassifier(5);
+        classifier.train(points);
+        return classifier;
+    }
+
+    private static Bulkheads bulkheads(int classificationThreads, int classificationQueueCapacity) {
+        Bulkheads bulkheads = new Bulkheads();
+        ReflectionTestUtils.setField(bulkheads, "classificationThreads", classificationThreads);
+        ReflectionTestUtils.setField(bulkheads, "classificationQueueCapacity", classificationQueueCapacity);
+        ReflectionTestUtils.setField(bulkheads, "retryAfterSeconds", 1L);
+        bulkheads.init();
+        return bulkheads;
+    }
+
+    private static BinaryClassifierServer server(WeightedKNNClassifier classifier, int maxConnections,
+                                                 int readTimeoutMs) throws IOException {
+        return server(classifier, maxConnections, readTimeoutMs, bulkheads(2, 16));
+    }
+
+    private static BinaryClassifierServer server(WeightedKNNClassifier classifier, int maxConnections,
+                                                 int readTimeoutMs, Bulkheads bulkheads) throws IOException {
+        ClassifierService classifierService = new ClassifierService(null, null, null);
+        ReflectionTestUtils.setField(classifierService, "classifier", classifier);
+        BinaryClassifierServer server = new BinaryClassifierServer(classifierService, bulkheads);
+        ReflectionTestUtils.setField(server, "enabled", true);
+        ReflectionTestUtils.setField(server, "port", 0);
+        ReflectionTestUtils.setField(server, "maxPointsPerFrame", MAX_POINTS_PER_FRAME);
+        ReflectionTestUtils.setField(server, "maxConnections", maxConnections);
+        ReflectionTestUtils.setField(server, "readTimeoutMs", readTimeoutMs);
+        server.start();
+        return server;
+    }
+
+    private static int port(BinaryClassifierServer server) {
+        return (Integer) server.getStatus().get("port");
+    }
+
+    private static Socket rawSocket(BinaryClassifierServer server) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("localhost", port(server)), 5000);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    /**
+     * 讀取一個ERROR幀，返回其請求編號，並檢查服務端隨後關閉了連接
+     */
+    private static long readErrorAndClose(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        assertEquals(BinaryProtocol.ERROR, in.readByte());
+        long requestId = in.readLong();
+        String message = in.readUTF();
+        assertEquals(length, 1 + Long.BYTES + 2 + message.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(-1, in.read());
+        return requestId;
+    }
+
+    @Test
+    void classifiesOverTheWireLikeDirectPrediction() throws IOException {
+        WeightedKNNClassifier classifier = trainedClassifier();
+        BinaryClassifierServer server = server(classifier, 4, 5000);
+        try (BinaryClassifierClient client = BinaryClassifierClient.connect("localhost", port(server))) {
+            assertEquals(classifier.getLabelDictionary(), client.getLabels());
+            Random random = new Random(5);
+            for (int frame = 0; frame < 20; frame++) {
+                double[][] points = new double[1 + random.nextInt(MAX_POINTS_PER_FRAME)][];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = new double[]{22.2 + random.nextDouble() * 0.2, 114.0 + random.nextDouble() * 0.2};
+                }
+                String[] labels = client.classify(points);
+                for (int i = 0; i < points.length; i++) {
+                    assertEquals(classifier.predict(points[i]), labels[i]);
+                }
+            }
+        } finally {
+            server.shutdown();
+        }
+        assertEquals(20L, server.getStatus().get("frames"));
+    }
+
+    @Test
+    void invalidFramesGetAnErrorAndTheConnectionIsClosed() throws IOException {
+        BinaryClassifierServer server = server(trainedClassifier(), 4, 5000);
+        try {
+            // 魔數錯誤
+            try (Socket socket = rawSocket(server)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(1 + Integer.BYTES);
+                out.writeByte(BinaryProtocol.HELLO);
+                out.writeInt(0x12345678);
+                out.flush();
+                assertEquals(-1L, readErrorAndClose(new DataInputStream(socket.getInputStream())));
+            }
+
+            // 點數超過每幀上限
+            try (Socket socket = rawSocket(server)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                BinaryProtocol.writeHello(out);
+                out.flush();
+                in.readInt();
+                assertEquals(BinaryProtocol.DICTIONARY, in.readByte());
+                in.readInt();
+                BinaryProtocol.readDictionaryLabels(in);
+                BinaryProtocol.writeClassify(out, 77L, fill(MAX_POINTS_PER_FRAME + 1));
+                out.flush();
+                assertEquals(77L, readErrorAndClose(in));
+            }
+
+            // 長度字段與點數不一致
+            try (Socket socket = rawSocket(server)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(1 + Long.BYTES + Integer.BYTES + 2 * Double.BYTES);
+                out.writeByte(BinaryProtocol.CLASSIFY);
+                out.writeLong(78L);
+                out.writeInt(3);
+                out.writeDouble(22.3);
+                out.writeDouble(114.1);
+                out.flush();
+                assertEquals(78L, readErrorAndClose(new DataInputStream(socket.getInputStream())));
+            }
+
+            // 未知的幀類型
+            try (Socket socket = rawSocket(server)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(1);
+                out.writeByte(99);
+                out.flush();
+                assertEquals(-1L, readErrorAndClose(new DataInputStream(socket.getInputStream())));
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static double[][] fill(int count) {
+        double[][] points = new double[count][];
+        for (int i = 0; i < count; i++) {
+            points[i] = new double[]{22.3, 114.1};
+        }
+        return points;
+    }
+
+    @Test
+    void refusesConnectionsOverTheLimitAndClosesIdleOnes() throws Exception {
+        BinaryClassifierServer server = server(trainedClassifier(), 1, 300);
+        try {
+            try (BinaryClassifierClient client = BinaryClassifierClient.connect("localhost", port(server))) {
+                assertEquals(1, client.classify(fill(1)).length);
+                assertThrows(IOException.class, () -> BinaryClassifierClient.connect("localhost", port(server)));
+                assertEquals(1L, server.getStatus().get("refusedConnections"));
+            }
+
+            // 空閒超過讀取超時的連接被服務端直接關閉；被拒絕的連接會先收到ERROR幀，
+            // 上一個連接的許可在服務端處理完關閉後才釋放，因此可能需要重試
+            long idleMillis = -1;
+            for (int attempt = 0; attempt < 50 && idleMillis < 0; attempt++) {
+                try (Socket socket = rawSocket(server)) {
+                    long start = System.nanoTime();
+                    if (socket.getInputStream().read() == -1) {
+                        idleMillis = (System.nanoTime() - start) / 1_000_000;
+                    } else {
+                        Thread.sleep(20);
+                    }
+                }
+            }
+            assertTrue(idleMillis >= 250, "空閒連接應在讀取超時後關閉: " + idleMillis);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    void framesAreRejectedWithARetryHintWhileTheClassificationBulkheadIsFull() throws Exception {
+        Bulkheads bulkheads = bulkheads(1, 1);
+        BinaryClassifierServer server = server(trainedClassifier(), 4, 5000, bulkheads);
+        CountDownLatch release = new CountDownLatch(1);
+        try (BinaryClassifierClient client = BinaryClassifierClient.connect("localhost", port(server))) {
+            // 一個任務佔住唯一的線程，另一個佔滿隊列
+            CountDownLatch running = new CountDownLatch(1);
+            Bulkhead classification = bulkheads.getClassification();
+            classification.execute(() -> {
+                running.countDown();
+                await(release);
+            });
+            running.await();
+            classification.execute(() -> await(release));
+
+            IOException rejected = assertThrows(IOException.class, () -> client.classify(fill(2)));
+            assertTrue(rejected.getMessage().contains("重試"), rejected.getMessage());
+            assertEquals(1L, server.getStatus().get("rejectedFrames"));
+            assertEquals(0L, server.getStatus().get("frames"));
+
+            // 艙壁恢復後同一個連接可以繼續分類
+            release.countDown();
+            while ((Integer) classification.getStatus().get("queued") > 0) {
+                Thread.sleep(5);
+            }
+            assertEquals(2, client.classify(fill(2)).length);
+            assertEquals(1L, server.getStatus().get("frames"));
+        } finally {
+            release.countDown();
+            server.shutdown();
+            bulkheads.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.yc.kmeans.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkheadTest {
+
+    /**
+     * 佔滿艙壁的線程與隊列，返回釋放阻塞任務的閂鎖
+     */
+    private static CountDownLatch fill(Bulkhead bulkhead, int threads, int queueCapacity) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(threads);
+        for (int i = 0; i < threads + queueCapacity; i++) {
+            bulkhead.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    @Test
+    void rejectsImmediatelyAtCapacityWithRetryAfter() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("admin", 1, 2, 3);
+        CountDownLatch release = fill(bulkhead, 1, 2);
+
+        BulkheadFullException e = assertThrows(BulkheadFullException.class, () -> bulkhead.submit(() -> "late"));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+        assertEquals("3", e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(1L, bulkhead.getStatus().get("rejected"));
+        assertEquals(3L, bulkhead.getStatus().get("accepted"));
+
+        // 隊列騰出後重新接受任務
+        release.countDown();
+        CompletableFuture<String> future = null;
+        for (int attempt = 0; attempt < 100 && future == null; attempt++) {
+            try {
+                future = bulkhead.submit(() -> "accepted");
+            } catch (BulkheadFullException full) {
+                Thread.sleep(10);
+            }
+        }
+        assertEquals("accepted", future.get(5, TimeUnit.SECONDS));
+        bulkhead.shutdown();
+    }
+
+    @Test
+    void classificationStaysAvailableWhileAdminIsFull() throws Exception {
+        Bulkheads bulkheads = new Bulkheads();
+        ReflectionTestUtils.setField(bulkheads, "classificationThreads", 2);
+        ReflectionTestUtils.setField(bulkheads, "classificationQueueCapacity", 10);
+        ReflectionTestUtils.setField(bulkheads, "adminThreads", 1);
+        ReflectionTestUtils.setField(bulkheads, "adminQueueCapacity", 1);
+        bulkheads.init();
+        CountDownLatch release = fill(bulkheads.getAdmin(), 1, 1);
+
+        assertThrows(BulkheadFullException.class, () -> bulkheads.getAdmin().submit(() -> "adjust"));
+        for (int i = 0; i < 20; i++) {
+            int query = i;
+            assertEquals("zone-" + query, bulkheads.getClassification().submit(() -> "zone-" + query)
+                    .get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0L, bulkheads.getClassification().getStatus().get("rejected"));
+
+        release.countDown();
+        bulkheads.shutdown();
+    }
+
+    @Test
+    void errorsCompleteTheFutureExceptionally() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("evaluation", 1, 4, 1);
+        CompletableFuture<String> future = bulkhead.submit(() -> {
+            throw new OutOfMemoryError("模擬內存不足");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(OutOfMemoryError.class, e.getCause());
+
+        // 拋出Error的線程被替換後艙壁仍可繼續處理任務
+        assertEquals("next", bulkhead.submit(() -> "next").get(5, TimeUnit.SECONDS));
+        assertEquals(1L, bulkhead.getStatus().get("failed"));
+        bulkhead.shutdown();
+    }
+}
@@ -0,0 +1,84 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.LabeledPoint;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassifierServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private static List<LabeledPoint> data() {
+        Random random = new Random(23);
+        List<LabeledPoint> points = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            double latitude = 22.2 + random.nextDouble() * 0.2;
+            double longitude = 114.0 + random.nextDouble() * 0.2;
+            points.add(new LabeledPoint(new double[]{latitude, longitude}, latitude < 22.3 ? "HK" : "KLN"));
+        }
+        return points;
+    }
+
+    private ModelParameterStore store;
+
+    private ClassifierService service(WeightedKNNClassifier classifier) {
+        store = new ModelParameterStore();
+        ReflectionTestUtils.setField(store, "parametersPath", directory.resolve("model.ser.params").toString());
+        ReflectionTestUtils.setField(store, "coalesceMillis", 0L);
+        store.init();
+        ClassifierService service = new ClassifierService(null, store, null);
+        ReflectionTestUtils.setField(service, "modelFilePath", directory.resolve("model.ser").toString());
+        ReflectionTestUtils.setField(service, "classifier", classifier);
+        ReflectionTestUtils.setField(service, "readinessState", ReadinessState.ACCEPTING_TRAFFIC);
+        return service;
+    }
+
+    @Test
+    void replaceRetrainsWithChangesAndSavesTheModel() throws Exception {
+        WeightedKNNClassifier current = new WeightedKNNClassifier(5);
+        current.train(data());
+        ClassifierService service = service(current);
+
+        List<LabeledPoint> reduced = data().subList(0, 200);
+        WeightedKNNClassifier replaced = service.replace(current, candidate -> candidate.setK(3), reduced, "測試");
+        assertSame(replaced, service.getClassifier());
+        assertEquals(3, replaced.getK());
+        assertEquals(200, replaced.getSampleCount());
+        assertEquals(5, current.getK());
+        assertTrue(Files.exists(directory.resolve("model.ser")));
+        store.shutdown();
+    }
+
+    @Test
+    void replaceRejectsABasisThatIsNoLongerServed() throws Exception {
+        WeightedKNNClassifier current = new WeightedKNNClassifier(5);
+        current.train(data());
+        ClassifierService service = service(current);
+
+        // 計算期間有一次參數調整，基於舊模型的替換不能覆蓋它
+        WeightedKNNClassifier adjusted = service.adjust(classifier -> classifier.setDistanceWeightFactor(4.0));
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> service.replace(current, candidate -> candidate.setK(3), data(), "測試"));
+        assertEquals(HttpStatus.CONFLICT, e.getStatusCode());
+        assertSame(adjusted, service.getClassifier());
+        assertEquals(4.0, service.getClassifier().getDistanceWeightFactor());
+        store.shutdown();
+    }
+}
@@ -0,0 +1,104 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.EvaluationResult;
+import com.yc.kmeans.kmeans.LabeledPoint;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EvaluationJobServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private static WeightedKNNClassifier trainedClassifier() {
+        Random random = new Random(7);
+        List<LabeledPoint> points = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            double latitude = 22.2 + random.nextDouble() * 0.2;
+            double longitude = 114.0 + random.nextDouble() * 0.2;
+            points.add(new LabeledPoint(new double[]{latitude, longitude}, latitude < 22.3 ? "HK" : "KLN"));
+        }
+        WeightedKNNClassifier classifier = new WeightedKNNClassifier(5);
+        classifier.train(points);
+        return classifier;
+    }
+
+    private EvaluationJobService service(WeightedKNNClassifier classifier, ModelParameterStore store,
+                                         ModelRegistry registry) {
+        ClassifierService classifierService = new ClassifierService(null, store, null);
+        ReflectionTestUtils.setField(classifierService, "classifier", classifier);
+        ReflectionTestUtils.setField(classifierService, "modelFilePath", directory.resolve("model.ser").toString());
+        Bulkheads bulkheads = new Bulkheads();
+        bulkheads.init();
+        EvaluationJobService service = new EvaluationJobService(classifierService, registry, bulkheads, store);
+        ReflectionTestUtils.setField(service, "retainedJobs", 20);
+        return service;
+    }
+
+    private ModelRegistry registry(ModelParameterStore store) {
+        ModelRegistry registry = new ModelRegistry(store);
+        ReflectionTestUtils.setField(registry, "directory", directory.resolve("models").toString());
+        ReflectionTestUtils.setField(registry, "memoryBudgetMb", 512L);
+        return registry;
+    }
+
+    @Test
+    void completedEvaluationIsSavedNextToTheModelAndRestoredOnLoad() throws Exception {
+        ModelParameterStore store = new ModelParameterStore();
+        WeightedKNNClassifier classifier = trainedClassifier();
+        EvaluationJobService service = service(classifier, store, registry(store));
+
+        EvaluationResult result = service.submit(null, 3, 50).getCompletion().get(30, TimeUnit.SECONDS);
+        String modelPath = directory.resolve("model.ser").toString();
+        assertTrue(new File(modelPath + ModelParameterStore.EVALUATION_SUFFIX).exists());
+        assertEquals(result.getAccuracy(), store.loadEvaluation(modelPath).getAccuracy());
+        assertEquals(result.getClassCounts(), store.loadEvaluation(modelPath).getClassCounts());
+
+        // 註冊表中的模型：評估結果寫入該版本的模型文件旁，重新載入時恢復
+        File modelDirectory = directory.resolve("models").resolve("hk").toFile();
+        modelDirectory.mkdirs();
+        trainedClassifier().saveModel(new File(modelDirectory, "1.ser").getPath());
+        EvaluationResult registryResult = service.submit("hk:1", 3, 50).getCompletion().get(30, TimeUnit.SECONDS);
+        WeightedKNNClassifier reloaded = registry(store).getModel("hk:1");
+        assertEquals(registryResult.getAccuracy(), reloaded.getLastEvaluation().getAccuracy());
+
+        // 重新訓練保存的模型不再使用舊的評估結果
+        store.deleteEvaluation(modelPath);
+        assertNull(store.loadEvaluation(modelPath));
+    }
+
+    @Test
+    void failedEvaluationCompletesWithItsCause() {
+        ModelParameterStore store = new ModelParameterStore();
+        EvaluationJobService service = service(new WeightedKNNClassifier(5), store, registry(store));
+
+        EvaluationJobService.EvaluationJob job = service.submit(null, 3, 50);
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> job.getCompletion().get(30, TimeUnit.SECONDS));
+        ResponseStatusException failure = assertInstanceOf(ResponseStatusException.class, e.getCause());
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, failure.getStatusCode());
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+        assertEquals(EvaluationJobService.Status.FAILED, job.getStatus());
+        assertEquals("分類器尚未訓練", job.toStatus().get("error"));
+        assertFalse(new File(directory.resolve("model.ser") + ModelParameterStore.EVALUATION_SUFFIX).exists());
+    }
+}
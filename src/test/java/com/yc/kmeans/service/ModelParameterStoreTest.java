@@ -0,0 +1,80 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.LabeledPoint;
+import com.yc.kmeans.kmeans.ModelParameters;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ModelParameterStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private ModelParameterStore store(long coalesceMillis) {
+        ModelParameterStore store = new ModelParameterStore();
+        ReflectionTestUtils.setField(store, "parametersPath", directory.resolve("model.ser.params").toString());
+        ReflectionTestUtils.setField(store, "coalesceMillis", coalesceMillis);
+        store.init();
+        return store;
+    }
+
+    private static WeightedKNNClassifier trainedClassifier() {
+        WeightedKNNClassifier classifier = new WeightedKNNClassifier(3);
+        classifier.train(List.of(
+                new LabeledPoint(new double[]{22.30, 114.10}, "HK-A"),
+                new LabeledPoint(new double[]{22.31, 114.11}, "HK-A"),
+                new LabeledPoint(new double[]{22.40, 114.20}, "HK-B")));
+        return classifier;
+    }
+
+    @Test
+    void coalescesBurstsIntoOneVersionedWrite() throws Exception {
+        ModelParameterStore store = store(60_000);
+        assertNull(store.load());
+
+        WeightedKNNClassifier classifier = trainedClassifier();
+        for (int i = 1; i <= 20; i++) {
+            classifier.setDistanceWeightFactor(i);
+            store.submit(classifier.getParameters());
+        }
+        store.shutdown();
+        assertEquals(20L, store.getStatus().get("submissions"));
+        assertEquals(1L, store.getStatus().get("writes"));
+        ModelParameters written = store.load();
+        assertEquals(1L, written.getVersion());
+        assertEquals(20.0, written.getDistanceWeightFactor());
+
+        // 重啟後版本號繼續遞增
+        ModelParameterStore restarted = store(0);
+        classifier.setMaxClassWeight(30.0);
+        restarted.submit(classifier.getParameters());
+        restarted.shutdown();
+        assertEquals(2L, restarted.load().getVersion());
+    }
+
+    @Test
+    void latestParametersAreLayeredOverTheModel() throws Exception {
+        WeightedKNNClassifier adjusted = trainedClassifier();
+        adjusted.setUseClassWeights(false);
+        adjusted.setDistanceWeightFactor(4.0);
+        adjusted.setNeighbourEngine(WeightedKNNClassifier.NeighbourEngine.GRID);
+        ModelParameterStore store = store(0);
+        store.submit(adjusted.getParameters());
+        store.shutdown();
+
+        WeightedKNNClassifier loaded = trainedClassifier();
+        loaded.applyParameters(store.load());
+        assertEquals(false, loaded.isUseClassWeights());
+        assertEquals(4.0, loaded.getDistanceWeightFactor());
+        assertEquals(WeightedKNNClassifier.NeighbourEngine.GRID, loaded.getNeighbourEngine());
+        assertEquals(adjusted.predict(22.35, 114.15), loaded.predict(22.35, 114.15));
+    }
+}
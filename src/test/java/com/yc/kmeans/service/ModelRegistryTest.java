@@ -0,0 +1,92 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.LabeledPoint;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ModelRegistryTest {
+
+    @TempDir
+    Path directory;
+
+    private void saveModel(String name, String version, String label) throws Exception {
+        File modelDirectory = directory.resolve(name).toFile();
+        modelDirectory.mkdirs();
+        WeightedKNNClassifier classifier = new WeightedKNNClassifier(1);
+        classifier.train(List.of(new LabeledPoint(new double[]{22.3, 114.1}, label)));
+        classifier.saveModel(new File(modelDirectory, version + ".ser").getPath());
+    }
+
+    private ModelRegistry registry(long budgetMb) {
+        ModelRegistry registry = new ModelRegistry(new ModelParameterStore());
+        ReflectionTestUtils.setField(registry, "directory", directory.toString());
+        ReflectionTestUtils.setField(registry, "memoryBudgetMb", budgetMb);
+        ReflectionTestUtils.setField(registry, "parallelScanThreshold", 123);
+        ReflectionTestUtils.setField(registry, "dualTreeMinBatch", 45);
+        return registry;
+    }
+
+    @Test
+    void concurrentFirstRequestsLoadModelOnce() throws Exception {
+        saveModel("hk", "1", "HK-A");
+        saveModel("hk", "2", "HK-B");
+        ModelRegistry registry = registry(512);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<WeightedKNNClassifier>> futures = IntStream.range(0, 32)
+                .mapToObj(_ -> executor.submit(() -> registry.getModel("hk")))
+                .toList();
+        WeightedKNNClassifier first = futures.get(0).get();
+        for (Future<WeightedKNNClassifier> future : futures) {
+            assertSame(first, future.get());
+        }
+        executor.shutdown();
+
+        assertEquals("HK-B", first.predict(22.3, 114.1));
+        assertEquals(123, first.getParallelScanThreshold());
+        assertEquals(45, first.getDualTreeMinBatch());
+        assertEquals(1L, registry.getStatus().get("loads"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedModelWhenOverBudget() throws Exception {
+        saveModel("hk", "1", "HK-A");
+        saveModel("mo", "1", "MO-A");
+        ModelRegistry registry = registry(0);
+
+        registry.getModel("hk:1");
+        registry.getModel("mo:1");
+        Map<String, Object> status = registry.getStatus();
+        assertEquals(1L, status.get("evictions"));
+        assertEquals(1, ((List<?>) status.get("residentModels")).size());
+    }
+
+    @Test
+    void latestVersionFollowsNewlyRegisteredVersions() throws Exception {
+        saveModel("hk", "1", "HK-A");
+        ModelRegistry registry = registry(512);
+        assertEquals("HK-A", registry.getModel("hk").predict(22.3, 114.1));
+
+        saveModel("hk", "2", "HK-B");
+        // 部分文件系統的修改時間精度只有秒級，顯式推進目錄的修改時間
+        File modelDirectory = directory.resolve("hk").toFile();
+        modelDirectory.setLastModified(modelDirectory.lastModified() + 2000);
+        assertEquals("HK-B", registry.getModel("hk").predict(22.3, 114.1));
+        assertEquals("HK-B", registry.getModel("hk").predict(22.3, 114.1));
+        assertEquals(2L, registry.getStatus().get("loads"));
+    }
+}
@@ -0,0 +1,149 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.LabeledPoint;
+import com.yc.kmeans.kmeans.WeightedKNNClassifier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShadowEvaluatorTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * 以給定緯度為界劃分南北兩個區域的模型
+     */
+    private static WeightedKNNClassifier zoneModel(double boundary) {
+        Random random = new Random(17);
+        List<LabeledPoint> points = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            double latitude = 22.2 + random.nextDouble() * 0.2;
+            double longitude = 114.0 + random.nextDouble() * 0.2;
+            points.add(new LabeledPoint(new double[]{latitude, longitude}, latitude < boundary ? "HK" : "KLN"));
+        }
+        WeightedKNNClassifier classifier = new WeightedKNNClassifier(5);
+        classifier.train(points);
+        return classifier;
+    }
+
+    private ShadowEvaluator evaluator() throws Exception {
+        File modelDirectory = directory.resolve("hk").toFile();
+        modelDirectory.mkdirs();
+        zoneModel(22.35).saveModel(new File(modelDirectory, "2.ser").getPath());
+
+        ModelRegistry registry = new ModelRegistry(new ModelParameterStore());
+        ReflectionTestUtils.setField(registry, "directory", directory.toString());
+        ReflectionTestUtils.setField(registry, "memoryBudgetMb", 512L);
+        Bulkheads bulkheads = new Bulkheads();
+        ReflectionTestUtils.setField(bulkheads, "shadowQueueCapacity", 10_000);
+        bulkheads.init();
+        return new ShadowEvaluator(new ClassifierService(null, null, null), registry, bulkheads);
+    }
+
+    private static Map<String, Object> awaitCompared(ShadowEvaluator evaluator, long expected) throws InterruptedException {
+        for (int attempt = 0; attempt < 500; attempt++) {
+            Map<String, Object> status = evaluator.getStatus();
+            if ((Long) status.get("compared") + (Long) status.get("errors") >= expected) {
+                return status;
+            }
+            Thread.sleep(10);
+        }
+        return evaluator.getStatus();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void countsDisagreementsAgainstTheServedLabel() throws Exception {
+        ShadowEvaluator evaluator = evaluator();
+        evaluator.start("hk:2", 1.0);
+        WeightedKNNClassifier primary = zoneModel(22.30);
+        WeightedKNNClassifier candidate = zoneModel(22.35);
+
+        Random random = new Random(19);
+        long expectedDisagreements = 0;
+        Map<String, Long> expectedMatrix = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            double latitude = 22.2 + random.nextDouble() * 0.2;
+            double longitude = 114.0 + random.nextDouble() * 0.2;
+            String served = primary.predict(latitude, longitude);
+            String expected = candidate.predict(latitude, longitude);
+            if (!expected.equals(served)) {
+                expectedDisagreements++;
+                expectedMatrix.merge(served + "->" + expected, 1L, Long::sum);
+            }
+            evaluator.offer(latitude, longitude, served, 2_000_000);
+        }
+
+        Map<String, Object> status = awaitCompared(evaluator, 400);
+        assertEquals(400L, status.get("sampled"));
+        assertEquals(400L, status.get("compared"));
+        assertEquals(0L, status.get("errors"));
+        assertTrue(expectedDisagreements > 0);
+        assertEquals(expectedDisagreements, status.get("disagreements"));
+        assertEquals((double) expectedDisagreements / 400, (Double) status.get("disagreementRate"), 1e-12);
+        Map<String, Map<String, Long>> matrix = (Map<String, Map<String, Long>>) status.get("disagreementMatrix");
+        Map<String, Long> flattened = new HashMap<>();
+        matrix.forEach((served, counts) -> counts.forEach((shadow, count) -> flattened.put(served + "->" + shadow, count)));
+        assertEquals(expectedMatrix, flattened);
+
+        // 主模型記錄請求路徑上傳入的服務耗時，候選模型記錄自己的計算耗時，兩者分別報告
+        Map<String, Long> primaryLatency = (Map<String, Long>) status.get("primaryServedLatencyMicros");
+        assertEquals(2000.0, primaryLatency.get("p50"), 20.0);
+        assertEquals(2000.0, primaryLatency.get("max"), 20.0);
+        Map<String, Long> candidateLatency = (Map<String, Long>) status.get("candidateComputeLatencyMicros");
+        assertTrue(candidateLatency.get("max") > 0);
+        assertFalse(status.containsKey("p99LatencyRatio"));
+    }
+
+    @Test
+    void samplesAtTheConfiguredRate() throws Exception {
+        ShadowEvaluator evaluator = evaluator();
+        evaluator.start("hk:2", 0.0);
+        for (int i = 0; i < 1000; i++) {
+            evaluator.offer(22.3, 114.1, "HK", 1000);
+        }
+        assertEquals(0L, evaluator.getStatus().get("sampled"));
+
+        evaluator.start("hk:2", 0.25);
+        for (int i = 0; i < 4000; i++) {
+            evaluator.offer(22.3, 114.1, "HK", 1000);
+        }
+        long sampled = (Long) evaluator.getStatus().get("sampled");
+        assertTrue(sampled > 800 && sampled < 1200, "採樣數應接近1000: " + sampled);
+        assertEquals(sampled, awaitCompared(evaluator, sampled).get("compared"));
+    }
+
+    @Test
+    void candidateLoadFailuresAreReported() throws Exception {
+        ShadowEvaluator evaluator = evaluator();
+        ReflectionTestUtils.setField(evaluator, "configuredModel", "missing");
+        ReflectionTestUtils.setField(evaluator, "configuredSampleRate", 1.0);
+        evaluator.init();
+        for (int i = 0; i < 3; i++) {
+            evaluator.offer(22.3, 114.1, "HK", 1000);
+        }
+
+        Map<String, Object> status = evaluator.getStatus();
+        for (int attempt = 0; attempt < 500 && (Long) status.get("candidateLoadFailures") < 3; attempt++) {
+            Thread.sleep(10);
+            status = evaluator.getStatus();
+        }
+        assertEquals(3L, status.get("candidateLoadFailures"));
+        assertFalse((Boolean) status.get("candidateLoaded"));
+        assertTrue(((String) status.get("candidateLoadError")).contains("missing"));
+        assertEquals(0L, status.get("compared"));
+    }
+}
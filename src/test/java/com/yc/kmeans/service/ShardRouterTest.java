@@ -0,0 +1,186 @@
+package com.yc.kmeans.service;
+
+import com.yc.kmeans.kmeans.Neighbour;
+import com.yc.kmeans.kmeans.WeightedKNNUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardRouterTest {
+    private static final int K = 10;
+
+    /**
+     * 內存中的分片：按地址保存訓練點，可指定某些分片請求失敗，並記錄每次鄰居查詢訪問的分片
+     */
+    private static final class StubShardClient implements ShardRouter.ShardClient {
+        private final Map<String, List<double[]>> points = new LinkedHashMap<>();
+        private final Map<String, List<String>> labels = new HashMap<>();
+        private final Set<String> failing = ConcurrentHashMap.newKeySet();
+        private final List<String> requests = new ArrayList<>();
+
+        void addShard(String url, double minLatitude, double minLongitude, String prefix, Random random) {
+            List<double[]> shardPoints = new ArrayList<>();
+            List<String> shardLabels = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                shardPoints.add(new double[]{minLatitude + random.nextDouble() * 0.02, minLongitude + random.nextDouble() * 0.02});
+                shardLabels.add(prefix + "-" + random.nextInt(3));
+            }
+            points.put(url, shardPoints);
+            labels.put(url, shardLabels);
+        }
+
+        @Override
+        public Map<String, Object> info(String url) {
+            double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+            double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (double[] point : points.get(url)) {
+                for (int d = 0; d < 2; d++) {
+                    min[d] = Math.min(min[d], point[d]);
+                    max[d] = Math.max(max[d], point[d]);
+                }
+            }
+            Map<String, Number> labelCounts = new HashMap<>();
+            labels.get(url).forEach(label -> labelCounts.merge(label, 1, (a, b) -> a.intValue() + b.intValue()));
+            Map<String, Object> info = new HashMap<>();
+            info.put("min", List.of(min[0], min[1]));
+            info.put("max", List.of(max[0], max[1]));
+            info.put("trainingDataSize", points.get(url).size());
+            info.put("labelCounts", labelCounts);
+            return info;
+        }
+
+        @Override
+        public List<Neighbour> neighbours(String url, double latitude, double longitude, int k) {
+            synchronized (requests) {
+                requests.add(url);
+            }
+            if (failing.contains(url)) {
+                throw new IllegalStateException("分片不可用: " + url);
+            }
+            return nearest(List.of(url), latitude, longitude, k);
+        }
+
+        List<Neighbour> nearest(List<String> urls, double latitude, double longitude, int k) {
+            List<Neighbour> all = new ArrayList<>();
+            for (String url : urls) {
+                List<double[]> shardPoints = points.get(url);
+                for (int i = 0; i < shardPoints.size(); i++) {
+                    double[] point = shardPoints.get(i);
+                    all.add(new Neighbour(Math.hypot(point[0] - latitude, point[1] - longitude), labels.get(url).get(i)));
+                }
+            }
+            all.sort(Comparator.comparingDouble(Neighbour::getDistance));
+            return new ArrayList<>(all.subList(0, Math.min(k, all.size())));
+        }
+    }
+
+    private static StubShardClient threeShards() {
+        Random random = new Random(11);
+        StubShardClient client = new StubShardClient();
+        client.addShard("http://hk", 22.30, 114.10, "HK", random);
+        client.addShard("http://kln", 22.32, 114.10, "KLN", random);
+        client.addShard("http://nt", 22.50, 114.10, "NT", random);
+        return client;
+    }
+
+    private static ShardRouter router(StubShardClient client, int k) {
+        ShardRouter router = new ShardRouter();
+        ReflectionTestUtils.setField(router, "shardUrls", new ArrayList<>(client.points.keySet()));
+        ReflectionTestUtils.setField(router, "k", k);
+        ReflectionTestUtils.setField(router, "useClassWeights", false);
+        ReflectionTestUtils.setField(router, "maxClassWeight", 50.0);
+        ReflectionTestUtils.setField(router, "distanceWeightFactor", 2.0);
+        ReflectionTestUtils.setField(router, "epsilon", 0.00001);
+        ReflectionTestUtils.setField(router, "fanOutThreads", 2);
+        ReflectionTestUtils.setField(router, "fanOutQueueCapacity", 1);
+        ReflectionTestUtils.setField(router, "client", client);
+        router.init();
+        router.refresh();
+        return router;
+    }
+
+    @Test
+    void mergedNeighboursMatchSingleNodeSearch() {
+        StubShardClient client = threeShards();
+        ShardRouter router = router(client, K);
+        List<String> all = new ArrayList<>(client.points.keySet());
+        Random random = new Random(13);
+        for (int q = 0; q < 200; q++) {
+            double latitude = 22.30 + random.nextDouble() * 0.22;
+            double longitude = 114.10 + random.nextDouble() * 0.02;
+            String expected = WeightedKNNUtils.weightedVote(client.nearest(all, latitude, longitude, K), null, 0.00001, 2.0);
+            ShardRouter.Routing routing = router.route(latitude, longitude);
+            assertEquals(expected, routing.label());
+            assertTrue(routing.failed().isEmpty());
+        }
+        router.shutdown();
+    }
+
+    @Test
+    void distantShardsAreNotQueriedOnceKthDistanceIsKnown() {
+        StubShardClient client = threeShards();
+        ShardRouter router = router(client, K);
+
+        // 香港分片中心的第k近距離遠小於到新界分片的距離，只訪問擁有查詢點的分片
+        ShardRouter.Routing inside = router.route(22.31, 114.11);
+        assertEquals(List.of("http://hk"), inside.queried());
+
+        // 靠近香港與九龍分片邊界時兩者都要訪問，新界分片仍被跳過
+        ShardRouter.Routing border = router.route(22.3199, 114.11);
+        assertEquals(2, border.queried().size());
+        assertFalse(border.queried().contains("http://nt"));
+        assertFalse(client.requests.contains("http://nt"));
+        router.shutdown();
+    }
+
+    @Test
+    void shardFailureDegradesInsteadOfFailingTheRequest() {
+        StubShardClient client = threeShards();
+        ShardRouter router = router(client, K);
+        client.failing.add("http://kln");
+
+        ShardRouter.Routing routing = router.route(22.3199, 114.11);
+        assertTrue(routing.degraded());
+        assertEquals(List.of("http://kln"), routing.failed());
+        assertEquals(WeightedKNNUtils.weightedVote(client.nearest(List.of("http://hk"), 22.3199, 114.11, K), null, 0.00001, 2.0),
+                routing.label());
+        assertEquals(1L, router.getDegradedPredictions());
+        Map<String, Object> kln = router.getStatus().stream()
+                .filter(shard -> "http://kln".equals(shard.get("url"))).findFirst().orElseThrow();
+        assertEquals(1L, kln.get("failures"));
+
+        // 擁有查詢點的分片失敗時改為查詢其他所有分片
+        client.failing.clear();
+        client.failing.add("http://hk");
+        ShardRouter.Routing ownerDown = router.route(22.31, 114.11);
+        assertEquals(3, ownerDown.queried().size());
+        assertEquals(List.of("http://hk"), ownerDown.failed());
+
+        client.failing.addAll(client.points.keySet());
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> router.route(22.31, 114.11));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+        router.shutdown();
+    }
+
+    @Test
+    void rejectsNonPositiveK() {
+        StubShardClient client = threeShards();
+        assertThrows(IllegalArgumentException.class, () -> router(client, 0));
+    }
+}
@@ -0,0 +1,82 @@
+package com.yc.kmeans.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BinaryProtocolTest {
+
+    private interface FrameWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * 寫出一個幀，檢查長度字段等於其後的字節數，返回定位在類型字節上的輸入流
+     */
+    private static DataInputStream frame(FrameWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(bytes));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(bytes.size() - Integer.BYTES, in.readInt());
+        return in;
+    }
+
+    @Test
+    void framesRoundTrip() throws IOException {
+        DataInputStream hello = frame(BinaryProtocol::writeHello);
+        assertEquals(BinaryProtocol.HELLO, hello.readByte());
+        assertEquals(BinaryProtocol.MAGIC, hello.readInt());
+
+        List<String> labels = List.of("HK-CWB-01", "KLN-YTM-02", "九龍城");
+        DataInputStream dictionary = frame(out -> BinaryProtocol.writeDictionary(out, 7, labels));
+        assertEquals(BinaryProtocol.DICTIONARY, dictionary.readByte());
+        assertEquals(7, dictionary.readInt());
+        assertEquals(labels, BinaryProtocol.readDictionaryLabels(dictionary));
+
+        double[][] points = {{22.3193039, 114.1693611}, {-90.0, 180.0}};
+        DataInputStream classify = frame(out -> BinaryProtocol.writeClassify(out, 42L, points));
+        assertEquals(BinaryProtocol.CLASSIFY, classify.readByte());
+        assertEquals(42L, classify.readLong());
+        assertEquals(points.length, classify.readInt());
+        for (double[] point : points) {
+            assertEquals(point[0], classify.readDouble());
+            assertEquals(point[1], classify.readDouble());
+        }
+
+        int[] labelIds = {2, 0, 1};
+        DataInputStream result = frame(out -> BinaryProtocol.writeResult(out, 43L, 7, labelIds));
+        assertEquals(BinaryProtocol.RESULT, result.readByte());
+        assertEquals(43L, result.readLong());
+        assertEquals(7, result.readInt());
+        assertEquals(labelIds.length, result.readInt());
+        for (int labelId : labelIds) {
+            assertEquals(labelId, result.readInt());
+        }
+
+        DataInputStream error = frame(out -> BinaryProtocol.writeError(out, -1L, "無效的幀"));
+        assertEquals(BinaryProtocol.ERROR, error.readByte());
+        assertEquals(-1L, error.readLong());
+        assertEquals("無效的幀", error.readUTF());
+
+        DataInputStream emptyError = frame(out -> BinaryProtocol.writeError(out, 5L, null));
+        assertEquals(BinaryProtocol.ERROR, emptyError.readByte());
+        assertEquals(5L, emptyError.readLong());
+        assertEquals("", emptyError.readUTF());
+    }
+
+    @Test
+    void emptyClassifyFrameHasOnlyHeader() throws IOException {
+        DataInputStream classify = frame(out -> BinaryProtocol.writeClassify(out, 1L, new double[0][]));
+        assertEquals(BinaryProtocol.CLASSIFY, classify.readByte());
+        assertEquals(1L, classify.readLong());
+        assertEquals(0, classify.readInt());
+        assertEquals(0, classify.available());
+    }
+}
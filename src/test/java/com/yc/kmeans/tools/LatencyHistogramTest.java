@@ -0,0 +1,20 @@
+package com.yc.kmeans.tools;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyHistogramTest {
+
+    @Test
+    void histogramPercentilesStayWithinOnePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(100_000, histogram.count());
+        assertEquals(50_000, histogram.percentileMicros(0.50), 500);
+        assertEquals(99_000, histogram.percentileMicros(0.99), 990);
+        assertEquals(99_900, histogram.percentileMicros(0.999), 999);
+    }
+}
@@ -0,0 +1,41 @@
+package com.yc.kmeans.tools;
+
+import com.yc.kmeans.kmeans.LabeledPoint;
+import com.yc.kmeans.kmeans.WeightedKNNUtils;
+import com.yc.kmeans.utils.ReadExcel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyntheticAddressGeneratorTest {
+
+    @Test
+    void generatesReproducibleZipfDistributedZones(@TempDir Path directory) throws Exception {
+        Path first = directory.resolve("first.csv");
+        Path second = directory.resolve("second.csv");
+        new SyntheticAddressGenerator(20000, 300, 7, 1.1).write(first);
+        new SyntheticAddressGenerator(20000, 300, 7, 1.1).write(second);
+        assertEquals(-1, Files.mismatch(first, second));
+
+        List<LabeledPoint> points = ReadExcel.readCsvData(first.toString());
+        Map<String, Integer> zoneSizes = new HashMap<>();
+        for (LabeledPoint point : points) {
+            zoneSizes.merge(point.getLabel(), point.getMultiplicity(), Integer::sum);
+        }
+        assertEquals(20000, zoneSizes.values().stream().mapToInt(Integer::intValue).sum());
+        assertEquals(300, zoneSizes.size());
+        // 讀取時每行一個點；同一建築物的單位共享座標，且存在單樣本區域與遠大於平均的大區域
+        assertEquals(20000, points.size());
+        assertTrue(WeightedKNNUtils.collapseDuplicates(points).size() < 20000);
+        assertTrue(zoneSizes.containsValue(1));
+        assertTrue(zoneSizes.values().stream().mapToInt(Integer::intValue).max().orElseThrow() > 20 * 20000 / 300);
+    }
+}